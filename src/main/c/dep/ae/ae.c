@@ -83,8 +83,10 @@ aeEventLoop *aeCreateEventLoop(int setsize) {
     if (aeApiCreate(eventLoop) == -1) goto err;
     /* Events with mask == AE_NONE are not set. So let's initialize the
      * vector with it. */
-    for (i = 0; i < setsize; i++)
+    for (i = 0; i < setsize; i++) {
         eventLoop->events[i].mask = AE_NONE;
+        eventLoop->events[i].clientData = NULL; // checked when deleting the event loop
+    }
     return eventLoop;
 
 err:
@@ -121,8 +123,10 @@ int aeResizeSetSize(aeEventLoop *eventLoop, int setsize) {
 
     /* Make sure that if we created new slots, they are initialized with
      * an AE_NONE mask. */
-    for (i = eventLoop->maxfd+1; i < setsize; i++)
+    for (i = eventLoop->maxfd+1; i < setsize; i++) {
         eventLoop->events[i].mask = AE_NONE;
+        eventLoop->events[i].clientData = NULL;
+    }
     return AE_OK;
 }
 
@@ -167,7 +171,11 @@ void aeDeleteFileEvent(aeEventLoop *eventLoop, int fd, int mask)
 {
     if (fd >= eventLoop->setsize) return;
     aeFileEvent *fe = &eventLoop->events[fd];
-    if (fe->mask == AE_NONE) return;
+    if (fe->mask == AE_NONE) {
+        // the fd might be registered with no events, the clientData should be cleared as well
+        fe->clientData = NULL;
+        return;
+    }
 
     /* We want to always remove AE_BARRIER if set when AE_WRITABLE
      * is removed. */
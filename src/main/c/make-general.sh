@@ -30,5 +30,5 @@ gcc -std=gnu99 \
     -I "$JAVA_HOME/include" \
     -I "$JAVA_HOME/include/$include_platform_dir" \
     -shared -Werror -lc -fPIC \
-    vfd_posix_GeneralPosix.c dep/ae/ae.c dep/ae/zmalloc.c \
+    vfd_posix_GeneralPosix.c vfd_epoll_GeneralEpoll.c dep/ae/ae.c dep/ae/zmalloc.c \
     -o "$target"
@@ -0,0 +1,121 @@
+#include "vfd_epoll_GeneralEpoll.h"
+
+#include <errno.h>
+#include <string.h>
+
+#ifdef __linux__
+    #include <sys/epoll.h>
+    #include <unistd.h>
+#endif
+
+#ifndef EPOLLEXCLUSIVE
+    #define EPOLLEXCLUSIVE (1u << 28)
+#endif
+
+#define EPOLL_MAX_EVENTS 1024
+
+static void throwEpollIOException(JNIEnv* env, char* message) {
+    jclass exClass = (*env)->FindClass(env, "java/io/IOException");
+    (*env)->ThrowNew(env, exClass, message);
+}
+
+JNIEXPORT jboolean JNICALL Java_vfd_epoll_GeneralEpoll_epollSupported
+  (JNIEnv* env, jobject self) {
+    #ifdef __linux__
+        return JNI_TRUE;
+    #else
+        return JNI_FALSE;
+    #endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_epoll_GeneralEpoll_epollCreate
+  (JNIEnv* env, jobject self) {
+    #ifdef __linux__
+        int epfd = epoll_create1(EPOLL_CLOEXEC);
+        if (epfd < 0) {
+            throwEpollIOException(env, strerror(errno));
+            return -1;
+        }
+        return epfd;
+    #else
+        throwEpollIOException(env, "epoll is not supported");
+        return -1;
+    #endif
+}
+
+#ifdef __linux__
+static void applyChange(int epfd, int op, int fd, int events) {
+    struct epoll_event ev;
+    memset(&ev, 0, sizeof(ev));
+    ev.events = (unsigned int) events;
+    ev.data.fd = fd;
+    int res = epoll_ctl(epfd, op, fd, op == EPOLL_CTL_DEL ? NULL : &ev);
+    if (res == 0) {
+        return;
+    }
+    if (op == EPOLL_CTL_ADD && errno == EINVAL && (ev.events & EPOLLEXCLUSIVE)) {
+        // EPOLLEXCLUSIVE is not supported by the kernel (< 4.5)
+        ev.events &= ~EPOLLEXCLUSIVE;
+        res = epoll_ctl(epfd, op, fd, &ev);
+        if (res == 0) {
+            return;
+        }
+    }
+    if (op == EPOLL_CTL_ADD && errno == EEXIST) {
+        ev.events &= ~EPOLLEXCLUSIVE;
+        epoll_ctl(epfd, EPOLL_CTL_MOD, fd, &ev);
+    }
+    // other errors are ignored:
+    // the fd might already be closed (EBADF) or auto removed from epoll (ENOENT)
+}
+#endif
+
+// the changes array contains (op, fd, events) triples
+// the fdsAndEvents array will be filled with (fd, events) pairs
+JNIEXPORT jint JNICALL Java_vfd_epoll_GeneralEpoll_epollCtlAndWait
+  (JNIEnv* env, jobject self, jint epfd, jintArray changes, jint changeCount, jintArray fdsAndEvents, jint timeout) {
+    #ifdef __linux__
+        if (changeCount > 0) {
+            jint* arr = (*env)->GetPrimitiveArrayCritical(env, changes, NULL);
+            if (arr == NULL) {
+                throwEpollIOException(env, "retrieving int array failed");
+                return 0;
+            }
+            for (int i = 0; i < changeCount; ++i) {
+                applyChange(epfd, arr[i * 3], arr[i * 3 + 1], arr[i * 3 + 2]);
+            }
+            (*env)->ReleasePrimitiveArrayCritical(env, changes, arr, JNI_ABORT);
+        }
+
+        int maxevents = (*env)->GetArrayLength(env, fdsAndEvents) / 2;
+        if (maxevents > EPOLL_MAX_EVENTS) {
+            maxevents = EPOLL_MAX_EVENTS;
+        }
+        struct epoll_event events[EPOLL_MAX_EVENTS];
+        int n = epoll_wait(epfd, events, maxevents, timeout);
+        if (n < 0) {
+            if (errno == EINTR) {
+                return 0;
+            }
+            throwEpollIOException(env, strerror(errno));
+            return 0;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        jint* out = (*env)->GetPrimitiveArrayCritical(env, fdsAndEvents, NULL);
+        if (out == NULL) {
+            throwEpollIOException(env, "retrieving int array failed");
+            return 0;
+        }
+        for (int i = 0; i < n; ++i) {
+            out[i * 2] = events[i].data.fd;
+            out[i * 2 + 1] = (jint) events[i].events;
+        }
+        (*env)->ReleasePrimitiveArrayCritical(env, fdsAndEvents, out, 0);
+        return n;
+    #else
+        throwEpollIOException(env, "epoll is not supported");
+        return 0;
+    #endif
+}
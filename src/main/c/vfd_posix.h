@@ -99,6 +99,37 @@
 
 
 
+    #include <sys/uio.h>
+
+    #ifdef FSTACK
+        #define v_readv       ff_readv
+        #define v_writev      ff_writev
+    #else
+        #define v_readv       readv
+        #define v_writev      writev
+    #endif
+    typedef struct iovec v_iovec;
+    // the java side never passes more buffers than this
+    #define V_IOV_MAX 16
+
+
+
+    #if defined(__linux__) && !defined(FSTACK)
+        #include <fcntl.h>
+        #define V_SPLICE_SUPPORTED 1
+    #endif
+
+
+
+    // recvmmsg/sendmmsg are linux only, others call recvfrom/sendto in a loop
+    #if defined(__linux__) && !defined(FSTACK)
+        #define V_MMSG_SUPPORTED 1
+    #endif
+    // the java side never passes more packets than this
+    #define V_MMSG_MAX 64
+
+
+
     #include <sys/time.h>
 
     #ifdef FSTACK
@@ -1,3 +1,6 @@
+#ifdef __linux__
+    #define _GNU_SOURCE // for splice(2), F_SETPIPE_SZ and recvmmsg(2)/sendmmsg(2)
+#endif
 #include "vfd_posix_GeneralPosix.h"
 #include "vfd_posix.h"
 #include "exception.h"
@@ -82,30 +85,32 @@ JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_aeCreateEventLoop
     return (jlong)ae;
 }
 
-// return FDInfo[]
-JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeApiPoll
-  (JNIEnv* env, jobject self, jlong aex, jlong wait) {
+// fill (fd, mask) pairs into the int array
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_aeApiPoll
+  (JNIEnv* env, jobject self, jlong aex, jlong wait, jintArray fdsAndEvents) {
     aeEventLoop* ae = (aeEventLoop*) aex;
     v_timeval tv;
     v_timeval* tvp = &tv;
     tvp->tv_sec = wait/1000;
     tvp->tv_usec = (wait % 1000)*1000;
     int numevents = aePoll(ae, tvp);
+    if (numevents <= 0) {
+        return 0;
+    }
 
-    jclass fdInfoCls = (*env)->FindClass(env, "vfd/posix/FDInfo");
-    jmethodID constructor = (*env)->GetMethodID(env, fdInfoCls, "<init>", "(IILjava/lang/Object;)V");
-
-    jobjectArray ret = (*env)->NewObjectArray(env, numevents, fdInfoCls, NULL);
-    for (int j = 0; j < numevents; j++) {
-      aeFileEvent* fe = &(ae->events[ae->fired[j].fd]);
-      int mask = ae->fired[j].mask;
-      int fd = ae->fired[j].fd;
-      void* clientData = fe->clientData;
-
-      jobject obj = (*env)->NewObject(env, fdInfoCls, constructor, fd, mask, (jobject) clientData);
-      (*env)->SetObjectArrayElement(env, ret, j, obj);
+    int cap = (*env)->GetArrayLength(env, fdsAndEvents) / 2;
+    int cnt = numevents < cap ? numevents : cap;
+    jint* arr = (*env)->GetPrimitiveArrayCritical(env, fdsAndEvents, NULL);
+    if (arr == NULL) {
+        throwIOException(env, "retrieving int array failed");
+        return 0;
     }
-    return ret;
+    for (int j = 0; j < cnt; j++) {
+        arr[j * 2] = ae->fired[j].fd;
+        arr[j * 2 + 1] = ae->fired[j].mask;
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, fdsAndEvents, arr, 0);
+    return numevents;
 }
 
 // return FDInfo[]
@@ -113,7 +118,7 @@ JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeAllFDs
   (JNIEnv* env, jobject self, jlong aex) {
     aeEventLoop* ae = (aeEventLoop*) aex;
     int cnt = 0;
-    for (int i = 0; i < ae->maxfd; ++i) {
+    for (int i = 0; i <= ae->maxfd; ++i) {
       if ((&(ae->events[i]))->clientData != NULL) {
         ++cnt;
       }
@@ -123,7 +128,7 @@ JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeAllFDs
 
     jobjectArray ret = (*env)->NewObjectArray(env, cnt, fdInfoCls, NULL);
     cnt = 0;
-    for (int fd = 0; fd < ae->maxfd; ++fd) {
+    for (int fd = 0; fd <= ae->maxfd; ++fd) {
       aeFileEvent* fe = &(ae->events[fd]);
       if (fe->clientData != NULL) {
         jobject obj = (*env)->NewObject(env, fdInfoCls, constructor, fd, fe->mask, (jobject) fe->clientData);
@@ -551,6 +556,103 @@ JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_write
     return handleWriteIOOperationResult(env, res);
 }
 
+// fill iov from the java buffers, return the total length
+long buildIOVec(JNIEnv* env, v_iovec* iov, jobjectArray directBuffers, jint bufOff, jintArray offs, jintArray lens, jint count) {
+    jint offsArr[V_IOV_MAX];
+    jint lensArr[V_IOV_MAX];
+    (*env)->GetIntArrayRegion(env, offs, 0, count, offsArr);
+    (*env)->GetIntArrayRegion(env, lens, 0, count, lensArr);
+    long total = 0;
+    for (int i = 0; i < count; ++i) {
+        jobject buf = (*env)->GetObjectArrayElement(env, directBuffers, bufOff + i);
+        byte* addr = (*env)->GetDirectBufferAddress(env, buf);
+        (*env)->DeleteLocalRef(env, buf);
+        iov[i].iov_base = addr + offsArr[i];
+        iov[i].iov_len = lensArr[i];
+        total += lensArr[i];
+    }
+    return total;
+}
+
+JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_readv
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jint bufOff, jintArray offs, jintArray lens, jint count) {
+    if (count > V_IOV_MAX) {
+        count = V_IOV_MAX;
+    }
+    v_iovec iov[V_IOV_MAX];
+    if (buildIOVec(env, iov, directBuffers, bufOff, offs, lens, count) == 0) {
+        return 0;
+    }
+    long res = v_readv(fd, iov, count);
+    if (res < 0) {
+        if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+            return 0;
+        }
+        throwIOExceptionBasedOnErrno(env);
+        return 0;
+    } else if (res == 0) { // EOF
+        return -1;
+    }
+    return res;
+}
+
+JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_writev
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jint bufOff, jintArray offs, jintArray lens, jint count) {
+    if (count > V_IOV_MAX) {
+        count = V_IOV_MAX;
+    }
+    v_iovec iov[V_IOV_MAX];
+    if (buildIOVec(env, iov, directBuffers, bufOff, offs, lens, count) == 0) {
+        return 0;
+    }
+    long res = v_writev(fd, iov, count);
+    if (res < 0) {
+        if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+            return 0;
+        }
+        throwIOExceptionBasedOnErrno(env);
+        return 0;
+    }
+    return res;
+}
+
+JNIEXPORT jintArray JNICALL Java_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv* env, jobject self, jint size) {
+    #ifdef V_SPLICE_SUPPORTED
+        int pipes[2];
+        int res = pipe2(pipes, O_NONBLOCK | O_CLOEXEC);
+        if (res < 0) {
+            throwIOExceptionBasedOnErrno(env);
+            return NULL;
+        }
+        // the default size is usually 64k, ignore the error
+        // the java side never puts more bytes than the requested size
+        // and will not block even if it's smaller, so only performance is affected
+        fcntl(pipes[1], F_SETPIPE_SZ, size);
+        jintArray ret = (*env)->NewIntArray(env, 2);
+        jint elems[] = { pipes[0], pipes[1] };
+        (*env)->SetIntArrayRegion(env, ret, 0, 2, elems);
+        return ret;
+    #else
+        throwIOException(env, "splice is not supported");
+        return NULL;
+    #endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_splice
+  (JNIEnv* env, jobject self, jint fdIn, jint fdOut, jint len) {
+    #ifdef V_SPLICE_SUPPORTED
+        if (len == 0) {
+            return 0;
+        }
+        int res = splice(fdIn, NULL, fdOut, NULL, len, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+        return handleReadIOOperationResult(env, res);
+    #else
+        throwIOException(env, "splice is not supported");
+        return 0;
+    #endif
+}
+
 JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendtoIPv4
   (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint len, jint addrHostOrder, jint port) {
     if (len == 0) {
@@ -624,6 +726,175 @@ JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv6
     return ret;
 }
 
+// packet i is stored at (buf + off + i * slotSize)
+// the addresses are host order ints for ipv4 (addrs6 == NULL), or 16 bytes for each packet for ipv6 (addrs4 == NULL)
+jint recvmmsgInternal(JNIEnv* env, jint fd, jobject directBuffer, jint off, jint slotSize, jint count,
+                      jintArray lens, jintArray addrs4, jbyteArray addrs6, jintArray ports) {
+    if (count > V_MMSG_MAX) {
+        count = V_MMSG_MAX;
+    }
+    if (count <= 0) {
+        return 0;
+    }
+    byte* buf = (byte*) (*env)->GetDirectBufferAddress(env, directBuffer) + off;
+    v_sockaddr_in6 names[V_MMSG_MAX]; // large enough for both ipv4 and ipv6
+    unsigned int nameLen = addrs6 == NULL ? sizeof(v_sockaddr_in) : sizeof(v_sockaddr_in6);
+    jint lensArr[V_MMSG_MAX];
+    int res;
+    #ifdef V_MMSG_SUPPORTED
+        struct mmsghdr msgs[V_MMSG_MAX];
+        v_iovec iov[V_MMSG_MAX];
+        memset(msgs, 0, sizeof(struct mmsghdr) * count);
+        for (int i = 0; i < count; ++i) {
+            iov[i].iov_base = buf + i * slotSize;
+            iov[i].iov_len = slotSize;
+            msgs[i].msg_hdr.msg_iov = &iov[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = nameLen;
+        }
+        res = recvmmsg(fd, msgs, count, 0, NULL);
+        if (res < 0) {
+            if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+                return 0;
+            }
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+        for (int i = 0; i < res; ++i) {
+            lensArr[i] = msgs[i].msg_len;
+        }
+    #else
+        for (res = 0; res < count; ++res) {
+            unsigned int foo = nameLen;
+            int n = v_recvfrom(fd, buf + res * slotSize, slotSize, 0, (v_sockaddr*) &names[res], &foo);
+            if (n < 0) {
+                // keep the received packets, the error will be raised again in the next call
+                if (res == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                }
+                break;
+            }
+            lensArr[res] = n;
+        }
+    #endif
+    if (res == 0) {
+        return 0;
+    }
+
+    jint portsArr[V_MMSG_MAX];
+    if (addrs6 == NULL) {
+        jint addrsArr[V_MMSG_MAX];
+        for (int i = 0; i < res; ++i) {
+            v_sockaddr_in* name = (v_sockaddr_in*) &names[i];
+            addrsArr[i] = v_ntohl(name->sin_addr.s_addr);
+            portsArr[i] = v_ntohs(name->sin_port);
+        }
+        (*env)->SetIntArrayRegion(env, addrs4, 0, res, addrsArr);
+    } else {
+        jbyte addrsArr[V_MMSG_MAX * 16];
+        for (int i = 0; i < res; ++i) {
+            memcpy(addrsArr + i * 16, &(names[i].sin6_addr.s6_addr), 16);
+            portsArr[i] = v_ntohs(names[i].sin6_port);
+        }
+        (*env)->SetByteArrayRegion(env, addrs6, 0, res * 16, addrsArr);
+    }
+    (*env)->SetIntArrayRegion(env, lens, 0, res, lensArr);
+    (*env)->SetIntArrayRegion(env, ports, 0, res, portsArr);
+    return res;
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv4
+  (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint slotSize, jint count, jintArray lens, jintArray addrs, jintArray ports) {
+    return recvmmsgInternal(env, fd, directBuffer, off, slotSize, count, lens, addrs, NULL, ports);
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv6
+  (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint slotSize, jint count, jintArray lens, jbyteArray addrs, jintArray ports) {
+    return recvmmsgInternal(env, fd, directBuffer, off, slotSize, count, lens, NULL, addrs, ports);
+}
+
+// the packets and addresses are stored in the same way as recvmmsgInternal
+jint sendmmsgInternal(JNIEnv* env, jint fd, jobject directBuffer, jint off, jint slotSize, jint count,
+                      jintArray lens, jintArray addrs4, jbyteArray addrs6, jintArray ports) {
+    if (count > V_MMSG_MAX) {
+        count = V_MMSG_MAX;
+    }
+    if (count <= 0) {
+        return 0;
+    }
+    byte* buf = (byte*) (*env)->GetDirectBufferAddress(env, directBuffer) + off;
+    jint lensArr[V_MMSG_MAX];
+    jint portsArr[V_MMSG_MAX];
+    (*env)->GetIntArrayRegion(env, lens, 0, count, lensArr);
+    (*env)->GetIntArrayRegion(env, ports, 0, count, portsArr);
+
+    v_sockaddr_in6 names[V_MMSG_MAX]; // large enough for both ipv4 and ipv6
+    unsigned int nameLen;
+    if (addrs6 == NULL) {
+        nameLen = sizeof(v_sockaddr_in);
+        jint addrsArr[V_MMSG_MAX];
+        (*env)->GetIntArrayRegion(env, addrs4, 0, count, addrsArr);
+        for (int i = 0; i < count; ++i) {
+            j2cSockAddrIPv4((v_sockaddr_in*) &names[i], addrsArr[i], portsArr[i]);
+        }
+    } else {
+        nameLen = sizeof(v_sockaddr_in6);
+        jbyte addrsArr[V_MMSG_MAX * 16];
+        (*env)->GetByteArrayRegion(env, addrs6, 0, count * 16, addrsArr);
+        for (int i = 0; i < count; ++i) {
+            v_bzero(&names[i], sizeof(v_sockaddr_in6));
+            names[i].sin6_family = AF_INET6;
+            names[i].sin6_port = v_htons(portsArr[i]);
+            memcpy(&(names[i].sin6_addr.s6_addr), addrsArr + i * 16, 16);
+        }
+    }
+
+    int res;
+    #ifdef V_MMSG_SUPPORTED
+        struct mmsghdr msgs[V_MMSG_MAX];
+        v_iovec iov[V_MMSG_MAX];
+        memset(msgs, 0, sizeof(struct mmsghdr) * count);
+        for (int i = 0; i < count; ++i) {
+            iov[i].iov_base = buf + i * slotSize;
+            iov[i].iov_len = lensArr[i];
+            msgs[i].msg_hdr.msg_iov = &iov[i];
+            msgs[i].msg_hdr.msg_iovlen = 1;
+            msgs[i].msg_hdr.msg_name = &names[i];
+            msgs[i].msg_hdr.msg_namelen = nameLen;
+        }
+        res = sendmmsg(fd, msgs, count, 0);
+        if (res < 0) {
+            if (errno == V_EAGAIN || errno == V_EWOULDBLOCK) {
+                return 0;
+            }
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+    #else
+        for (res = 0; res < count; ++res) {
+            int n = v_sendto(fd, buf + res * slotSize, lensArr[res], 0, (v_sockaddr*) &names[res], nameLen);
+            if (n < 0) {
+                if (res == 0 && errno != V_EAGAIN && errno != V_EWOULDBLOCK) {
+                    throwIOExceptionBasedOnErrno(env);
+                }
+                break;
+            }
+        }
+    #endif
+    return res;
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv4
+  (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint slotSize, jint count, jintArray lens, jintArray addrs, jintArray ports) {
+    return sendmmsgInternal(env, fd, directBuffer, off, slotSize, count, lens, addrs, NULL, ports);
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv6
+  (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint slotSize, jint count, jintArray lens, jbyteArray addrs, jintArray ports) {
+    return sendmmsgInternal(env, fd, directBuffer, off, slotSize, count, lens, NULL, addrs, ports);
+}
+
 JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_currentTimeMillis
   (JNIEnv* env, jobject self) {
     v_timeval tv;
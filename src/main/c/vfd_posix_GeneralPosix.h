@@ -58,10 +58,10 @@ JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_aeCreateEventLoop
 /*
  * Class:     vfd_posix_GeneralPosix
  * Method:    aeApiPoll
- * Signature: (JJ)[Lvfd/posix/FDInfo;
+ * Signature: (JJ[I)I
  */
-JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeApiPoll
-  (JNIEnv *, jobject, jlong, jlong);
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_aeApiPoll
+  (JNIEnv *, jobject, jlong, jlong, jintArray);
 
 /*
  * Class:     vfd_posix_GeneralPosix
@@ -311,6 +311,38 @@ JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_read
 JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_write
   (JNIEnv *, jobject, jint, jobject, jint, jint);
 
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    readv
+ * Signature: (I[Ljava/nio/ByteBuffer;I[I[II)J
+ */
+JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_readv
+  (JNIEnv *, jobject, jint, jobjectArray, jint, jintArray, jintArray, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    writev
+ * Signature: (I[Ljava/nio/ByteBuffer;I[I[II)J
+ */
+JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_writev
+  (JNIEnv *, jobject, jint, jobjectArray, jint, jintArray, jintArray, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    openSplicePipe
+ * Signature: (I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    splice
+ * Signature: (III)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_splice
+  (JNIEnv *, jobject, jint, jint, jint);
+
 /*
  * Class:     vfd_posix_GeneralPosix
  * Method:    sendtoIPv4
@@ -343,6 +375,38 @@ JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv4
 JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv6
   (JNIEnv *, jobject, jint, jobject, jint, jint);
 
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    recvmmsgIPv4
+ * Signature: (ILjava/nio/ByteBuffer;III[I[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv4
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jint, jintArray, jintArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    recvmmsgIPv6
+ * Signature: (ILjava/nio/ByteBuffer;III[I[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsgIPv6
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jint, jintArray, jbyteArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    sendmmsgIPv4
+ * Signature: (ILjava/nio/ByteBuffer;III[I[I[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv4
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jint, jintArray, jintArray, jintArray);
+
+/*
+ * Class:     vfd_posix_GeneralPosix
+ * Method:    sendmmsgIPv6
+ * Signature: (ILjava/nio/ByteBuffer;III[I[B[I)I
+ */
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsgIPv6
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jint, jintArray, jbyteArray, jintArray);
+
 /*
  * Class:     vfd_posix_GeneralPosix
  * Method:    currentTimeMillis
@@ -0,0 +1,78 @@
+package vfd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a group of datagrams stored in one direct buffer, used by {@link DatagramFD#receiveBatch(DatagramBatch)}
+ * and {@link DatagramFD#sendBatch(DatagramBatch, int)}<br>
+ * packet i is stored in slot i, which starts at (i * slotSize) of the buffer,
+ * the length and the remote address of each packet are recorded separately.<br>
+ * the object is not thread safe
+ */
+public class DatagramBatch {
+    public final int slots;
+    public final int slotSize;
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] views;
+    private final int[] lens;
+    private final IPPort[] addrs;
+
+    public DatagramBatch(int slots, int slotSize) {
+        if (slots <= 0)
+            throw new IllegalArgumentException("slots should be greater than 0");
+        if (slotSize <= 0)
+            throw new IllegalArgumentException("slotSize should be greater than 0");
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.buffer = ByteBuffer.allocateDirect(slots * slotSize);
+        this.views = new ByteBuffer[slots];
+        for (int i = 0; i < slots; ++i) {
+            buffer.limit((i + 1) * slotSize).position(i * slotSize);
+            views[i] = buffer.slice();
+        }
+        buffer.clear();
+        this.lens = new int[slots];
+        this.addrs = new IPPort[slots];
+    }
+
+    // the whole direct buffer, the position and limit should not be relied on
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return view of the packet in slot i, position = 0 and limit = length of the packet
+     */
+    public ByteBuffer get(int i) {
+        ByteBuffer view = views[i];
+        view.limit(lens[i]).position(0);
+        return view;
+    }
+
+    /**
+     * @return view of the slot i, position = 0 and limit = slotSize, used for filling the packet
+     */
+    public ByteBuffer slot(int i) {
+        ByteBuffer view = views[i];
+        view.clear();
+        return view;
+    }
+
+    public int length(int i) {
+        return lens[i];
+    }
+
+    public IPPort address(int i) {
+        return addrs[i];
+    }
+
+    /**
+     * record the packet in slot i, the packet content should already be in the slot
+     */
+    public void set(int i, int len, IPPort addr) {
+        if (len < 0 || len > slotSize)
+            throw new IllegalArgumentException("len out of bound: " + len);
+        lens[i] = len;
+        addrs[i] = addr;
+    }
+}
@@ -1,4 +1,42 @@
 package vfd;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public interface DatagramFD extends AbstractDatagramFD<IPPort> {
+    /**
+     * receive packets into the batch, from slot 0
+     *
+     * @return count of packets received, 0 means nothing to read
+     */
+    default int receiveBatch(DatagramBatch batch) throws IOException {
+        int n = 0;
+        while (n < batch.slots) {
+            ByteBuffer buf = batch.slot(n);
+            IPPort remote = receive(buf);
+            if (remote == null) {
+                break;
+            }
+            batch.set(n, buf.position(), remote);
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * send packets in slot [0, count) of the batch
+     *
+     * @return count of packets sent, the rest should be retried or dropped by the caller
+     */
+    default int sendBatch(DatagramBatch batch, int count) throws IOException {
+        int n = 0;
+        while (n < count) {
+            ByteBuffer buf = batch.get(n);
+            if (send(buf, batch.address(n)) == 0 && batch.length(n) != 0) {
+                break;
+            }
+            ++n;
+        }
+        return n;
+    }
 }
@@ -1,5 +1,6 @@
 package vfd;
 
+import vfd.epoll.EpollFDs;
 import vfd.jdk.ChannelFDs;
 import vfd.posix.PosixFDs;
 import vfd.windows.WindowsFDs;
@@ -15,7 +16,7 @@ public class FDProvider {
     private final FDs provided;
 
     private FDProvider() {
-        var supported = Arrays.asList("provided", "jdk", "posix", "windows");
+        var supported = Arrays.asList("provided", "jdk", "posix", "epoll", "windows");
         var selected = VFDConfig.vfdImpl;
         if (!supported.contains(selected)) {
             selected = "provided";
@@ -25,6 +26,9 @@ public class FDProvider {
         } else if ("posix".equals(selected)) {
             provided = new PosixFDs();
             System.out.println("USING POSIX NATIVE FDs Impl");
+        } else if ("epoll".equals(selected)) {
+            provided = new EpollFDs();
+            System.out.println("USING EPOLL NATIVE FDs Impl");
         } else if ("windows".equals(selected)) {
             provided = new WindowsFDs();
             System.out.println("USING WINDOWS NATIVE FDs Impl");
@@ -5,6 +5,7 @@ import vproxy.util.*;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Enumeration;
 
@@ -86,6 +87,21 @@ public abstract class IP {
         return ret;
     }
 
+    // get the 32-bit word (network order) at the index without copying the array
+    // the index is 0 for ipv4, and 0 to 3 for ipv6
+    public int getWord(int index) {
+        int off = index << 2;
+        return ((bytes[off] & 0xff) << 24)
+            | ((bytes[off + 1] & 0xff) << 16)
+            | ((bytes[off + 2] & 0xff) << 8)
+            | (bytes[off + 3] & 0xff);
+    }
+
+    // put the address bytes into the buffer without copying the array
+    public void writeTo(ByteBuffer buf) {
+        buf.put(bytes);
+    }
+
     public InetAddress toInetAddress() {
         return l3addr(getAddress());
     }
@@ -99,6 +115,11 @@ public abstract class IP {
         return "/" + formatToIPString(); // compatible with java InetAddress
     }
 
+    // compare the address bytes without copying the arrays
+    boolean addressEquals(IP that) {
+        return Arrays.equals(bytes, that.bytes);
+    }
+
     @Override
     abstract public boolean equals(Object o);
 
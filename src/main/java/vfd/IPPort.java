@@ -7,6 +7,7 @@ import java.util.Objects;
 public class IPPort extends SockAddr {
     private final IP ip;
     private final int port;
+    private InetSocketAddress l4addr; // cached, the object is immutable
 
     public IPPort(int port) {
         this(IP.from("0.0.0.0"), port);
@@ -34,7 +35,12 @@ public class IPPort extends SockAddr {
     }
 
     public InetSocketAddress toInetSocketAddress() {
-        return new InetSocketAddress(ip.toInetAddress(), port);
+        InetSocketAddress l4addr = this.l4addr;
+        if (l4addr == null) {
+            l4addr = new InetSocketAddress(ip.toInetAddress(), port);
+            this.l4addr = l4addr;
+        }
+        return l4addr;
     }
 
     public IP getAddress() {
@@ -65,7 +71,8 @@ public class IPPort extends SockAddr {
 
     @Override
     public int hashCode() {
-        return Objects.hash(ip, port);
+        // same as Objects.hash(ip, port) without boxing, the address is used as a map key on the packet path
+        return (31 + Objects.hashCode(ip)) * 31 + port;
     }
 
     // BEGIN UTILS:
@@ -1,7 +1,6 @@
 package vfd;
 
 import java.net.Inet4Address;
-import java.util.Arrays;
 
 public class IPv4 extends IP {
     IPv4(byte[] bytes) {
@@ -17,6 +16,6 @@ public class IPv4 extends IP {
     public boolean equals(Object that) {
         if (that == null) return false;
         if (!(that instanceof IPv4)) return false;
-        return Arrays.equals(getAddress(), ((IPv4) that).getAddress());
+        return addressEquals((IPv4) that);
     }
 }
@@ -1,7 +1,6 @@
 package vfd;
 
 import java.net.Inet6Address;
-import java.util.Arrays;
 
 public class IPv6 extends IP {
     IPv6(byte[] bytes) {
@@ -17,6 +16,6 @@ public class IPv6 extends IP {
     public boolean equals(Object that) {
         if (that == null) return false;
         if (!(that instanceof IPv6)) return false;
-        return Arrays.equals(getAddress(), ((IPv6) that).getAddress());
+        return addressEquals((IPv6) that);
     }
 }
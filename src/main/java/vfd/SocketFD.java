@@ -1,8 +1,11 @@
 package vfd;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
-public interface SocketFD extends FD, NetworkFD<IPPort> {
+public interface SocketFD extends FD, NetworkFD<IPPort>, ScatteringByteChannel, GatheringByteChannel {
     void connect(IPPort l4addr) throws IOException;
 
     boolean isConnected();
@@ -10,4 +13,57 @@ public interface SocketFD extends FD, NetworkFD<IPPort> {
     void shutdownOutput() throws IOException;
 
     boolean finishConnect() throws IOException;
+
+    // the default implementations of scatter/gather operations
+    // simply read/write the buffers one by one,
+    // impls which support readv/writev should override them
+
+    @Override
+    default long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            ByteBuffer dst = dsts[i];
+            int expected = dst.limit() - dst.position();
+            if (expected == 0) {
+                continue;
+            }
+            int n = read(dst);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+            if (n < expected) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    default long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    default long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            ByteBuffer src = srcs[i];
+            int expected = src.limit() - src.position();
+            if (expected == 0) {
+                continue;
+            }
+            int n = write(src);
+            total += n;
+            if (n < expected) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    default long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
 }
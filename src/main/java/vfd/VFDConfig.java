@@ -23,7 +23,7 @@ public class VFDConfig {
         useFStack = !fstack.isBlank();
         vfdImpl = useFStack ? "posix" : System.getProperty("vfd", "provided");
         if (!vfdImpl.equals("provided")) {
-            if (vfdImpl.equals("posix")) {
+            if (vfdImpl.equals("posix") || vfdImpl.equals("epoll")) {
                 if (useFStack) {
                     vfdlibname = "vfdfstack";
                 } else {
@@ -0,0 +1,72 @@
+package vfd.epoll;
+
+import java.util.Arrays;
+
+// the fds are registered in edge-triggered mode,
+// so the readiness is recorded by the selector when epoll reports an edge,
+// and cleared by the fd when it sees EAGAIN (or a short read/write)
+//
+// an fd may be registered in more than one selector (e.g. a listening fd shared by all event loops),
+// each selector keeps its own readiness, and only the selector of the current loop thread is cleared:
+// the readiness is only modified on the loop thread, and other loops will see EAGAIN by themselves
+class EdgeReadiness {
+    static final int READABLE = 1;
+    static final int WRITABLE = 2;
+    // the peer closed its write side (or an error occurred), reading never sees EAGAIN again,
+    // but a short read may be reported before the EOF, so the READABLE flag is kept
+    static final int READ_CLOSED = 4;
+
+    private static final EpollSelector.Att[] NONE = new EpollSelector.Att[0];
+
+    // one Att for each selector the fd is registered in, replaced on registering and removing
+    private volatile EpollSelector.Att[] atts = NONE;
+
+    synchronized void add(EpollSelector.Att att) {
+        EpollSelector.Att[] atts = this.atts;
+        EpollSelector.Att[] newAtts = Arrays.copyOf(atts, atts.length + 1);
+        newAtts[atts.length] = att;
+        this.atts = newAtts;
+    }
+
+    synchronized void remove(EpollSelector.Att att) {
+        EpollSelector.Att[] atts = this.atts;
+        for (int i = 0; i < atts.length; ++i) {
+            if (atts[i] != att)
+                continue;
+            if (atts.length == 1) {
+                this.atts = NONE;
+                return;
+            }
+            EpollSelector.Att[] newAtts = new EpollSelector.Att[atts.length - 1];
+            System.arraycopy(atts, 0, newAtts, 0, i);
+            System.arraycopy(atts, i + 1, newAtts, i, atts.length - i - 1);
+            this.atts = newAtts;
+            return;
+        }
+    }
+
+    void clearReadable() {
+        clear(READABLE);
+    }
+
+    void clearWritable() {
+        clear(WRITABLE);
+    }
+
+    private void clear(int flag) {
+        EpollSelector.Att[] atts = this.atts;
+        if (atts.length == 0) {
+            return;
+        }
+        Thread current = Thread.currentThread();
+        for (EpollSelector.Att att : atts) {
+            if (!att.selector.isSelectThread(current)) {
+                continue;
+            }
+            if (flag == READABLE && (att.ready & READ_CLOSED) != 0) {
+                continue;
+            }
+            att.ready &= ~flag;
+        }
+    }
+}
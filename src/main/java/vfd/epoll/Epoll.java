@@ -0,0 +1,27 @@
+package vfd.epoll;
+
+import java.io.IOException;
+
+public interface Epoll {
+    // the following constants are defined by the linux abi
+    int EPOLLIN = 0x001;
+    int EPOLLOUT = 0x004;
+    int EPOLLERR = 0x008;
+    int EPOLLHUP = 0x010;
+    int EPOLLRDHUP = 0x2000;
+    int EPOLLEXCLUSIVE = 1 << 28;
+    int EPOLLET = 1 << 31;
+
+    int EPOLL_CTL_ADD = 1;
+    int EPOLL_CTL_DEL = 2;
+    int EPOLL_CTL_MOD = 3;
+
+    boolean epollSupported();
+
+    int epollCreate() throws IOException;
+
+    // apply the (op, fd, events) triples in `changes` with epoll_ctl
+    // then call epoll_wait and fill (fd, events) pairs into `fdsAndEvents`
+    // return count of fired events
+    int epollCtlAndWait(int epfd, int[] changes, int changeCount, int[] fdsAndEvents, int timeout) throws IOException;
+}
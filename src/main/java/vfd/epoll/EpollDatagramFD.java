@@ -0,0 +1,62 @@
+package vfd.epoll;
+
+import vfd.IPPort;
+import vfd.posix.Posix;
+import vfd.posix.PosixDatagramFD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class EpollDatagramFD extends PosixDatagramFD implements EpollFD {
+    private final EdgeReadiness readiness = new EdgeReadiness();
+
+    public EpollDatagramFD(Posix posix) {
+        super(posix);
+    }
+
+    @Override
+    public EdgeReadiness readiness() {
+        return readiness;
+    }
+
+    // datagrams are read one by one, so only EAGAIN can clear the readiness
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int len = dst.limit() - dst.position();
+        int n = super.read(dst);
+        if (len > 0 && n == 0) {
+            readiness.clearReadable();
+        }
+        return n;
+    }
+
+    @Override
+    public IPPort receive(ByteBuffer buf) throws IOException {
+        IPPort remote = super.receive(buf);
+        if (remote == null) {
+            readiness.clearReadable();
+        }
+        return remote;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.limit() - src.position();
+        int n = super.write(src);
+        if (len > 0 && n == 0) {
+            readiness.clearWritable();
+        }
+        return n;
+    }
+
+    @Override
+    public int send(ByteBuffer buf, IPPort remote) throws IOException {
+        int len = buf.limit() - buf.position();
+        int n = super.send(buf, remote);
+        if (len > 0 && n == 0) {
+            readiness.clearWritable();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,5 @@
+package vfd.epoll;
+
+interface EpollFD {
+    EdgeReadiness readiness();
+}
@@ -0,0 +1,97 @@
+package vfd.epoll;
+
+import vfd.*;
+import vfd.posix.Posix;
+import vfd.posix.PosixFDs;
+import vproxy.util.Utils;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+
+// use epoll in edge-triggered mode directly, see EpollSelector
+// socket operations are the same as PosixFDs
+public class EpollFDs implements FDs, FDsWithTap {
+    private final PosixFDs posixFDs;
+    private final Posix posix;
+    private final Epoll epoll;
+
+    public EpollFDs() {
+        posixFDs = new PosixFDs(); // the lib is loaded here
+        posix = posixFDs.posix;
+        if (VFDConfig.vfdtrace) {
+            // make it difficult for graalvm native image initializer to detect the Epoll.class
+            // however we cannot use -Dvfdtrace=1 flag when using native image
+            String clsStr = this.getClass().getPackage().getName() + "." + this.getClass().getSimpleName().substring(0, "Epoll".length());
+            // clsStr should be vfd.epoll.Epoll
+            Class<?> cls;
+            try {
+                cls = Class.forName(clsStr);
+            } catch (ClassNotFoundException e) {
+                // should not happen
+                throw new RuntimeException(e);
+            }
+            epoll = (Epoll) Proxy.newProxyInstance(Epoll.class.getClassLoader(), new Class<?>[]{cls}, new TraceInvocationHandler(new GeneralEpoll()));
+        } else {
+            epoll = new GeneralEpoll();
+        }
+        if (!epoll.epollSupported()) {
+            System.out.println("epoll is not supported on this platform");
+            Utils.exit(1);
+        }
+    }
+
+    @Override
+    public SocketFD openSocketFD() {
+        return new EpollSocketFD(posix);
+    }
+
+    @Override
+    public ServerSocketFD openServerSocketFD() {
+        return new EpollServerSocketFD(posix);
+    }
+
+    @Override
+    public DatagramFD openDatagramFD() {
+        return new EpollDatagramFD(posix);
+    }
+
+    @Override
+    public FDSelector openSelector() throws IOException {
+        int[] pipeFd = null;
+        if (posix.pipeFDSupported()) {
+            pipeFd = posix.openPipe();
+        }
+        int epfd;
+        try {
+            epfd = epoll.epollCreate();
+        } catch (IOException e) {
+            if (pipeFd != null) {
+                try {
+                    posix.close(pipeFd[0]);
+                } catch (IOException ignore) {
+                }
+                try {
+                    posix.close(pipeFd[1]);
+                } catch (IOException ignore) {
+                }
+            }
+            throw e;
+        }
+        return new EpollSelector(posix, epoll, epfd, pipeFd);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return posix.currentTimeMillis();
+    }
+
+    @Override
+    public TapDatagramFD openTap(String devPattern) throws IOException {
+        return posixFDs.openTap(devPattern);
+    }
+
+    @Override
+    public boolean tapNonBlockingSupported() throws IOException {
+        return posixFDs.tapNonBlockingSupported();
+    }
+}
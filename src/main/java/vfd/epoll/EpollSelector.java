@@ -0,0 +1,581 @@
+package vfd.epoll;
+
+import vfd.*;
+import vfd.posix.Posix;
+import vfd.posix.PosixFD;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.util.*;
+
+// the selector uses epoll in edge-triggered mode:
+// the EpollFDs are registered once with all events,
+// and the watched events are filtered on java side,
+// so modifying the watched events does not require any syscall or jni call.
+//
+// epoll_ctl calls for registering and removing are batched,
+// and flushed along with epoll_wait in one jni call in every select() call.
+//
+// the selector keeps fds which are still ready (not seen EAGAIN yet) and watched in `pending`,
+// and reports them in every select() call, which emulates the level-triggered behavior
+// required by the event loop and handlers.
+//
+// fds which are not EpollFD (e.g. tap devices) are registered in level-triggered mode
+public class EpollSelector implements FDSelector {
+    private final Posix posix;
+    private final Epoll epoll;
+    private final int epfd;
+    private final int[] pipefd; // null, or pipefd[read][write], might be the same if using linux eventfd
+    private final ByteBuffer bufferForPipeFD;
+    private volatile boolean closed = false;
+    // the resources are released by the select thread if close() is called when it's waiting
+    private final Object closeLock = new Object();
+    private boolean selecting = false;
+
+    static class Att {
+        final EpollSelector selector;
+        final FD fd;
+        final int fdnum;
+        final Object att;
+        final boolean edge;
+
+        volatile int watched; // EdgeReadiness.READABLE | EdgeReadiness.WRITABLE
+        int ready; // watched flags | EdgeReadiness.READ_CLOSED, only modified on the loop thread
+        boolean inPending = false;
+        boolean removed = false;
+
+        // the entries are created at most once for each registration
+        private SelectedEntry readable;
+        private SelectedEntry writable;
+        private SelectedEntry readwrite;
+
+        Att(EpollSelector selector, FD fd, int fdnum, Object att, boolean edge, int watched) {
+            this.selector = selector;
+            this.fd = fd;
+            this.fdnum = fdnum;
+            this.att = att;
+            this.edge = edge;
+            this.watched = watched;
+        }
+
+        SelectedEntry entry(int events) {
+            SelectedEntry e;
+            if (events == (EdgeReadiness.READABLE | EdgeReadiness.WRITABLE)) {
+                e = readwrite;
+                if (e == null) {
+                    e = readwrite = new SelectedEntry(fd, EventSet.readwrite(), att);
+                }
+            } else if (events == EdgeReadiness.READABLE) {
+                e = readable;
+                if (e == null) {
+                    e = readable = new SelectedEntry(fd, EventSet.read(), att);
+                }
+            } else {
+                e = writable;
+                if (e == null) {
+                    e = writable = new SelectedEntry(fd, EventSet.write(), att);
+                }
+            }
+            return e;
+        }
+
+        @Override
+        public String toString() {
+            return "Att{" +
+                "fd=" + fd +
+                ", att=" + att +
+                ", edge=" + edge +
+                ", watched=" + watched +
+                ", ready=" + ready +
+                '}';
+        }
+    }
+
+    private Att[] atts = new Att[INITIAL_FD_CAPACITY]; // fd => Att
+
+    // changes are recorded from any thread, and applied in select()
+    private final Object changesLock = new Object();
+    private int[] changes = new int[INITIAL_CHANGES_CAPACITY * 3]; // (op, fd, events)
+    private int changeCount = 0;
+    private ArrayList<Att> toRecheck = new ArrayList<>();
+
+    // the following fields are only accessed in select()
+    private volatile Thread selectThread;
+    private int[] changesToFlush = new int[INITIAL_CHANGES_CAPACITY * 3];
+    private ArrayList<Att> recheckToFlush = new ArrayList<>();
+    private int[] fdsAndEvents = new int[INITIAL_FIRED_CAPACITY * 2];
+    private final ArrayList<Att> pending = new ArrayList<>();
+    private final ArrayList<SelectedEntry> selected = new ArrayList<>(INITIAL_FIRED_CAPACITY);
+
+    private static final int INITIAL_FD_CAPACITY = 1024;
+    private static final int INITIAL_CHANGES_CAPACITY = 256;
+    private static final int INITIAL_FIRED_CAPACITY = 512;
+    private static final int MAX_FIRED_CAPACITY = 1024; // see vfd_epoll_GeneralEpoll.c
+
+    public EpollSelector(Posix posix, Epoll epoll, int epfd, int[] pipefd) {
+        this.posix = posix;
+        this.epoll = epoll;
+        this.epfd = epfd;
+        this.pipefd = pipefd;
+        if (pipefd == null) {
+            bufferForPipeFD = null;
+        } else {
+            bufferForPipeFD = ByteBuffer.allocateDirect(8); // linux eventfd requires 8 bytes buffer
+            Att att = new Att(this, null, pipefd[0], null, false, EdgeReadiness.READABLE);
+            putAtt(pipefd[0], att);
+            recordChange(Epoll.EPOLL_CTL_ADD, pipefd[0], Epoll.EPOLLIN);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new ClosedSelectorException();
+        }
+    }
+
+    boolean isSelectThread(Thread thread) {
+        return selectThread == thread;
+    }
+
+    private static int getFDNum(FD fd) {
+        return ((PosixFD) fd.real()).getFD();
+    }
+
+    private static int getWatched(EventSet events) {
+        int ret = 0;
+        if (events.have(Event.READABLE)) {
+            ret |= EdgeReadiness.READABLE;
+        }
+        if (events.have(Event.WRITABLE)) {
+            ret |= EdgeReadiness.WRITABLE;
+        }
+        return ret;
+    }
+
+    private static EventSet getEventSet(int watched) {
+        if (watched == (EdgeReadiness.READABLE | EdgeReadiness.WRITABLE)) {
+            return EventSet.readwrite();
+        } else if (watched == EdgeReadiness.READABLE) {
+            return EventSet.read();
+        } else if (watched == EdgeReadiness.WRITABLE) {
+            return EventSet.write();
+        } else {
+            return EventSet.none();
+        }
+    }
+
+    private static int getLevelTriggeredEpollEvents(int watched) {
+        int ret = 0;
+        if ((watched & EdgeReadiness.READABLE) != 0) {
+            ret |= Epoll.EPOLLIN;
+        }
+        if ((watched & EdgeReadiness.WRITABLE) != 0) {
+            ret |= Epoll.EPOLLOUT;
+        }
+        return ret;
+    }
+
+    private static int getReady(int epollEvents) {
+        int ret = 0;
+        if ((epollEvents & (Epoll.EPOLLIN | Epoll.EPOLLRDHUP)) != 0) {
+            ret |= EdgeReadiness.READABLE;
+        }
+        if ((epollEvents & (Epoll.EPOLLRDHUP | Epoll.EPOLLHUP | Epoll.EPOLLERR)) != 0) {
+            ret |= EdgeReadiness.READ_CLOSED;
+        }
+        if ((epollEvents & Epoll.EPOLLOUT) != 0) {
+            ret |= EdgeReadiness.WRITABLE;
+        }
+        if ((epollEvents & (Epoll.EPOLLERR | Epoll.EPOLLHUP)) != 0) {
+            // let the handlers see the error when reading or writing
+            ret |= (EdgeReadiness.READABLE | EdgeReadiness.WRITABLE);
+        }
+        return ret;
+    }
+
+    private void recordChange(int op, int fd, int events) {
+        synchronized (changesLock) {
+            if (changeCount * 3 == changes.length) {
+                changes = Arrays.copyOf(changes, changes.length * 2);
+            }
+            int idx = changeCount * 3;
+            changes[idx] = op;
+            changes[idx + 1] = fd;
+            changes[idx + 2] = events;
+            ++changeCount;
+        }
+    }
+
+    private void recordRecheck(Att att) {
+        synchronized (changesLock) {
+            toRecheck.add(att);
+        }
+    }
+
+    private synchronized void putAtt(int fd, Att att) {
+        Att[] atts = this.atts;
+        if (fd >= atts.length) {
+            int len = atts.length;
+            while (len <= fd) {
+                len *= 2;
+            }
+            atts = Arrays.copyOf(atts, len);
+        }
+        atts[fd] = att;
+        this.atts = atts;
+    }
+
+    private Att getAtt(int fd) {
+        Att[] atts = this.atts;
+        if (fd < 0 || fd >= atts.length)
+            return null;
+        return atts[fd];
+    }
+
+    private Att getAttCheckNull(FD fd) {
+        Att att = getAtt(getFDNum(fd));
+        if (att == null || att.fd == null)
+            throw new IllegalArgumentException("fd is not registered with this selector: " + fd);
+        return att;
+    }
+
+    private void addPending(Att att) {
+        if (att.inPending)
+            return;
+        if (att.removed)
+            return;
+        if ((att.ready & att.watched) == 0)
+            return;
+        att.inPending = true;
+        pending.add(att);
+    }
+
+    private void clearPipeFD() {
+        if (pipefd != null) {
+            while (true) {
+                int x;
+                try {
+                    x = posix.read(pipefd[0], bufferForPipeFD, 0, 8);
+                } catch (IOException e) {
+                    Logger.shouldNotHappen("reading from read end of pipefd failed", e);
+                    break;
+                }
+                assert x == 0 || x == 8;
+                if (x == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // the returned collection is reused, it must be consumed before the next select() call
+    private Collection<SelectedEntry> doSelect(int timeout) throws IOException {
+        synchronized (closeLock) {
+            checkOpen();
+            selecting = true;
+        }
+        selectThread = Thread.currentThread();
+
+        // retrieve the changes
+        int changesToFlushCount;
+        synchronized (changesLock) {
+            changesToFlushCount = changeCount;
+            if (changesToFlush.length < changes.length) {
+                changesToFlush = new int[changes.length];
+            }
+            System.arraycopy(changes, 0, changesToFlush, 0, changeCount * 3);
+            changeCount = 0;
+
+            ArrayList<Att> tmp = recheckToFlush;
+            recheckToFlush = toRecheck;
+            toRecheck = tmp;
+        }
+        for (int i = 0, size = recheckToFlush.size(); i < size; ++i) {
+            addPending(recheckToFlush.get(i));
+        }
+        recheckToFlush.clear();
+
+        if (!pending.isEmpty()) {
+            timeout = 0; // some fds are still ready
+        }
+        int n;
+        try {
+            n = epoll.epollCtlAndWait(epfd, changesToFlush, changesToFlushCount, fdsAndEvents, timeout);
+        } finally {
+            synchronized (closeLock) {
+                selecting = false;
+                if (closed) { // closed when waiting
+                    release();
+                }
+            }
+        }
+
+        selected.clear();
+        if (closed) {
+            return selected;
+        }
+        Att[] atts = this.atts;
+        for (int i = 0; i < n; ++i) {
+            int fd = fdsAndEvents[i * 2];
+            int ev = fdsAndEvents[i * 2 + 1];
+            Att att = fd < atts.length ? atts[fd] : null;
+            if (att == null || att.fd == null) // for the internal pipe fds or removed fds
+                continue;
+            int ready = getReady(ev);
+            if (att.edge) {
+                att.ready |= ready;
+                addPending(att);
+            } else {
+                ready &= att.watched;
+                if (ready != 0) {
+                    selected.add(att.entry(ready));
+                }
+            }
+        }
+        if (n > 0) {
+            clearPipeFD();
+        }
+        if (n == fdsAndEvents.length / 2 && n < MAX_FIRED_CAPACITY) {
+            // the remaining events will be reported in the next epoll_wait call
+            fdsAndEvents = new int[Math.min(n * 2, MAX_FIRED_CAPACITY) * 2];
+        }
+
+        // report all ready and watched fds, and remove the ones not ready any more
+        int j = 0;
+        for (int i = 0, size = pending.size(); i < size; ++i) {
+            Att att = pending.get(i);
+            int events = (att.removed || !att.fd.isOpen()) ? 0 : (att.ready & att.watched);
+            if (events == 0) {
+                att.inPending = false;
+                continue;
+            }
+            selected.add(att.entry(events));
+            pending.set(j++, att);
+        }
+        for (int i = pending.size() - 1; i >= j; --i) {
+            pending.remove(i);
+        }
+        return selected;
+    }
+
+    @Override
+    public Collection<SelectedEntry> select() throws IOException {
+        return doSelect(-1);
+    }
+
+    @Override
+    public Collection<SelectedEntry> selectNow() throws IOException {
+        return doSelect(0);
+    }
+
+    @Override
+    public Collection<SelectedEntry> select(long millis) throws IOException {
+        return doSelect((int) Math.min(millis, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean supportsWakeup() {
+        return pipefd != null;
+    }
+
+    @Override
+    public void wakeup() {
+        if (pipefd == null) {
+            throw new UnsupportedOperationException("does not support wakeup");
+        }
+        checkOpen();
+        writePipeFD();
+    }
+
+    private void writePipeFD() {
+        bufferForPipeFD.limit(8).position(0).putLong(1L);
+        try {
+            posix.write(pipefd[1], bufferForPipeFD, 0, 8);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("writing to write end of pipefd[1] failed", e);
+        }
+    }
+
+    @Override
+    public boolean isRegistered(FD fd) {
+        if (closed) {
+            // same as jdk selectors: nothing is registered on a closed selector,
+            // so removing fds from a closed loop is a no-op instead of an exception
+            return false;
+        }
+        return getAtt(getFDNum(fd)) != null;
+    }
+
+    @Override
+    public void register(FD fd, EventSet ops, Object registerData) throws ClosedChannelException {
+        checkOpen();
+        if (!fd.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        FD real = fd.real();
+        int fdnum = getFDNum(fd);
+        int watched = getWatched(ops);
+        boolean edge = real instanceof EpollFD;
+        Att old = getAtt(fdnum);
+        if (old != null && old.fd != null) { // registered again, or the fd number is reused without removing
+            detach(old);
+        }
+        Att att = new Att(this, fd, fdnum, registerData, edge, watched);
+        putAtt(fdnum, att);
+
+        int events;
+        if (edge) {
+            ((EpollFD) real).readiness().add(att);
+            if (real instanceof ServerSocketFD) {
+                // only wake up one of the loops when the listening socket is shared
+                events = Epoll.EPOLLIN | Epoll.EPOLLET | Epoll.EPOLLEXCLUSIVE;
+            } else {
+                events = Epoll.EPOLLIN | Epoll.EPOLLOUT | Epoll.EPOLLRDHUP | Epoll.EPOLLET;
+            }
+        } else {
+            events = getLevelTriggeredEpollEvents(watched);
+        }
+        recordChange(Epoll.EPOLL_CTL_ADD, fdnum, events);
+    }
+
+    @Override
+    public void remove(FD fd) {
+        checkOpen();
+        int fdnum = getFDNum(fd);
+        Att att = getAtt(fdnum);
+        if (att == null || att.fd == null) {
+            return;
+        }
+        detach(att);
+        putAtt(fdnum, null);
+        recordChange(Epoll.EPOLL_CTL_DEL, fdnum, 0);
+    }
+
+    private static void detach(Att att) {
+        att.removed = true;
+        if (att.edge) {
+            ((EpollFD) att.fd.real()).readiness().remove(att);
+        }
+    }
+
+    @Override
+    public void modify(FD fd, EventSet ops) {
+        checkOpen();
+        Att att = getAttCheckNull(fd);
+        int watched = getWatched(ops);
+        if (att.watched == watched) {
+            return;
+        }
+        att.watched = watched;
+        if (att.edge) {
+            if (Thread.currentThread() == selectThread) {
+                addPending(att);
+            } else {
+                recordRecheck(att);
+            }
+        } else {
+            recordChange(Epoll.EPOLL_CTL_MOD, att.fdnum, getLevelTriggeredEpollEvents(watched));
+        }
+    }
+
+    @Override
+    public EventSet events(FD fd) {
+        checkOpen();
+        return getEventSet(getAttCheckNull(fd).watched);
+    }
+
+    @Override
+    public Object attachment(FD fd) {
+        checkOpen();
+        Att att = getAtt(getFDNum(fd));
+        if (att == null) {
+            return null;
+        }
+        return att.att;
+    }
+
+    @Override
+    public Collection<RegisterEntry> entries() {
+        checkOpen();
+        Att[] atts = this.atts;
+        List<RegisterEntry> ret = new ArrayList<>();
+        for (Att att : atts) {
+            if (att == null || att.fd == null) // for the internal pipe fds
+                continue;
+            ret.add(new RegisterEntry(att.fd, getEventSet(att.watched), att.att));
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        synchronized (closeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (selecting && pipefd != null) {
+                // closing the fds does not wake up epoll_wait
+                // so let the select thread return and release the resources
+                writePipeFD();
+                return;
+            }
+            release();
+        }
+    }
+
+    private void release() {
+        // the fds may outlive the selector
+        for (Att att : atts) {
+            if (att != null && att.fd != null) {
+                detach(att);
+            }
+        }
+        try {
+            posix.close(epfd);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing epfd failed", e);
+        }
+        if (bufferForPipeFD != null) {
+            Utils.clean(bufferForPipeFD);
+        }
+        if (pipefd != null) {
+            try {
+                posix.close(pipefd[0]);
+            } catch (IOException e) {
+                Logger.shouldNotHappen("closing read end of the pipefd failed", e);
+            }
+            if (pipefd[1] != pipefd[0]) {
+                try {
+                    posix.close(pipefd[1]);
+                } catch (IOException e) {
+                    Logger.shouldNotHappen("closing write end of the pipefd failed", e);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    protected void finalize() {
+        close();
+    }
+
+    @Override
+    public String toString() {
+        return "EpollSelector{" +
+            "epfd=" + epfd +
+            ", pipefd=" + Arrays.toString(pipefd) +
+            ", closed=" + closed +
+            '}';
+    }
+}
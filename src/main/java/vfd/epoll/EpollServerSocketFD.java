@@ -0,0 +1,34 @@
+package vfd.epoll;
+
+import vfd.SocketFD;
+import vfd.posix.Posix;
+import vfd.posix.PosixServerSocketFD;
+
+import java.io.IOException;
+
+public class EpollServerSocketFD extends PosixServerSocketFD implements EpollFD {
+    private final EdgeReadiness readiness = new EdgeReadiness();
+
+    public EpollServerSocketFD(Posix posix) {
+        super(posix);
+    }
+
+    @Override
+    public EdgeReadiness readiness() {
+        return readiness;
+    }
+
+    @Override
+    public SocketFD accept() throws IOException {
+        SocketFD fd = super.accept();
+        if (fd == null) { // EAGAIN
+            readiness.clearReadable();
+        }
+        return fd;
+    }
+
+    @Override
+    protected SocketFD createAcceptedSocketFD(int fd, boolean ipv4) {
+        return new EpollSocketFD(posix, fd, ipv4);
+    }
+}
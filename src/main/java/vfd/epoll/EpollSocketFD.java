@@ -0,0 +1,96 @@
+package vfd.epoll;
+
+import vfd.posix.Posix;
+import vfd.posix.PosixSocketFD;
+import vfd.posix.SplicePipe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class EpollSocketFD extends PosixSocketFD implements EpollFD {
+    private final EdgeReadiness readiness = new EdgeReadiness();
+
+    public EpollSocketFD(Posix posix) {
+        super(posix);
+    }
+
+    public EpollSocketFD(Posix posix, int fd, boolean ipv4) {
+        super(posix, fd, ipv4);
+    }
+
+    @Override
+    public EdgeReadiness readiness() {
+        return readiness;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int len = dst.limit() - dst.position();
+        int n = super.read(dst);
+        // 0 means EAGAIN
+        // a short read on a stream socket means the receive queue is drained
+        if (len > 0 && n >= 0 && n < len) {
+            readiness.clearReadable();
+        }
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.limit() - src.position();
+        int n = super.write(src);
+        // a short write means the send buffer is full
+        if (len > 0 && n < len) {
+            readiness.clearWritable();
+        }
+        return n;
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+        long n = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            n += buffers[i].limit() - buffers[i].position();
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long len = remaining(dsts, offset, length);
+        long n = super.read(dsts, offset, length);
+        if (len > 0 && n >= 0 && n < len) {
+            readiness.clearReadable();
+        }
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long len = remaining(srcs, offset, length);
+        long n = super.write(srcs, offset, length);
+        if (len > 0 && n < len) {
+            readiness.clearWritable();
+        }
+        return n;
+    }
+
+    @Override
+    public int spliceTo(SplicePipe pipe, int len) throws IOException {
+        int n = super.spliceTo(pipe, len);
+        // a short splice may be caused by the pipe, not the socket
+        // only nothing moved into an empty pipe means the socket is drained
+        if (len > 0 && n == 0) {
+            readiness.clearReadable();
+        }
+        return n;
+    }
+
+    @Override
+    public int spliceFrom(SplicePipe pipe, int len) throws IOException {
+        int n = super.spliceFrom(pipe, len);
+        if (len > 0 && n < len) {
+            readiness.clearWritable();
+        }
+        return n;
+    }
+}
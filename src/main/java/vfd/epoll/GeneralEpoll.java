@@ -0,0 +1,14 @@
+package vfd.epoll;
+
+import java.io.IOException;
+
+public class GeneralEpoll implements Epoll {
+    @Override
+    native public boolean epollSupported();
+
+    @Override
+    native public int epollCreate() throws IOException;
+
+    @Override
+    native public int epollCtlAndWait(int epfd, int[] changes, int changeCount, int[] fdsAndEvents, int timeout) throws IOException;
+}
@@ -15,23 +15,44 @@ public class AESelector implements FDSelector {
     private final long ae;
     private final int[] pipefd; // null, or pipefd[read][write], might be the same if using linux eventfd
     private final ByteBuffer bufferForPipeFD;
-    private boolean closed = false;
+    private volatile boolean closed = false;
+    // the ae is released by the select thread if close() is called when it's polling
+    private final Object closeLock = new Object();
+    private boolean selecting = false;
 
     private final int aeReadable;
     private final int aeWritable;
+    private final EventSet[] javaEvents; // mask => EventSet
     private final boolean onlySelectNow;
 
-    public AESelector(Posix posix, long ae, int[] pipefd) {
+    // the following fields are reused in every select() call
+    // so that no object is allocated when polling events
+    private final int setsize;
+    private int[] fdsAndEvents = new int[INITIAL_FIRED_CAPACITY * 2];
+    private final ArrayList<SelectedEntry> selected = new ArrayList<>(INITIAL_FIRED_CAPACITY);
+    private Att[] atts = new Att[INITIAL_FD_CAPACITY]; // fd => Att
+
+    private static final int INITIAL_FIRED_CAPACITY = 512;
+    private static final int INITIAL_FD_CAPACITY = 1024;
+
+    public AESelector(Posix posix, long ae, int[] pipefd, int setsize) {
         this.posix = posix;
         this.ae = ae;
         this.aeReadable = posix.aeReadable();
         this.aeWritable = posix.aeWritable();
+        this.javaEvents = new EventSet[(aeReadable | aeWritable) + 1];
+        for (int i = 0; i < javaEvents.length; ++i) {
+            javaEvents[i] = calcJavaEvents(i);
+        }
+        this.setsize = setsize;
         this.pipefd = pipefd;
         if (pipefd == null) {
             bufferForPipeFD = null;
         } else {
             bufferForPipeFD = ByteBuffer.allocateDirect(8); // linux eventfd requires 8 bytes buffer
-            posix.aeCreateFileEvent(ae, pipefd[0], this.aeReadable, new Att(null, null));
+            Att att = new Att(null, null);
+            posix.aeCreateFileEvent(ae, pipefd[0], this.aeReadable, att);
+            putAtt(pipefd[0], att);
         }
         onlySelectNow = posix.onlySelectNow();
     }
@@ -41,11 +62,39 @@ public class AESelector implements FDSelector {
 
         final Object att;
 
+        // the entries are created at most once for each registration
+        private SelectedEntry readable;
+        private SelectedEntry writable;
+        private SelectedEntry readwrite;
+
         private Att(FD fd, Object att) {
             this.fd = fd;
             this.att = att;
         }
 
+        SelectedEntry entry(EventSet ready) {
+            SelectedEntry e;
+            if (ready == EventSet.readwrite()) {
+                e = readwrite;
+                if (e == null) {
+                    e = readwrite = new SelectedEntry(fd, ready, att);
+                }
+            } else if (ready == EventSet.read()) {
+                e = readable;
+                if (e == null) {
+                    e = readable = new SelectedEntry(fd, ready, att);
+                }
+            } else if (ready == EventSet.write()) {
+                e = writable;
+                if (e == null) {
+                    e = writable = new SelectedEntry(fd, ready, att);
+                }
+            } else {
+                e = new SelectedEntry(fd, ready, att);
+            }
+            return e;
+        }
+
         @Override
         public String toString() {
             return "Att{" +
@@ -61,6 +110,10 @@ public class AESelector implements FDSelector {
     }
 
     private EventSet getJavaEvents(int events) {
+        return javaEvents[events & (aeReadable | aeWritable)];
+    }
+
+    private EventSet calcJavaEvents(int events) {
         EventSet ret = EventSet.none();
         if ((events & aeReadable) == aeReadable) {
             ret = ret.combine(EventSet.read());
@@ -89,20 +142,52 @@ public class AESelector implements FDSelector {
         }
     }
 
-    private Collection<SelectedEntry> handleSelectResult(FDInfo[] results) {
+    // the returned collection is reused, it must be consumed before the next select() call
+    private Collection<SelectedEntry> handleSelectResult(int n) {
         clearPipeFD();
-        if (results.length == 0) {
-            return Collections.emptyList();
+        selected.clear();
+        if (n == 0) {
+            return selected;
         }
-        List<SelectedEntry> ret = new ArrayList<>(results.length);
-        for (FDInfo res : results) {
-            Att att = (Att) res.attachment;
-            if (att.fd == null) // for the internal pipe fds
+        int cap = fdsAndEvents.length / 2;
+        int cnt = Math.min(n, cap);
+        Att[] atts = this.atts;
+        for (int i = 0; i < cnt; ++i) {
+            int fd = fdsAndEvents[i * 2];
+            int ev = fdsAndEvents[i * 2 + 1];
+            Att att = fd < atts.length ? atts[fd] : null;
+            if (att == null || att.fd == null) // for the internal pipe fds or removed fds
                 continue;
-            int ev = res.events;
-            ret.add(new SelectedEntry(att.fd, getJavaEvents(ev), att.att));
+            selected.add(att.entry(getJavaEvents(ev)));
         }
-        return ret;
+        if (n > cap && cap < setsize) {
+            // the events not retrieved will fire again in the next poll
+            // because ae works in level-triggered mode
+            // expand the array to retrieve more events next time
+            fdsAndEvents = new int[Math.min(cap * 2, setsize) * 2];
+        }
+        return selected;
+    }
+
+    private synchronized void putAtt(int fd, Att att) {
+        Att[] atts = this.atts;
+        if (fd >= atts.length) {
+            int len = atts.length;
+            while (len <= fd) {
+                len *= 2;
+            }
+            atts = Arrays.copyOf(atts, len);
+        }
+        atts[fd] = att;
+        this.atts = atts;
+    }
+
+    private Att getAtt(FD fd) {
+        int fdnum = ((PosixFD) fd.real()).fd;
+        Att[] atts = this.atts;
+        if (fdnum < 0 || fdnum >= atts.length)
+            return null;
+        return atts[fdnum];
     }
 
     private void checkOpen() {
@@ -116,16 +201,12 @@ public class AESelector implements FDSelector {
         if (onlySelectNow) {
             throw new UnsupportedOperationException("only selectNow supported");
         }
-        checkOpen();
-        var res = posix.aeApiPoll(ae, 24 * 60 * 60 * 1000);
-        return handleSelectResult(res);
+        return poll(24 * 60 * 60 * 1000);
     }
 
     @Override
     public Collection<SelectedEntry> selectNow() throws IOException {
-        checkOpen();
-        var res = posix.aeApiPoll(ae, 0);
-        return handleSelectResult(res);
+        return poll(0);
     }
 
     @Override
@@ -133,9 +214,30 @@ public class AESelector implements FDSelector {
         if (onlySelectNow) {
             throw new UnsupportedOperationException("only selectNow supported");
         }
-        checkOpen();
-        var res = posix.aeApiPoll(ae, millis);
-        return handleSelectResult(res);
+        return poll(millis);
+    }
+
+    private Collection<SelectedEntry> poll(long wait) throws IOException {
+        synchronized (closeLock) {
+            checkOpen();
+            selecting = true;
+        }
+        int n;
+        try {
+            n = posix.aeApiPoll(ae, wait, fdsAndEvents);
+        } finally {
+            synchronized (closeLock) {
+                selecting = false;
+                if (closed) { // closed when polling
+                    release();
+                }
+            }
+        }
+        if (closed) {
+            selected.clear();
+            return selected;
+        }
+        return handleSelectResult(n);
     }
 
     @Override
@@ -149,6 +251,10 @@ public class AESelector implements FDSelector {
             throw new UnsupportedOperationException("does not support wakeup");
         }
         checkOpen();
+        writePipeFD();
+    }
+
+    private void writePipeFD() {
         bufferForPipeFD.limit(8).position(0).putLong(1L);
         try {
             posix.write(pipefd[1], bufferForPipeFD, 0, 8);
@@ -159,8 +265,12 @@ public class AESelector implements FDSelector {
 
     @Override
     public boolean isRegistered(FD fd) {
-        checkOpen();
-        return null != posix.aeGetClientData(ae, ((PosixFD) fd.real()).fd);
+        if (closed) {
+            // same as jdk selectors: nothing is registered on a closed selector,
+            // so removing fds from a closed loop is a no-op instead of an exception
+            return false;
+        }
+        return getAtt(fd) != null;
     }
 
     private int getIntEvents(EventSet events) {
@@ -180,13 +290,18 @@ public class AESelector implements FDSelector {
         if (!fd.isOpen()) {
             throw new ClosedChannelException();
         }
-        posix.aeCreateFileEvent(ae, ((PosixFD) fd.real()).fd, getIntEvents(ops), new Att(fd, registerData));
+        int fdnum = ((PosixFD) fd.real()).fd;
+        Att att = new Att(fd, registerData);
+        posix.aeCreateFileEvent(ae, fdnum, getIntEvents(ops), att);
+        putAtt(fdnum, att);
     }
 
     @Override
     public void remove(FD fd) {
         checkOpen();
-        posix.aeDeleteFileEvent(ae, ((PosixFD) fd.real()).fd);
+        int fdnum = ((PosixFD) fd.real()).fd;
+        posix.aeDeleteFileEvent(ae, fdnum);
+        putAtt(fdnum, null);
     }
 
     @Override
@@ -204,7 +319,11 @@ public class AESelector implements FDSelector {
     @Override
     public Object attachment(FD fd) {
         checkOpen();
-        return ((Att) posix.aeGetClientData(ae, ((PosixFD) fd.real()).fd)).att;
+        Att att = getAtt(fd);
+        if (att == null) {
+            return null;
+        }
+        return att.att;
     }
 
     @Override
@@ -223,10 +342,24 @@ public class AESelector implements FDSelector {
 
     @Override
     public void close() {
-        if (closed) {
-            return;
+        synchronized (closeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (selecting) {
+                // the ae is still used by the select thread
+                // let it return and release the resources
+                if (pipefd != null) {
+                    writePipeFD();
+                }
+                return;
+            }
+            release();
         }
-        closed = true;
+    }
+
+    private void release() {
         posix.aeDeleteEventLoop(ae);
         if (bufferForPipeFD != null) {
             Utils.clean(bufferForPipeFD);
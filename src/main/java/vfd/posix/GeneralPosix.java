@@ -25,7 +25,7 @@ public class GeneralPosix implements Posix {
     native public long aeCreateEventLoop(int setsize) throws IOException;
 
     @Override
-    native public FDInfo[] aeApiPoll(long ae, long wait) throws IOException;
+    native public int aeApiPoll(long ae, long wait, int[] fdsAndEvents) throws IOException;
 
     @Override
     native public FDInfo[] aeAllFDs(long ae);
@@ -120,6 +120,18 @@ public class GeneralPosix implements Posix {
     @Override
     native public int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public long readv(int fd, ByteBuffer[] directBuffers, int bufOff, int[] offs, int[] lens, int count) throws IOException;
+
+    @Override
+    native public long writev(int fd, ByteBuffer[] directBuffers, int bufOff, int[] offs, int[] lens, int count) throws IOException;
+
+    @Override
+    native public int[] openSplicePipe(int size) throws IOException;
+
+    @Override
+    native public int splice(int fdIn, int fdOut, int len) throws IOException;
+
     @Override
     native public int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
@@ -132,6 +144,18 @@ public class GeneralPosix implements Posix {
     @Override
     native public UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int recvmmsgIPv4(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, int[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int recvmmsgIPv6(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int sendmmsgIPv4(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, int[] addrs, int[] ports) throws IOException;
+
+    @Override
+    native public int sendmmsgIPv6(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
     @Override
     native public long currentTimeMillis();
 
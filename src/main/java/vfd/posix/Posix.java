@@ -18,7 +18,10 @@ public interface Posix {
 
     long aeCreateEventLoop(int setsize) throws IOException;
 
-    FDInfo[] aeApiPoll(long ae, long wait) throws IOException;
+    // fill (fd, mask) pairs into the array and return count of fired events
+    // the returned count might be larger than fdsAndEvents.length / 2,
+    // in which case only the first fdsAndEvents.length / 2 events are filled
+    int aeApiPoll(long ae, long wait, int[] fdsAndEvents) throws IOException;
 
     FDInfo[] aeAllFDs(long ae);
 
@@ -82,6 +85,17 @@ public interface Posix {
 
     int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    // directBuffers[bufOff + i] is read into or written from (offs[i], lens[i]), i < count
+    long readv(int fd, ByteBuffer[] directBuffers, int bufOff, int[] offs, int[] lens, int count) throws IOException;
+
+    long writev(int fd, ByteBuffer[] directBuffers, int bufOff, int[] offs, int[] lens, int count) throws IOException;
+
+    // returns [read end, write end], both are non-blocking
+    int[] openSplicePipe(int size) throws IOException;
+
+    // returns -1 when fdIn reaches EOF
+    int splice(int fdIn, int fdOut, int len) throws IOException;
+
     int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
     int sendtoIPv6(int fd, ByteBuffer directBuffer, int off, int len, String fullAddr, int port) throws IOException;
@@ -90,6 +104,17 @@ public interface Posix {
 
     UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    // packet i is stored at (off + i * slotSize) of the directBuffer, with length lens[i], i < count
+    // ipv4 addresses are host order ints, ipv6 addresses are stored as 16 bytes for each packet
+    // returns count of packets received or sent, 0 means EAGAIN
+    int recvmmsgIPv4(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, int[] addrs, int[] ports) throws IOException;
+
+    int recvmmsgIPv6(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
+    int sendmmsgIPv4(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, int[] addrs, int[] ports) throws IOException;
+
+    int sendmmsgIPv6(int fd, ByteBuffer directBuffer, int off, int slotSize, int count, int[] lens, byte[] addrs, int[] ports) throws IOException;
+
     long currentTimeMillis();
 
     boolean tapNonBlockingSupported() throws IOException;
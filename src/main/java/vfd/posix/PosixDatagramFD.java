@@ -8,6 +8,12 @@ import java.nio.ByteBuffer;
 public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
     private boolean bond = false;
 
+    // arrays passed to recvmmsg/sendmmsg, allocated on the first batch call
+    private int[] batchLens;
+    private int[] batchAddrs4;
+    private byte[] batchAddrs6;
+    private int[] batchPorts;
+
     public PosixDatagramFD(Posix posix) {
         super(posix);
     }
@@ -162,4 +168,118 @@ public class PosixDatagramFD extends PosixInetNetworkFD implements DatagramFD {
         }
         return l4addr.toIPPort();
     }
+
+    private void ensureBatchArrays(DatagramBatch batch) {
+        int count = batch.slots;
+        if (batchLens != null && batchLens.length >= count) {
+            return;
+        }
+        batchLens = new int[count];
+        batchPorts = new int[count];
+        if (ipv4) {
+            batchAddrs4 = new int[count];
+        } else {
+            batchAddrs6 = new byte[count * 16];
+        }
+    }
+
+    @Override
+    public int receiveBatch(DatagramBatch batch) throws IOException {
+        checkFD();
+        checkNotClosed();
+        if (!bond) {
+            throw new IOException("not bond");
+        }
+        ensureBatchArrays(batch);
+        int n;
+        if (ipv4) {
+            n = posix.recvmmsgIPv4(fd, batch.getBuffer(), 0, batch.slotSize, batch.slots, batchLens, batchAddrs4, batchPorts);
+        } else {
+            n = posix.recvmmsgIPv6(fd, batch.getBuffer(), 0, batch.slotSize, batch.slots, batchLens, batchAddrs6, batchPorts);
+        }
+        for (int i = 0; i < n; ++i) {
+            // the packets usually come from a few remotes, reuse the address object if possible
+            IPPort last = batch.address(i);
+            int port = batchPorts[i];
+            IPPort remote;
+            if (ipv4) {
+                int addr = batchAddrs4[i];
+                if (last != null && last.getPort() == port && last.getAddress() instanceof IPv4
+                    && last.getAddress().getWord(0) == addr) {
+                    remote = last;
+                } else {
+                    remote = new IPPort(IP.fromIPv4(IP.ipv4Int2Bytes(addr)), port);
+                }
+            } else {
+                if (last != null && last.getPort() == port && sameIPv6(last.getAddress(), i)) {
+                    remote = last;
+                } else {
+                    byte[] addr = new byte[16];
+                    System.arraycopy(batchAddrs6, i * 16, addr, 0, 16);
+                    remote = new IPPort(IP.fromIPv6(addr), port);
+                }
+            }
+            batch.set(i, batchLens[i], remote);
+        }
+        return n;
+    }
+
+    private boolean sameIPv6(IP ip, int idx) {
+        if (!(ip instanceof IPv6)) {
+            return false;
+        }
+        int off = idx * 16;
+        for (int w = 0; w < 4; ++w) {
+            int word = ip.getWord(w);
+            for (int b = 0; b < 4; ++b) {
+                if (batchAddrs6[off + w * 4 + b] != (byte) (word >>> (24 - b * 8))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int sendBatch(DatagramBatch batch, int count) throws IOException {
+        if (connected) {
+            throw new IOException("this fd is already connected");
+        }
+        checkNotClosed();
+        if (fd == -1) {
+            // let send() decide the address family
+            return DatagramFD.super.sendBatch(batch, count);
+        }
+        if (count > batch.slots) {
+            throw new IllegalArgumentException("count " + count + " > slots " + batch.slots);
+        }
+        ensureBatchArrays(batch);
+        for (int i = 0; i < count; ++i) {
+            IPPort remote = batch.address(i);
+            batchLens[i] = batch.length(i);
+            batchPorts[i] = remote.getPort();
+            IP ip = remote.getAddress();
+            if (ipv4) {
+                if (!(ip instanceof IPv4)) {
+                    throw new IOException("unsupported address for this fd: " + remote);
+                }
+                batchAddrs4[i] = ip.getWord(0);
+            } else {
+                if (!(ip instanceof IPv6)) {
+                    throw new IOException("unsupported address for this fd: " + remote);
+                }
+                for (int w = 0; w < 4; ++w) {
+                    int word = ip.getWord(w);
+                    for (int b = 0; b < 4; ++b) {
+                        batchAddrs6[i * 16 + w * 4 + b] = (byte) (word >>> (24 - b * 8));
+                    }
+                }
+            }
+        }
+        if (ipv4) {
+            return posix.sendmmsgIPv4(fd, batch.getBuffer(), 0, batch.slotSize, count, batchLens, batchAddrs4, batchPorts);
+        } else {
+            return posix.sendmmsgIPv6(fd, batch.getBuffer(), 0, batch.slotSize, count, batchLens, batchAddrs6, batchPorts);
+        }
+    }
 }
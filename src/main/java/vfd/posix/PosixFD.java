@@ -82,6 +82,10 @@ public class PosixFD extends AbstractBaseFD implements FD {
         }
     }
 
+    public int getFD() {
+        return fd;
+    }
+
     @Override
     public FD real() {
         return this;
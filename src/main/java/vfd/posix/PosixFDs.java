@@ -58,9 +58,10 @@ public class PosixFDs implements FDs, FDsWithTap {
         if (posix.pipeFDSupported()) {
             pipeFd = posix.openPipe();
         }
+        final int setsize = 1024 * 1024;
         long ae;
         try {
-            ae = posix.aeCreateEventLoop(1024 * 1024);
+            ae = posix.aeCreateEventLoop(setsize);
         } catch (IOException e) {
             if (pipeFd != null) {
                 try {
@@ -74,7 +75,7 @@ public class PosixFDs implements FDs, FDsWithTap {
             }
             throw e;
         }
-        return new AESelector(posix, ae, pipeFd);
+        return new AESelector(posix, ae, pipeFd, setsize);
     }
 
     @Override
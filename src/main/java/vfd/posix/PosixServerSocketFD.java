@@ -24,7 +24,11 @@ public class PosixServerSocketFD extends PosixFD implements ServerSocketFD {
         if (subFd == 0) {
             return null;
         }
-        return new PosixSocketFD(posix, subFd, local.getAddress() instanceof IPv4);
+        return createAcceptedSocketFD(subFd, local.getAddress() instanceof IPv4);
+    }
+
+    protected SocketFD createAcceptedSocketFD(int fd, boolean ipv4) {
+        return new PosixSocketFD(posix, fd, ipv4);
     }
 
     @Override
@@ -3,8 +3,14 @@ package vfd.posix;
 import vfd.SocketFD;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class PosixSocketFD extends PosixInetNetworkFD implements SocketFD {
+    // should not exceed V_IOV_MAX in vfd_posix.h
+    private static final int IOV_MAX = 16;
+    private int[] iovOffs;
+    private int[] iovLens;
+
     public PosixSocketFD(Posix posix) {
         super(posix);
     }
@@ -32,4 +38,90 @@ public class PosixSocketFD extends PosixInetNetworkFD implements SocketFD {
         connected = true;
         return true;
     }
+
+    // fill iovOffs and iovLens
+    // return false if the buffers cannot be passed to readv/writev directly
+    private boolean prepareIOVec(ByteBuffer[] buffers, int offset, int length) {
+        if (length > IOV_MAX) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (!buffers[offset + i].isDirect()) {
+                return false;
+            }
+        }
+        if (iovOffs == null) {
+            iovOffs = new int[IOV_MAX];
+            iovLens = new int[IOV_MAX];
+        }
+        for (int i = 0; i < length; ++i) {
+            ByteBuffer b = buffers[offset + i];
+            iovOffs[i] = b.position();
+            iovLens[i] = b.limit() - b.position();
+        }
+        return true;
+    }
+
+    // move positions of the buffers forward
+    private static void forwardIOVec(ByteBuffer[] buffers, int offset, int length, long n) {
+        for (int i = 0; i < length && n > 0; ++i) {
+            ByteBuffer b = buffers[offset + i];
+            int rem = b.limit() - b.position();
+            int x = (int) Math.min(rem, n);
+            b.position(b.position() + x);
+            n -= x;
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        if (!prepareIOVec(dsts, offset, length)) {
+            return SocketFD.super.read(dsts, offset, length);
+        }
+        long n = posix.readv(fd, dsts, offset, iovOffs, iovLens, length);
+        forwardIOVec(dsts, offset, length, n);
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        if (!prepareIOVec(srcs, offset, length)) {
+            return SocketFD.super.write(srcs, offset, length);
+        }
+        long n = posix.writev(fd, srcs, offset, iovOffs, iovLens, length);
+        forwardIOVec(srcs, offset, length, n);
+        return n;
+    }
+
+    // move at most len bytes from this socket into the pipe
+    // the pipe is expected to be empty,
+    // so returning 0 means the socket has nothing to read
+    // returns -1 for EOF
+    public int spliceTo(SplicePipe pipe, int len) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        return posix.splice(fd, pipe.writeFD, len);
+    }
+
+    // move at most len bytes from the pipe into this socket
+    // the pipe is expected to hold at least len bytes
+    public int spliceFrom(SplicePipe pipe, int len) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        int n = posix.splice(pipe.readFD, fd, len);
+        // the pipe will not reach EOF because the write end is held
+        return Math.max(n, 0);
+    }
 }
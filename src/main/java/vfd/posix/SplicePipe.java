@@ -0,0 +1,79 @@
+package vfd.posix;
+
+import vfd.SocketFD;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// a kernel pipe used for moving data between sockets with splice(2)
+// the data never enters user space
+public class SplicePipe {
+    final Posix posix;
+    final int readFD;
+    final int writeFD;
+    private boolean closed = false;
+
+    private SplicePipe(Posix posix, int readFD, int writeFD) {
+        this.posix = posix;
+        this.readFD = readFD;
+        this.writeFD = writeFD;
+    }
+
+    // the pipe can only be used with posix socket fds
+    public static SplicePipe open(SocketFD fd, int size) throws IOException {
+        if (!(fd instanceof PosixSocketFD)) {
+            throw new IOException("splice is not supported on " + fd);
+        }
+        Posix posix = ((PosixSocketFD) fd).posix;
+        int[] fds = posix.openSplicePipe(size);
+        return new SplicePipe(posix, fds[0], fds[1]);
+    }
+
+    public static boolean canSplice(SocketFD fd) {
+        return fd instanceof PosixSocketFD;
+    }
+
+    // read and drop all data in the pipe
+    public void discard() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+        try {
+            //noinspection StatementWithEmptyBody
+            while (posix.read(readFD, buf, 0, buf.capacity()) > 0) {
+            }
+        } finally {
+            Utils.clean(buf);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            posix.close(readFD);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing read end of the splice pipe failed", e);
+        }
+        try {
+            posix.close(writeFD);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing write end of the splice pipe failed", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SplicePipe{" +
+            "readFD=" + readFD +
+            ", writeFD=" + writeFD +
+            ", closed=" + closed +
+            '}';
+    }
+}
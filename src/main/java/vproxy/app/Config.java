@@ -71,6 +71,50 @@ public class Config {
     // -DmirrorConf=...
     public static final String mirrorConfigPath;
 
+    // the implementation of timer queue in event loops
+    // wheel: the hierarchical timing wheel, O(1) for adding and canceling timers
+    // heap: the priority queue based timer
+    // -DtimerImpl=wheel|heap
+    public static final String timerImpl;
+
+    // max bytes of direct buffers pooled in each event loop, set to 0 to disable the pool
+    // -DdirectBufferPoolMaxBytes=...
+    public static final long directBufferPoolMaxBytes;
+
+    // max entries of the response cache of recursive lookups in each dns server, set to 0 to disable the cache
+    // -DdnsResponseCacheSize=...
+    public static final int dnsResponseCacheSize;
+
+    // max packets received with one syscall (recvmmsg) by the switch and the dns server, at most 64
+    // -DudpBatchSize=...
+    public static final int udpBatchSize;
+
+    // threads and queue size of the shared pool running the ssl handshake tasks
+    // accepting of tls servers is paused when the queue is 3/4 full
+    // -DsslHandshakeThreads=... -DsslHandshakeQueueSize=...
+    public static final int sslHandshakeThreads;
+    public static final int sslHandshakeQueueSize;
+
+    // run short ssl handshake tasks on the event loop instead of the shared pool
+    // a task is considered short when the recent tasks took no longer than sslHandshakeInlineMaxMicros on average,
+    // otherwise it's still sent to the shared pool
+    // -DsslHandshakeInline=true|false -DsslHandshakeInlineMaxMicros=...
+    public static final boolean sslHandshakeInline;
+    public static final int sslHandshakeInlineMaxMicros;
+
+    // max sessions and the session lifetime (seconds) of the ssl session caches, used for session resumption
+    // each ssl context (one for each cert-key of a tcp-lb) has its own server cache
+    // -DsslSessionCacheSize=... -DsslSessionTimeout=...
+    public static final int sslSessionCacheSize;
+    public static final int sslSessionTimeout;
+
+    // max idle backend connections kept for each remote address in each event loop, set to 0 to disable the pool
+    // and the time (milliseconds) before an idle connection is closed, should be shorter than the keep-alive timeout of the backends
+    // the connections are shared between frontend connections of the same processor, see Processor#connectionPoolKey
+    // -DbackendPoolMaxIdle=... -DbackendPoolIdleTimeout=...
+    public static final int backendPoolMaxIdle;
+    public static final int backendPoolIdleTimeout;
+
     static {
         appClass = System.getProperty("eploy"); // -Deploy
         String probeConf = System.getProperty("probe", "");
@@ -81,6 +125,18 @@ public class Config {
         }
         domainWhichShouldResolve = System.getProperty("omainWhichShouldResolve", "www.qq.com");
         mirrorConfigPath = System.getProperty("mirrorConf", "");
+        timerImpl = System.getProperty("timerImpl", "wheel");
+        directBufferPoolMaxBytes = Long.parseLong(System.getProperty("directBufferPoolMaxBytes", "" + (32 * 1024 * 1024)));
+        dnsResponseCacheSize = Integer.parseInt(System.getProperty("dnsResponseCacheSize", "10000"));
+        udpBatchSize = Math.max(1, Math.min(64, Integer.parseInt(System.getProperty("udpBatchSize", "32"))));
+        sslHandshakeThreads = Integer.parseInt(System.getProperty("sslHandshakeThreads", "" + Runtime.getRuntime().availableProcessors()));
+        sslHandshakeQueueSize = Integer.parseInt(System.getProperty("sslHandshakeQueueSize", "1024"));
+        sslHandshakeInline = Boolean.parseBoolean(System.getProperty("sslHandshakeInline", "false"));
+        sslHandshakeInlineMaxMicros = Integer.parseInt(System.getProperty("sslHandshakeInlineMaxMicros", "500"));
+        sslSessionCacheSize = Integer.parseInt(System.getProperty("sslSessionCacheSize", "20480"));
+        sslSessionTimeout = Integer.parseInt(System.getProperty("sslSessionTimeout", "86400"));
+        backendPoolMaxIdle = Integer.parseInt(System.getProperty("backendPoolMaxIdle", "16"));
+        backendPoolIdleTimeout = Integer.parseInt(System.getProperty("backendPoolIdleTimeout", "4000"));
     }
 
     public static boolean supportReusePortLB() {
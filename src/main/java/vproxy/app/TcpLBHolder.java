@@ -25,23 +25,29 @@ public class TcpLBHolder {
         return new ArrayList<>(map.keySet());
     }
 
-    public void add(String alias,
-                    EventLoopGroup acceptorEventLoopGroup,
-                    EventLoopGroup workerEventLoopGroup,
-                    IPPort bindAddress,
-                    Upstream backend,
-                    int timeout,
-                    int inBufferSize,
-                    int outBufferSize,
-                    String protocol,
-                    CertKey[] sslCertKeys,
-                    SecurityGroup securityGroup) throws AlreadyExistException, IOException, ClosedException, Exception {
+    public TcpLB add(String alias,
+                     EventLoopGroup acceptorEventLoopGroup,
+                     EventLoopGroup workerEventLoopGroup,
+                     IPPort bindAddress,
+                     Upstream backend,
+                     int timeout,
+                     int inBufferSize,
+                     int outBufferSize,
+                     String protocol,
+                     CertKey[] sslCertKeys,
+                     SecurityGroup securityGroup,
+                     boolean shardedAccept,
+                     boolean splice,
+                     boolean bufferOnDemand) throws AlreadyExistException, IOException, ClosedException, Exception {
         if (map.containsKey(alias))
             throw new AlreadyExistException("tcp-lb", alias);
 
         VSSLContext sslContext = buildVSSLContext(sslCertKeys);
 
-        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backend, timeout, inBufferSize, outBufferSize, protocol, sslContext, sslCertKeys, securityGroup);
+        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backend, timeout, inBufferSize, outBufferSize, protocol, sslContext, sslCertKeys, securityGroup, shardedAccept);
+        // set before starting, otherwise connections accepted before the flags are set would not use them
+        tcpLB.setSplice(splice);
+        tcpLB.setBufferOnDemand(bufferOnDemand);
         try {
             tcpLB.start();
         } catch (IOException e) {
@@ -49,6 +55,7 @@ public class TcpLBHolder {
             throw e;
         }
         map.put(alias, tcpLB);
+        return tcpLB;
     }
 
     public VSSLContext buildVSSLContext(CertKey[] sslCertKeys) throws Exception {
@@ -11,8 +11,10 @@ import vproxy.connection.Connection;
 import vproxy.connection.ServerSock;
 import vproxy.dns.Cache;
 import vproxy.util.Callback;
+import vproxy.util.DirectBufferPool;
 import vproxy.util.LogType;
 import vproxy.util.Logger;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
 import vswitch.iface.Iface;
 import vswitch.util.MacAddress;
 
@@ -454,10 +456,53 @@ public class Command {
                         throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
                     case L:
                     case l:
-                        // can be found in server-sock
-                        if (targetResource == null)
-                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
-                        ServerSockHandle.checkServerSock(targetResource);
+                        // can be found in server-sock or tcp-lb
+                        StatisticHandle.checkAcceptedConnCount(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
+            case bufferpool:
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case L:
+                    case l:
+                        // can be found on top level or in event-loop
+                        StatisticHandle.checkBufferPool(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
+            case sslhandshake:
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                    case L:
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case l:
+                        // can only be found on top level
+                        StatisticHandle.checkSSLHandshake(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
+            case sslsession:
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                    case L:
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case l:
+                        // can be found in tcp-lb
+                        StatisticHandle.checkSSLSession(targetResource);
                         break;
                     default:
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
@@ -824,11 +869,41 @@ public class Command {
                 }
             case acceptedconncount:
                 switch (action) {
-                    case l:
                     case L:
+                        if (targetResource.type == ResourceType.tl) {
+                            List<String> accLines = StatisticHandle.acceptedConnCountDetail(targetResource);
+                            return new CmdResult(accLines, accLines, utilJoinList(accLines));
+                        }
+                        // fall through
+                    case l:
                         long acc = StatisticHandle.acceptedConnCount(targetResource);
                         return new CmdResult(acc, acc, "" + acc);
                 }
+            case bufferpool:
+                switch (action) {
+                    case l:
+                        DirectBufferPool.Stats stats = StatisticHandle.bufferPool(targetResource);
+                        String statsStr = stats.toString();
+                        return new CmdResult(stats, statsStr, statsStr);
+                    case L:
+                        stats = StatisticHandle.bufferPool(targetResource);
+                        List<String> statsLines = new ArrayList<>(stats.detail());
+                        statsLines.add(stats.toString());
+                        return new CmdResult(stats, statsLines, utilJoinList(statsLines));
+                }
+            case sslhandshake:
+                switch (action) {
+                    case l:
+                        SSLHandshakeExecutor.Stats hsStats = StatisticHandle.sslHandshake();
+                        String hsStatsStr = hsStats.toString();
+                        return new CmdResult(hsStats, hsStatsStr, hsStatsStr);
+                }
+            case sslsession:
+                switch (action) {
+                    case l:
+                        List<String> sessLines = StatisticHandle.sslSession(targetResource);
+                        return new CmdResult(sessLines, sessLines, utilJoinList(sessLines));
+                }
             case svr: // can only be retrieved from server group
                 switch (action) {
                     case l:
@@ -1039,9 +1114,13 @@ public class Command {
             case dnscache:
                 switch (action) {
                     case l:
-                        int cacheCnt = DnsCacheHandle.count();
+                        int cacheCnt = DnsCacheHandle.count(targetResource);
                         return new CmdResult(cacheCnt, cacheCnt, "" + cacheCnt);
                     case L:
+                        if (targetResource.type == ResourceType.dns) {
+                            List<String> lines = DnsCacheHandle.responseCacheDetail(targetResource);
+                            return new CmdResult(lines, lines, utilJoinList(lines));
+                        }
                         List<Cache> caches = DnsCacheHandle.detail();
                         List<Object> cacheStrList = caches.stream().map(c -> Arrays.asList(
                             c.host,
@@ -8,6 +8,14 @@ public enum Flag {
     denynonbackend("deny-non-backend"),
 
     noswitchflag("no-switch-flag"),
+
+    splice("splice"),
+    nosplice("no-splice"),
+
+    bufferondemand("buffer-on-demand"),
+    nobufferondemand("no-buffer-on-demand"),
+
+    shardedaccept("sharded-accept"),
     ;
     public final String fullname;
 
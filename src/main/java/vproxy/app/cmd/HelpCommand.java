@@ -439,6 +439,11 @@ public class HelpCommand {
         allownonbackend("allow-non-backend", null, "allow to access non backend endpoints"),
         denynonbackend("deny-non-backend", null, "only able to access backend endpoints"),
         noswitchflag("no-switch-flag", null, "do not add switch flag on vxlan packet"),
+        splice("splice", null, "move data with splice(2) inside the kernel"),
+        nosplice("no-splice", null, "move data through user space buffers"),
+        bufferondemand("buffer-on-demand", null, "only hold buffers when there's data to proxy"),
+        nobufferondemand("no-buffer-on-demand", null, "hold buffers for the whole lifetime of connections"),
+        shardedaccept("sharded-accept", null, "each worker event loop accepts connections on its own SO_REUSEPORT listening socket"),
         ;
         public final String flag;
         public final String shortVer;
@@ -465,6 +470,14 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.certkey, "the certificates and keys used by tcp-lb. Multiple cert-key(s) are separated with `,`")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.splice, "use splice(2) to proxy data without copying it into user space. " +
+                        "Only takes effect when protocol is tcp without cert-key, and requires -Dvfd=posix or -Dvfd=epoll on Linux", false),
+                    new ResActFlagMan(FlagMan.bufferondemand, "idle connections hold no buffers, buffers are taken from the pool when data arrives " +
+                        "and given back when all data is sent. Only takes effect when protocol is tcp without cert-key", false),
+                    new ResActFlagMan(FlagMan.shardedaccept, "bind one SO_REUSEPORT listening socket on each worker event loop, " +
+                        "connections are handled on the loop which accepts them and the acceptor-elg is not used. Requires SO_REUSEPORT support", false)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "add tcp-lb lb0 acceptor-elg elg0 event-loop-group elg0 address 127.0.0.1:18080 upstream ups0 in-buffer-size 16384 out-buffer-size 16384",
@@ -493,6 +506,12 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "not changed")
                     , new ResActParamMan(ParamMan.securitygroup, "the security group", "not changed")
                 ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.splice, "use splice(2) for new connections", false),
+                    new ResActFlagMan(FlagMan.nosplice, "do not use splice(2) for new connections", false),
+                    new ResActFlagMan(FlagMan.bufferondemand, "attach buffers on demand for new connections", false),
+                    new ResActFlagMan(FlagMan.nobufferondemand, "always attach buffers for new connections", false)
+                ),
                 Collections.singletonList(
                     new Tuple<>(
                         "update tcp-lb lb0 in-buffer-size 32768 out-buffer-size 32768",
@@ -692,7 +711,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`", "tcp"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`", "wrr"),
                         new ResActParamMan(ParamMan.annotations, "extra info for the server-group, such as host info, health check url. Must be a json and values must be strings", "{}"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group", Application.DEFAULT_CONTROL_EVENT_LOOP_GROUP_NAME)
                     ),
@@ -749,7 +768,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`. " +
                             "Note: this field will be set to `tcp` as default when updating other hc options", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in the upstream resource (only available for server-group in upstream)", "not changed"),
                         new ResActParamMan(ParamMan.annotations, "annotation of the group itself, or the group in the upstream", "not changed")
                     ),
@@ -820,7 +839,7 @@ public class HelpCommand {
                 new ResActMan(ActMan.addto, "specify name, remote ip:port, weight, and attach the server into the server group",
                     Arrays.asList(
                         new ResActParamMan(ParamMan.address, "remote address, ip:port"),
-                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by wrr, wlc and source algorithm", "10")
+                        new ResActParamMan(ParamMan.weight, "weight of the server, which will be used by all algorithms", "10")
                     ),
                     Collections.singletonList(
                         new Tuple<>(
@@ -982,14 +1001,19 @@ public class HelpCommand {
                         )
                     ))
             )),
-        dnscache("dns-cache", null, "The dns record cache. It's a host -> ipv4List, ipv6List map. It can only be accessed from the (default) dns resolver",
+        dnscache("dns-cache", null, "The dns record cache. It's a host -> ipv4List, ipv6List map when accessed from the (default) dns resolver. " +
+            "It's the response cache of recursive lookups when accessed from a dns-server",
             Arrays.asList(
                 new ResActMan(ActMan.list, "count current cache",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "list dns-cache in resolver (default)",
                             "(integer) 1"
+                        ),
+                        new Tuple<>(
+                            "list dns-cache in dns-server dns0",
+                            "(integer) 2"
                         )
                     )),
                 new ResActMan(ActMan.listdetail, "list detailed info of dns cache.\n" +
@@ -998,22 +1022,35 @@ public class HelpCommand {
                     "\n" +
                     "host.\n" +
                     "ipv4 ip list.\n" +
-                    "ipv6 ip list",
+                    "ipv6 ip list.\n" +
+                    "\n" +
+                    "For dns-server, the first line is the hit ratio of the response cache, " +
+                    "and the following lines are the cached responses",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "list-detail dns-cache in resolver (default)",
                             "1) 1) \"localhost\"\n" +
                                 "   2) 1) \"127.0.0.1\"\n" +
                                 "   3) 1) \"[0000:0000:0000:0000:0000:0000:0000:0001]\""
+                        ),
+                        new Tuple<>(
+                            "list-detail dns-cache in dns-server dns0",
+                            "1) \"hit-ratio 0.9000 hits 18 misses 2 size 2/10000\"\n" +
+                                "2) \"example.com. A IN -> positive ttl 3560 hits 17\"\n" +
+                                "3) \"no-such-domain.com. A IN -> negative ttl 820 hits 1\""
                         )
                     )),
                 new ResActMan(ActMan.forceremove, "specify the host and remove the dns cache",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "force-remove dns-cache localhost from resolver (default)",
                             "\"OK\""
+                        ),
+                        new Tuple<>(
+                            "force-remove dns-cache example.com. from dns-server dns0",
+                            "\"OK\""
                         )
                     ))
             )),
@@ -1197,13 +1234,73 @@ public class HelpCommand {
                     ))
             )),
         acceptedconncount("accepted-conn-count", null, "Statistics: successfully accpeted connections",
-            Collections.singletonList(
+            Arrays.asList(
                 new ResActMan(ActMan.list, "get history total accepted connection count",
                     Collections.emptyList(),
-                    Collections.singletonList(
+                    Arrays.asList(
                         new Tuple<>(
                             "list accepted-conn-count in server-sock 127.0.0.1:6380 in tl lb0",
                             "(integer) 2"
+                        ),
+                        new Tuple<>(
+                            "list accepted-conn-count in tl lb0",
+                            "(integer) 5"
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "get accepted connection count and accept rate (connections in the last second) of each listening socket of a tcp-lb",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list-detail accepted-conn-count in tl lb0",
+                            "1) \"worker1 -> accepted 3 accept-rate 1\"\n" +
+                                "2) \"worker2 -> accepted 2 accept-rate 0\""
+                        )
+                    ))
+            )),
+        bufferpool("buffer-pool", null, "Statistics: hit/miss and footprint of the direct buffer pools",
+            Arrays.asList(
+                new ResActMan(ActMan.list, "get summary of the buffer pools of all event loops, or the pool of an event loop",
+                    Collections.emptyList(),
+                    Arrays.asList(
+                        new Tuple<>(
+                            "list buffer-pool",
+                            "\"total -> hit 1018 miss 22 dropped 0 pooled-count 20 pooled-bytes 327680\""
+                        ),
+                        new Tuple<>(
+                            "list buffer-pool in el worker1 in elg worker",
+                            "\"total -> hit 506 miss 10 dropped 0 pooled-count 10 pooled-bytes 163840\""
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "get stats of each size class of the buffer pools",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list-detail buffer-pool",
+                            "1) \"size 16384 -> hit 1018 miss 22 dropped 0 pooled-count 20 pooled-bytes 327680\"\n" +
+                                "2) \"total -> hit 1018 miss 22 dropped 0 pooled-count 20 pooled-bytes 327680\""
+                        )
+                    ))
+            )),
+        sslhandshake("ssl-handshake", null, "Statistics: queue depth and latency of the shared ssl handshake task pool",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get stats of the ssl handshake task pool",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list ssl-handshake",
+                            "\"submitted 120 inline 0 overflow 0 completed 120 queue-depth 0 max-queue-depth 7 active-threads 0 avg-wait-us 85 max-wait-us 2310 avg-run-us 1460 max-run-us 9877 avg-task-us 730 saturated 0\""
+                        )
+                    ))
+            )),
+        sslsession("ssl-session", null, "Statistics: ssl session resumption of each cert-key of a tcp-lb",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get full and resumed handshake count, and resumption hit rate of each cert-key",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list ssl-session in tl lb0",
+                            "1) \"ck0 -> full 120 resumed 360 hit-rate 75.00%\"\n" +
+                                "2) \"ck1 -> full 3 resumed 0 hit-rate 0.00%\""
                         )
                     ))
             )),
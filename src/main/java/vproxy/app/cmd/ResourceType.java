@@ -15,6 +15,9 @@ public enum ResourceType {
     bin("bytes-in"),
     bout("bytes-out"),
     acceptedconncount("accepted-conn-count"),
+    bufferpool("buffer-pool"),
+    sslhandshake("ssl-handshake"),
+    sslsession("ssl-session"),
     secg("security-group"),
     secgr("security-group-rule"),
     resolver("resolver"),
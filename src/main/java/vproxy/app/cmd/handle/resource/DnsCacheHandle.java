@@ -4,6 +4,7 @@ import vproxy.app.cmd.Command;
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
 import vproxy.dns.Cache;
+import vproxy.dns.DNSResponseCache;
 import vproxy.dns.Resolver;
 
 import java.util.LinkedList;
@@ -16,10 +17,19 @@ public class DnsCacheHandle {
     public static void checkDnsCache(Resource parent) throws Exception {
         if (parent == null)
             throw new Exception("cannot find " + ResourceType.dnscache.fullname + " on top level");
+        if (parent.type == ResourceType.dns) {
+            // response cache of the dns server
+            if (parent.parentResource != null)
+                throw new Exception(parent.type.fullname + " is on top level");
+            return;
+        }
         ResolverHandle.checkResolver(parent);
     }
 
-    public static int count() {
+    public static int count(Resource parent) throws Exception {
+        if (parent.type == ResourceType.dns) {
+            return DNSServerHandle.get(parent).responseCache.size();
+        }
         Resolver resolver = Resolver.getDefault();
         return resolver.cacheCount();
     }
@@ -30,7 +40,22 @@ public class DnsCacheHandle {
         return caches;
     }
 
-    public static void remove(Command cmd) {
+    // the first line is the hit ratio, and the following lines are the entries
+    public static List<String> responseCacheDetail(Resource parent) throws Exception {
+        DNSResponseCache cache = DNSServerHandle.get(parent).responseCache;
+        List<String> lines = new LinkedList<>();
+        lines.add(cache.toString());
+        for (DNSResponseCache.Entry e : cache.entries()) {
+            lines.add(e.toString());
+        }
+        return lines;
+    }
+
+    public static void remove(Command cmd) throws Exception {
+        if (cmd.prepositionResource.type == ResourceType.dns) {
+            DNSServerHandle.get(cmd.prepositionResource).responseCache.remove(cmd.resource.alias);
+            return;
+        }
         List<Cache> caches = detail();
         String host = cmd.resource.alias;
         for (Cache c : caches) {
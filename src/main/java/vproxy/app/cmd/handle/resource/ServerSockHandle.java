@@ -41,7 +41,7 @@ public class ServerSockHandle {
         if (parent.type == ResourceType.el) {
             return EventLoopHandle.get(parent).serverCount();
         } else if (parent.type == ResourceType.tl) {
-            return TcpLBHandle.get(parent).acceptorGroup.list().size();
+            return TcpLBHandle.get(parent).servers.size();
         } else {
             assert parent.type == ResourceType.socks5;
             return Socks5ServerHandle.get(parent).acceptorGroup.list().size();
@@ -2,7 +2,18 @@ package vproxy.app.cmd.handle.resource;
 
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.ResourceType;
+import vproxy.component.app.TcpLB;
+import vproxy.component.elgroup.EventLoopWrapper;
+import vproxy.component.proxy.Proxy;
+import vproxy.connection.NetEventLoop;
 import vproxy.connection.ServerSock;
+import vproxy.util.DirectBufferPool;
+import vproxy.util.ringbuffer.ssl.SSLContextHolder;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 public class StatisticHandle {
     private StatisticHandle() {
@@ -30,8 +41,82 @@ public class StatisticHandle {
             throw new Exception("i don't think that " + parent.type + " contains connections");
     }
 
+    public static void checkAcceptedConnCount(Resource parent) throws Exception {
+        if (parent == null)
+            throw new Exception("cannot find " + ResourceType.acceptedconncount.fullname + " on top level");
+        if (parent.type == ResourceType.tl) {
+            TcpLBHandle.checkTcpLB(parent);
+        } else {
+            ServerSockHandle.checkServerSock(parent);
+        }
+    }
+
     public static long acceptedConnCount(Resource parent) throws Exception {
+        if (parent.type == ResourceType.tl) {
+            long n = 0;
+            for (ServerSock bs : TcpLBHandle.get(parent).servers.keySet()) {
+                n += bs.getHistoryAcceptedConnectionCount();
+            }
+            return n;
+        }
         ServerSock bs = ServerSockHandle.get(parent);
         return bs.getHistoryAcceptedConnectionCount();
     }
+
+    // one line for each listening socket (shard) of the tcp-lb
+    public static List<String> acceptedConnCountDetail(Resource parent) throws Exception {
+        List<String> lines = new LinkedList<>();
+        for (Map.Entry<ServerSock, Proxy> entry : TcpLBHandle.get(parent).servers.entrySet()) {
+            ServerSock bs = entry.getKey();
+            NetEventLoop loop = entry.getValue().config.getAcceptLoop();
+            String name = (loop instanceof EventLoopWrapper) ? ((EventLoopWrapper) loop).alias : bs.id();
+            lines.add(name + " -> accepted " + bs.getHistoryAcceptedConnectionCount() + " accept-rate " + bs.getAcceptRate());
+        }
+        return lines;
+    }
+
+    public static void checkBufferPool(Resource parent) throws Exception {
+        if (parent == null)
+            return; // top level: stats of all event loops
+        if (parent.type != ResourceType.el)
+            throw new Exception(parent.type.fullname + " does not contain " + ResourceType.bufferpool.fullname);
+        EventLoopHandle.checkEventLoop(parent);
+    }
+
+    public static DirectBufferPool.Stats bufferPool(Resource parent) throws Exception {
+        if (parent == null) {
+            return DirectBufferPool.globalStats();
+        }
+        return EventLoopHandle.get(parent).getSelectorEventLoop().bufferPool.stats();
+    }
+
+    public static void checkSSLHandshake(Resource parent) throws Exception {
+        if (parent != null)
+            throw new Exception(parent.type.fullname + " does not contain " + ResourceType.sslhandshake.fullname);
+    }
+
+    public static SSLHandshakeExecutor.Stats sslHandshake() {
+        return SSLHandshakeExecutor.get().stats();
+    }
+
+    public static void checkSSLSession(Resource parent) throws Exception {
+        if (parent == null)
+            throw new Exception("cannot find " + ResourceType.sslsession.fullname + " on top level");
+        if (parent.type != ResourceType.tl)
+            throw new Exception(parent.type.fullname + " does not contain " + ResourceType.sslsession.fullname);
+        TcpLBHandle.checkTcpLB(parent);
+    }
+
+    // one line for each cert-key of the tcp-lb
+    public static List<String> sslSession(Resource parent) throws Exception {
+        TcpLB tl = TcpLBHandle.get(parent);
+        List<String> lines = new LinkedList<>();
+        if (tl.getSslContext() == null) {
+            return lines;
+        }
+        for (SSLContextHolder.SessionStats stats : tl.getSslContext().sslContextHolder.sessionStats()) {
+            lines.add(stats.toString());
+        }
+        return lines;
+    }
 }
@@ -4,6 +4,7 @@ import vfd.IPPort;
 import vproxy.app.Application;
 import vproxy.app.Config;
 import vproxy.app.cmd.Command;
+import vproxy.app.cmd.Flag;
 import vproxy.app.cmd.Param;
 import vproxy.app.cmd.Resource;
 import vproxy.app.cmd.handle.param.AddrHandle;
@@ -118,8 +119,11 @@ public class TcpLBHandle {
                 certKeys[i] = Application.get().certKeyHolder.get(cks[i]);
             }
         }
+        boolean shardedAccept = cmd.flags.contains(Flag.shardedaccept);
+        boolean splice = cmd.flags.contains(Flag.splice);
+        boolean bufferOnDemand = cmd.flags.contains(Flag.bufferondemand);
         Application.get().tcpLBHolder.add(
-            alias, acceptor, worker, addr, backend, timeout, inBufferSize, outBufferSize, protocol, certKeys, secg
+            alias, acceptor, worker, addr, backend, timeout, inBufferSize, outBufferSize, protocol, certKeys, secg, shardedAccept, splice, bufferOnDemand
         );
     }
 
@@ -142,6 +146,16 @@ public class TcpLBHandle {
         if (cmd.args.containsKey(Param.secg)) {
             tcpLB.securityGroup = Application.get().securityGroupHolder.get(cmd.args.get(Param.secg));
         }
+        if (cmd.flags.contains(Flag.splice)) {
+            tcpLB.setSplice(true);
+        } else if (cmd.flags.contains(Flag.nosplice)) {
+            tcpLB.setSplice(false);
+        }
+        if (cmd.flags.contains(Flag.bufferondemand)) {
+            tcpLB.setBufferOnDemand(true);
+        } else if (cmd.flags.contains(Flag.nobufferondemand)) {
+            tcpLB.setBufferOnDemand(false);
+        }
         if (cmd.args.containsKey(Param.ck)) {
             if (tcpLB.getCertKeys() == null || tcpLB.getCertKeys().length == 0) {
                 throw new XException("cannot configure the tcp-lb to use TLS when it's originally using plain TCP");
@@ -172,7 +186,10 @@ public class TcpLBHandle {
                 + " timeout " + tcpLB.getTimeout()
                 + " in-buffer-size " + tcpLB.getInBufferSize() + " out-buffer-size " + tcpLB.getOutBufferSize()
                 + " protocol " + tcpLB.protocol
-                + " security-group " + tcpLB.securityGroup.alias;
+                + " security-group " + tcpLB.securityGroup.alias
+                + (tcpLB.isSplice() ? " splice" : "")
+                + (tcpLB.isBufferOnDemand() ? " buffer-on-demand" : "")
+                + (tcpLB.shardedAccept ? " sharded-accept" : "");
         }
     }
 }
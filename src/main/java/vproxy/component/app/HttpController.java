@@ -54,6 +54,10 @@ public class HttpController {
 
         // hc
         server.get("/healthz", ctx -> ctx.response().end("OK"));
+        // prometheus
+        server.get("/metrics", ctx -> ctx.response()
+            .header("Content-Type", PrometheusMetrics.CONTENT_TYPE)
+            .end(PrometheusMetrics.format()));
         // json
         server.all(apiBase + "/*", Tool.bodyJsonHandler());
         // all
@@ -73,6 +77,9 @@ public class HttpController {
                 .put("outBufferSize", 16384)
                 .putArray("listOfCertKey", arr -> arr.add("alias of the cert-key to be used"))
                 .put("securityGroup", "alias of the security group, default: (allow-all)")
+                .put("splice", false)
+                .put("bufferOnDemand", false)
+                .put("shardedAccept", false)
                 .build(),
             "name", "address", "backend"));
         server.put(moduleBase + "/tcp-lb/:tl", wrapAsync(this::updateTcpLb, new ObjectBuilder()
@@ -80,6 +87,8 @@ public class HttpController {
             .put("outBufferSize", 16384)
             .putArray("listOfCertKey", arr -> arr.add("alias of the cert-key to be used"))
             .put("securityGroup", "alias of the security group")
+            .put("splice", false)
+            .put("bufferOnDemand", false)
             .build()));
         server.del(moduleBase + "/tcp-lb/:tl", wrapAsync(this::deleteTcpLb));
         // socks5-server
@@ -381,6 +390,15 @@ public class HttpController {
             options.add("security-group");
             options.add(body.getString("securityGroup"));
         }
+        if (bodyContainsKey(body, "splice") && body.getBool("splice")) {
+            options.add("splice");
+        }
+        if (bodyContainsKey(body, "bufferOnDemand") && body.getBool("bufferOnDemand")) {
+            options.add("buffer-on-demand");
+        }
+        if (bodyContainsKey(body, "shardedAccept") && body.getBool("shardedAccept")) {
+            options.add("sharded-accept");
+        }
         utils.execute(cb, options);
     }
 
@@ -428,6 +446,20 @@ public class HttpController {
             options.add("security-group");
             options.add(body.getString("securityGroup"));
         }
+        if (bodyContainsKey(body, "splice")) {
+            if (body.getBool("splice")) {
+                options.add("splice");
+            } else {
+                options.add("no-splice");
+            }
+        }
+        if (bodyContainsKey(body, "bufferOnDemand")) {
+            if (body.getBool("bufferOnDemand")) {
+                options.add("buffer-on-demand");
+            } else {
+                options.add("no-buffer-on-demand");
+            }
+        }
         utils.execute(cb, options);
     }
 
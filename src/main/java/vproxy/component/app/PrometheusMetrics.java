@@ -0,0 +1,124 @@
+package vproxy.component.app;
+
+import vproxy.app.Application;
+import vproxy.component.exception.NotFoundException;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.connection.ServerSock;
+import vproxy.util.LatencyHistogram;
+import vproxy.util.LatencyRecorder;
+
+import java.math.BigDecimal;
+
+/**
+ * format the metrics in prometheus text format (version 0.0.4)<br>
+ * the latency histograms are merged from all event loops, and the counters are read from the resources,
+ * nothing is locked on the data path
+ */
+public class PrometheusMetrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] LE = new String[LatencyHistogram.BUCKETS];
+
+    static {
+        for (int i = 0; i < LatencyHistogram.BOUNDED_BUCKETS; ++i) {
+            LE[i] = BigDecimal.valueOf(LatencyHistogram.upperBoundMicros(i), 6).stripTrailingZeros().toPlainString();
+        }
+        LE[LatencyHistogram.BOUNDED_BUCKETS] = "+Inf";
+    }
+
+    private PrometheusMetrics() {
+    }
+
+    public static String format() {
+        StringBuilder sb = new StringBuilder();
+
+        LatencyRecorder.Stats latency = LatencyRecorder.globalStats();
+        for (LatencyRecorder.Kind kind : LatencyRecorder.Kind.values()) {
+            histogram(sb, "vproxy_" + kind.metricName + "_seconds", kind.help, latency.get(kind));
+        }
+
+        var app = Application.get();
+
+        header(sb, "vproxy_tcp_lb_accepted_connections_total", "counter", "connections accepted by the tcp-lb");
+        header(sb, "vproxy_tcp_lb_bytes_in_total", "counter", "bytes received from the clients of the tcp-lb");
+        header(sb, "vproxy_tcp_lb_bytes_out_total", "counter", "bytes sent to the clients of the tcp-lb");
+        for (String name : app.tcpLBHolder.names()) {
+            TcpLB tl;
+            try {
+                tl = app.tcpLBHolder.get(name);
+            } catch (NotFoundException e) {
+                continue; // removed
+            }
+            tcpLB(sb, "vproxy_tcp_lb_", "tcp_lb", name, tl);
+        }
+
+        header(sb, "vproxy_socks5_server_accepted_connections_total", "counter", "connections accepted by the socks5-server");
+        header(sb, "vproxy_socks5_server_bytes_in_total", "counter", "bytes received from the clients of the socks5-server");
+        header(sb, "vproxy_socks5_server_bytes_out_total", "counter", "bytes sent to the clients of the socks5-server");
+        for (String name : app.socks5ServerHolder.names()) {
+            Socks5Server socks5;
+            try {
+                socks5 = app.socks5ServerHolder.get(name);
+            } catch (NotFoundException e) {
+                continue; // removed
+            }
+            tcpLB(sb, "vproxy_socks5_server_", "socks5_server", name, socks5);
+        }
+
+        header(sb, "vproxy_server_bytes_in_total", "counter", "bytes received from the backend server");
+        header(sb, "vproxy_server_bytes_out_total", "counter", "bytes sent to the backend server");
+        header(sb, "vproxy_server_healthy", "gauge", "1 if the backend server is UP, 0 otherwise");
+        for (String name : app.serverGroupHolder.names()) {
+            ServerGroup sg;
+            try {
+                sg = app.serverGroupHolder.get(name);
+            } catch (NotFoundException e) {
+                continue; // removed
+            }
+            for (ServerGroup.ServerHandle svr : sg.getServerHandles()) {
+                String labels = "{server_group=\"" + escape(name) + "\",server=\"" + escape(svr.alias) + "\"}";
+                sb.append("vproxy_server_bytes_in_total").append(labels).append(' ').append(svr.getFromRemoteBytes()).append('\n');
+                sb.append("vproxy_server_bytes_out_total").append(labels).append(' ').append(svr.getToRemoteBytes()).append('\n');
+                sb.append("vproxy_server_healthy").append(labels).append(' ').append(svr.healthy ? 1 : 0).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String metric, String type, String help) {
+        sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String metric, String help, LatencyHistogram.Snapshot h) {
+        header(sb, metric, "histogram", help);
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+            cumulative += h.buckets[i];
+            sb.append(metric).append("_bucket{le=\"").append(LE[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(metric).append("_sum ").append(h.sumNanos / 1_000_000_000d).append('\n');
+        // same as the +Inf bucket
+        sb.append(metric).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static void tcpLB(StringBuilder sb, String prefix, String labelName, String name, TcpLB tl) {
+        long accepted = 0;
+        long in = 0;
+        long out = 0;
+        for (ServerSock ss : tl.servers.keySet()) {
+            accepted += ss.getHistoryAcceptedConnectionCount();
+            in += ss.getFromRemoteBytes();
+            out += ss.getToRemoteBytes();
+        }
+        String labels = "{" + labelName + "=\"" + escape(name) + "\"}";
+        sb.append(prefix).append("accepted_connections_total").append(labels).append(' ').append(accepted).append('\n');
+        sb.append(prefix).append("bytes_in_total").append(labels).append(' ').append(in).append('\n');
+        sb.append(prefix).append("bytes_out_total").append(labels).append(' ').append(out).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
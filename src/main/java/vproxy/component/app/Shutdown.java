@@ -503,6 +503,15 @@ public class Shutdown {
                         cmd.append(",").append(tl.getCertKeys()[i].alias);
                     }
                 }
+                if (tl.isSplice()) {
+                    cmd.append(" splice");
+                }
+                if (tl.isBufferOnDemand()) {
+                    cmd.append(" buffer-on-demand");
+                }
+                if (tl.shardedAccept) {
+                    cmd.append(" sharded-accept");
+                }
                 commands.add(cmd.toString());
             }
         }
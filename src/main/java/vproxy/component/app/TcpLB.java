@@ -68,11 +68,16 @@ public class TcpLB {
     public final String alias;
     public final EventLoopGroup acceptorGroup;
     public final EventLoopGroup workerGroup;
+    // when true, each worker loop owns a SO_REUSEPORT listener (acceptorGroup is not used)
+    // and the accepted sessions are handled on the accepting loop
+    public final boolean shardedAccept;
     public final IPPort bindAddress;
     public final Upstream backend;
     private int timeout; // modifiable
     private int inBufferSize; // modifiable
     private int outBufferSize; // modifiable
+    private boolean splice = false; // modifiable, only takes effect for `tcp` without tls on posix fds
+    private boolean bufferOnDemand = false; // modifiable, only takes effect for `tcp` without tls
     public final String protocol;
     public final Processor processor;
     private VSSLContext sslContext;
@@ -115,9 +120,25 @@ public class TcpLB {
                  VSSLContext sslContext,
                  CertKey[] certKeys,
                  SecurityGroup securityGroup) throws AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backend, timeout, inBufferSize, outBufferSize, protocol, sslContext, certKeys, securityGroup, false);
+    }
+
+    public TcpLB(String alias,
+                 EventLoopGroup acceptorGroup,
+                 EventLoopGroup workerGroup,
+                 IPPort bindAddress,
+                 Upstream backend,
+                 int timeout,
+                 int inBufferSize, int outBufferSize,
+                 String protocol,
+                 VSSLContext sslContext,
+                 CertKey[] certKeys,
+                 SecurityGroup securityGroup,
+                 boolean shardedAccept) throws AlreadyExistException, ClosedException {
         this.alias = alias;
         this.acceptorGroup = acceptorGroup;
         this.workerGroup = workerGroup;
+        this.shardedAccept = shardedAccept;
         this.bindAddress = bindAddress;
         this.backend = backend;
         this.timeout = timeout;
@@ -133,9 +154,14 @@ public class TcpLB {
         // if it's created, it should start to run
         // so create it in start() method
 
-        // attach to acceptorGroup
+        // attach to the group which listens
         this.attach = new LBAttach();
-        acceptorGroup.attachResource(attach);
+        listenGroup().attachResource(attach);
+    }
+
+    // the group where the listening sockets are bond
+    private EventLoopGroup listenGroup() {
+        return shardedAccept ? workerGroup : acceptorGroup;
     }
 
     // this method can override
@@ -183,6 +209,10 @@ public class TcpLB {
         return new ProxyNetConfig()
             .setConnGen(provideConnectorGen())
             .setHandleLoopProvider(acceptLoop -> {
+                if (shardedAccept) {
+                    // the session is pinned to the loop which accepted it
+                    return acceptLoop;
+                }
                 // get a event loop from group
                 EventLoopWrapper w = workerGroup.next(acceptLoop);
                 if (w == null)
@@ -193,6 +223,8 @@ public class TcpLB {
             .setTimeout(timeout)
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setSplice(splice)
+            .setBufferOnDemand(bufferOnDemand)
             .setServer(server)
             .setAcceptLoop(eventLoop)
             .setSslContext(sslContext);
@@ -204,10 +236,13 @@ public class TcpLB {
             if (destroyed) {
                 throw new IOException("the lb is already destroyed");
             }
+            if (shardedAccept && !ServerSock.supportReusePort()) {
+                throw new IOException("SO_REUSEPORT is not supported, cannot shard the listening socket");
+            }
 
             stopped = false;
 
-            List<EventLoopWrapper> eventLoops = acceptorGroup.list();
+            List<EventLoopWrapper> eventLoops = listenGroup().list();
             if (eventLoops.isEmpty()) {
                 assert Logger.lowLevelDebug("cannot start because event loop list is empty, will start later");
                 return;
@@ -271,7 +306,7 @@ public class TcpLB {
         }
 
         try {
-            acceptorGroup.detachResource(attach);
+            listenGroup().detachResource(attach);
         } catch (NotFoundException e) {
             // ignore
         }
@@ -312,6 +347,20 @@ public class TcpLB {
         }
     }
 
+    public void setSplice(boolean splice) {
+        this.splice = splice;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setSplice(splice);
+        }
+    }
+
+    public void setBufferOnDemand(boolean bufferOnDemand) {
+        this.bufferOnDemand = bufferOnDemand;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setBufferOnDemand(bufferOnDemand);
+        }
+    }
+
     public void setCertKeys(VSSLContext sslContext, CertKey[] certKeys) {
         this.sslContext = sslContext;
         this.certKeys = certKeys;
@@ -331,7 +380,19 @@ public class TcpLB {
         return timeout;
     }
 
+    public boolean isSplice() {
+        return splice;
+    }
+
+    public boolean isBufferOnDemand() {
+        return bufferOnDemand;
+    }
+
     public CertKey[] getCertKeys() {
         return certKeys;
     }
+
+    public VSSLContext getSslContext() {
+        return sslContext;
+    }
 }
@@ -378,7 +378,7 @@ class utils {
         return new ObjectBuilder()
             .put("name", sg.alias)
             .put("weight", sg.getWeight())
-            .putInst("annotations", formatAnnotations(sg.annotations))
+            .putInst("annotations", formatAnnotations(sg.getAnnotations()))
             .build();
     }
 
@@ -386,7 +386,7 @@ class utils {
         return new ObjectBuilder()
             .put("name", sg.alias)
             .put("weight", sg.getWeight())
-            .putInst("annotations", formatAnnotations(sg.annotations))
+            .putInst("annotations", formatAnnotations(sg.getAnnotations()))
             .putInst("serverGroup", formatServerGroupDetail(sg.group))
             .build();
     }
@@ -482,6 +482,9 @@ class utils {
             .put("outBufferSize", tl.getOutBufferSize())
             .putInst("listOfCertKey", listOfCertKey)
             .put("securityGroup", tl.securityGroup.alias)
+            .put("splice", tl.isSplice())
+            .put("bufferOnDemand", tl.isBufferOnDemand())
+            .put("shardedAccept", tl.shardedAccept)
             .build();
     }
 
@@ -507,6 +510,9 @@ class utils {
             .put("outBufferSize", tl.getOutBufferSize())
             .putInst("listOfCertKey", listOfCertKey)
             .putInst("securityGroup", formatSecurityGroupDetail(tl.securityGroup))
+            .put("splice", tl.isSplice())
+            .put("bufferOnDemand", tl.isBufferOnDemand())
+            .put("shardedAccept", tl.shardedAccept)
             .build();
     }
 
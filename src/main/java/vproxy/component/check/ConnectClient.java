@@ -13,6 +13,7 @@ import vproxy.processor.http1.entity.Response;
 import vproxy.selector.TimerEvent;
 import vproxy.util.ByteArray;
 import vproxy.util.Callback;
+import vproxy.util.LatencyRecorder;
 import vproxy.util.Logger;
 import vproxy.util.RingBuffer;
 import vproxy.util.nio.ByteArrayChannel;
@@ -352,9 +353,11 @@ public class ConnectClient {
 
     public void handle(Callback<ConnectResult, IOException> cb) {
         long start = FDProvider.get().currentTimeMillis(); // need precise time, so do not use time recorded in Config
+        long startNanos = System.nanoTime();
         this.handleFunc.accept(new Callback<>() {
             @Override
             protected void onSucceeded(Void value) {
+                LatencyRecorder.recordSince(LatencyRecorder.Kind.healthCheck, startNanos);
                 cb.succeeded(new ConnectResult(
                     FDProvider.get().currentTimeMillis() - start
                 ));
@@ -46,6 +46,11 @@ public class EventLoopWrapper extends NetEventLoop {
         public void exception(ServerHandlerContext ctx, IOException err) {
             handler.exception(ctx, err);
         }
+
+        @Override
+        public boolean pauseAccepting() {
+            return handler.pauseAccepting();
+        }
     }
 
     class ConnectionHandlerWrapper implements ConnectionHandler {
@@ -0,0 +1,206 @@
+package vproxy.component.proxy;
+
+import vfd.IPPort;
+import vproxy.app.Config;
+import vproxy.connection.*;
+import vproxy.processor.Processor;
+import vproxy.selector.TimerEvent;
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * idle backend connections of the processor lib, each event loop owns one pool<br>
+ * when a frontend connection is closing, its backend connections are released into the pool
+ * if the processor says they are reusable, and are taken by the next frontend connection
+ * which chooses the same remote address with the same pool key,
+ * see {@link vproxy.processor.Processor#connectionPoolKey} and {@link vproxy.processor.Processor#reusable}.<br>
+ * an idle connection is closed after -DbackendPoolIdleTimeout, or when any event fires on it.<br>
+ * the pool is only accessed on the loop thread, so no lock is needed
+ */
+class BackendConnectionPool {
+    private static final Map<NetEventLoop, BackendConnectionPool> pools = new ConcurrentHashMap<>();
+
+    static BackendConnectionPool get(NetEventLoop loop) {
+        BackendConnectionPool pool = pools.get(loop);
+        if (pool != null) {
+            return pool;
+        }
+        pool = pools.computeIfAbsent(loop, BackendConnectionPool::new);
+        // the pool will never be used after the loop is closed
+        loop.getSelectorEventLoop().onClose(() -> pools.remove(loop));
+        return pool;
+    }
+
+    private final NetEventLoop loop;
+    // pool key => remote => idle connections, the most recently released is at the tail
+    private final Map<String, Map<IPPort, ArrayDeque<Entry>>> idle = new HashMap<>();
+
+    private BackendConnectionPool(NetEventLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * @return an idle connection, or null if not found
+     */
+    Entry take(String key, IPPort remote) {
+        Map<IPPort, ArrayDeque<Entry>> byRemote = idle.get(key);
+        if (byRemote == null) {
+            return null;
+        }
+        ArrayDeque<Entry> q = byRemote.get(remote);
+        if (q == null) {
+            return null;
+        }
+        Entry e = q.pollLast();
+        if (e == null) {
+            return null;
+        }
+        e.leavePool();
+        assert Logger.lowLevelDebug("take idle connection " + e.conn + " from the pool");
+        return e;
+    }
+
+    /**
+     * @return true if the connection is released into the pool, false if the pool is full
+     */
+    boolean release(String key, Entry e) {
+        if (Config.backendPoolMaxIdle <= 0) {
+            return false;
+        }
+        ArrayDeque<Entry> q = idle.computeIfAbsent(key, k -> new HashMap<>()).computeIfAbsent(e.conn.remote, r -> new ArrayDeque<>());
+        if (q.size() >= Config.backendPoolMaxIdle) {
+            return false;
+        }
+        e.user = null;
+        e.pool = this;
+        e.queue = q;
+        e.idleTimer = loop.getSelectorEventLoop().delay(Config.backendPoolIdleTimeout, () -> {
+            if (e.pool != this) {
+                return; // already taken, the timer is being canceled
+            }
+            assert Logger.lowLevelDebug("idle connection " + e.conn + " timed out");
+            e.closeIdle();
+        });
+        q.add(e);
+        assert Logger.lowLevelDebug("release connection " + e.conn + " into the pool");
+        return true;
+    }
+
+    /**
+     * the handler registered for backend connections of the processor lib<br>
+     * events are passed to the frontend session using the connection,
+     * or handled here when the connection is idle in the pool
+     */
+    static class Entry implements ConnectableConnectionHandler {
+        final ConnectableConnection conn;
+        private ConnectableConnectionHandler user; // null when idle in the pool
+        // the sub context which released the connection, passed to Processor#taken(...) when the connection is taken
+        Processor.SubContext released;
+
+        // the following fields are set when idle in the pool
+        private BackendConnectionPool pool;
+        private ArrayDeque<Entry> queue;
+        private TimerEvent idleTimer;
+
+        Entry(ConnectableConnection conn) {
+            this.conn = conn;
+        }
+
+        void use(ConnectableConnectionHandler user) {
+            this.user = user;
+        }
+
+        private void leavePool() {
+            if (idleTimer != null) {
+                idleTimer.cancel();
+                idleTimer = null;
+            }
+            if (queue != null) {
+                queue.remove(this);
+                queue = null;
+            }
+            pool = null;
+        }
+
+        private void closeIdle() {
+            if (pool == null) {
+                return; // already closed, e.g. removed() is called when closing
+            }
+            leavePool();
+            released = null;
+            if (!conn.isClosed()) {
+                conn.close();
+            }
+            conn.getInBuffer().clean();
+            conn.getOutBuffer().clean();
+        }
+
+        @Override
+        public void connected(ConnectableConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.connected(ctx);
+            }
+        }
+
+        @Override
+        public void readable(ConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.readable(ctx);
+                return;
+            }
+            // no request is sent on the idle connection, the data must be an error from the backend
+            assert Logger.lowLevelDebug("idle connection " + conn + " received data, close it");
+            closeIdle();
+        }
+
+        @Override
+        public void writable(ConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.writable(ctx);
+            }
+        }
+
+        @Override
+        public void exception(ConnectionHandlerContext ctx, IOException err) {
+            if (user != null) {
+                user.exception(ctx, err);
+                return;
+            }
+            assert Logger.lowLevelDebug("idle connection " + conn + " got exception " + err);
+            closeIdle();
+        }
+
+        @Override
+        public void remoteClosed(ConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.remoteClosed(ctx);
+                return;
+            }
+            assert Logger.lowLevelDebug("idle connection " + conn + " is closed by the backend");
+            closeIdle();
+        }
+
+        @Override
+        public void closed(ConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.closed(ctx);
+                return;
+            }
+            closeIdle();
+        }
+
+        @Override
+        public void removed(ConnectionHandlerContext ctx) {
+            if (user != null) {
+                user.removed(ctx);
+                return;
+            }
+            closeIdle();
+        }
+    }
+}
@@ -4,9 +4,11 @@ import vproxy.connection.*;
 import vproxy.processor.Hint;
 import vproxy.processor.Processor;
 import vproxy.util.ByteArray;
+import vproxy.util.LatencyRecorder;
 import vproxy.util.LogType;
 import vproxy.util.Logger;
 import vproxy.util.RingBuffer;
+import vproxy.util.SlotTable;
 import vproxy.util.nio.ByteArrayChannel;
 import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
 
@@ -21,13 +23,13 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     private final Connection frontendConnection;
     private final Processor.SubContext frontendSubCtx;
     private final NetEventLoop loop;
+    private final BackendConnectionPool pool;
 
-    private final Map<BackendConnectionHandler, Integer> conn2intMap = new HashMap<>();
+    // connId => backend, the slots are reused after the backend is removed,
+    // but the ids are not, so a stale connId kept by the processor never refers to another backend
+    private final SlotTable<BackendConnectionHandler> conns = new SlotTable<>();
 
-    private int cursor = 0;
-    private final BackendConnectionHandler[] conns = new BackendConnectionHandler[1024 + 1];
-    // [0] will not be used
-    // I believe that 1024 connections should be enough
+    private boolean firstByteReceived = false;
 
     public ProcessorConnectionHandler(ProxyNetConfig config, NetEventLoop loop, Connection frontendConnection, Processor processor, Processor.Context topCtx, Processor.SubContext frontendSubCtx) {
         this.config = config;
@@ -36,16 +38,17 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         this.frontendConnection = frontendConnection;
         this.frontendSubCtx = frontendSubCtx;
         this.loop = loop;
+        this.pool = BackendConnectionPool.get(loop);
     }
 
-    void recordBackend(BackendConnectionHandler backend, int connId) {
-        conn2intMap.put(backend, connId);
-        conns[connId] = backend;
+    void removeBackend(BackendConnectionHandler backend) {
+        conns.remove(backend.connId);
     }
 
-    void removeBackend(BackendConnectionHandler backend) {
-        int connId = conn2intMap.remove(backend);
-        conns[connId] = null;
+    private List<BackendConnectionHandler> listBackends() {
+        List<BackendConnectionHandler> ls = new ArrayList<>(conns.size());
+        conns.forEach((be, connId) -> ls.add(be));
+        return ls;
     }
 
     /**
@@ -186,17 +189,22 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             }
         }
 
+        private final int connId;
         private final Processor.SubContext subCtx;
+        private final BackendConnectionPool.Entry entry;
         private final ConnectableConnection conn;
         private boolean isConnected = false;
+        private boolean broken = false; // got exception or removed, should not be reused
 
         private ByteArrayChannel chnl = null;
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
         private final BackendConnectionHandler.ByteFlow frontendByteFlow = new BackendConnectionHandler.ByteFlow();
 
-        BackendConnectionHandler(Processor.SubContext subCtx, ConnectableConnection conn) {
+        BackendConnectionHandler(int connId, Processor.SubContext subCtx, BackendConnectionPool.Entry entry) {
+            this.connId = connId;
             this.subCtx = subCtx;
-            this.conn = conn;
+            this.entry = entry;
+            this.conn = entry.conn;
         }
 
         void writeToBackend(ByteArray data) {
@@ -266,6 +274,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         @Override
         public void connected(ConnectableConnectionHandlerContext ctx) {
             isConnected = true;
+            LatencyRecorder.recordSince(LatencyRecorder.Kind.backendConnect, conn.createNanos);
             // no need to call processor.connected(...) here, it's already called when retrieving the connection
             doBackendWrite();
         }
@@ -356,6 +365,10 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void readable(ConnectionHandlerContext ctx) {
+            if (!firstByteReceived) {
+                firstByteReceived = true;
+                LatencyRecorder.recordSince(LatencyRecorder.Kind.firstByte, frontendConnection.createNanos);
+            }
             readBackend();
         }
 
@@ -366,6 +379,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void exception(ConnectionHandlerContext ctx, IOException err) {
+            broken = true;
             Logger.error(LogType.CONN_ERROR, "got exception when handling backend connection " + conn + ", closing frontend " + frontendConnection, err);
             frontendConnection.close(true);
             closeAll();
@@ -403,6 +417,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void removed(ConnectionHandlerContext ctx) {
+            broken = true;
             if (!ctx.connection.isClosed())
                 Logger.error(LogType.IMPROPER_USE, "backend connection " + ctx.connection + " removed from event loop " + loop);
             closeAll();
@@ -545,15 +560,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // check for other connections
         // and keep writing if have some data to write in other connections
         if (frontendIsHandlingConnection) {
-            BackendConnectionHandler next = null;
-            for (BackendConnectionHandler b : conn2intMap.keySet()) {
-                BackendConnectionHandler.ByteFlow flow = b.frontendByteFlow;
-                if (flow.currentSegment != null) {
-                    next = b;
-                    break;
-                }
-            }
-            handlingConnection = next;
+            handlingConnection = conns.find(b -> b.frontendByteFlow.currentSegment != null);
             _doFrontendWrite();
         }
     }
@@ -664,6 +671,17 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                 if (bytesToSend == null || bytesToSend.length() == 0) {
                     readFrontend(); // recursively call to handle more data
                 } else {
+                    try {
+                        bytesToSend = processor.beforeWritingToBackend(topCtx, frontendSubCtx, backend.subCtx, bytesToSend);
+                    } catch (Exception e) {
+                        Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
+                        frontendConnection.close(true);
+                        return;
+                    }
+                    if (bytesToSend == null || bytesToSend.length() == 0) {
+                        readFrontend(); // the processor decides to send nothing
+                        return;
+                    }
                     backend.writeToBackend(bytesToSend);
                 }
             }
@@ -676,8 +694,11 @@ class ProcessorConnectionHandler implements ConnectionHandler {
     }
 
     private BackendConnectionHandler getConnection(int connId, Hint hint) {
-        if (connId > 0 && conns[connId] != null)
-            return conns[connId]; // get connection if it already exists
+        if (connId > 0) {
+            BackendConnectionHandler bh = conns.get(connId);
+            if (bh != null)
+                return bh; // get connection if it already exists
+        }
 
         assert connId == -1;
 
@@ -693,9 +714,28 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
 
         // find a connection if possible
-        for (int existingConnId : conn2intMap.values()) {
-            if (conns[existingConnId].conn.remote.equals(connector.remote)) {
-                BackendConnectionHandler bh = conns[existingConnId];
+        {
+            BackendConnectionHandler bh = conns.find(be -> be.conn.remote.equals(connector.remote));
+            if (bh != null) {
+                processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
+                return bh;
+            }
+        }
+
+        // take an idle connection released by other frontend connections
+        String poolKey = processor.connectionPoolKey(topCtx, frontendSubCtx);
+        if (poolKey != null) {
+            BackendConnectionPool.Entry entry = pool.take(poolKey, connector.remote);
+            if (entry != null) {
+                int newConnId = conns.allocate();
+                BackendConnectionHandler bh =
+                    new BackendConnectionHandler(newConnId, processor.initSub(topCtx, newConnId, connector.remote), entry);
+                bh.isConnected = true;
+                conns.set(newConnId, bh);
+                entry.use(bh);
+                // the connection is already initiated, so processor.connected(...) is not called
+                processor.taken(topCtx, frontendSubCtx, bh.subCtx, entry.released);
+                entry.released = null;
                 processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
                 return bh;
             }
@@ -713,13 +753,15 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
 
         // record in collections
-        int newConnId = ++cursor;
+        int newConnId = conns.allocate();
+        BackendConnectionPool.Entry entry = new BackendConnectionPool.Entry(connectableConnection);
         BackendConnectionHandler bh =
-            new BackendConnectionHandler(processor.initSub(topCtx, newConnId, connector.remote), connectableConnection);
-        recordBackend(bh, newConnId);
+            new BackendConnectionHandler(newConnId, processor.initSub(topCtx, newConnId, connector.remote), entry);
+        conns.set(newConnId, bh);
+        entry.use(bh);
         // register
         try {
-            loop.addConnectableConnection(connectableConnection, null, bh);
+            loop.addConnectableConnection(connectableConnection, null, entry);
         } catch (IOException e) {
             Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "add connectable connection " + connectableConnection + " to loop failed");
 
@@ -762,10 +804,11 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                 "no current backend connection, " +
                 "send FIN to all backend");
 
-            List<Integer> ints = new ArrayList<>(conn2intMap.values());
             boolean allBackendRemoteClosed = true;
-            for (int i : ints) {
-                BackendConnectionHandler be = conns[i];
+            for (BackendConnectionHandler be : listBackends()) {
+                if (releaseToPool(be)) {
+                    continue; // the connection is kept for other frontend connections instead of being closed
+                }
                 be.conn.closeWrite();
                 if (be.conn.getOutBuffer().used() != 0 || !be.conn.isRemoteClosed()) {
                     allBackendRemoteClosed = false;
@@ -777,14 +820,18 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     "and no current backend, " +
                     "so close the session");
                 // close the session
-                ctx.connection.close();
-                closed(ctx);
+                closeFrontendWhenFlushed(ctx);
             }
         } else {
             assert Logger.lowLevelDebug("" +
                 "current connId=" + connId + ", " +
                 "only send FIN to the selected backend");
-            BackendConnectionHandler be = conns[connId];
+            BackendConnectionHandler be = conns.get(connId);
+            if (releaseToPool(be)) {
+                assert Logger.lowLevelDebug("selected backend is released into the pool, close session");
+                closeFrontendWhenFlushed(ctx);
+                return;
+            }
             be.conn.closeWrite();
             if (be.conn.getOutBuffer().used() == 0) {
                 if (be.conn.isRemoteClosed()) {
@@ -800,6 +847,16 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
     }
 
+    // the backends released into the pool never send FIN, so the frontend may still have data to write
+    private void closeFrontendWhenFlushed(ConnectionHandlerContext ctx) {
+        frontendConnection.closeWrite();
+        if (frontendConnection.getOutBuffer().used() == 0) {
+            ctx.connection.close();
+            closed(ctx);
+        }
+        // otherwise the connection will be closed by the lib when the data is flushed
+    }
+
     @Override
     public void closed(ConnectionHandlerContext ctx) {
         assert Logger.lowLevelDebug("frontend connection is closed: " + frontendConnection);
@@ -813,6 +870,39 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         closeAll();
     }
 
+    /**
+     * hand the backend connection over to the pool if nothing is pending on it and the processor allows
+     *
+     * @return true if released, the connection is removed from this session
+     */
+    private boolean releaseToPool(BackendConnectionHandler be) {
+        if (be.broken || !be.isConnected || be.chnl != null) {
+            return false;
+        }
+        if (be.backendByteFlow.currentSegment != null || !be.backendByteFlow.sendingQueue.isEmpty()
+            || be.frontendByteFlow.currentSegment != null || !be.frontendByteFlow.sendingQueue.isEmpty()) {
+            return false;
+        }
+        ConnectableConnection conn = be.conn;
+        if (conn.isClosed() || conn.isRemoteClosed() || conn.isWriteClosed()
+            || conn.getInBuffer().used() != 0 || conn.getOutBuffer().used() != 0) {
+            return false;
+        }
+        String poolKey = processor.connectionPoolKey(topCtx, frontendSubCtx);
+        if (poolKey == null || !processor.reusable(topCtx, frontendSubCtx, be.subCtx)) {
+            return false;
+        }
+        if (!pool.release(poolKey, be.entry)) {
+            return false; // the pool is full
+        }
+        be.entry.released = be.subCtx;
+        removeBackend(be);
+        if (handlingConnection == be) {
+            handlingConnection = null;
+        }
+        return true;
+    }
+
     private boolean closed = false;
 
     void closeAll() {
@@ -820,11 +910,13 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             return;
         }
         closed = true;
+        LatencyRecorder.recordSince(LatencyRecorder.Kind.session, frontendConnection.createNanos);
 
         assert Logger.lowLevelDebug("close all connections of " + frontendConnection);
-        List<Integer> ints = new ArrayList<>(conn2intMap.values());
-        for (int i : ints) {
-            BackendConnectionHandler be = conns[i];
+        for (BackendConnectionHandler be : listBackends()) {
+            if (releaseToPool(be)) {
+                continue;
+            }
             removeBackend(be);
             be.conn.close();
             be.conn.getInBuffer().clean();
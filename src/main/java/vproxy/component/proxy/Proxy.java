@@ -1,6 +1,7 @@
 package vproxy.component.proxy;
 
 import vfd.SocketFD;
+import vfd.posix.SplicePipe;
 import vproxy.connection.*;
 import vproxy.processor.Processor;
 import vproxy.protocol.ProtocolConnectionHandler;
@@ -8,10 +9,13 @@ import vproxy.protocol.ProtocolHandler;
 import vproxy.protocol.ProtocolHandlerContext;
 import vproxy.util.*;
 import vproxy.util.ringbuffer.ByteBufferRingBuffer;
+import vproxy.util.ringbuffer.OnDemandRingBuffer;
 import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
 import vproxy.util.ringbuffer.SSLUtils;
+import vproxy.util.ringbuffer.SplicePipeRingBuffer;
 import vproxy.util.ringbuffer.ssl.SSL;
 import vproxy.util.ringbuffer.ssl.SSLEngineBuilder;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
 
 import javax.net.ssl.SSLParameters;
 import java.io.IOException;
@@ -40,6 +44,12 @@ public class Proxy {
     }
 
     class SessionServerHandler implements ServerHandler {
+        @Override
+        public boolean pauseAccepting() {
+            // stop accepting new tls connections when handshakes are piling up
+            return config.sslContext != null && SSLHandshakeExecutor.get().isSaturated();
+        }
+
         @Override
         public void acceptFail(ServerHandlerContext ctx, IOException err) {
             Logger.fatal(LogType.SERVER_ACCEPT_FAIL, "accept connection failed, server = " + config.server + ", err = " + err);
@@ -265,8 +275,48 @@ public class Proxy {
             }
         }
 
+        private Tuple<RingBuffer, RingBuffer> getSpliceIOBuffers(SocketFD channel) {
+            SplicePipeRingBuffer inBuffer;
+            try {
+                inBuffer = SplicePipeRingBuffer.open(channel, config.inBufferSize);
+            } catch (IOException e) {
+                Logger.error(LogType.SYS_ERROR, "creating splice pipe failed, fall back to normal buffers", e);
+                return null;
+            }
+            SplicePipeRingBuffer outBuffer;
+            try {
+                outBuffer = SplicePipeRingBuffer.open(channel, config.outBufferSize);
+            } catch (IOException e) {
+                Logger.error(LogType.SYS_ERROR, "creating splice pipe failed, fall back to normal buffers", e);
+                inBuffer.clean();
+                return null;
+            }
+            return new Tuple<>(inBuffer, outBuffer);
+        }
+
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketFD channel) {
+            // the data can be directly moved inside the kernel
+            // if the connection is only proxied without inspecting the data
+            if (config.splice
+                && config.sslContext == null
+                && config.connGen.type() == ConnectorGen.Type.direct
+                && SplicePipe.canSplice(channel)) {
+                Tuple<RingBuffer, RingBuffer> tup = getSpliceIOBuffers(channel);
+                if (tup != null) {
+                    return tup;
+                }
+            }
+
+            // buffers are only attached when there's data to proxy
+            if (config.bufferOnDemand
+                && config.sslContext == null
+                && config.connGen.type() == ConnectorGen.Type.direct) {
+                return new Tuple<>(
+                    OnDemandRingBuffer.allocateDirect(config.inBufferSize),
+                    OnDemandRingBuffer.allocateDirect(config.outBufferSize));
+            }
+
             int inBufferSize, outBufferSize;
             if (config.sslContext == null) {
                 inBufferSize = config.inBufferSize;
@@ -409,6 +459,7 @@ public class Proxy {
     class SessionConnectableConnectionHandler implements ConnectableConnectionHandler {
         private final Session session;
         private boolean isConnected = false;
+        private boolean firstByteReceived = false;
 
         SessionConnectableConnectionHandler(Session session) {
             this.session = session;
@@ -418,6 +469,7 @@ public class Proxy {
         public void connected(ConnectableConnectionHandlerContext ctx) {
             assert Logger.lowLevelDebug("passive connection established: " + session);
             isConnected = true; // it's connected
+            LatencyRecorder.recordSince(LatencyRecorder.Kind.backendConnect, session.passive.createNanos);
 
             // now we can add active connection into event loop
             // use event loop from context
@@ -436,6 +488,10 @@ public class Proxy {
         @Override
         public void readable(ConnectionHandlerContext ctx) {
             // see readable in SessionConnectHandler#readable
+            if (!firstByteReceived) {
+                firstByteReceived = true;
+                LatencyRecorder.recordSince(LatencyRecorder.Kind.firstByte, session.active.createNanos);
+            }
         }
 
         @Override
@@ -504,6 +560,9 @@ public class Proxy {
         public void removed(ConnectionHandlerContext ctx) {
             utilCloseSessionAndReleaseBuffers(session);
             sessions.remove(session); // remove the session record
+            if (isConnected) { // failed connecting attempts are not sessions
+                LatencyRecorder.recordSince(LatencyRecorder.Kind.session, session.active.createNanos);
+            }
         }
     }
 
@@ -18,6 +18,8 @@ public class ProxyNetConfig {
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    boolean splice = false;
+    boolean bufferOnDemand = false;
 
     VSSLContext sslContext = null;
     BiConsumer<SSLEngine, SSLParameters> sslEngineManipulator = null;
@@ -52,6 +54,16 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setSplice(boolean splice) {
+        this.splice = splice;
+        return this;
+    }
+
+    public ProxyNetConfig setBufferOnDemand(boolean bufferOnDemand) {
+        this.bufferOnDemand = bufferOnDemand;
+        return this;
+    }
+
     public ProxyNetConfig setTimeout(int timeout) {
         this.timeout = timeout;
         return this;
@@ -91,6 +103,14 @@ public class ProxyNetConfig {
         return outBufferSize;
     }
 
+    public boolean isSplice() {
+        return splice;
+    }
+
+    public boolean isBufferOnDemand() {
+        return bufferOnDemand;
+    }
+
     public int getTimeout() {
         return timeout;
     }
@@ -1,9 +1,12 @@
 package vproxy.component.secure;
 
 import vfd.IP;
+import vfd.IPv4;
 import vproxy.component.exception.AlreadyExistException;
 import vproxy.component.exception.NotFoundException;
 import vproxy.connection.Protocol;
+import vproxy.util.NetworkTrie;
+import vproxy.util.Utils;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -15,8 +18,12 @@ public class SecurityGroup {
 
     public final String alias;
     public boolean defaultAllow;
-    private LinkedList<SecurityGroupRule> tcpRules = new LinkedList<>();
-    private LinkedList<SecurityGroupRule> udpRules = new LinkedList<>();
+    // the lists are replaced instead of modified when rules change
+    private volatile LinkedList<SecurityGroupRule> tcpRules = new LinkedList<>();
+    private volatile LinkedList<SecurityGroupRule> udpRules = new LinkedList<>();
+    // built on the first check after rules change, so adding many rules does not rebuild many times
+    private volatile RuleIndex tcpIndex = null;
+    private volatile RuleIndex udpIndex = null;
 
     public SecurityGroup(String alias, boolean defaultAllow) {
         this.alias = alias;
@@ -28,20 +35,29 @@ public class SecurityGroup {
     }
 
     public boolean allow(Protocol protocol, IP address, int port) {
-        LinkedList<SecurityGroupRule> rules;
+        RuleIndex index;
         if (protocol == Protocol.TCP) {
-            rules = tcpRules;
+            LinkedList<SecurityGroupRule> rules = tcpRules;
+            index = tcpIndex;
+            if (index == null || index.source != rules) {
+                index = new RuleIndex(rules);
+                tcpIndex = index;
+            }
         } else {
             assert protocol == Protocol.UDP;
-            rules = udpRules;
+            LinkedList<SecurityGroupRule> rules = udpRules;
+            index = udpIndex;
+            if (index == null || index.source != rules) {
+                index = new RuleIndex(rules);
+                udpIndex = index;
+            }
         }
-        if (rules.isEmpty())
+        if (index.isEmpty())
             return defaultAllow;
-        for (SecurityGroupRule rule : rules) {
-            if (rule.match(address, port))
-                return rule.allow;
-        }
-        return defaultAllow;
+        SecurityGroupRule rule = index.match(address, port);
+        if (rule == null)
+            return defaultAllow;
+        return rule.allow;
     }
 
     public List<SecurityGroupRule> getRules() {
@@ -93,10 +109,12 @@ public class SecurityGroup {
         if (optRule.isEmpty())
             throw new NotFoundException("security-group-rule in security-group " + this.alias, name);
         if (optRule.get().protocol == Protocol.TCP) {
+            tcpRules = new LinkedList<>(tcpRules);
             tcpRules.remove(optRule.get());
             this.tcpRules = tcpRules;
         } else {
             assert optRule.get().protocol == Protocol.UDP;
+            udpRules = new LinkedList<>(udpRules);
             udpRules.remove(optRule.get());
             this.udpRules = udpRules;
         }
@@ -106,4 +124,128 @@ public class SecurityGroup {
     public String toString() {
         return alias + " -> default " + (defaultAllow ? "allow" : "deny");
     }
+
+    // rules with the same network, the port ranges are checked in the order of the rules
+    private static class Bucket {
+        final ArrayList<SecurityGroupRule> rules = new ArrayList<>();
+        final ArrayList<Integer> orders = new ArrayList<>();
+        int[] minPorts;
+        int[] maxPorts;
+        int[] ruleOrders;
+        Bucket outer; // bucket of the longest network containing this one
+
+        void add(SecurityGroupRule rule, int order) {
+            rules.add(rule);
+            orders.add(order);
+        }
+
+        void seal() {
+            int n = rules.size();
+            minPorts = new int[n];
+            maxPorts = new int[n];
+            ruleOrders = new int[n];
+            for (int i = 0; i < n; ++i) {
+                SecurityGroupRule r = rules.get(i);
+                minPorts[i] = r.minPort;
+                maxPorts[i] = r.maxPort;
+                ruleOrders[i] = orders.get(i);
+            }
+        }
+    }
+
+    /**
+     * the rules are checked one by one, and the first matching rule decides the result.<br>
+     * the index stores the rules into network tries, all matching networks are the longest matching network
+     * and the networks containing it, so only rules in these buckets are checked,
+     * and the rule with the least order wins.<br>
+     * ipv4 addresses can also match some special ipv6 networks and vice versa (see {@link vproxy.util.Network#maskMatch}),
+     * these cases are handled separately.<br>
+     * the index is immutable, a new one is built when rules change
+     */
+    private static class RuleIndex {
+        final List<SecurityGroupRule> source;
+        private final SecurityGroupRule[] rules;
+        private final NetworkTrie<Bucket> v4 = new NetworkTrie<>(4);
+        private final NetworkTrie<Bucket> v6 = new NetworkTrie<>(16);
+        // ipv6 rules which might match ipv4 addresses, they are rare so checked one by one
+        private final int[] v6ForV4Orders;
+
+        RuleIndex(List<SecurityGroupRule> source) {
+            this.source = source;
+            this.rules = source.toArray(new SecurityGroupRule[0]);
+            List<Integer> v6ForV4 = new ArrayList<>();
+            for (int i = 0; i < rules.length; ++i) {
+                SecurityGroupRule r = rules[i];
+                byte[] ip = r.network.getRawIpBytes();
+                NetworkTrie<Bucket> trie = ip.length == 4 ? v4 : v6;
+                Bucket b = trie.get(r.network);
+                if (b == null) {
+                    b = new Bucket();
+                    trie.put(r.network, b);
+                }
+                b.add(r, i);
+                if (ip.length == 16 && r.network.getMask() > 32 && Utils.lowBitsV6V4(ip, 11, 10)) {
+                    v6ForV4.add(i);
+                }
+            }
+            v6ForV4Orders = v6ForV4.stream().mapToInt(i -> i).toArray();
+            v4.forEach(RuleIndex::link);
+            v6.forEach(RuleIndex::link);
+        }
+
+        private static void link(Bucket b, Bucket outer) {
+            b.outer = outer;
+            b.seal();
+        }
+
+        boolean isEmpty() {
+            return rules.length == 0;
+        }
+
+        // the least order of matching rules in the bucket and its outer buckets
+        private static int search(Bucket b, int port, int order) {
+            for (; b != null; b = b.outer) {
+                int[] ruleOrders = b.ruleOrders;
+                for (int i = 0; i < ruleOrders.length; ++i) {
+                    if (ruleOrders[i] >= order) {
+                        break;
+                    }
+                    if (b.minPorts[i] <= port && port <= b.maxPorts[i]) {
+                        order = ruleOrders[i];
+                        break;
+                    }
+                }
+            }
+            return order;
+        }
+
+        SecurityGroupRule match(IP address, int port) {
+            int order = Integer.MAX_VALUE;
+            if (address instanceof IPv4) {
+                order = search(v4.lookup(address), port, order);
+                for (int o : v6ForV4Orders) {
+                    if (o >= order) {
+                        break;
+                    }
+                    if (rules[o].match(address, port)) {
+                        order = o;
+                        break;
+                    }
+                }
+            } else {
+                order = search(v6.lookup(address), port, order);
+                // ipv4-compatible or ipv4-mapped ipv6 address
+                if (address.getWord(0) == 0 && address.getWord(1) == 0) {
+                    int w2 = address.getWord(2);
+                    if (w2 == 0 || w2 == 0xffff) {
+                        order = search(v4.lookup(address.getWord(3)), port, order);
+                    }
+                }
+            }
+            if (order == Integer.MAX_VALUE) {
+                return null;
+            }
+            return rules[order];
+        }
+    }
 }
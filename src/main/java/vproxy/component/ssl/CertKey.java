@@ -1,5 +1,6 @@
 package vproxy.component.ssl;
 
+import vproxy.util.ringbuffer.SSLUtils;
 import vproxy.util.ringbuffer.ssl.VSSLContext;
 
 import javax.net.ssl.KeyManager;
@@ -85,7 +86,7 @@ public class CertKey {
         // init ctx
         ctx.init(km, null, null);
 
-        vsslContext.sslContextHolder.add(ctx, certs);
+        vsslContext.sslContextHolder.add(alias, ctx, certs);
     }
 
     public SSLContext buildSSLContext() throws Exception {
@@ -102,6 +103,7 @@ public class CertKey {
         KeyManager[] km = kmf.getKeyManagers();
         // init ctx
         ctx.init(km, null, null);
+        SSLUtils.configureSessionCache(ctx);
         return ctx;
     }
 
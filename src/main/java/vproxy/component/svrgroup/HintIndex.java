@@ -0,0 +1,152 @@
+package vproxy.component.svrgroup;
+
+import vproxy.app.util.AnnotationKeys;
+import vproxy.processor.Hint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * index of the hint-host and hint-port annotations of the groups in an upstream<br>
+ * the hosts are stored in a trie of reversed labels, e.g. a.example.com is stored as com -> example -> a<br>
+ * <br>
+ * the search result is the same as calling {@link Hint#matchLevel(Map[])} on each group
+ * and retrieving the first group with the max level:
+ * <ul>
+ * <li>3: the node of the hint host</li>
+ * <li>2: nodes on the path to the hint host (the hint host is a sub domain)</li>
+ * <li>1: nodes under the node of the hint host (the hint host is a parent domain)</li>
+ * </ul>
+ * the index is immutable, a new one is built when groups or annotations change
+ */
+class HintIndex {
+    private static final int NONE = Integer.MAX_VALUE;
+
+    // the min group index for each port
+    private static class Matched {
+        int anyPort = NONE; // groups without hint-port
+        int all = NONE; // all groups
+        Map<String, Integer> byPort = null;
+
+        void add(String port, int idx) {
+            all = Math.min(all, idx);
+            if (port == null) {
+                anyPort = Math.min(anyPort, idx);
+            } else {
+                if (byPort == null) {
+                    byPort = new HashMap<>();
+                }
+                byPort.merge(port, idx, Math::min);
+            }
+        }
+
+        int get(String port) {
+            if (port == null) {
+                return all;
+            }
+            if (byPort == null) {
+                return anyPort;
+            }
+            Integer idx = byPort.get(port);
+            if (idx == null) {
+                return anyPort;
+            }
+            return Math.min(anyPort, idx);
+        }
+    }
+
+    private static class Node {
+        Map<String, Node> children = null;
+        final Matched self = new Matched(); // groups with exactly this host
+        final Matched subtree = new Matched(); // groups with sub domains of this host
+
+        Node child(String label) {
+            if (children == null) {
+                return null;
+            }
+            return children.get(label);
+        }
+
+        Node childOrCreate(String label) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(label, l -> new Node());
+        }
+    }
+
+    final ArrayList<Upstream.ServerGroupHandle> groups;
+    final long annotationsVersion;
+    private final Node root = new Node();
+
+    HintIndex(ArrayList<Upstream.ServerGroupHandle> groups, long annotationsVersion) {
+        this.groups = groups;
+        this.annotationsVersion = annotationsVersion;
+
+        for (int i = 0; i < groups.size(); ++i) {
+            Upstream.ServerGroupHandle h = groups.get(i);
+            String host = annotation(h, AnnotationKeys.ServerGroup_HintHost);
+            String port = annotation(h, AnnotationKeys.ServerGroup_HintPort);
+            if (host == null) {
+                continue;
+            }
+            String[] labels = host.split("\\.", -1);
+            Node node = root;
+            for (int l = labels.length - 1; l >= 0; --l) {
+                node = node.childOrCreate(labels[l]);
+                if (l != 0) {
+                    node.subtree.add(port, i);
+                }
+            }
+            node.self.add(port, i);
+        }
+    }
+
+    // the annotations of the handle are checked before the annotations of the group
+    private static String annotation(Upstream.ServerGroupHandle h, String key) {
+        Map<String, String> a = h.getAnnotations();
+        String value = a == null ? null : a.get(key);
+        if (value != null) {
+            return value;
+        }
+        a = h.group.getAnnotations();
+        return a == null ? null : a.get(key);
+    }
+
+    Upstream.ServerGroupHandle search(Hint hint) {
+        String host = hint.host;
+        String port = hint.port;
+
+        int parent = NONE; // level 2
+        Node node = root;
+        int end = host.length();
+        while (true) {
+            int dot = host.lastIndexOf('.', end - 1);
+            node = node.child(host.substring(dot + 1, end));
+            if (node == null) {
+                break;
+            }
+            if (dot == -1) {
+                // reaches the node of the hint host
+                int exact = node.self.get(port);
+                if (exact != NONE) {
+                    return groups.get(exact);
+                }
+                break;
+            }
+            parent = Math.min(parent, node.self.get(port));
+            end = dot;
+        }
+        if (parent != NONE) {
+            return groups.get(parent);
+        }
+        if (node != null) {
+            int sub = node.subtree.get(port);
+            if (sub != NONE) {
+                return groups.get(sub);
+            }
+        }
+        return null;
+    }
+}
@@ -4,4 +4,6 @@ public enum Method {
     wrr,
     wlc,
     source, // consistent hashing with source ip address
+    maglev, // maglev hashing with source ip address, only a few clients are remapped when servers change
+    p2c, // power of two choices: pick the one with less connections (considering weight) from two random servers
 }
@@ -19,6 +19,7 @@ import vproxy.util.Logger;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
@@ -126,6 +127,8 @@ public class ServerGroup {
         private final LongAdder toRemoteBytes = new LongAdder();
 
         private ConcurrentHashSet<Connection> connMap = new ConcurrentHashSet<>();
+        // same as connMap.size(), but much cheaper to read when selecting servers
+        private final AtomicInteger connCount = new AtomicInteger(0);
 
         public Object data; // the data field, not used by this lib
 
@@ -164,15 +167,19 @@ public class ServerGroup {
 
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            if (connMap.remove(conn)) {
+                connCount.decrementAndGet();
+            }
         }
 
         void attachConnection(Connection conn) {
-            connMap.add(conn);
+            if (connMap.add(conn)) {
+                connCount.incrementAndGet();
+            }
         }
 
         public int connectionCount() {
-            return connMap.size();
+            return connCount.get();
         }
 
         public void copyConnections(Collection<? super Connection> c) {
@@ -326,6 +333,8 @@ public class ServerGroup {
     private ArrayList<ServerHandle> servers = new ArrayList<>(0);
     private final CopyOnWriteArraySet<ServerListener> serverListeners = new CopyOnWriteArraySet<>();
     private Map<String, String> annotations = null;
+    // increased when annotations of any server group change
+    private static final AtomicLong annotationsVersion = new AtomicLong(0);
 
     // START fields for WRR
     static class WRR {
@@ -357,6 +366,9 @@ public class ServerGroup {
     private WLC _wlcIPv6;
     // END fields for WLC
 
+    // P2C uses the same server lists as WLC
+    private static final int P2C_MAX_TRIES = 4;
+
     // START fields for SOURCE
     static class SOURCE {
         final int[] seq;
@@ -386,6 +398,63 @@ public class ServerGroup {
     private SOURCE _sourceIPv6;
     // END fields for SOURCE
 
+    // START fields for MAGLEV
+    /*
+     * see: Maglev: A Fast and Reliable Software Network Load Balancer
+     *
+     * each server fills the lookup table following its own permutation,
+     * the servers take turns (more turns for greater weight) until the table is full.
+     * when a server is added or removed, only about 1/n of the entries change.
+     *
+     * the table is built with all servers (weight > 0) regardless of their health,
+     * when the picked server is unhealthy, a few more entries are probed,
+     * so only the clients of the unhealthy server are moved, and they are spread to other servers.
+     */
+    static class MAGLEV {
+        // primes, the table size should be at least 100 times of the server count.
+        // changing the size remaps almost all clients,
+        // so the size only grows when there are really a lot of servers
+        private static final int[] SIZES = {65521, 262139};
+        private static final int MAX_PROBE = 32;
+
+        final int[] lookup; // server index for each entry
+        final ArrayList<ServerHandle> servers;
+
+        MAGLEV(int[] lookup, ArrayList<ServerHandle> servers) {
+            this.lookup = lookup;
+            this.servers = servers;
+        }
+
+        static int tableSize(int serverCount) {
+            for (int size : SIZES) {
+                if (size >= serverCount * 100) {
+                    return size;
+                }
+            }
+            return SIZES[SIZES.length - 1];
+        }
+
+        // fnv-1a with murmur3 finalizer, which spreads better than sdbm
+        static int hash(byte[] bytes, int seed) {
+            int h = 0x811c9dc5 ^ seed;
+            for (byte b : bytes) {
+                h ^= (b & 0xff);
+                h *= 0x01000193;
+            }
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h & 0x7fffffff;
+        }
+    }
+
+    private MAGLEV _maglev;
+    private MAGLEV _maglevIPv4;
+    private MAGLEV _maglevIPv6;
+    // END fields for MAGLEV
+
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
                        HealthCheckConfig healthCheckConfig,
@@ -410,6 +479,10 @@ public class ServerGroup {
             return wlcNext();
         } else if (method == Method.source) {
             return sourceHashGet(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglev, source.getAddress());
+        } else if (method == Method.p2c) {
+            return p2cNext(_wlc);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -424,6 +497,10 @@ public class ServerGroup {
             return wlcNextIPv4();
         } else if (method == Method.source) {
             return sourceHashGetIPv4(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglevIPv4, source.getAddress());
+        } else if (method == Method.p2c) {
+            return p2cNext(_wlcIPv4);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -438,6 +515,10 @@ public class ServerGroup {
             return wlcNextIPv6();
         } else if (method == Method.source) {
             return sourceHashGetIPv6(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglevIPv6, source.getAddress());
+        } else if (method == Method.p2c) {
+            return p2cNext(_wlcIPv6);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -473,6 +554,37 @@ public class ServerGroup {
         return sourceHashGet(source, idx + 1, recurse + 1);
     }
 
+    private SvrHandleConnector maglevGet(MAGLEV maglev, IP source) {
+        if (maglev == null || maglev.servers.isEmpty())
+            return null;
+        byte[] bytes = source.getAddress();
+        int[] lookup = maglev.lookup;
+        int hash = MAGLEV.hash(bytes, 0);
+        int idx = hash % lookup.length;
+        ServerHandle h = maglev.servers.get(lookup[idx]);
+        if (h.healthy)
+            return h.makeConnector();
+
+        // probe other entries with a step decided by the source
+        // so the clients of the unhealthy server are spread to all other servers
+        int step = MAGLEV.hash(bytes, 1) % (lookup.length - 1) + 1;
+        for (int i = 0; i < MAGLEV.MAX_PROBE; ++i) {
+            idx = (int) (((long) idx + step) % lookup.length);
+            h = maglev.servers.get(lookup[idx]);
+            if (h.healthy)
+                return h.makeConnector();
+        }
+        // most servers are down, check them one by one
+        int n = maglev.servers.size();
+        int start = hash % n;
+        for (int i = 0; i < n; ++i) {
+            h = maglev.servers.get((start + i) % n);
+            if (h.healthy)
+                return h.makeConnector();
+        }
+        return null;
+    }
+
     /*
      * WLC algorithm:
      * copied from http://kb.linuxvirtualserver.org/wiki/Weighted_Least-Connection_Scheduling
@@ -508,54 +620,80 @@ public class ServerGroup {
      */
 
     private SvrHandleConnector wlcNext() {
-        return wlcNext(_wlc, 0);
+        return wlcNext(_wlc);
     }
 
     private SvrHandleConnector wlcNextIPv4() {
-        return wlcNext(_wlcIPv4, 0);
+        return wlcNext(_wlcIPv4);
     }
 
     private SvrHandleConnector wlcNextIPv6() {
-        return wlcNext(_wlcIPv6, 0);
+        return wlcNext(_wlcIPv6);
     }
 
-    private SvrHandleConnector wlcNext(WLC wlc, int mStart) {
-        if (mStart >= wlc.servers.size())
+    private SvrHandleConnector wlcNext(WLC wlc) {
+        ArrayList<ServerHandle> servers = wlc.servers;
+        int n = servers.size();
+        ServerHandle Sm = null;
+        int WSm = 0;
+        int CSm = 0;
+        for (int i = 0; i < n; ++i) {
+            ServerHandle Si = servers.get(i);
+            if (!Si.healthy)
+                continue;
+            int WSi = Si.weight;
+            int CSi = Si.connectionCount();
+            if (Sm == null || (long) CSm * WSi > (long) CSi * WSm) {
+                Sm = Si;
+                WSm = WSi;
+                CSm = CSi;
+            }
+        }
+        if (Sm == null)
             return null;
+        return Sm.makeConnector();
+    }
 
-        if (wlc.servers.isEmpty())
+    /*
+     * P2C (power of two choices):
+     * pick two different servers randomly, and use the one with less C(Si) / W(Si).
+     * it's O(1) no matter how many servers are in the group,
+     * and the result is close to WLC when there are many connections.
+     *
+     * (C(Si) + 1) is used instead of C(Si), so that the greater weight wins when both have no connection.
+     */
+
+    private SvrHandleConnector p2cNext(WLC wlc) {
+        ArrayList<ServerHandle> servers = wlc.servers;
+        int n = servers.size();
+        if (n == 0)
             return null;
-        int m, n, WSm, CSm, WSi, CSi;
-        ServerHandle Sm;
-        m = mStart;
-        n = wlc.servers.size();
-        // for (m = 0; m < n; ++m) {
-        { // --------- START ---------
-            Sm = wlc.servers.get(m);
-            WSm = Sm.weight;
-            CSm = Sm.connectionCount();
-        } // --------- END ---------
-        if (!Sm.healthy) {
-            return wlcNext(wlc, mStart + 1);
-        }
-        // if (WSm > 0) {
-        for (int i = m + 1; i < n; ++i) {
-            ServerHandle Si = wlc.servers.get(i);
-            WSi = Si.weight;
-            CSi = Si.connectionCount();
-            if (CSm * WSi > CSi * WSm && Si.healthy) {
-                m = i;
-                { // --------- START ---------
-                    Sm = wlc.servers.get(m);
-                    WSm = Sm.weight;
-                    CSm = Sm.connectionCount();
-                } // --------- END ---------
+        if (n == 1) {
+            ServerHandle h = servers.get(0);
+            return h.healthy ? h.makeConnector() : null;
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < P2C_MAX_TRIES; ++i) {
+            int a = rand.nextInt(n);
+            int b = rand.nextInt(n - 1);
+            if (b >= a) {
+                ++b; // make sure a != b
             }
+            ServerHandle Sa = servers.get(a);
+            ServerHandle Sb = servers.get(b);
+            if (!Sa.healthy) {
+                if (Sb.healthy)
+                    return Sb.makeConnector();
+                continue; // both unhealthy, try again
+            }
+            if (!Sb.healthy)
+                return Sa.makeConnector();
+            long la = (Sa.connectionCount() + 1L) * Sb.weight;
+            long lb = (Sb.connectionCount() + 1L) * Sa.weight;
+            return (la <= lb ? Sa : Sb).makeConnector();
         }
-        return Sm.makeConnector();
-        // }
-        // }
-        // return null;
+        // most servers are unhealthy, fall back to check all servers
+        return wlcNext(wlc);
     }
 
     private SvrHandleConnector wrrNext() {
@@ -593,6 +731,7 @@ public class ServerGroup {
         wrrReset();
         wlcReset();
         sourceReset();
+        maglevReset();
     }
 
     private int gcd(int a, int b) {
@@ -647,6 +786,73 @@ public class ServerGroup {
         return new SOURCE(seq, svrs);
     }
 
+    private void maglevReset() {
+        if (method != Method.maglev) {
+            // the tables are large, only build them when used
+            _maglev = null;
+            _maglevIPv4 = null;
+            _maglevIPv6 = null;
+            return;
+        }
+        MAGLEV all = maglevReset(servers);
+        _maglev = all;
+        _maglevIPv4 = maglevReset(all, servers.stream().filter(s -> s.server.getAddress() instanceof IPv4).collect(Collectors.toList()));
+        _maglevIPv6 = maglevReset(all, servers.stream().filter(s -> s.server.getAddress() instanceof IPv6).collect(Collectors.toList()));
+    }
+
+    private MAGLEV maglevReset(MAGLEV all, List<ServerHandle> servers) {
+        // usually all servers are ipv4 (or ipv6), then the table can be shared
+        if (servers.stream().filter(s -> s.weight > 0).count() == all.servers.size()) {
+            return all;
+        }
+        return maglevReset(servers);
+    }
+
+    private MAGLEV maglevReset(List<ServerHandle> servers) {
+        // the permutation of a server only depends on its alias
+        // so the order of servers does not matter
+        ArrayList<ServerHandle> svrs = servers.stream().filter(s -> s.weight > 0).collect(Collectors.toCollection(ArrayList::new));
+        if (svrs.isEmpty()) {
+            return new MAGLEV(new int[0], svrs);
+        }
+        int size = MAGLEV.tableSize(svrs.size());
+        int n = svrs.size();
+        int[] offset = new int[n];
+        int[] skip = new int[n];
+        int[] next = new int[n];
+        int maxWeight = 0;
+        for (int i = 0; i < n; ++i) {
+            byte[] name = svrs.get(i).alias.getBytes();
+            offset[i] = MAGLEV.hash(name, 0) % size;
+            skip[i] = MAGLEV.hash(name, 1) % (size - 1) + 1;
+            maxWeight = Math.max(maxWeight, svrs.get(i).weight);
+        }
+
+        int[] lookup = new int[size];
+        Arrays.fill(lookup, -1);
+        int[] credit = new int[n];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; ++i) {
+                // a server with max weight fills one entry in every turn
+                credit[i] += svrs.get(i).weight;
+                if (credit[i] < maxWeight)
+                    continue;
+                credit[i] -= maxWeight;
+
+                int c;
+                do {
+                    c = (int) ((offset[i] + (long) next[i] * skip[i]) % size);
+                    ++next[i];
+                } while (lookup[c] != -1);
+                lookup[c] = i;
+                if (++filled == size) {
+                    return new MAGLEV(lookup, svrs);
+                }
+            }
+        }
+    }
+
     private void wlcReset() {
         this._wlc = new WLC(this.servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
         this._wlcIPv4 = new WLC(this.servers.stream()
@@ -782,8 +988,13 @@ public class ServerGroup {
         return annotations;
     }
 
+    static long getAnnotationsVersion() {
+        return annotationsVersion.get();
+    }
+
     public void setAnnotations(Map<String, String> annotations) {
         this.annotations = annotations;
+        annotationsVersion.incrementAndGet(); // let upstreams rebuild their indexes
 
         // set hc client annotations
         if (annotations == null) {
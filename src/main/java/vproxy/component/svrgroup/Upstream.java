@@ -15,7 +15,7 @@ public class Upstream {
         public final String alias;
         public final ServerGroup group;
         private int weight;
-        public Map<String, String> annotations = null;
+        private Map<String, String> annotations = null;
 
         public ServerGroupHandle(ServerGroup group, int weight) {
             this.alias = group.alias;
@@ -31,6 +31,15 @@ public class Upstream {
             this.weight = weight;
             recalculateWRR();
         }
+
+        public Map<String, String> getAnnotations() {
+            return annotations;
+        }
+
+        public void setAnnotations(Map<String, String> annotations) {
+            this.annotations = annotations;
+            rebuildHintIndex();
+        }
     }
 
     class WRR {
@@ -46,10 +55,21 @@ public class Upstream {
     public final String alias;
     private ArrayList<ServerGroupHandle> serverGroupHandles = new ArrayList<>(0);
     private WRR _wrr;
+    private volatile HintIndex _hintIndex;
 
     public Upstream(String alias) {
         this.alias = alias;
         recalculateWRR();
+        rebuildHintIndex();
+    }
+
+    private synchronized HintIndex rebuildHintIndex() {
+        // read the version before reading annotations
+        // so the index will be rebuilt again if annotations change during building
+        long version = ServerGroup.getAnnotationsVersion();
+        HintIndex index = new HintIndex(serverGroupHandles, version);
+        _hintIndex = index;
+        return index;
     }
 
     private void recalculateWRR() {
@@ -140,6 +160,7 @@ public class Upstream {
         newLs.add(h);
         serverGroupHandles = newLs;
         recalculateWRR();
+        rebuildHintIndex();
         return h;
     }
 
@@ -161,6 +182,7 @@ public class Upstream {
         }
         serverGroupHandles = newLs;
         recalculateWRR();
+        rebuildHintIndex();
     }
 
     public List<ServerGroupHandle> getServerGroupHandles() {
@@ -171,22 +193,15 @@ public class Upstream {
         return next(source, null);
     }
 
+    // the result is the same as checking Hint.matchLevel(...) on each group
+    // and retrieving the first group with the max level
     public ServerGroupHandle searchForGroup(Hint hint) {
-        int maxLvl = Hint.MAX_MATCH_LEVEL;
-        int level = 0;
-        ServerGroupHandle lastMax = null;
-        for (ServerGroupHandle h : serverGroupHandles) {
-            //noinspection unchecked
-            int l = hint.matchLevel(h.annotations, h.group.getAnnotations());
-            if (l > level) {
-                level = l;
-                lastMax = h;
-            }
-            if (l == maxLvl) { // directly return if it's the best match
-                break;
-            }
+        HintIndex index = _hintIndex;
+        if (index.annotationsVersion != ServerGroup.getAnnotationsVersion()) {
+            // annotations of some server group changed
+            index = rebuildHintIndex();
         }
-        return lastMax;
+        return index.search(hint);
     }
 
     public Connector next(IPPort source, Hint hint) {
@@ -146,6 +146,8 @@ public class Connection implements NetFlowRecorder {
     public final int timeout;
 
     // statistics fields
+    // System.nanoTime() when the connection is accepted, or when a ConnectableConnection starts connecting
+    public final long createNanos = System.nanoTime();
     // the connection is handled in a single thread, so no need to synchronize
     private long toRemoteBytes = 0; // out bytes
     private long fromRemoteBytes = 0; // in bytes
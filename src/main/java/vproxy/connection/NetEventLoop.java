@@ -137,9 +137,54 @@ public class NetEventLoop {
 }
 
 class HandlerForTCPServer implements Handler<ServerSocketFD> {
+    // accept at most this number of connections in one event
+    // the rest will be accepted in the next round of the loop
+    // so that a connection flood won't starve the other fds on the same loop
+    private static final int MAX_ACCEPT_PER_EVENT = 64;
+    // when accepting is paused by the handler, check whether to resume in this interval
+    private static final int ACCEPT_PAUSE_CHECK_INTERVAL = 10;
+
     @Override
     public void accept(HandlerContext<ServerSocketFD> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
+        for (int i = 0; i < MAX_ACCEPT_PER_EVENT; ++i) {
+            if (sctx.handler.pauseAccepting()) {
+                pauseAccepting(ctx.getEventLoop(), sctx);
+                break;
+            }
+            if (!acceptOne(ctx)) {
+                break;
+            }
+        }
+    }
+
+    // stop watching the server fd, the pending connections are kept in the backlog
+    private void pauseAccepting(SelectorEventLoop loop, ServerHandlerContext sctx) {
+        if (sctx.server._acceptPaused) {
+            return;
+        }
+        Logger.warn(LogType.ALERT, "accepting of " + sctx.server + " is paused");
+        sctx.server._acceptPaused = true;
+        loop.rmOps(sctx.server.channel, EventSet.read());
+        loop.delay(ACCEPT_PAUSE_CHECK_INTERVAL, () -> checkResumeAccepting(loop, sctx));
+    }
+
+    private void checkResumeAccepting(SelectorEventLoop loop, ServerHandlerContext sctx) {
+        if (sctx.server.isClosed() || sctx.server._eventLoop == null || sctx.server._eventLoop.getSelectorEventLoop() != loop) {
+            return; // removed from the loop
+        }
+        if (sctx.handler.pauseAccepting()) {
+            loop.delay(ACCEPT_PAUSE_CHECK_INTERVAL, () -> checkResumeAccepting(loop, sctx));
+            return;
+        }
+        Logger.alert("accepting of " + sctx.server + " is resumed");
+        sctx.server._acceptPaused = false;
+        loop.addOps(sctx.server.channel, EventSet.read());
+    }
+
+    // return true if it's possible to accept more
+    private boolean acceptOne(HandlerContext<ServerSocketFD> ctx) {
+        ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
 
         ServerSocketFD server = ctx.getChannel();
         SocketFD sock;
@@ -147,11 +192,11 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
@@ -184,7 +229,7 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
                 } catch (IOException e1) {
                     Logger.shouldNotHappen("failed to close the sock " + sock + " after failed creating Connection object", e1);
                 }
-                return;
+                return false;
             }
             conn.addNetFlowRecorder(sctx.server);
             sctx.handler.connection(sctx, conn);
@@ -192,7 +237,7 @@ class HandlerForTCPServer implements Handler<ServerSocketFD> {
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
         // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
     }
 
     @Override
@@ -282,6 +327,8 @@ class NetEventLoopUtils {
 }
 
 class HandlerForConnection implements Handler<SocketFD> {
+    private static final boolean edgeTriggered = VFDConfig.vfdImpl.equals("epoll");
+
     @Override
     public void accept(HandlerContext<SocketFD> ctx) {
         // will not fire
@@ -330,7 +377,13 @@ class HandlerForConnection implements Handler<SocketFD> {
             return;
         }
         if (read == 0) {
-            Logger.shouldNotHappen("read nothing, the event should not be fired");
+            if (edgeTriggered) {
+                // the edge-triggered fds (-Dvfd=epoll) are reported until they see EAGAIN,
+                // so the last event of a drained fd reads nothing
+                assert Logger.lowLevelDebug("read nothing, the readiness is cleared");
+            } else {
+                Logger.shouldNotHappen("read nothing, the event should not be fired");
+            }
             return;
         }
 
@@ -23,4 +23,9 @@ public interface ServerHandler {
     default ConnectionOpts connectionOpts() {
         return DefaultConnectionOpts.defaultConnectionOpts;
     }
+
+    // the server stops accepting while this method returns true, and checks again later
+    default boolean pauseAccepting() {
+        return false;
+    }
 }
@@ -1,6 +1,7 @@
 package vproxy.connection;
 
 import vfd.*;
+import vproxy.app.Config;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.selector.wrap.udp.ServerDatagramFD;
 import vproxy.selector.wrap.udp.UDPBasedFDs;
@@ -25,8 +26,13 @@ public class ServerSock implements NetFlowRecorder {
     private final LongAdder fromRemoteBytes = new LongAdder();
     private final LongAdder toRemoteBytes = new LongAdder();
     private long historyAcceptedConnectionCount = 0; // no concurrency when accepting connections
+    // for calculating accept rate
+    private long acceptRateSecond = 0; // the second which `acceptedInSecond` belongs to
+    private int acceptedInSecond = 0;
+    private int acceptedInLastSecond = 0;
 
     NetEventLoop _eventLoop = null;
+    boolean _acceptPaused = false; // only accessed on the event loop
 
     private boolean closed;
 
@@ -192,11 +198,31 @@ public class ServerSock implements NetFlowRecorder {
 
     public void incHistoryAcceptedConnectionCount() {
         ++historyAcceptedConnectionCount;
+
+        long sec = Config.currentTimestamp / 1000;
+        if (sec != acceptRateSecond) {
+            acceptedInLastSecond = (sec == acceptRateSecond + 1) ? acceptedInSecond : 0;
+            acceptedInSecond = 0;
+            acceptRateSecond = sec;
+        }
+        ++acceptedInSecond;
     }
 
     public long getHistoryAcceptedConnectionCount() {
         return historyAcceptedConnectionCount;
     }
+
+    // connections accepted in the last whole second
+    public int getAcceptRate() {
+        long sec = Config.currentTimestamp / 1000;
+        if (sec == acceptRateSecond) {
+            return acceptedInLastSecond;
+        } else if (sec == acceptRateSecond + 1) {
+            return acceptedInSecond;
+        } else {
+            return 0;
+        }
+    }
     // --- END statistics ---
 
     public boolean isClosed() {
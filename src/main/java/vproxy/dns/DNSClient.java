@@ -154,6 +154,7 @@ public class DNSClient {
     private class Request<RETURN, EXCEPTION extends IOException> {
         int retry = 0;
         int nameServerIndex = 0;
+        long sentNanos; // time of the last question sent, it's re-sent to the next nameserver when timed out
         final ByteBuffer byteBufferToSend;
         final int id;
         final PeriodicEvent timer;
@@ -213,6 +214,7 @@ public class DNSClient {
             byteBufferToSend.limit(byteBufferToSend.capacity()).position(0);
             int len = byteBufferToSend.limit();
             int sent;
+            sentNanos = System.nanoTime();
             try {
                 sent = sock.send(byteBufferToSend, l4addr);
             } catch (IOException e) {
@@ -232,6 +234,7 @@ public class DNSClient {
                 request();
                 return;
             }
+            LatencyRecorder.recordSince(LatencyRecorder.Kind.dnsQuery, sentNanos);
             IOException[] errHolder = new IOException[]{null};
             RETURN ret = transform.apply(packet, errHolder);
             if (errHolder[0] != null) {
@@ -0,0 +1,116 @@
+package vproxy.dns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a flyweight reader of simple dns queries, it reads directly from the receiving buffer
+ * without building {@link DNSPacket} objects<br>
+ * <br>
+ * only queries with one A/AAAA/SRV question in class IN are recognized,
+ * an OPT record is allowed in the additional section and ignored.<br>
+ * {@link #read(ByteBuffer)} returns false for all other packets,
+ * which should be handled with {@link Formatter#parsePackets(vproxy.util.ByteArray)}<br>
+ * <br>
+ * the reader is reused for all packets, it's not thread safe
+ */
+public class DNSQueryReader {
+    public static final int HEADER_LEN = 12;
+
+    private final StringBuilder nameBuilder = new StringBuilder();
+
+    ByteBuffer buf;
+    public int id;
+    public boolean aa;
+    public boolean rd;
+    public String qname;
+    public DNSType qtype;
+    int questionEnd; // end offset of the question section
+
+    /**
+     * @param buf the packet, from position to limit, the position is not modified
+     * @return true if it's a simple query
+     */
+    public boolean read(ByteBuffer buf) {
+        this.buf = buf;
+        this.qname = null;
+        int off = buf.position();
+        int end = buf.limit();
+        if (end - off < HEADER_LEN) {
+            return false;
+        }
+        id = buf.getShort(off) & 0xffff;
+        int flags = buf.getShort(off + 2) & 0xffff;
+        // QR = 0 (query), Opcode = 0 (QUERY), TC = 0
+        if ((flags & 0b1_1111_0_1_0_0_000_0000) != 0) {
+            return false;
+        }
+        aa = (flags & 0b0_0000_1_0_0_0_000_0000) != 0;
+        rd = (flags & 0b0_0000_0_0_1_0_000_0000) != 0;
+        int qdcount = buf.getShort(off + 4) & 0xffff;
+        int ancount = buf.getShort(off + 6) & 0xffff;
+        int nscount = buf.getShort(off + 8) & 0xffff;
+        int arcount = buf.getShort(off + 10) & 0xffff;
+        if (qdcount != 1 || ancount != 0 || nscount != 0 || arcount > 1) {
+            return false;
+        }
+
+        int i = readName(buf, off + HEADER_LEN, end);
+        if (i == -1 || i + 4 > end) {
+            return false;
+        }
+        int type = buf.getShort(i) & 0xffff;
+        int clazz = buf.getShort(i + 2) & 0xffff;
+        i += 4;
+        if (clazz != DNSClass.IN.code) {
+            return false;
+        }
+        if (type == DNSType.A.code) {
+            qtype = DNSType.A;
+        } else if (type == DNSType.AAAA.code) {
+            qtype = DNSType.AAAA;
+        } else if (type == DNSType.SRV.code) {
+            qtype = DNSType.SRV;
+        } else {
+            return false;
+        }
+        questionEnd = i;
+
+        if (arcount == 1) {
+            // root name, type OPT, class, ttl, rdlen, rdata
+            if (i + 11 > end || buf.get(i) != 0 || (buf.getShort(i + 1) & 0xffff) != DNSType.OPT.code) {
+                return false;
+            }
+            int rdlen = buf.getShort(i + 9) & 0xffff;
+            i += 11 + rdlen;
+        }
+        if (i != end) {
+            // more packets or malformed
+            return false;
+        }
+        qname = nameBuilder.toString();
+        return true;
+    }
+
+    // the name is stored in nameBuilder
+    // return end offset of the name, or -1 if it's not supported
+    private int readName(ByteBuffer buf, int i, int end) {
+        nameBuilder.setLength(0);
+        while (i < end) {
+            int len = buf.get(i) & 0xff;
+            ++i;
+            if (len == 0) {
+                return i;
+            }
+            // compression pointers are not expected in the question of a query
+            if ((len & 0b11000000) != 0 || i + len > end) {
+                return -1;
+            }
+            for (int j = 0; j < len; ++j) {
+                nameBuilder.append((char) (buf.get(i + j) & 0xff));
+            }
+            nameBuilder.append('.');
+            i += len;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,224 @@
+package vproxy.dns;
+
+import vfd.FDProvider;
+
+import java.util.*;
+
+/**
+ * cache of responses of recursive lookups, keyed by (qname, qtype, qclass)<br>
+ * responses are stored as bytes, and served with only the id rewritten<br>
+ * <br>
+ * the entry expires after the min ttl of the records in the response.<br>
+ * NXDOMAIN and NODATA responses are cached as negative entries,
+ * the ttl is retrieved from the SOA record in the authority section (rfc 2308),
+ * negative responses without SOA are not cached.<br>
+ * <br>
+ * the cache is accessed from the dns server loop and the dns client loop, so methods are synchronized
+ */
+public class DNSResponseCache {
+    private static final int MAX_TTL = 24 * 3600; // seconds
+    private static final int MAX_NEGATIVE_TTL = 3 * 3600; // seconds
+
+    public final int maxSize;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    private static class Key {
+        final String qname;
+        final DNSType qtype;
+        final DNSClass qclass;
+
+        Key(DNSQuestion q) {
+            this.qname = q.qname;
+            this.qtype = q.qtype;
+            this.qclass = q.qclass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return qname.equals(key.qname) &&
+                qtype == key.qtype &&
+                qclass == key.qclass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(qname, qtype, qclass);
+        }
+    }
+
+    public static class Entry {
+        public final String qname;
+        public final DNSType qtype;
+        public final DNSClass qclass;
+        public final boolean negative;
+        public final long expireAt;
+        private final byte[] response;
+        private long hits = 0;
+
+        Entry(DNSQuestion q, boolean negative, long expireAt, byte[] response) {
+            this.qname = q.qname;
+            this.qtype = q.qtype;
+            this.qclass = q.qclass;
+            this.negative = negative;
+            this.expireAt = expireAt;
+            this.response = response;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        @Override
+        public String toString() {
+            long ttl = (expireAt - FDProvider.get().currentTimeMillis()) / 1000;
+            return qname + " " + qtype + " " + qclass + " -> " + (negative ? "negative" : "positive")
+                + " ttl " + Math.max(ttl, 0) + " hits " + hits;
+        }
+    }
+
+    public DNSResponseCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, DNSResponseCache.Entry> eldest) {
+                return size() > DNSResponseCache.this.maxSize;
+            }
+        };
+    }
+
+    // only one question with a known type can be cached
+    private static DNSQuestion cacheableQuestion(DNSPacket req) {
+        if (req.opcode != DNSPacket.Opcode.QUERY || req.questions.size() != 1) {
+            return null;
+        }
+        DNSQuestion q = req.questions.get(0);
+        if (q.qtype == DNSType.OTHER || q.qtype == DNSType.ANY || q.qtype == DNSType.AXFR) {
+            return null;
+        }
+        return q;
+    }
+
+    /**
+     * @return response bytes with id rewritten to the request id, or null if not cached
+     */
+    public synchronized byte[] get(DNSPacket req) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        DNSQuestion q = cacheableQuestion(req);
+        if (q == null) {
+            return null;
+        }
+        Key key = new Key(q);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        if (entry.expireAt <= FDProvider.get().currentTimeMillis()) {
+            entries.remove(key);
+            ++misses;
+            return null;
+        }
+        ++hits;
+        ++entry.hits;
+        byte[] ret = Arrays.copyOf(entry.response, entry.response.length);
+        ret[0] = (byte) (req.id >> 8);
+        ret[1] = (byte) req.id;
+        return ret;
+    }
+
+    /**
+     * @param req      the request packet
+     * @param resp     the response packet
+     * @param respBytes serialized resp, the array should not be modified after calling this method
+     */
+    public synchronized void put(DNSPacket req, DNSPacket resp, byte[] respBytes) {
+        if (maxSize <= 0) {
+            return;
+        }
+        DNSQuestion q = cacheableQuestion(req);
+        if (q == null) {
+            return;
+        }
+        if (resp.tc || resp.questions.size() != 1 || !q.equals(resp.questions.get(0))) {
+            return;
+        }
+        boolean negative;
+        int ttl;
+        if (resp.rcode == DNSPacket.RCode.NoError && !resp.answers.isEmpty()) {
+            negative = false;
+            ttl = MAX_TTL;
+            for (List<DNSResource> ls : Arrays.asList(resp.answers, resp.nameServers, resp.additionalResources)) {
+                for (DNSResource r : ls) {
+                    if (r.type == DNSType.OPT) { // ttl field of OPT is not ttl
+                        continue;
+                    }
+                    ttl = Math.min(ttl, r.ttl);
+                }
+            }
+        } else if (resp.rcode == DNSPacket.RCode.NoError || resp.rcode == DNSPacket.RCode.NameError) {
+            // NODATA or NXDOMAIN
+            negative = true;
+            ttl = negativeTTL(resp);
+        } else {
+            return;
+        }
+        if (ttl <= 0) {
+            return;
+        }
+        long expireAt = FDProvider.get().currentTimeMillis() + ttl * 1000L;
+        entries.put(new Key(q), new Entry(q, negative, expireAt, respBytes));
+    }
+
+    private static int negativeTTL(DNSPacket resp) {
+        for (DNSResource r : resp.nameServers) {
+            if (r.type != DNSType.SOA || r.rdataBytes == null || r.rdataBytes.length() < 20) {
+                continue;
+            }
+            // the MINIMUM field is the last 4 bytes of SOA rdata
+            int minimum = r.rdataBytes.int32(r.rdataBytes.length() - 4);
+            return Math.min(MAX_NEGATIVE_TTL, Math.min(r.ttl, minimum));
+        }
+        return 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double hitRatio() {
+        long total = hits + misses;
+        if (total == 0) {
+            return 0;
+        }
+        return hits / (double) total;
+    }
+
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized void remove(String qname) {
+        entries.values().removeIf(e -> e.qname.equals(qname));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hit-ratio " + String.format("%.4f", hitRatio()) + " hits " + hits + " misses " + misses
+            + " size " + entries.size() + "/" + maxSize;
+    }
+}
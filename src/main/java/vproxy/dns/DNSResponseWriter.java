@@ -0,0 +1,160 @@
+package vproxy.dns;
+
+import vfd.IP;
+import vfd.IPv4;
+import vfd.IPv6;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * writes responses of the queries read by {@link DNSQueryReader} directly into a reusable buffer<br>
+ * the result is the same as the response built with {@link DNSPacket} in {@link DNSServer},
+ * except that names are compressed:
+ * <ul>
+ * <li>names of answers point to the qname in the question</li>
+ * <li>names of additional records point to the target in the SRV answer</li>
+ * </ul>
+ * the writer is reused for all packets, it's not thread safe
+ */
+public class DNSResponseWriter {
+    private static final int QNAME_POINTER = 0xc000 | DNSQueryReader.HEADER_LEN;
+    private static final int MAX_POINTER_OFFSET = 0x3fff;
+
+    private final ByteBuffer buf;
+    // offsets of the srv target names, the index is the same as records
+    private int[] targetOffsets = new int[16];
+
+    public DNSResponseWriter(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    /**
+     * @return the buffer ready for sending, or null if the buffer is not large enough
+     */
+    public ByteBuffer write(DNSQueryReader query, List<Record> records, int ttl) {
+        if (ttl < 0) {
+            ttl = 0;
+        }
+        buf.limit(buf.capacity()).position(0);
+        try {
+            return write0(query, records, ttl);
+        } catch (BufferOverflowException e) {
+            return null;
+        }
+    }
+
+    private ByteBuffer write0(DNSQueryReader query, List<Record> records, int ttl) {
+        int size = records.size();
+        if (targetOffsets.length < size) {
+            targetOffsets = new int[size];
+        }
+
+        // header
+        // QR = 1, Opcode = QUERY, TC = 0, RA = 1, RCODE = NoError
+        int flags = 0b1_0000_0_0_0_1_000_0000;
+        if (query.aa) {
+            flags |= 0b0_0000_1_0_0_0_000_0000;
+        }
+        if (query.rd) {
+            flags |= 0b0_0000_0_0_1_0_000_0000;
+        }
+        buf.putShort((short) query.id);
+        buf.putShort((short) flags);
+        buf.putShort((short) 1); // qdcount
+        buf.putShort((short) size); // ancount
+        buf.putShort((short) 0); // nscount
+        buf.putShort((short) 0); // arcount, filled later
+
+        // question, copied from the query
+        ByteBuffer q = query.buf;
+        for (int i = q.position() + DNSQueryReader.HEADER_LEN; i < query.questionEnd; ++i) {
+            buf.put(q.get(i));
+        }
+
+        // answers
+        for (int idx = 0; idx < size; ++idx) {
+            Record record = records.get(idx);
+            targetOffsets[idx] = -1;
+            buf.putShort((short) QNAME_POINTER);
+            buf.putShort((short) query.qtype.code);
+            buf.putShort((short) DNSClass.IN.code);
+            buf.putInt(ttl);
+            int rdlenPos = buf.position();
+            buf.putShort((short) 0);
+            if (query.qtype == DNSType.SRV) {
+                buf.putShort((short) 0); // priority, this value not used for now
+                buf.putShort((short) record.weight);
+                buf.putShort((short) record.port);
+                if (record.name == null) {
+                    writeName(IP.ipStr(record.target.getAddress()));
+                } else {
+                    targetOffsets[idx] = buf.position();
+                    writeName(record.name);
+                }
+            } else {
+                record.target.writeTo(buf);
+            }
+            buf.putShort(rdlenPos, (short) (buf.position() - rdlenPos - 2));
+        }
+
+        // additional A/AAAA records for srv targets, grouped by name in the order of appearance
+        int arcount = 0;
+        for (int idx = 0; idx < size; ++idx) {
+            String name = records.get(idx).name;
+            if (targetOffsets[idx] == -1 || appearedBefore(records, idx, name)) {
+                continue;
+            }
+            for (int j = idx; j < size; ++j) {
+                Record r = records.get(j);
+                if (targetOffsets[j] == -1 || !name.equals(r.name)) {
+                    continue;
+                }
+                if (targetOffsets[idx] <= MAX_POINTER_OFFSET) {
+                    buf.putShort((short) (0xc000 | targetOffsets[idx]));
+                } else {
+                    writeName(name);
+                }
+                buf.putShort((short) (r.target instanceof IPv4 ? DNSType.A.code : DNSType.AAAA.code));
+                buf.putShort((short) DNSClass.IN.code);
+                buf.putInt(ttl);
+                buf.putShort((short) (r.target instanceof IPv4 ? 4 : 16));
+                assert r.target instanceof IPv4 || r.target instanceof IPv6;
+                r.target.writeTo(buf);
+                ++arcount;
+            }
+        }
+        buf.putShort(10, (short) arcount);
+
+        buf.flip();
+        return buf;
+    }
+
+    private boolean appearedBefore(List<Record> records, int idx, String name) {
+        for (int i = 0; i < idx; ++i) {
+            if (targetOffsets[i] != -1 && name.equals(records.get(i).name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the same as Formatter.formatDomainName
+    private void writeName(String name) {
+        int start = 0;
+        int len = name.length();
+        while (start < len) {
+            int end = name.indexOf('.', start + 1);
+            if (end == -1) {
+                end = len; // missing trailing dot
+            }
+            buf.put((byte) (end - start));
+            for (int i = start; i < end; ++i) {
+                buf.put((byte) name.charAt(i));
+            }
+            start = end + 1;
+        }
+        buf.put((byte) 0);
+    }
+}
@@ -37,8 +37,19 @@ public class DNSServer {
     public final EventLoopGroup eventLoopGroup;
     public final Upstream rrsets;
     public final DNSClient client;
+    public final DNSResponseCache responseCache = new DNSResponseCache(Config.dnsResponseCacheSize);
     private Map<String, IP> hosts;
-    private ByteBuffer buffer = ByteBuffer.allocate(Config.udpMtu);
+    // queries and simple responses are received and sent in batches
+    // queries over udp are small, the slot size is the common edns payload limit,
+    // a received packet filling the whole slot might be truncated, so queries must be smaller than the slot
+    private static final int BATCH_SLOT_SIZE = 4096;
+    private final DatagramBatch rcvBatch = new DatagramBatch(Config.udpBatchSize, BATCH_SLOT_SIZE);
+    private final DatagramBatch sndBatch = new DatagramBatch(Config.udpBatchSize, BATCH_SLOT_SIZE);
+    private int sndCount = 0;
+    // used for simple queries in the server loop
+    private final DNSQueryReader queryReader = new DNSQueryReader();
+    private final DNSResponseWriter responseWriter = new DNSResponseWriter(ByteBuffer.allocate(Config.udpMtu));
+    private final List<Record> queryRecords = new ArrayList<>();
 
     private final Attach attach = new Attach();
     protected NetEventLoop loop = null;
@@ -81,6 +92,165 @@ public class DNSServer {
         }
     }
 
+    // lookup A/AAAA/SRV records locally
+    // return false if recursive lookup is required
+    private boolean lookup(String domain, DNSType qtype, IPPort remote, List<Record> records) {
+        IP hostResult = hosts.get(domain);
+        if (hostResult != null) {
+            records.add(new Record(hostResult));
+            return true;
+        }
+
+        if (domain.endsWith(".")) { // remove tailing dot by convention
+            domain = domain.substring(0, domain.length() - 1);
+        }
+        Upstream.ServerGroupHandle gh = rrsets.searchForGroup(new Hint(domain));
+        if (gh == null) {
+            // not found in user defined rrsets
+            // try some internal queries
+            if (IP.isIpLiteral(domain)) {
+                IP l3addr = IP.from(domain);
+                if ((qtype == DNSType.A && l3addr instanceof IPv4)
+                    ||
+                    (qtype == DNSType.AAAA && l3addr instanceof IPv6)
+                    ||
+                    qtype == DNSType.SRV) {
+                    records.add(new Record(l3addr));
+                }
+                return true;
+            } else if (domain.endsWith(".vproxy.local")) {
+                List<Record> res = runInternal(domain.substring(0, domain.length() - ".vproxy.local".length()), remote);
+                if (res != null && !res.isEmpty()) {
+                    records.addAll(res);
+                }
+                // .vproxy.local. should not be requested from outside
+                return true;
+            }
+
+            // all not found, run recursive lookup
+            return false;
+        }
+        if (qtype == DNSType.SRV) {
+            var servers = gh.group.getServerHandles();
+            for (var svr : servers) {
+                if (!svr.healthy) {
+                    continue;
+                }
+                records.add(new Record(svr.server.getAddress(), svr.server.getPort(), svr.getWeight(), svr.hostName));
+            }
+        } else {
+            Connector connector;
+            if (qtype == DNSType.A) {
+                connector = gh.group.nextIPv4(remote);
+            } else if (qtype == DNSType.AAAA) {
+                connector = gh.group.nextIPv6(remote);
+            } else {
+                connector = gh.group.next(remote);
+            }
+            if (connector == null) {
+                assert Logger.lowLevelDebug("no active server for " + domain);
+                return true;
+            }
+            records.add(new Record(connector.remote));
+        }
+        return true;
+    }
+
+    // handle queries read by the queryReader, without building packet objects
+    // return false if recursive lookup is required
+    private boolean handleSimpleQuery(IPPort remote) {
+        queryRecords.clear();
+        if (!lookup(queryReader.qname, queryReader.qtype, remote, queryRecords)) {
+            return false;
+        }
+        ByteBuffer resp = responseWriter.write(queryReader, queryRecords, ttl);
+        queryRecords.clear();
+        if (resp == null) {
+            Logger.error(LogType.CONN_ERROR, "dns response to " + remote + " is too large");
+            return true;
+        }
+        queueResponse(remote, resp);
+        return true;
+    }
+
+    // the packet is from position to limit of the buffer
+    private void handleQueryPacket(IPPort remote, ByteBuffer buffer) {
+        if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
+            assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
+            return;
+        }
+        int read = buffer.remaining();
+        if (read == 0) {
+            return;
+        }
+        // simple queries are handled without copying and parsing into objects
+        boolean recursive = false;
+        if (queryReader.read(buffer)) {
+            if (handleSimpleQuery(remote)) {
+                return;
+            }
+            // the whole packet is read by the queryReader, it must be a single query
+            recursive = true;
+        }
+        byte[] bytes = new byte[read];
+        buffer.get(bytes);
+        ByteArray array = ByteArray.from(bytes);
+
+        List<DNSPacket> packets;
+        try {
+            packets = Formatter.parsePackets(array);
+        } catch (InvalidDNSPacketException e) {
+            Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
+            return;
+        }
+        assert Logger.lowLevelDebug("received dns packets: " + packets);
+        for (DNSPacket p : packets) {
+            if (p.isResponse) {
+                Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
+                continue;
+            }
+            if (p.opcode != DNSPacket.Opcode.QUERY || recursive) {
+                runRecursive(p, remote);
+                continue;
+            }
+            handleRequest(p, remote);
+        }
+    }
+
+    // the response is copied into sndBatch, and sent when the batch is full or flushResponses() is called
+    private void queueResponse(IPPort remote, ByteBuffer resp) {
+        if (resp.remaining() > sndBatch.slotSize) {
+            sendBuffer(remote, resp);
+            return;
+        }
+        int len = resp.remaining();
+        sndBatch.slot(sndCount).put(resp);
+        sndBatch.set(sndCount, len, remote);
+        ++sndCount;
+        if (sndCount == sndBatch.slots) {
+            flushResponses();
+        }
+    }
+
+    private void flushResponses() {
+        int count = sndCount;
+        if (count == 0) {
+            return;
+        }
+        sndCount = 0;
+        int sent;
+        try {
+            sent = sock.sendBatch(sndBatch, count);
+        } catch (IOException e) {
+            Logger.error(LogType.CONN_ERROR, "sending " + count + " dns response packets failed", e);
+            return;
+        }
+        if (sent != count) {
+            // the sock buffer is full, the clients will retry
+            Logger.error(LogType.CONN_ERROR, "sending dns response packets failed, sent " + sent + " of " + count);
+        }
+    }
+
     private void handleRequest(DNSPacket p, IPPort remote) {
         Map<String, Map<DNSType, List<Record>>> addresses = new LinkedHashMap<>();
         for (DNSQuestion q : p.questions) {
@@ -91,70 +261,13 @@ public class DNSServer {
                 case A:
                 case SRV:
                     List<Record> records = domainMap.computeIfAbsent(q.qtype, k -> new ArrayList<>());
-
-                    IP hostResult = hosts.get(domain);
-                    if (hostResult != null) {
-                        records.add(new Record(hostResult));
-                        break;
-                    }
-
-                    if (domain.endsWith(".")) { // remove tailing dot by convention
-                        domain = domain.substring(0, domain.length() - 1);
-                    }
-                    Upstream.ServerGroupHandle gh = rrsets.searchForGroup(new Hint(domain));
-                    if (gh == null) {
-                        // not found in user defined rrsets
-                        // try some internal queries
-                        if (IP.isIpLiteral(domain)) {
-                            IP l3addr = IP.from(domain);
-                            if ((q.qtype == DNSType.A && l3addr instanceof IPv4)
-                                ||
-                                (q.qtype == DNSType.AAAA && l3addr instanceof IPv6)
-                                ||
-                                q.qtype == DNSType.SRV) {
-                                records.add(new Record(l3addr));
-                            }
-                            continue;
-                        } else if (domain.endsWith(".vproxy.local")) {
-                            List<Record> res = runInternal(domain.substring(0, domain.length() - ".vproxy.local".length()), remote);
-                            if (res != null && !res.isEmpty()) {
-                                records.addAll(res);
-                            }
-                            // .vproxy.local. should not be requested from outside
-                            continue;
-                        }
-
-                        // all not found, run recursive lookup
-
+                    if (!lookup(domain, q.qtype, remote, records)) {
                         // usually one dns request only contain one question
                         // we currently do not consider the request of multiple domains and some of them do not require recursion
                         // keep the logic simple
                         runRecursive(p, remote);
                         return;
                     }
-                    if (q.qtype == DNSType.SRV) {
-                        var servers = gh.group.getServerHandles();
-                        for (var svr : servers) {
-                            if (!svr.healthy) {
-                                continue;
-                            }
-                            records.add(new Record(svr.server.getAddress(), svr.server.getPort(), svr.getWeight(), svr.hostName));
-                        }
-                    } else {
-                        Connector connector;
-                        if (q.qtype == DNSType.A) {
-                            connector = gh.group.nextIPv4(remote);
-                        } else if (q.qtype == DNSType.AAAA) {
-                            connector = gh.group.nextIPv6(remote);
-                        } else {
-                            connector = gh.group.next(remote);
-                        }
-                        if (connector == null) {
-                            assert Logger.lowLevelDebug("no active server for " + domain);
-                            continue;
-                        }
-                        records.add(new Record(connector.remote));
-                    }
                     break;
                 default:
                     runRecursive(p, remote);
@@ -317,10 +430,19 @@ public class DNSServer {
     }
 
     protected void runRecursive(DNSPacket p, IPPort remote) {
+        byte[] cached = responseCache.get(p);
+        if (cached != null) {
+            assert Logger.lowLevelDebug("use cached response for " + p.questions);
+            sendBytes(remote, cached);
+            return;
+        }
         client.request(p, new Callback<>() {
             @Override
             protected void onSucceeded(DNSPacket value) {
-                sendPacket(p.id, remote, value);
+                value.id = p.id;
+                byte[] bytes = value.toByteArray().toJavaArray();
+                responseCache.put(p, value, bytes);
+                sendBytes(remote, bytes);
             }
 
             @Override
@@ -332,7 +454,14 @@ public class DNSServer {
 
     protected void sendPacket(int id, IPPort remote, DNSPacket p) {
         p.id = id;
-        ByteBuffer buf = ByteBuffer.wrap(p.toByteArray().toJavaArray());
+        sendBytes(remote, p.toByteArray().toJavaArray());
+    }
+
+    private void sendBytes(IPPort remote, byte[] bytes) {
+        sendBuffer(remote, ByteBuffer.wrap(bytes));
+    }
+
+    private void sendBuffer(IPPort remote, ByteBuffer buf) {
         int len = buf.limit();
         int sent;
         try {
@@ -406,49 +535,27 @@ public class DNSServer {
 
             @Override
             public void readable(HandlerContext<DatagramFD> ctx) {
+                DatagramBatch batch = rcvBatch;
                 while (true) { // read until no packet available
-                    buffer.limit(buffer.capacity()).position(0);
-                    IPPort remote;
+                    int n;
                     try {
-                        remote = ctx.getChannel().receive(buffer);
+                        n = ctx.getChannel().receiveBatch(batch);
                     } catch (IOException e) {
                         Logger.error(LogType.CONN_ERROR, "reading data from dns sock " + ctx.getChannel() + " failed", e);
+                        flushResponses();
                         return;
                     }
-                    if (remote == null) {
-                        return; // nothing received
-                    }
-                    if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
-                        assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
-                        continue;
-                    }
-                    int read = buffer.position();
-                    if (read == 0) {
-                        return;
-                    }
-                    buffer.flip();
-                    byte[] bytes = new byte[read];
-                    buffer.get(bytes);
-                    ByteArray array = ByteArray.from(bytes);
-
-                    List<DNSPacket> packets;
-                    try {
-                        packets = Formatter.parsePackets(array);
-                    } catch (InvalidDNSPacketException e) {
-                        Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
-                        return;
-                    }
-                    assert Logger.lowLevelDebug("received dns packets: " + packets);
-                    for (DNSPacket p : packets) {
-                        if (p.isResponse) {
-                            Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
+                    for (int i = 0; i < n; ++i) {
+                        if (batch.length(i) == batch.slotSize) {
+                            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "dns packet from " + batch.address(i) +
+                                " is dropped, it might be truncated, the packet should be smaller than " + batch.slotSize + " bytes");
                             continue;
                         }
-                        if (p.opcode != DNSPacket.Opcode.QUERY) {
-                            runRecursive(p, remote);
-                            continue;
-                        }
-                        handleRequest(p, remote);
+                        handleQueryPacket(batch.address(i), batch.get(i));
+                    }
+                    flushResponses();
+                    if (n < batch.slots) {
+                        return; // nothing more to receive
                     }
                 }
             }
@@ -244,7 +244,7 @@ public class Formatter {
                     len = b & 0xff;
                 }
             } else {
-                sb.append((char) b);
+                sb.append((char) (b & 0xff));
                 --len;
                 if (len == 0) {
                     sb.append(".");
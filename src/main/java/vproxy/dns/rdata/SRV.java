@@ -25,12 +25,12 @@ public class SRV implements RData {
 
     @Override
     public void fromByteArray(ByteArray data, ByteArray rawPacket) throws InvalidDNSPacketException {
-        priority = rawPacket.uint16(0);
-        weight = rawPacket.uint16(2);
-        port = rawPacket.uint16(4);
+        priority = data.uint16(0);
+        weight = data.uint16(2);
+        port = data.uint16(4);
         int[] offsetHolder = {0};
         target = Formatter.parseDomainName(data.sub(6, data.length() - 6), rawPacket, offsetHolder);
-        if (offsetHolder[0] != data.length()) {
+        if (6 + offsetHolder[0] != data.length()) {
             throw new InvalidDNSPacketException("more bytes readable in the srv rdata field: " + this + ", data.len=" + data.length());
         }
     }
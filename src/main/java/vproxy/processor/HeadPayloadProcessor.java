@@ -2,10 +2,19 @@ package vproxy.processor;
 
 import vfd.IPPort;
 import vproxy.util.ByteArray;
+import vproxy.util.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
 
 class HeadPayloadContext extends OOContext<HeadPayloadSubContext> {
+    final HeadPayloadProcessor processor;
     int nextConnId = -1;
 
+    HeadPayloadContext(HeadPayloadProcessor processor) {
+        this.processor = processor;
+    }
+
     @Override
     public int connection(HeadPayloadSubContext front) {
         return nextConnId;
@@ -20,6 +29,31 @@ class HeadPayloadContext extends OOContext<HeadPayloadSubContext> {
     public void chosen(HeadPayloadSubContext front, HeadPayloadSubContext subCtx) {
         nextConnId = subCtx.connId;
     }
+
+    @Override
+    public ByteArray beforeWritingToBackend(HeadPayloadSubContext front, HeadPayloadSubContext backend, ByteArray data) {
+        // the data is the head of a frame returned by feed()
+        if (processor.isRequest(data, true)) {
+            backend.requestSent(data);
+        }
+        return data;
+    }
+
+    @Override
+    public String connectionPoolKey(HeadPayloadSubContext front) {
+        return processor.name();
+    }
+
+    @Override
+    public boolean reusable(HeadPayloadSubContext front, HeadPayloadSubContext backend) {
+        // no frame is half sent on the connection, and all requests are responded
+        return front.expectNewFrame() && backend.expectNewFrame() && backend.pendingResponses() == 0;
+    }
+
+    @Override
+    public void taken(HeadPayloadSubContext front, HeadPayloadSubContext backend, HeadPayloadSubContext released) {
+        backend.lastRequestId = released.lastRequestId;
+    }
 }
 
 class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
@@ -33,6 +67,13 @@ class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
     private boolean expectingHead = true;
     private int parsedLength = 0;
 
+    // only used by backend connections:
+    // the request ids are re-allocated for each backend connection,
+    // so requests from different frontend connections never share the same id on one backend connection
+    long lastRequestId = 0;
+    private final Map<Long, Long> idBack2Front = new HashMap<>(); // requests waiting for responses
+    private int pendingWithoutId = 0; // for protocols without request id
+
     public HeadPayloadSubContext(HeadPayloadContext headPayloadContext, int connId,
                                  int head, int off, int len, int maxLen) {
         super(headPayloadContext, connId);
@@ -74,7 +115,7 @@ class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
                 parsedLength = data.int32(off);
             }
             expectingHead = false;
-            return data;
+            return headReceived(data);
         }
 
         int n = 0;
@@ -95,7 +136,52 @@ class HeadPayloadSubContext extends OOSubContext<HeadPayloadContext> {
             throw new Exception("unsupported length: " + n + " > " + maxLen);
         parsedLength = n;
         expectingHead = false;
-        return data;
+        return headReceived(data);
+    }
+
+    private ByteArray headReceived(ByteArray head) {
+        if (connId != 0 && !ctx.processor.isRequest(head, false)) {
+            responseReceived(head);
+        }
+        return head;
+    }
+
+    // called on the backend sub context when a request is about to be written to the backend
+    void requestSent(ByteArray head) {
+        int idOff = ctx.processor.idOff;
+        boolean expectResponse = ctx.processor.expectResponse(head);
+        if (idOff == -1) {
+            if (expectResponse) {
+                ++pendingWithoutId;
+            }
+            return;
+        }
+        long frontId = head.int64(idOff);
+        long backId = ++lastRequestId;
+        head.int64(idOff, backId);
+        if (expectResponse) {
+            idBack2Front.put(backId, frontId);
+        }
+        assert Logger.lowLevelDebug("request id " + frontId + " is mapped to " + backId + " on backend " + connId);
+    }
+
+    private void responseReceived(ByteArray head) {
+        int idOff = ctx.processor.idOff;
+        if (idOff == -1) {
+            --pendingWithoutId;
+            return;
+        }
+        long backId = head.int64(idOff);
+        Long frontId = idBack2Front.remove(backId);
+        if (frontId == null) {
+            assert Logger.lowLevelDebug("no request recorded for response " + backId + " on backend " + connId);
+            return;
+        }
+        head.int64(idOff, frontId);
+    }
+
+    int pendingResponses() {
+        return ctx.processor.idOff == -1 ? pendingWithoutId : idBack2Front.size();
     }
 
     @Override
@@ -122,21 +208,52 @@ public abstract class HeadPayloadProcessor extends OOProcessor<HeadPayloadContex
     private final int off; // the offset of length property in bytes
     private final int len; // the length of length property in bytes
     private final int maxLen;
+    final int idOff; // the offset of the 8 bytes request id, -1 if the protocol does not carry request ids
 
     protected HeadPayloadProcessor(String name, int head, int off, int len, int maxLen) {
+        this(name, head, off, len, maxLen, -1);
+    }
+
+    protected HeadPayloadProcessor(String name, int head, int off, int len, int maxLen, int idOff) {
         this.name = name;
         this.head = head;
         this.off = off;
         this.len = len;
         this.maxLen = maxLen;
+        this.idOff = idOff;
 
         if (off + len > head) throw new IllegalArgumentException();
         if (len < 0 || off < 0 || head < 0) throw new IllegalArgumentException();
+        // the id must be in the part handled by the processor
+        if (idOff != -1 && (idOff < 0 || idOff + 8 > off + len)) throw new IllegalArgumentException();
+    }
+
+    /**
+     * check whether the frame is a request or a response.
+     * by default, frames from the frontend are requests and frames from the backend are responses
+     *
+     * @param head         the head of the frame, off + len bytes
+     * @param fromFrontend whether the frame is sent by the frontend
+     * @return true if the frame is a request
+     */
+    protected boolean isRequest(ByteArray head, boolean fromFrontend) {
+        return fromFrontend;
+    }
+
+    /**
+     * check whether the request from the frontend expects a response.
+     * by default, every request is responded with one frame
+     *
+     * @param head the head of the request frame, off + len bytes
+     * @return true if the backend will respond the request
+     */
+    protected boolean expectResponse(ByteArray head) {
+        return true;
     }
 
     @Override
     public HeadPayloadContext init(IPPort ignore) {
-        return new HeadPayloadContext();
+        return new HeadPayloadContext(this);
     }
 
     @Override
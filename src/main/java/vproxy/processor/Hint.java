@@ -8,8 +8,8 @@ import java.util.Map;
 public class Hint {
     public final String hint;
 
-    private final String host;
-    private final String port;
+    public final String host;
+    public final String port; // null if not specified
 
     public Hint(String hint) {
         this.hint = hint;
@@ -26,8 +26,8 @@ public class Hint {
 
     public static final int MAX_MATCH_LEVEL = 3;
 
-    @SuppressWarnings("unchecked")
-    public int matchLevel(Map<String, String>... annotations) {
+    @SafeVarargs
+    public final int matchLevel(Map<String, String>... annotations) {
         if (annotations == null) {
             return 0;
         }
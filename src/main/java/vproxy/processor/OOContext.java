@@ -1,5 +1,7 @@
 package vproxy.processor;
 
+import vproxy.util.ByteArray;
+
 public abstract class OOContext<SUB extends OOSubContext> extends Processor.Context {
     public OOContext() {
     }
@@ -9,4 +11,19 @@ public abstract class OOContext<SUB extends OOSubContext> extends Processor.Cont
     public abstract Hint connectionHint(SUB front);
 
     public abstract void chosen(SUB front, SUB subCtx);
+
+    public ByteArray beforeWritingToBackend(SUB front, SUB backend, ByteArray data) throws Exception {
+        return data;
+    }
+
+    public String connectionPoolKey(SUB front) {
+        return null;
+    }
+
+    public boolean reusable(SUB front, SUB backend) {
+        return false;
+    }
+
+    public void taken(SUB front, SUB backend, SUB released) {
+    }
 }
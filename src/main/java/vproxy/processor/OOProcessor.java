@@ -48,6 +48,26 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         ctx.chosen(front, sub);
     }
 
+    @Override
+    public ByteArray beforeWritingToBackend(CTX ctx, SUB front, SUB backend, ByteArray data) throws Exception {
+        return ctx.beforeWritingToBackend(front, backend, data);
+    }
+
+    @Override
+    public String connectionPoolKey(CTX ctx, SUB front) {
+        return ctx.connectionPoolKey(front);
+    }
+
+    @Override
+    public boolean reusable(CTX ctx, SUB front, SUB backend) {
+        return ctx.reusable(front, backend);
+    }
+
+    @Override
+    public void taken(CTX ctx, SUB front, SUB backend, SUB released) {
+        ctx.taken(front, backend, released);
+    }
+
     @Override
     public ByteArray connected(CTX ctx, SUB sub) {
         return sub.connected();
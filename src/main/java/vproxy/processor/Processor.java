@@ -136,6 +136,65 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     void chosen(CTX ctx, SUB front, SUB sub);
 
+    /**
+     * the data returned by feed() of the frontend sub context is about to be written to the chosen backend connection,
+     * the processor may rewrite the data according to the state of the backend connection
+     *
+     * @param ctx     context
+     * @param front   frontend sub context
+     * @param backend the backend sub context
+     * @param data    data returned by feed()
+     * @return data to write, or null or an empty array if nothing should be written
+     * @throws Exception raise exception if handling failed
+     */
+    default ByteArray beforeWritingToBackend(CTX ctx, SUB front, SUB backend, ByteArray data) throws Exception {
+        return data;
+    }
+
+    /**
+     * retrieve the key for sharing backend connections between frontend connections.<br>
+     * idle backend connections are kept in a pool of the event loop, and are only taken
+     * by frontend connections with the same key and the same remote address
+     *
+     * @param ctx   context
+     * @param front frontend sub context
+     * @return the key of the pool, or null if the backend connections should not be shared
+     */
+    default String connectionPoolKey(CTX ctx, SUB front) {
+        return null;
+    }
+
+    /**
+     * check whether the backend connection can be released into the pool when the frontend connection is closing.<br>
+     * the lib only calls this method when no data is pending on the backend connection.<br>
+     * Note: the frontend taking the connection from the pool will create a new sub context by `initSub(...)`,
+     * and `connected(...)` will not be called, so return true only when nothing about the connection is kept
+     * in the contexts, or when the state is copied by `taken(...)`
+     *
+     * @param ctx     context
+     * @param front   frontend sub context
+     * @param backend the backend sub context
+     * @return true if the connection can be reused by another frontend connection
+     */
+    default boolean reusable(CTX ctx, SUB front, SUB backend) {
+        return false;
+    }
+
+    /**
+     * the backend connection released by another frontend connection is taken from the pool,
+     * the processor may copy the state of the connection (e.g. id counters or compression tables)
+     * from the sub context which released it.<br>
+     * this method is called before `chosen(...)`
+     *
+     * @param ctx      context
+     * @param front    frontend sub context
+     * @param backend  the new sub context of the connection
+     * @param released the sub context of the connection when it was released into the pool,
+     *                 it belongs to the context of another frontend connection
+     */
+    default void taken(CTX ctx, SUB front, SUB backend, SUB released) {
+    }
+
     /**
      * new connection connected
      *
@@ -2,6 +2,8 @@ package vproxy.processor.common;
 
 import vproxy.processor.HeadPayloadProcessor;
 
+// no request id in the frame, every frame from the frontend is considered to be responded with one frame,
+// the backend connection is shared with other frontend connections only when all requests are responded
 public class CommonInt32FramedProcessor extends HeadPayloadProcessor {
     public CommonInt32FramedProcessor() {
         super("framed-int32", 4, 0, 4, Integer.MAX_VALUE);
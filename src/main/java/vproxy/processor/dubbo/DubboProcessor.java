@@ -1,9 +1,28 @@
 package vproxy.processor.dubbo;
 
 import vproxy.processor.HeadPayloadProcessor;
+import vproxy.util.ByteArray;
 
+/*
+ * magic(2) | flag(1) | status(1) | request id(8) | length(4)
+ * flag: 0x80 request, 0x40 two way, 0x20 event
+ */
 public class DubboProcessor extends HeadPayloadProcessor {
+    private static final int FLAG_REQUEST = 0x80;
+    private static final int FLAG_TWO_WAY = 0x40;
+
     public DubboProcessor() {
-        super("dubbo", 16, 12, 4, Integer.MAX_VALUE);
+        super("dubbo", 16, 12, 4, Integer.MAX_VALUE, 4);
+    }
+
+    // both sides may send requests, e.g. heartbeats from the server
+    @Override
+    protected boolean isRequest(ByteArray head, boolean fromFrontend) {
+        return (head.uint8(2) & FLAG_REQUEST) != 0;
+    }
+
+    @Override
+    protected boolean expectResponse(ByteArray head) {
+        return (head.uint8(2) & FLAG_TWO_WAY) != 0;
     }
 }
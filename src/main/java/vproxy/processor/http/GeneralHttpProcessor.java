@@ -136,6 +136,35 @@ public class GeneralHttpProcessor implements Processor<GeneralHttpContext, Gener
         ctx.chosen = subCtx;
     }
 
+    @Override
+    public ByteArray beforeWritingToBackend(GeneralHttpContext ctx, GeneralHttpSubContext front, GeneralHttpSubContext backend, ByteArray data) throws Exception {
+        if (ctx.useHttp) return httpProcessor.beforeWritingToBackend(ctx.httpContext, front.httpSubContext, backend.httpSubContext, data);
+        if (ctx.useHttp2) return http2Processor.beforeWritingToBackend(ctx.http2Context, front.http2SubContext, backend.http2SubContext, data);
+        // if (ctx.willUseHttp2)
+        return data;
+    }
+
+    @Override
+    public String connectionPoolKey(GeneralHttpContext ctx, GeneralHttpSubContext front) {
+        if (ctx.useHttp) return httpProcessor.connectionPoolKey(ctx.httpContext, front.httpSubContext);
+        // the first backend of h2 is chosen before feeding the h2 processor
+        if (ctx.useHttp2 || ctx.willUseHttp2) return http2Processor.connectionPoolKey(ctx.http2Context, front.http2SubContext);
+        return null;
+    }
+
+    @Override
+    public boolean reusable(GeneralHttpContext ctx, GeneralHttpSubContext front, GeneralHttpSubContext backend) {
+        if (ctx.useHttp) return httpProcessor.reusable(ctx.httpContext, front.httpSubContext, backend.httpSubContext);
+        if (ctx.useHttp2) return http2Processor.reusable(ctx.http2Context, front.http2SubContext, backend.http2SubContext);
+        return false;
+    }
+
+    @Override
+    public void taken(GeneralHttpContext ctx, GeneralHttpSubContext front, GeneralHttpSubContext backend, GeneralHttpSubContext released) {
+        if (ctx.useHttp) httpProcessor.taken(ctx.httpContext, front.httpSubContext, backend.httpSubContext, released.httpSubContext);
+        if (ctx.useHttp2 || ctx.willUseHttp2) http2Processor.taken(ctx.http2Context, front.http2SubContext, backend.http2SubContext, released.http2SubContext);
+    }
+
     @Override
     public ByteArray connected(GeneralHttpContext ctx, GeneralHttpSubContext subCtx) {
         if (ctx.useHttp) return httpProcessor.connected(ctx.httpContext, subCtx.httpSubContext);
@@ -12,6 +12,11 @@ public class HttpContext extends OOContext<HttpSubContext> {
 
     int currentBackend = -1;
 
+    // for reusing backend connections
+    int requestsDone = 0;
+    int responsesDone = 0;
+    boolean keepAlive = true;
+
     private boolean hintExists = false;
     private Hint hint;
 
@@ -66,4 +71,15 @@ public class HttpContext extends OOContext<HttpSubContext> {
     public void chosen(HttpSubContext front, HttpSubContext subCtx) {
         currentBackend = subCtx.connId;
     }
+
+    @Override
+    public String connectionPoolKey(HttpSubContext front) {
+        return "http/1.x";
+    }
+
+    @Override
+    public boolean reusable(HttpSubContext front, HttpSubContext backend) {
+        // every request is answered, and no one asked to close the connection
+        return keepAlive && front.isIdle() && backend.isIdle() && requestsDone == responsesDone;
+    }
 }
@@ -9,6 +9,7 @@ import vproxy.processor.http1.builder.ResponseBuilder;
 import vproxy.processor.http1.entity.Request;
 import vproxy.processor.http1.entity.Response;
 import vproxy.util.ByteArray;
+import vproxy.util.ByteSearch;
 import vproxy.util.Logger;
 
 import java.util.LinkedList;
@@ -47,40 +48,27 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
      * 24 => reason ~> \r\n -> 4
      */
 
-    private Handler[] handlers = new Handler[]{
-        HttpSubContext.this::state0,
-        HttpSubContext.this::state1,
-        HttpSubContext.this::state2,
-        HttpSubContext.this::state3,
-        HttpSubContext.this::state4,
-        HttpSubContext.this::state5,
-        HttpSubContext.this::state6,
-        HttpSubContext.this::state7,
-        HttpSubContext.this::state8,
-        HttpSubContext.this::state9,
-        HttpSubContext.this::state10,
-        HttpSubContext.this::state11,
-        HttpSubContext.this::state12,
-        HttpSubContext.this::state13,
-        HttpSubContext.this::state14,
-        HttpSubContext.this::state15,
-        HttpSubContext.this::state16,
-        HttpSubContext.this::state17,
-        HttpSubContext.this::state18,
-        HttpSubContext.this::state19,
-        HttpSubContext.this::state20,
-        HttpSubContext.this::state21,
-        HttpSubContext.this::state22,
-        HttpSubContext.this::state23,
-        HttpSubContext.this::state24,
+    // the headers which affect how the message is proxied
+    private static final int HDR_OTHER = 0;
+    private static final int HDR_HOST = 1;
+    private static final int HDR_CONTENT_LENGTH = 2;
+    private static final int HDR_TRANSFER_ENCODING = 3;
+    private static final int HDR_X_FORWARDED_FOR = 4;
+    private static final int HDR_X_CLIENT_PORT = 5;
+    private static final int HDR_CONNECTION = 6;
+    private static final byte[][] HDR_NAMES = {
+        null,
+        "host".getBytes(),
+        "content-length".getBytes(),
+        "transfer-encoding".getBytes(),
+        "x-forwarded-for".getBytes(),
+        "x-client-port".getBytes(),
+        "connection".getBytes(),
     };
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes();
 
-    interface Handler {
-        void handle(ByteArray b) throws Exception;
-    }
-
-    private byte[] buf;
-    private int bufOffset = 0;
+    // the following builders are only used in parser mode
+    // when proxying, only the values of the headers listed above are retrieved
     private RequestBuilder req;
     private ResponseBuilder resp;
     private List<HeaderBuilder> headers;
@@ -89,8 +77,37 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     private ChunkBuilder chunk;
     private List<HeaderBuilder> trailers;
     private HeaderBuilder trailer;
+    private byte[] buf; // body or chunk content in parser mode
+    private int bufOffset = 0;
     private int proxyLen = -1;
 
+    // the current header
+    // the key is compared with HDR_NAMES when ':' is reached, and longer keys are never matched
+    private final byte[] keyBuf = new byte[32];
+    private int keyLen = 0;
+    private int headerKind = HDR_OTHER;
+    private final StringBuilder valueBuf = new StringBuilder(); // only filled for headers other than HDR_OTHER
+    private boolean valueStarted = false; // leading spaces of the value are ignored
+    private boolean trailerValueStarted = false;
+
+    // the current message
+    private boolean hasHeaders = false;
+    private int bodyHeaderKind = HDR_OTHER; // the first Content-Length or Transfer-Encoding header
+    private String bodyHeaderValue = null;
+    private boolean hasForwardedFor = false;
+    private boolean hasClientPort = false;
+    private int versionLen = 0;
+    private boolean versionMatched = true; // whether the version is HTTP/1.1
+    private int statusCode = 0;
+
+    // the current chunk
+    private int chunkSize = 0;
+    private int chunkSizeDigits = 0;
+    private boolean chunkSizeEnded = false; // spaces after the size
+
+    private final byte[] feedByte = new byte[1];
+    private final byte[] contentByte = new byte[1];
+
     // value of the Host: header
     // would be used as the hint
     // only accessed when it's a frontend sub context
@@ -186,67 +203,32 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
 
     @Override
     public ByteArray feed(ByteArray data) throws Exception {
+        int len = data.length();
+        byte[] array = data.toJavaArray(); // no copy if it's a simple byte array
+        ByteArray inserted = null; // data with the additional headers inserted
+        int insertedCursor = 0; // bytes of data before this index are already in `inserted`
         int consumedBytes = 0;
-        while (consumedBytes < data.length()) {
-            feed(data.get(consumedBytes++));
+        while (consumedBytes < len) {
+            consumedBytes = parse(array, consumedBytes, len);
 
             if (passParam_TryFillAdditionalHeaders) {
-                boolean noForwardedFor = true;
-                boolean noClientPort = true;
-
-                for (HeaderBuilder h : headers) {
-                    String hv = h.key.toString().trim();
-                    if (hv.equalsIgnoreCase("x-forwarded-for")) {
-                        noForwardedFor = false;
-                    } else if (hv.equalsIgnoreCase("x-client-port")) {
-                        noClientPort = false;
-                    }
-                    if (!noForwardedFor && !noClientPort) {
-                        break;
-                    }
-                }
-                ByteArray appendData = null;
-                if (noForwardedFor) {
-                    ByteArray b = ByteArray.from(("" +
-                        "x-forwarded-for: " + ctx.clientAddress + "\r\n" +
-                        "").getBytes());
-                    assert Logger.lowLevelDebug("add header x-forwarded-for: " + ctx.clientAddress);
-                    appendData = b;
-                }
-                if (noClientPort) {
-                    ByteArray b = ByteArray.from(("" +
-                        "x-client-port: " + ctx.clientPort + "\r\n" +
-                        "").getBytes());
-                    assert Logger.lowLevelDebug("add header x-client-port: " + ctx.clientPort);
-                    if (appendData == null) {
-                        appendData = b;
-                    } else {
-                        appendData = appendData.concat(b);
-                    }
-                }
-                if (appendData != null) {
-                    // insert the appendData into data
-                    data = data.sub(0, consumedBytes - 1)
-                        .concat(appendData)
-                        .concat(data.sub(consumedBytes - 1, data.length() - (consumedBytes - 1)));
-                    consumedBytes += appendData.length();
-                }
                 passParam_TryFillAdditionalHeaders = false;
-            }
-            if (proxyLen > 0) {
-                // need to do proxy
-                int originalCursor = consumedBytes;
-                consumedBytes += proxyLen;
-                if (consumedBytes > data.length()) {
-                    // input data has fewer bytes than required
-                    // so still need to do proxy later
-                    consumedBytes = data.length();
-                }
-                for (int i = originalCursor; i < consumedBytes; ++i) {
-                    feed(data.get(i));
+                ByteArray appendData = additionalHeaders();
+                if (appendData != null) {
+                    // insert the appendData before the last \r\n of the headers
+                    int pos = consumedBytes - 1;
+                    if (pos > insertedCursor) {
+                        ByteArray before = data.sub(insertedCursor, pos - insertedCursor);
+                        inserted = inserted == null ? before : inserted.concat(before);
+                    }
+                    inserted = inserted == null ? appendData : inserted.concat(appendData);
+                    insertedCursor = pos;
                 }
             }
         }
+        if (inserted != null) {
+            data = inserted.concat(data.sub(insertedCursor, len - insertedCursor));
+        }
         if (hostHeaderRetrieved) {
             if (storedBytes == null) {
                 return data;
@@ -266,10 +248,79 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     }
 
     public void feed(byte b) throws Exception {
-        if (state < 0 || state >= handlers.length) {
-            throw new IllegalStateException("BUG: unexpected state " + state);
+        feedByte[0] = b;
+        parse(feedByte, 0, 1);
+        // headers are only inserted by feed(ByteArray)
+        passParam_TryFillAdditionalHeaders = false;
+    }
+
+    // parse bytes in [off, end) of the array
+    // returns when all bytes are consumed, or when the additional headers should be inserted
+    // the returned value is the index of the next byte to parse
+    private int parse(byte[] array, int off, int end) throws Exception {
+        while (off < end) {
+            if (proxyLen > 0) {
+                // body or chunk content, skip by length
+                int n = Math.min(proxyLen, end - off);
+                body(array, off, n);
+                off += n;
+                continue;
+            }
+            int runEnd = runEnd(array, off, end);
+            if (runEnd > off) {
+                content(array, off, runEnd);
+                off = runEnd;
+                continue;
+            }
+            handle(array[off++] & 0xff);
+            if (passParam_TryFillAdditionalHeaders) {
+                return off;
+            }
         }
-        handlers[state].handle(ByteArray.from(b));
+        return off;
+    }
+
+    // the index of the first delimiter of the current state in [off, end)
+    // bytes before it are the content of the current token
+    // returns `off` if the state always handles bytes one by one
+    private int runEnd(byte[] array, int off, int end) {
+        switch (state) {
+            case 1:
+            case 22:
+            case 23:
+                return ByteSearch.indexOfAny(array, off, end, (byte) ' ', (byte) ' ', (byte) ' ');
+            case 2:
+                return ByteSearch.indexOfAny(array, off, end, (byte) ' ', (byte) '\r', (byte) '\n');
+            case 3:
+            case 7:
+            case 13:
+            case 19:
+            case 24:
+                return ByteSearch.indexOfAny(array, off, end, (byte) '\r', (byte) '\n', (byte) '\n');
+            case 5:
+            case 17:
+                return ByteSearch.indexOfAny(array, off, end, (byte) ':', (byte) ':', (byte) ':');
+            case 11:
+                return ByteSearch.indexOfAny(array, off, end, (byte) ';', (byte) '\r', (byte) '\n');
+            default:
+                return off;
+        }
+    }
+
+    private ByteArray additionalHeaders() {
+        if (hasForwardedFor && hasClientPort) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (!hasForwardedFor) {
+            sb.append("x-forwarded-for: ").append(ctx.clientAddress).append("\r\n");
+            assert Logger.lowLevelDebug("add header x-forwarded-for: " + ctx.clientAddress);
+        }
+        if (!hasClientPort) {
+            sb.append("x-client-port: ").append(ctx.clientPort).append("\r\n");
+            assert Logger.lowLevelDebug("add header x-client-port: " + ctx.clientPort);
+        }
+        return ByteArray.from(sb.toString().getBytes());
     }
 
     @Override
@@ -294,87 +345,389 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
 
     // start handler methods
 
+    private void handle(int b) throws Exception {
+        switch (state) {
+            case 0:
+                state0(b);
+                break;
+            case 1:
+                state1(b);
+                break;
+            case 2:
+                state2(b);
+                break;
+            case 3:
+                state3(b);
+                break;
+            case 4:
+                state4(b);
+                break;
+            case 5:
+                state5(b);
+                break;
+            case 6:
+                state6(b);
+                break;
+            case 7:
+                state7(b);
+                break;
+            case 8:
+                state8(b);
+                break;
+            case 9:
+                state9();
+                break;
+            case 11:
+                state11(b);
+                break;
+            case 12:
+                state12(b);
+                break;
+            case 13:
+                state13(b);
+                break;
+            case 14:
+                state14(b);
+                break;
+            case 16:
+                state16(b);
+                break;
+            case 17:
+                state17(b);
+                break;
+            case 18:
+                state18(b);
+                break;
+            case 19:
+                state19(b);
+                break;
+            case 20:
+                state20(b);
+                break;
+            case 21:
+                state21();
+                break;
+            case 22:
+                state22(b);
+                break;
+            case 23:
+                state23(b);
+                break;
+            case 24:
+                state24(b);
+                break;
+            default:
+                throw new IllegalStateException("BUG: unexpected state " + state);
+        }
+    }
+
+    private void content(int b) throws Exception {
+        contentByte[0] = (byte) b;
+        content(contentByte, 0, 1);
+    }
+
+    // bytes in [from, to) of the array belong to the token of the current state
+    private void content(byte[] array, int from, int to) throws Exception {
+        switch (state) {
+            case 1:
+                if (parserMode) {
+                    append(req.method, array, from, to);
+                }
+                break;
+            case 2:
+                if (parserMode) {
+                    append(req.uri, array, from, to);
+                }
+                break;
+            case 3:
+                matchVersion(array, from, to);
+                if (parserMode) {
+                    if (req.version == null) {
+                        req.version = new StringBuilder();
+                    }
+                    append(req.version, array, from, to);
+                }
+                break;
+            case 5:
+                if (keyLen < keyBuf.length) {
+                    System.arraycopy(array, from, keyBuf, keyLen, Math.min(to - from, keyBuf.length - keyLen));
+                }
+                keyLen += to - from;
+                if (parserMode) {
+                    append(header.key, array, from, to);
+                }
+                break;
+            case 7:
+                if (!valueStarted) {
+                    while (from < to && array[from] == ' ') {
+                        ++from;
+                    }
+                    if (from == to) {
+                        break;
+                    }
+                    valueStarted = true;
+                }
+                if (headerKind != HDR_OTHER) {
+                    append(valueBuf, array, from, to);
+                }
+                if (parserMode) {
+                    append(header.value, array, from, to);
+                }
+                break;
+            case 11:
+                for (int i = from; i < to; ++i) {
+                    chunkSizeDigit(array[i] & 0xff);
+                }
+                if (parserMode) {
+                    append(chunk.size, array, from, to);
+                }
+                break;
+            case 13:
+                if (parserMode) {
+                    if (chunk.extension == null) {
+                        chunk.extension = new StringBuilder();
+                    }
+                    append(chunk.extension, array, from, to);
+                }
+                break;
+            case 17:
+                if (parserMode) {
+                    append(trailer.key, array, from, to);
+                }
+                break;
+            case 19:
+                if (!trailerValueStarted) {
+                    while (from < to && array[from] == ' ') {
+                        ++from;
+                    }
+                    if (from == to) {
+                        break;
+                    }
+                    trailerValueStarted = true;
+                }
+                if (parserMode) {
+                    append(trailer.value, array, from, to);
+                }
+                break;
+            case 22:
+                matchVersion(array, from, to);
+                if (parserMode) {
+                    append(resp.version, array, from, to);
+                }
+                break;
+            case 23:
+                for (int i = from; i < to; ++i) {
+                    int b = array[i] & 0xff;
+                    if (b < '0' || b > '9') {
+                        throw new Exception("invalid character in http response status code: " + ((char) b));
+                    }
+                    statusCode = statusCode * 10 + (b - '0');
+                }
+                if (parserMode) {
+                    append(resp.statusCode, array, from, to);
+                }
+                break;
+            case 24:
+                if (parserMode) {
+                    append(resp.reason, array, from, to);
+                }
+                break;
+            default:
+                throw new IllegalStateException("BUG: state " + state + " does not have content");
+        }
+    }
+
+    private void matchVersion(byte[] array, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (versionLen >= HTTP_1_1.length || array[i] != HTTP_1_1[versionLen]) {
+                versionMatched = false;
+            }
+            ++versionLen;
+        }
+    }
+
+    // only HTTP/1.1 connections are kept alive
+    private void endVersion() {
+        if (!versionMatched || versionLen != HTTP_1_1.length) {
+            ctx.keepAlive = false;
+        }
+    }
+
+    private static void append(StringBuilder sb, byte[] array, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            sb.append((char) (array[i] & 0xff));
+        }
+    }
+
+    // the same as Integer.parseInt(size.trim(), 16)
+    private void chunkSizeDigit(int b) {
+        if (b <= ' ') {
+            if (chunkSizeDigits != 0) {
+                chunkSizeEnded = true;
+            }
+            return;
+        }
+        int d = Character.digit(b, 16);
+        if (d < 0 || chunkSizeEnded) {
+            throw new NumberFormatException("invalid chunk size");
+        }
+        if ((chunkSize & 0xf8000000) != 0) {
+            throw new NumberFormatException("chunk size too large");
+        }
+        chunkSize = chunkSize * 16 + d;
+        ++chunkSizeDigits;
+    }
+
+    private void body(byte[] array, int off, int n) {
+        assert n <= proxyLen;
+        proxyLen -= n;
+        if (parserMode) { // the buffer is allocated when the length is known
+            System.arraycopy(array, off, buf, bufOffset, n);
+            bufOffset += n;
+        }
+        if (proxyLen == 0) {
+            // the method will not be called if it's using the Proxy lib
+            // so proxyDone will not be called either
+            // we call it manually here
+            proxyDone();
+        }
+    }
+
     private void end() {
         state = 0;
+        if (frontend) {
+            ++ctx.requestsDone;
+        } else if (statusCode >= 200) { // 1xx responses are followed by the final response
+            ++ctx.responsesDone;
+        }
     }
 
-    private void state0(ByteArray data) {
+    private void state0(int b) throws Exception {
+        hasHeaders = false;
+        bodyHeaderKind = HDR_OTHER;
+        bodyHeaderValue = null;
+        hasForwardedFor = false;
+        hasClientPort = false;
+        versionLen = 0;
+        versionMatched = true;
+        statusCode = 0;
+        headers = null;
         if (frontend) {
-            req = new RequestBuilder();
+            if (parserMode) {
+                req = new RequestBuilder();
+            }
             state = 1;
-            state1(data);
+            state1(b);
         } else {
-            resp = new ResponseBuilder();
+            if (parserMode) {
+                resp = new ResponseBuilder();
+            }
             state = 22;
-            state22(data);
+            state22(b);
         }
     }
 
-    private void state1(ByteArray data) {
-        int b = data.uint8(0);
+    private void state1(int b) throws Exception {
         if (b == ' ') {
             state = 2;
         } else {
-            req.method.append((char) b);
+            content(b);
         }
     }
 
-    private void state2(ByteArray data) {
-        int b = data.uint8(0);
+    private void state2(int b) throws Exception {
         if (b == ' ') {
             state = 3;
         } else if (b == '\r') {
             // do nothing
         } else if (b == '\n') {
             state = 4;
+            ctx.keepAlive = false; // no version
         } else {
-            req.uri.append((char) b);
+            content(b);
         }
     }
 
-    private void state3(ByteArray data) {
-        int b = data.uint8(0);
+    private void state3(int b) throws Exception {
         if (b == '\r') {
             // do nothing
         } else if (b == '\n') {
             state = 4;
+            endVersion();
         } else {
-            if (req.version == null) {
-                req.version = new StringBuilder();
-            }
-            req.version.append((char) b);
+            content(b);
         }
     }
 
-    private void state4(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state4(int b) throws Exception {
         if (b == '\r') {
             // do nothing
         } else if (b == '\n') {
             state = 9;
-            state9(null);
+            state9();
         } else {
             state = 5;
-            state5(data);
+            beginHeader();
+            state5(b);
         }
     }
 
-    private void state5(ByteArray data) throws Exception {
-        if (header == null) {
+    private void beginHeader() {
+        keyLen = 0;
+        headerKind = HDR_OTHER;
+        valueBuf.setLength(0);
+        valueStarted = false;
+        if (parserMode) {
             header = new HeaderBuilder();
         }
+    }
 
-        int b = data.uint8(0);
+    private void state5(int b) throws Exception {
         if (b == ':') {
+            headerKind = headerKind();
             state = 6;
-            state6(data);
+            state6(b);
         } else {
-            header.key.append((char) b);
+            content(b);
         }
     }
 
-    private void state6(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    // the same as key.trim().equalsIgnoreCase(name)
+    private int headerKind() {
+        if (keyLen > keyBuf.length) {
+            return HDR_OTHER;
+        }
+        int from = 0;
+        int to = keyLen;
+        while (from < to && (keyBuf[from] & 0xff) <= ' ') {
+            ++from;
+        }
+        while (to > from && (keyBuf[to - 1] & 0xff) <= ' ') {
+            --to;
+        }
+        for (int kind = 1; kind < HDR_NAMES.length; ++kind) {
+            byte[] name = HDR_NAMES[kind];
+            if (name.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            for (; i < name.length; ++i) {
+                int c = keyBuf[from + i];
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != name[i]) {
+                    break;
+                }
+            }
+            if (i == name.length) {
+                return kind;
+            }
+        }
+        return HDR_OTHER;
+    }
+
+    private void state6(int b) throws Exception {
         if (b == ':') {
             state = 7;
         } else {
@@ -382,349 +735,326 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state7(ByteArray data) {
-        int b = data.uint8(0);
+    private void state7(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 8;
+            endHeader();
         } else {
-            if (b != ' ' || header.value.length() != 0) { // leading spaces of the value are ignored
-                header.value.append((char) b);
-            }
+            content(b);
         }
     }
 
-    private void state8(ByteArray data) throws Exception {
-        if (headers == null) {
-            headers = new LinkedList<>();
-            if (frontend) {
-                req.headers = headers;
-            } else {
-                resp.headers = headers;
+    // called when entering state 8
+    private void endHeader() {
+        hasHeaders = true;
+        if (parserMode) {
+            if (headers == null) {
+                headers = new LinkedList<>();
+                if (frontend) {
+                    req.headers = headers;
+                } else {
+                    resp.headers = headers;
+                }
             }
-        }
-        if (header != null) {
             headers.add(header);
             assert Logger.lowLevelDebug("received header " + header);
-            String k = header.key.toString();
-            if (k.trim().equalsIgnoreCase("host")) {
-                theHostHeader = header.value.toString().trim();
-                hostHeaderRetrieved = true;
-            }
             header = null;
         }
+        switch (headerKind) {
+            case HDR_HOST:
+                theHostHeader = valueBuf.toString().trim();
+                hostHeaderRetrieved = true;
+                break;
+            case HDR_CONTENT_LENGTH:
+            case HDR_TRANSFER_ENCODING:
+                if (bodyHeaderKind == HDR_OTHER) {
+                    bodyHeaderKind = headerKind;
+                    bodyHeaderValue = valueBuf.toString().trim();
+                }
+                break;
+            case HDR_X_FORWARDED_FOR:
+                hasForwardedFor = true;
+                break;
+            case HDR_X_CLIENT_PORT:
+                hasClientPort = true;
+                break;
+            case HDR_CONNECTION:
+                String conn = valueBuf.toString().toLowerCase();
+                if (conn.contains("close") || conn.contains("upgrade")) {
+                    ctx.keepAlive = false;
+                }
+                break;
+        }
+    }
 
-        int b = data.uint8(0);
+    private void state8(int b) throws Exception {
         if (b == '\r') {
             // ignore
             passParam_TryFillAdditionalHeaders = frontend; // only add header if it's from frontend
         } else if (b == '\n') {
             state = 9;
-            state9(null);
+            state9();
         } else {
             state = 5;
-            state5(data);
+            beginHeader();
+            state5(b);
         }
     }
 
     // this method should be called before entering state 9
     // it's for state transferring
-    private void state9(@SuppressWarnings("unused") ByteArray data) {
-        // ignore the data
+    private void state9() {
         hostHeaderRetrieved = true;
-        if (headers == null) {
+        if (!frontend) {
+            if (statusCode == 101) { // protocol switched
+                ctx.keepAlive = false;
+            } else if (bodyHeaderKind == HDR_OTHER && statusCode >= 200 && statusCode != 204 && statusCode != 304) {
+                ctx.keepAlive = false; // the body ends when the connection closes
+            }
+        }
+        if (!hasHeaders) {
             end();
             return;
         }
-        for (var h : headers) {
-            String hdr = h.key.toString().trim().toLowerCase();
-            if (hdr.equals("content-length")) {
-                String len = h.value.toString().trim();
-                assert Logger.lowLevelDebug("found Content-Length: " + len);
-                int intLen = Integer.parseInt(len);
-                if (intLen == 0) {
-                    end();
-                } else {
-                    state = 10;
-                    proxyLen = intLen;
-                }
-                return;
-            } else if (hdr.equals("transfer-encoding")) {
-                String encoding = h.value.toString().trim().toLowerCase();
-                assert Logger.lowLevelDebug("found Transfer-Encoding: " + encoding);
-                if (encoding.equals("chunked")) {
-                    state = 11;
+        if (bodyHeaderKind == HDR_CONTENT_LENGTH) {
+            assert Logger.lowLevelDebug("found Content-Length: " + bodyHeaderValue);
+            int intLen = Integer.parseInt(bodyHeaderValue);
+            if (intLen == 0) {
+                end();
+            } else {
+                state = 10;
+                proxyLen = intLen;
+                if (parserMode) {
+                    buf = new byte[intLen];
+                    bufOffset = 0;
+                    if (frontend) {
+                        req.body = ByteArray.from(buf);
+                    } else {
+                        resp.body = ByteArray.from(buf);
+                    }
                 }
-                return;
             }
+            return;
+        } else if (bodyHeaderKind == HDR_TRANSFER_ENCODING) {
+            String encoding = bodyHeaderValue.toLowerCase();
+            assert Logger.lowLevelDebug("found Transfer-Encoding: " + encoding);
+            if (encoding.equals("chunked")) {
+                state = 11;
+                beginChunk();
+            }
+            return;
         }
         assert Logger.lowLevelDebug("Content-Length and Transfer-Encoding both not found");
         end();
     }
 
-    private void state10(ByteArray data) {
-        assert data.length() <= proxyLen;
-        int contentLength = proxyLen;
-        proxyLen -= data.length();
-        if (frontend) {
-            if (parserMode) { // use a byte array buffer to hold the data
-                if (req.body == null) {
-                    buf = new byte[contentLength];
-                    bufOffset = 0;
-                    req.body = ByteArray.from(buf);
-                }
-                for (int i = 0; i < data.length(); ++i) {
-                    buf[bufOffset++] = data.get(i);
-                }
-            } else {
-                if (req.body == null) {
-                    req.body = data;
-                } else {
-                    req.body = req.body.concat(data);
-                }
-            }
-        } else {
-            if (parserMode) {
-                if (resp.body == null) {
-                    buf = new byte[contentLength];
-                    bufOffset = 0;
-                    resp.body = ByteArray.from(buf);
-                }
-                for (int i = 0; i < data.length(); ++i) {
-                    buf[bufOffset++] = data.get(i);
-                }
-            } else {
-                if (resp.body == null) {
-                    resp.body = data;
-                } else {
-                    resp.body = resp.body.concat(data);
-                }
-            }
-        }
-        if (proxyLen == 0) {
-            // the method will not be called if it's using the Proxy lib
-            // so proxyDone will not be called either
-            // we call it manually here
-            proxyDone();
+    private void beginChunk() {
+        chunkSize = 0;
+        chunkSizeDigits = 0;
+        chunkSizeEnded = false;
+        if (parserMode) {
+            chunk = new ChunkBuilder();
         }
     }
 
-    private void state11(ByteArray data) throws Exception {
-        if (chunk == null) {
-            chunk = new ChunkBuilder();
-        }
-        int b = data.uint8(0);
+    private void state11(int b) throws Exception {
         if (b == ';') {
             state = 12;
         } else if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            endChunkSize();
         } else {
-            chunk.size.append((char) b);
+            content(b);
         }
     }
 
-    private void state12(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state12(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            endChunkSize();
         } else {
             state = 13;
-            if (chunk.extension == null) {
-                chunk.extension = new StringBuilder();
-            }
-            chunk.extension.append((char) b);
+            content(b);
         }
     }
 
-    private void state13(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state13(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            endChunkSize();
         } else {
-            chunk.extension.append((char) b);
+            content(b);
         }
     }
 
-    // this method may be called before entering state 9
-    // it's for state transferring
-    private void state14(ByteArray data) throws Exception {
-        int size = chunk == null ? 0 : Integer.parseInt(chunk.size.toString().trim(), 16);
-        if (size != 0) {
+    // called when entering state 14
+    private void endChunkSize() {
+        if (chunkSizeDigits == 0) {
+            throw new NumberFormatException("missing chunk size");
+        }
+        if (chunkSize != 0) {
             state = 15;
-            proxyLen = size;
-        } else {
-            if (data == null) { // called from other states
-                // end chunk
-                if (chunks == null) {
-                    chunks = new LinkedList<>();
-                }
-                chunks.add(chunk);
-                chunk = null;
-                if (frontend) {
-                    req.chunks = chunks;
-                } else {
-                    resp.chunks = chunks;
-                }
-                chunks = null;
+            proxyLen = chunkSize;
+            if (parserMode) {
+                buf = new byte[chunkSize];
+                bufOffset = 0;
+                chunk.content = ByteArray.from(buf);
+            }
+        } else if (parserMode) {
+            // end chunk
+            if (chunks == null) {
+                chunks = new LinkedList<>();
+            }
+            chunks.add(chunk);
+            chunk = null;
+            if (frontend) {
+                req.chunks = chunks;
             } else {
-                int b = data.uint8(0);
-                if (b == '\r') {
-                    // ignore
-                } else if (b == '\n') {
-                    state = 21;
-                    state21(null);
-                } else {
-                    state = 17;
-                    state17(data);
-                }
+                resp.chunks = chunks;
             }
+            chunks = null;
         }
     }
 
-    private void state15(ByteArray data) {
-        assert data.length() <= proxyLen;
-        proxyLen -= data.length();
-        if (chunk.content == null) {
-            chunk.content = data;
+    // after the last chunk
+    private void state14(int b) throws Exception {
+        if (b == '\r') {
+            // ignore
+        } else if (b == '\n') {
+            state = 21;
+            state21();
         } else {
-            chunk.content = chunk.content.concat(data);
-        }
-        if (proxyLen == 0) {
-            // this method will not be called if using the Proxy lib
-            // and proxyDone will not be called as well
-            // so call it manually here
-            proxyDone();
+            state = 17;
+            beginTrailer();
+            state17(b);
         }
     }
 
-    private void state16(ByteArray data) throws Exception {
-        if (chunks == null) {
-            chunks = new LinkedList<>();
-        }
-        if (chunk != null) {
-            chunks.add(chunk);
-            chunk = null;
+    private void state16(int b) throws Exception {
+        if (parserMode) {
+            if (chunks == null) {
+                chunks = new LinkedList<>();
+            }
+            if (chunk != null) {
+                chunks.add(chunk);
+                chunk = null;
+            }
         }
 
-        int b = data.uint8(0);
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 11;
+            beginChunk();
         } else {
             throw new Exception("invalid chunk end");
         }
     }
 
-    private void state17(ByteArray data) throws Exception {
-        if (trailer == null) {
+    private void beginTrailer() {
+        trailerValueStarted = false;
+        if (parserMode) {
             trailer = new HeaderBuilder();
         }
+    }
 
-        int b = data.uint8(0);
+    private void state17(int b) throws Exception {
         if (b == ':') {
             state = 18;
-            state18(data);
+            state18(b);
         } else {
-            trailer.key.append((char) b);
+            content(b);
         }
     }
 
-    private void state18(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state18(int b) throws Exception {
         if (b == ':') {
             state = 19;
         } else {
-            throw new Exception("invalid trailer: " + header + ", invalid splitter " + (char) b);
+            throw new Exception("invalid trailer: " + trailer + ", invalid splitter " + (char) b);
         }
     }
 
-    private void state19(ByteArray data) {
-        int b = data.uint8(0);
+    private void state19(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 20;
         } else {
-            if (b != ' ' || trailer.value.length() > 0) { // leading spaces are ignored
-                trailer.value.append((char) b);
-            }
+            content(b);
         }
     }
 
-    private void state20(ByteArray data) throws Exception {
-        if (trailers == null) {
-            trailers = new LinkedList<>();
-        }
-        if (trailer != null) {
-            assert Logger.lowLevelDebug("received trailer " + trailer);
-            trailers.add(trailer);
-            trailer = null;
+    private void state20(int b) throws Exception {
+        if (parserMode) {
+            if (trailers == null) {
+                trailers = new LinkedList<>();
+            }
+            if (trailer != null) {
+                assert Logger.lowLevelDebug("received trailer " + trailer);
+                trailers.add(trailer);
+                trailer = null;
+            }
         }
 
-        int b = data.uint8(0);
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 21;
-            if (frontend) {
-                req.trailers = trailers;
-            } else {
-                resp.trailers = trailers;
+            if (parserMode) {
+                if (frontend) {
+                    req.trailers = trailers;
+                } else {
+                    resp.trailers = trailers;
+                }
+                trailers = null;
             }
-            trailers = null;
-            state21(null);
+            state21();
         } else {
             state = 17;
-            state17(data);
+            beginTrailer();
+            state17(b);
         }
     }
 
-    // this method should be called before entering state 9
+    // this method should be called before entering state 21
     // it's for state transferring
-    private void state21(@SuppressWarnings("unused") ByteArray data) {
+    private void state21() {
         end();
     }
 
-    private void state22(ByteArray data) {
-        int b = data.uint8(0);
+    private void state22(int b) throws Exception {
         if (b == ' ') {
             state = 23;
+            endVersion();
         } else {
-            resp.version.append((char) b);
+            content(b);
         }
     }
 
-    private void state23(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state23(int b) throws Exception {
         if (b == ' ') {
             state = 24;
         } else {
-            if (b < '0' || b > '9') {
-                throw new Exception("invalid character in http response status code: " + ((char) b));
-            }
-            resp.statusCode.append((char) b);
+            content(b);
         }
     }
 
-    private void state24(ByteArray data) {
-        int b = data.uint8(0);
+    private void state24(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 4;
         } else {
-            resp.reason.append((char) b);
+            content(b);
         }
     }
 }
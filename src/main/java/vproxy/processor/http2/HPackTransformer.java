@@ -2,38 +2,170 @@ package vproxy.processor.http2;
 
 import com.twitter.hpack.Decoder;
 import com.twitter.hpack.Encoder;
+import com.twitter.hpack.HeaderListener;
 import vproxy.util.ByteArray;
+import vproxy.util.Logger;
 import vproxy.util.io.ArrayInputStream;
 import vproxy.util.io.ArrayOutputStream;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
-class HPackTransformer {
-    private final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+/**
+ * decode header blocks from the frontend, and prepare them for backends in one of the two ways:<br>
+ * 1. passthrough: when a backend connection received all header blocks of the frontend connection,
+ * its dynamic table is the same as the table of the frontend encoder, so the fragments are sent untouched.
+ * the additional headers are appended as literals without indexing, which do not modify the dynamic table.<br>
+ * 2. re-encode: the decoded headers are encoded with the encoder of the backend connection.
+ */
+class HPackTransformer implements HeaderListener {
+    private static final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+
+    static class Field {
+        final byte[] name;
+        final byte[] value;
+        final boolean sensitive;
+
+        Field(byte[] name, byte[] value, boolean sensitive) {
+            this.name = name;
+            this.value = value;
+            this.sensitive = sensitive;
+        }
+    }
+
+    // a HEADERS or CONTINUATION frame from the frontend
+    static class Fragment {
+        final byte type;
+        final boolean endHeaders;
+        final boolean endStream;
+        final int streamId;
+        final ByteArray block; // header block fragment without padding and priority
+        final List<Field> fields = new ArrayList<>(); // the headers completed in this fragment
+        final List<Header> additional = new ArrayList<>(); // headers to add, only for the last fragment
+        ByteArray passthrough; // the frame to send in passthrough mode
+        int offset; // offset in the unsent output of the frontend sub context
+
+        Fragment(byte type, boolean endHeaders, boolean endStream, int streamId, ByteArray block) {
+            this.type = type;
+            this.endHeaders = endHeaders;
+            this.endStream = endStream;
+            this.streamId = streamId;
+            this.block = block;
+        }
+    }
 
     private final Decoder decoder;
-    private final SyncOutputListener lsn;
+    private final Header[] additionalHeaders;
+    private final ByteArray[] additionalLiterals;
+    private final boolean[] present; // whether the additional header exists in the current header block
+    private final Consumer<String> hostHeaderListener;
     private final ArrayOutputStream outBuffer = ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE]));
+    private Fragment current;
 
     HPackTransformer(int maxHeaderTableSize,
                      Header[] additionalHeaders,
                      Consumer<String> hostHeaderListener) {
         this.decoder = new Decoder(BUFFER_SIZE, maxHeaderTableSize);
-        Encoder encoder = new Encoder(0);
-        this.lsn = new SyncOutputListener(encoder, outBuffer, additionalHeaders, hostHeaderListener);
+        this.additionalHeaders = additionalHeaders;
+        this.present = new boolean[additionalHeaders.length];
+        this.hostHeaderListener = hostHeaderListener;
+
+        // an encoder without dynamic table never indexes the headers
+        Encoder literalEncoder = new Encoder(0);
+        this.additionalLiterals = new ByteArray[additionalHeaders.length];
+        for (int i = 0; i < additionalHeaders.length; ++i) {
+            Header h = additionalHeaders[i];
+            try {
+                literalEncoder.encodeHeader(outBuffer, h.key, h.value, false);
+            } catch (IOException e) {
+                throw new RuntimeException(e); // will not happen when writing into memory
+            }
+            additionalLiterals[i] = outBuffer.get();
+        }
     }
 
-    ByteArray transform(ByteArray array, boolean addHeaders) throws IOException {
-        decoder.decode(ArrayInputStream.from(array), lsn);
-        if (addHeaders) {
-            lsn.addHeaders();
+    @Override
+    public void addHeader(byte[] name, byte[] value, boolean sensitive) {
+        String nameStr = new String(name);
+        // we need to search for the header `host` can call the callback
+        if (nameStr.equalsIgnoreCase("host")) { // h2 headers must be lower-case strings
+            hostHeaderListener.accept(new String(value));
+        }
+        // additional headers are not added if they already exist
+        for (int i = 0; i < additionalHeaders.length; ++i) {
+            if (additionalHeaders[i].keyStr.equalsIgnoreCase(nameStr)) {
+                assert Logger.lowLevelDebug("see target header " +
+                    "old header: " + nameStr + ": " + new String(value));
+                present[i] = true;
+            }
+        }
+        current.fields.add(new Field(name, value, sensitive));
+    }
+
+    Fragment decode(byte type, Http2Frame frame, ByteArray block) throws IOException {
+        Fragment f = new Fragment(type, frame.endHeaders, type == 1 && frame.endStream, frame.streamIdentifier, block);
+        current = f;
+        try {
+            decoder.decode(ArrayInputStream.from(block), this);
+        } finally {
+            current = null;
+        }
+
+        ByteArray payload = block;
+        if (f.endHeaders) {
+            for (int i = 0; i < additionalHeaders.length; ++i) {
+                if (present[i]) {
+                    present[i] = false;
+                    continue;
+                }
+                assert Logger.lowLevelDebug("adding header " +
+                    "new header: " + additionalHeaders[i].keyStr + ": " + new String(additionalHeaders[i].value));
+                f.additional.add(additionalHeaders[i]);
+                payload = payload.concat(additionalLiterals[i]);
+            }
+            decoder.endHeaderBlock();
+        }
+        f.passthrough = frame(f, f.streamId, payload);
+        return f;
+    }
+
+    // encode the fragment with the encoder of a backend connection
+    ByteArray encode(Fragment f, Http2SubContext backend) throws IOException {
+        int tableSize = Math.min(backend.peerHeaderTableSize, Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE);
+        Encoder encoder = backend.hpackEncoder;
+        if (encoder == null) {
+            encoder = new Encoder(tableSize);
+            backend.hpackEncoder = encoder;
+            if (backend.hpackTableUsedByPassthrough) {
+                // evict the entries added by the frontend encoder
+                // the encoder is created at the beginning of a header block, so table size updates are allowed here
+                encoder.setMaxHeaderTableSize(outBuffer, 0);
+                encoder.setMaxHeaderTableSize(outBuffer, tableSize);
+            }
+        } else if (f.type == 1 && encoder.getMaxHeaderTableSize() > tableSize) {
+            // the backend sent a smaller table size after the encoder is created
+            encoder.setMaxHeaderTableSize(outBuffer, tableSize);
+        }
+        for (Field field : f.fields) {
+            encoder.encodeHeader(outBuffer, field.name, field.value, field.sensitive);
+        }
+        for (Header h : f.additional) {
+            encoder.encodeHeader(outBuffer, h.key, h.value, false);
         }
-        return outBuffer.get();
+        return frame(f, backend.toBackendStreamId(f.streamId), outBuffer.get());
     }
 
-    public void endHeaders() {
-        lsn.endHeaders();
-        decoder.endHeaderBlock();
+    private static ByteArray frame(Fragment f, int streamId, ByteArray payload) {
+        ByteArray result = ByteArray.from(new byte[]{
+            0, 0, 0, // length, will be set later
+            f.type,
+            (byte) ((f.endHeaders ? 0x4 : 0) | (f.endStream ? 0x1 : 0)), // flags
+            0, 0, 0, 0 // stream id, will be set later
+        });
+        result.int24(0, payload.length());
+        result.int32(5, streamId);
+        return result.concat(payload);
     }
 }
@@ -5,10 +5,11 @@ import vfd.IPPort;
 import vproxy.processor.Hint;
 import vproxy.processor.OOContext;
 import vproxy.util.ByteArray;
+import vproxy.util.IntIntMap;
+import vproxy.util.IntMap;
 import vproxy.util.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 
 public class Http2Context extends OOContext<Http2SubContext> {
     boolean frontendHandshaking = true;
@@ -16,15 +17,21 @@ public class Http2Context extends OOContext<Http2SubContext> {
     ByteArray clientHandshake = null; // PRI * ..... and SETTINGS frame as well
 
     boolean frontendSettingsSent = false;
+    boolean frontendSettingsAckToDrop = false; // the settings are made by vproxy when the first backend is reused
 
     // the streamMap keys are the ids seen by the frontend
-    final Map<Integer, Http2SubContext> streamMap = new HashMap<>(); // streamId => subCtx
+    final IntMap<Http2SubContext> streamMap = new IntMap<>(); // streamId => subCtx
 
     private int backendStreamId = 0;
     // the streamIdBack2Front is recorded in subCtx of the backend connection sub context
-    final Map<Integer, Integer> streamIdFront2Back = new HashMap<>();
+    final IntIntMap streamIdFront2Back = new IntIntMap();
 
     final HPackTransformer hPackTransformer;
+    // the backend connection whose dynamic table is the same as the frontend encoder's table
+    // it's the backend which received the first header block, and remains valid if it receives all following blocks
+    private Http2SubContext hpackSyncedBackend = null;
+    private boolean hpackSyncBroken = false;
+    private boolean blockPassthrough = false; // the decision for the current header block
 
     ByteArray settingsFrameHeader = null; // this is a temporary field
 
@@ -43,7 +50,7 @@ public class Http2Context extends OOContext<Http2SubContext> {
 
     @Override
     public int connection(Http2SubContext front) {
-        Integer streamId = front.currentStreamId();
+        int streamId = front.currentStreamId();
         Http2SubContext sub = streamMap.get(streamId);
         if (sub == null) {
             if (!frontendSettingsSent) { // the first settings frame should pass freely
@@ -85,20 +92,117 @@ public class Http2Context extends OOContext<Http2SubContext> {
 
     @Override
     public void chosen(Http2SubContext front, Http2SubContext subCtx) {
-        Integer streamId = front.currentStreamId();
+        int streamId = front.currentStreamId();
         assert Logger.lowLevelDebug("recording a stream " + streamId + " => " + subCtx.connId);
         streamMap.put(streamId, subCtx);
     }
 
+    @Override
+    public ByteArray beforeWritingToBackend(Http2SubContext front, Http2SubContext backend, ByteArray data) throws IOException {
+        if (!frontendSettingsSent && backend.reused) {
+            assert Logger.lowLevelDebug("the backend " + backend.connId + " is reused, do not send the preface again");
+            front.unsentLength = 0;
+            return null;
+        }
+        if (front.unsentFragments.isEmpty()) {
+            front.unsentLength = 0;
+            return data;
+        }
+        assert data.length() == front.unsentLength;
+
+        ByteArray result = null;
+        int pos = 0; // bytes before pos are already added into the result
+        for (HPackTransformer.Fragment f : front.unsentFragments) {
+            if (f.type == 1) { // the first fragment of a header block
+                blockPassthrough = canPassthrough(backend);
+                backend.recordClientStream(f.streamId);
+            }
+            if (blockPassthrough) {
+                continue;
+            }
+            ByteArray before = data.sub(pos, f.offset - pos);
+            ByteArray encoded = hPackTransformer.encode(f, backend);
+            result = result == null ? before.concat(encoded) : result.concat(before).concat(encoded);
+            pos = f.offset + f.passthrough.length();
+        }
+        front.unsentFragments.clear();
+        front.unsentLength = 0;
+
+        if (result == null) {
+            assert Logger.lowLevelDebug("header blocks are sent to " + backend.connId + " untouched");
+            return data;
+        }
+        if (pos < data.length()) {
+            result = result.concat(data.sub(pos, data.length() - pos));
+        }
+        return result;
+    }
+
+    private boolean canPassthrough(Http2SubContext backend) {
+        // the table of a reused backend contains entries from other frontend connections
+        if (!hpackSyncBroken && !backend.reused) {
+            if (hpackSyncedBackend == null) {
+                // the backend must accept the table size which the frontend is allowed to use
+                if (backend.peerHeaderTableSize >= Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE) {
+                    hpackSyncedBackend = backend;
+                    backend.hpackTableUsedByPassthrough = true;
+                    return true;
+                }
+            } else if (hpackSyncedBackend == backend) {
+                return true;
+            }
+        }
+        // the block is re-encoded, so no backend is in sync with the frontend from now on
+        if (!hpackSyncBroken) {
+            assert Logger.lowLevelDebug("header blocks cannot be sent untouched from now on");
+            hpackSyncBroken = true;
+        }
+        return false;
+    }
+
+    @Override
+    public String connectionPoolKey(Http2SubContext front) {
+        if (Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE == 0) {
+            return null; // the header blocks are not parsed, so the stream ids cannot be translated
+        }
+        return "h2";
+    }
+
+    @Override
+    public boolean reusable(Http2SubContext front, Http2SubContext backend) {
+        if (!backend.settingsAcked || !front.expectNewFrame() || !backend.expectNewFrame()) {
+            return false;
+        }
+        // all streams on the connection are ended
+        boolean[] open = {false};
+        streamMap.forEach((sub, streamId) -> {
+            if (sub == backend && streamId != 0) {
+                open[0] = true;
+            }
+        });
+        return !open[0];
+    }
+
+    @Override
+    public void taken(Http2SubContext front, Http2SubContext backend, Http2SubContext released) {
+        backend.inherit(released);
+    }
+
+    void backendHeaderTableSizeChanged(Http2SubContext backend) {
+        if (backend == hpackSyncedBackend && backend.peerHeaderTableSize < Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE) {
+            hpackSyncBroken = true;
+        }
+    }
+
     void tryRecordStream(Http2SubContext subCtx) {
-        Integer streamId = subCtx.currentStreamId();
+        int streamId = subCtx.currentStreamId();
         if (subCtx.connId != 0 /* not the frontend connection */ && !streamMap.containsKey(streamId)) {
             assert Logger.lowLevelDebug("recording a new stream from sub context (backend)" + streamId + " => " + subCtx.connId);
             streamMap.put(streamId, subCtx);
         }
     }
 
-    Integer nextServerStreamId() {
+    int nextServerStreamId() {
         backendStreamId += 2;
         return backendStreamId;
     }
@@ -1,12 +1,13 @@
 package vproxy.processor.http2;
 
+import com.twitter.hpack.Encoder;
 import vproxy.processor.OOSubContext;
 import vproxy.processor.Processor;
 import vproxy.util.ByteArray;
+import vproxy.util.IntIntMap;
 import vproxy.util.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
 
 // the impl corresponds to rfc7540
 /*
@@ -22,7 +23,7 @@ import java.util.Map;
  *
  * Cannot do (limitations):
  * 1. stream dependency and priority
- * 2. header dynamic table for backend (however, dynamic table for frontend is supported)
+ * 2. header dynamic table for responses from backend (however, dynamic table for requests is supported)
  * 3. exchange settings (except the first exchange, which is forced according to rfc)
  * 4. http clear text upgrade
  * These limitations will not affect how user uses http/2.
@@ -38,13 +39,17 @@ import java.util.Map;
  * the PRIORITY frames will be dropped. In this way, both client and server
  * can use implementation with stream dependency and priority.
  *
- * 2. header dynamic table for backend
- * We only support to decompress headers from frontend connection, and
- * the header (de)compression for backend connection is not supported.
+ * 2. header dynamic table for responses from backend
+ * We only decompress headers from frontend connection, and
+ * the header decompression for backend connection is not supported.
  * So vproxy will attach a setting to the first SETTINGS frame
  * which must be sent by both client and server.
  * SETTINGS_HEADER_TABLE_SIZE would be set to 0 for backend connections.
  * In this way, the backend will not compress the headers, and can work well with vproxy.
+ * The headers sent to backends are compressed: the backend which receives all header blocks of the frontend
+ * connection gets the blocks untouched (with the additional headers appended as literals without indexing),
+ * because its dynamic table is the same as the frontend encoder's table.
+ * Once a block goes to another backend, the blocks are re-encoded with the encoder of each backend connection.
  *
  * 3. exchange settings
  * The first exchange is forced according to rfc, so it's supported.
@@ -225,8 +230,28 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
      * 8 -> (hpack) content of headers or continuation for hpack to process -> 1
      */
 
-    private Map<Integer, Integer> streamIdBack2Front = new HashMap<>();
-    private Integer backendIdForStreamToRemove = null;
+    // only used by the frontend connection:
+    // output of feed() which is not written to backend yet,
+    // the header fragments are recorded so that they can be re-encoded for the chosen backend
+    final ArrayList<HPackTransformer.Fragment> unsentFragments = new ArrayList<>();
+    int unsentLength = 0;
+    private HPackTransformer.Fragment fragmentToRecord = null;
+
+    // only used by backend connections:
+    int peerHeaderTableSize = 4096; // the SETTINGS_HEADER_TABLE_SIZE from the backend, rfc default 4096
+    Encoder hpackEncoder = null; // created when the first header block is re-encoded for this backend
+    boolean hpackTableUsedByPassthrough = false; // entries from the frontend encoder might be in the backend table
+
+    private final IntIntMap streamIdBack2Front = new IntIntMap();
+    private int backendIdForStreamToRemove = -1; // -1 means no stream to remove
+
+    // the connection may be taken from the pool after used by other frontend connections,
+    // then the handshake is not sent again, and the client stream ids are shifted by streamIdOffset
+    // to be greater than the ids already used on the connection
+    boolean reused = false;
+    private int streamIdOffset = 0;
+    private int lastClientStreamId = 0; // the greatest client stream id sent to the backend
+    boolean settingsAcked = false; // the first SETTINGS frame of the backend is acked
 
     // the ack of settings frame
     private ByteArray syntheticAck = null;
@@ -354,6 +379,14 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     public ByteArray feed(ByteArray data) throws Exception {
         boolean frontendSettingsSent = ctx.frontendSettingsSent; // this value may be changed in the handling process, so we need to cache it before handling
         ByteArray arr = _feed(data);
+        if (connId == 0 && arr != null) {
+            if (fragmentToRecord != null) {
+                fragmentToRecord.offset = unsentLength;
+                unsentFragments.add(fragmentToRecord);
+                fragmentToRecord = null;
+            }
+            unsentLength += arr.length();
+        }
         if (hostHeaderRetrieved || !frontendSettingsSent) { // first settings frame should pass freely
             if (storedBytes == null) {
                 return arr;
@@ -370,7 +403,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             if (storedBytes == null) {
                 storedBytes = arr;
             } else if (arr != null) {
-                storedBytes = storedBytes.concat(data);
+                storedBytes = storedBytes.concat(arr);
             }
             return null;
         }
@@ -413,12 +446,22 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 lastFrame = frame;
                 frame = null;
                 state = 1;
+                if (connId == 0) {
+                    Http2SubContext backend = ctx.streamMap.get(0);
+                    if (backend != null && backend.reused) {
+                        return answerHandshake();
+                    }
+                }
                 return data;
             case 6:
                 translatePromisedStreamId(data, frame.padded ? LEN_PADDING : 0);
                 state = 7;
                 return data;
             case -1:
+                if (connId != 0 && frame.type == Http2Frame.Type.SETTINGS && !frame.ack) {
+                    // the settings are dropped, but the header table size is used when encoding headers
+                    recordPeerHeaderTableSize(data);
+                }
                 lastFrame = frame;
                 frame = null;
                 state = 1;
@@ -433,22 +476,44 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         }
     }
 
+    // the first backend connection is reused and it already finished its handshake,
+    // so vproxy responds the settings to the client
+    private ByteArray answerHandshake() {
+        assert Logger.lowLevelDebug("the first backend is reused, make the handshake with the frontend");
+        ByteArray settings = ByteArray.from(new byte[]{
+            0, 0, 2 * LEN_SETTING, // length
+            4, // type
+            0, // flags
+            0, 0, 0, 0, // stream id
+            0, VALUE_SETTINGS_HEADER_TABLE_SIZE, 0, 0, 0, 0,
+            0, VALUE_SETTINGS_INITIAL_WINDOW_SIZE, 0, 0, 0, 0,
+        });
+        settings.int32(LEN_FRAME_HEAD + 2, SIZE_DEFAULT_HEADER_TABLE_SIZE);
+        settings.int32(LEN_FRAME_HEAD + LEN_SETTING + 2, SIZE_STREAM_WINDOW);
+        // the settings must be the first frame, it's sent before the window update in produce()
+        syntheticAck = settings.concat(SEQ_SETTINGS_ACK);
+        ctx.backendHandshaking = false;
+        ctx.frontendSettingsAckToDrop = true;
+        return null; // nothing to send to the backend
+    }
+
     @Override
     public ByteArray produce() {
         ByteArray ret = null;
 
+        // ack for settings
+        if (syntheticAck != null) {
+            ret = syntheticAck;
+            syntheticAck = null;
+        }
+
         // may update window
         if (!ctx.frontendHandshaking && !ctx.backendHandshaking && windowSize < INCR_WINDOW_THRESHOLD) {
-            ret = utilBuildWindowUpdate(SIZE_CONNECTION_WINDOW - windowSize);
+            ByteArray windowUpdate = utilBuildWindowUpdate(SIZE_CONNECTION_WINDOW - windowSize);
             windowSize = SIZE_CONNECTION_WINDOW;
-        }
-
-        // ack for settings
-        if (syntheticAck != null) {
-            if (ret == null) ret = syntheticAck;
-            else ret = ret.concat(syntheticAck);
 
-            syntheticAck = null;
+            if (ret == null) ret = windowUpdate;
+            else ret = ret.concat(windowUpdate);
         }
 
         return ret;
@@ -490,6 +555,11 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         if (0 != (flags & 0x1)) frame.ack = true; // maybe it means "end stream"
         frame.endStream = (frame.ack && (frame.type == Http2Frame.Type.DATA || frame.type == Http2Frame.Type.HEADERS));
         frame.streamIdentifier = data.int32(5);
+        if (connId != 0 && streamIdOffset != 0 && frame.streamIdentifier % 2 == 1) {
+            // the stream is started by the client on a reused connection, translate it to the frontend id
+            frame.streamIdentifier -= streamIdOffset;
+            utilModifyStreamId(data, 5, frame.streamIdentifier);
+        }
 
         // check whether the stream is about to end
         //noinspection ConstantConditions
@@ -517,13 +587,13 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 assert Logger.lowLevelDebug("modify streamIdentifier of the frame. " +
                     "streamId=" + frame.streamIdentifier + ", connId=" + connId);
 
-                Integer translatedStreamId;
+                int translatedStreamId;
                 if (connId == 0) {
-                    translatedStreamId = ctx.streamIdFront2Back.get(frame.streamIdentifier);
+                    translatedStreamId = ctx.streamIdFront2Back.get(frame.streamIdentifier, -1);
                 } else {
-                    translatedStreamId = this.streamIdBack2Front.get(frame.streamIdentifier);
+                    translatedStreamId = this.streamIdBack2Front.get(frame.streamIdentifier, -1);
                 }
-                if (translatedStreamId == null) {
+                if (translatedStreamId == -1) {
                     assert Logger.lowLevelDebug("the translatedStreamId is null, which is invalid." +
                         "The HTTP/2 protocol does not allow a server start new streams before push-promise, " +
                         "and the streamId should already been recorded when parsing the push-promise frame. " +
@@ -538,10 +608,17 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 }
 
                 assert Logger.lowLevelDebug("the translatedStreamId is " + translatedStreamId);
-                if (!translatedStreamId.equals(frame.streamIdentifier)) {
+                if (translatedStreamId != frame.streamIdentifier) {
                     utilModifyStreamId(frameBytes, 5, translatedStreamId);
                     frame.streamIdentifier = translatedStreamId;
                 }
+            } else if (connId == 0 && frame.streamIdentifier % 2 == 1) {
+                // started by the client, translate only if the backend connection is reused
+                // the streamIdentifier field is kept as the frontend id
+                Http2SubContext backend = ctx.streamMap.get(frame.streamIdentifier);
+                if (backend != null && backend.streamIdOffset != 0) {
+                    utilModifyStreamId(frameBytes, 5, backend.toBackendStreamId(frame.streamIdentifier));
+                }
             }
             // record the stream after translated the streamId
             ctx.tryRecordStream(this);
@@ -604,6 +681,19 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 theSettingsFrameHead = frameBytes;
                 return null; // do not send for now, only record
             } else if (frame.ack) { // if it's a setting frame from frontend and is ack, proxy it
+                if (ctx.frontendSettingsAckToDrop) {
+                    // it's the ack of the settings made by vproxy
+                    // the ack has no payload, so the frame is done
+                    ctx.frontendSettingsAckToDrop = false;
+                    lastFrame = frame;
+                    frame = null;
+                    state = 1;
+                    return null;
+                }
+                Http2SubContext backend = ctx.streamMap.get(0);
+                if (backend != null) {
+                    backend.settingsAcked = true;
+                }
                 state = 2; // proxy
                 return frameBytes;
             }
@@ -625,6 +715,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         if (syntheticAckFlag) {
             syntheticAckFlag = false;
             syntheticAck = SEQ_SETTINGS_ACK;
+            settingsAcked = true;
             // though it's only reading the frame part, but it is absolutely followed by a payload part
             // so sending ack here is fine and will correspond to the remote server state machine
         }
@@ -640,6 +731,9 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     // concat a setting SETTINGS_INITIAL_WINDOW_SIZE to the frame, or change the value if it already exists
     private ByteArray handleSettings(ByteArray payload) {
         int extraLength = 0;
+        if (connId != 0) {
+            recordPeerHeaderTableSize(payload);
+        }
 
         // try to find the SETTINGS_HEADER_TABLE_SIZE and change the value
         {
@@ -706,55 +800,59 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         return theSettingsFrameHead.concat(payload);
     }
 
+    private void recordPeerHeaderTableSize(ByteArray payload) {
+        for (int i = 0; i + LEN_SETTING <= payload.length(); i += LEN_SETTING) {
+            if (payload.uint16(i) == VALUE_SETTINGS_HEADER_TABLE_SIZE) {
+                // the value is unsigned 32 bits, treat values greater than int max as int max
+                int size = payload.int32(i + 2);
+                peerHeaderTableSize = size < 0 ? Integer.MAX_VALUE : size;
+                assert Logger.lowLevelDebug("header table size of backend " + connId + " is " + peerHeaderTableSize);
+                ctx.backendHeaderTableSizeChanged(this);
+            }
+        }
+    }
+
     private void translatePromisedStreamId(ByteArray data, int offset) {
-        Integer promisedStreamId = data.int32(offset);
-        Integer translatedStreamId = ctx.nextServerStreamId();
+        int promisedStreamId = data.int32(offset);
+        int translatedStreamId = ctx.nextServerStreamId();
         assert Logger.lowLevelDebug("push-promise frame > promised stream id is " + promisedStreamId +
             " translated stream id is " + translatedStreamId);
         recordStreamMapping(translatedStreamId, promisedStreamId);
-        if (!promisedStreamId.equals(translatedStreamId)) {
+        if (promisedStreamId != translatedStreamId) {
             utilModifyStreamId(data, offset, translatedStreamId);
         }
     }
 
     private ByteArray handleHeaderHPack(ByteArray data) throws Exception {
         byte frameType;
-        ByteArray transformed;
         if (frame.type == Http2Frame.Type.HEADERS) {
             frameType = 1;
             // get the actual data part
             if (frame.padded && frame.priority) {
-                data = data.sub(1 + 5, data.length() - (1 + 5) - data.get(0));
+                data = data.sub(1 + 5, data.length() - (1 + 5) - data.uint8(0));
             } else if (frame.padded) {
-                data = data.sub(1, data.length() - 1 - data.get(0));
+                data = data.sub(1, data.length() - 1 - data.uint8(0));
             } else if (frame.priority) {
                 data = data.sub(5, data.length() - 5);
             }
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders && connId == 0);
         } else {
             assert frame.type == Http2Frame.Type.CONTINUATION;
             frameType = 9; // type = continuation
             // data is simple and can be directly transformed for continuation frames
-            transformed = ctx.hPackTransformer.transform(data, frame.endHeaders && connId == 0);
         }
-        ByteArray result = ByteArray.from(new byte[]{
-            0, 0, 0, // length, will be set later
-            frameType,
-            (byte) (frame.endHeaders ? 4 : 0), // flags
-            0, 0, 0, 0 // stream id, will be set later
-        }).concat(transformed);
-        result.int24(0, transformed.length());
-        result.int32(5, frame.streamIdentifier);
+        // the fragment is kept untouched for now,
+        // and will be re-encoded when it's written to a backend which is not in sync with the frontend
+        HPackTransformer.Fragment fragment = ctx.hPackTransformer.decode(frameType, frame, data);
+        fragmentToRecord = fragment;
 
         // set header end before return the result
         if (frame.endHeaders) {
-            ctx.hPackTransformer.endHeaders();
             hostHeaderRetrieved = true; // headers frame ends, connection related headers must have been retrieved, so send data
         }
         // set state to idle
         state = 1;
 
-        return result;
+        return fragment.passthrough;
     }
 
     private static void utilModifyStreamId(ByteArray data, int offset, int streamId) {
@@ -765,7 +863,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         data.int24(0, length);
     }
 
-    Integer currentStreamId() {
+    int currentStreamId() {
         if (frame == null && lastFrame == null) {
             // check whether this is a bug
             boolean isBug = true;
@@ -797,16 +895,42 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         return f.streamIdentifier;
     }
 
-    void recordStreamMapping(Integer front, Integer back) {
+    int toBackendStreamId(int front) {
+        return front % 2 == 1 ? front + streamIdOffset : front;
+    }
+
+    void recordClientStream(int front) {
+        int back = toBackendStreamId(front);
+        if (back % 2 == 1 && back > lastClientStreamId) {
+            lastClientStreamId = back;
+        }
+    }
+
+    // copy the state of the connection from the sub context which released it into the pool
+    void inherit(Http2SubContext released) {
+        reused = true;
+        settingsAcked = true;
+        syntheticAckFlag = false; // the backend will not send SETTINGS again
+        windowSize = released.windowSize;
+        peerHeaderTableSize = released.peerHeaderTableSize;
+        hpackEncoder = released.hpackEncoder;
+        hpackTableUsedByPassthrough = released.hpackTableUsedByPassthrough;
+        lastClientStreamId = released.lastClientStreamId;
+        // the offset is even, so the client stream ids are still odd
+        streamIdOffset = lastClientStreamId == 0 ? 0 : lastClientStreamId + 1;
+    }
+
+    void recordStreamMapping(int front, int back) {
         this.streamIdBack2Front.put(back, front);
         ctx.streamIdFront2Back.put(front, back);
     }
 
-    void removeStreamMappingByBackendId(Integer back) {
-        Integer front = this.streamIdBack2Front.remove(back);
-        ctx.streamIdFront2Back.remove(front); // it's ok to remove a non-exist element
-        if (front == null) {
+    void removeStreamMappingByBackendId(int back) {
+        int front = this.streamIdBack2Front.remove(back, -1);
+        if (front == -1) {
             front = back;
+        } else {
+            ctx.streamIdFront2Back.remove(front, -1);
         }
         ctx.streamMap.remove(front);
     }
@@ -816,9 +940,9 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         // check whether the stream can be removed
         // NOTE: the removal is placed before resetting state and frame
         // is because that it's easier when debugging to see the old status
-        if (backendIdForStreamToRemove != null) {
+        if (backendIdForStreamToRemove != -1) {
             removeStreamMappingByBackendId(backendIdForStreamToRemove);
-            backendIdForStreamToRemove = null;
+            backendIdForStreamToRemove = -1;
         }
         // all proxy states goes to state 1
         // so simply set the frame to null and state 1 here
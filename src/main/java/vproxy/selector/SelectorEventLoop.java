@@ -33,9 +33,14 @@ public class SelectorEventLoop {
 
     public final WrappedSelector selector;
     public final FDs fds;
-    private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
+    private final TimeQueue<Runnable> timeQueue = TimeQueue.create();
     private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
+    public final DirectBufferPool bufferPool = new DirectBufferPool();
+    public final LatencyRecorder latencyRecorder = new LatencyRecorder();
+    // run once after the loop is closed
+    private final ConcurrentLinkedQueue<Runnable> closeHooks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closeHooksDone = false;
     public volatile Thread runningThread;
 
     // these locks are a little tricky
@@ -114,6 +119,9 @@ public class SelectorEventLoop {
     }
 
     private void handleTimeEvents() {
+        if (timeQueue.nextTime() != 0) {
+            return; // do not allocate the list when no event to run
+        }
         List<Runnable> toRun = new LinkedList<>();
         while (timeQueue.nextTime() == 0) {
             Runnable r = timeQueue.pop();
@@ -124,58 +132,69 @@ public class SelectorEventLoop {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void doHandling(Iterator<SelectedEntry> keys) {
-        while (keys.hasNext()) {
-            SelectedEntry key = keys.next();
+    private void doHandling(Collection<SelectedEntry> selected) {
+        if (selected instanceof RandomAccess) {
+            // the selector might return a reused list
+            // iterate it by index so that no iterator is allocated
+            List<SelectedEntry> list = (List<SelectedEntry>) selected;
+            for (int i = 0, size = list.size(); i < size; ++i) {
+                doHandling(list.get(i));
+            }
+        } else {
+            for (SelectedEntry key : selected) {
+                doHandling(key);
+            }
+        }
+    }
 
-            RegisterData registerData = (RegisterData) key.attachment;
+    @SuppressWarnings("unchecked")
+    private void doHandling(SelectedEntry key) {
+        RegisterData registerData = (RegisterData) key.attachment;
 
-            FD channel = key.fd;
-            Handler handler = registerData.handler;
+        FD channel = key.fd;
+        Handler handler = registerData.handler;
 
-            ctx.channel = channel;
-            ctx.attachment = registerData.att;
+        ctx.channel = channel;
+        ctx.attachment = registerData.att;
 
-            if (!channel.isOpen()) {
-                if (selector.isRegistered(channel)) {
-                    Logger.error(LogType.CONN_ERROR, "channel is closed but still firing: fd = " + channel + ", event = " + key.ready + ", attachment = " + ctx.attachment);
-                } // else the channel is closed in another fd handler and removed from loop, this is ok and no need to report
-            } else {
-                EventSet readyOps = key.ready;
-                // handle read first because it's most likely to happen
-                if (readyOps.have(Event.READABLE)) {
-                    if (channel instanceof ServerSocketFD) {
-                        // OP_ACCEPT
+        if (!channel.isOpen()) {
+            if (selector.isRegistered(channel)) {
+                Logger.error(LogType.CONN_ERROR, "channel is closed but still firing: fd = " + channel + ", event = " + key.ready + ", attachment = " + ctx.attachment);
+            } // else the channel is closed in another fd handler and removed from loop, this is ok and no need to report
+        } else {
+            EventSet readyOps = key.ready;
+            // handle read first because it's most likely to happen
+            if (readyOps.have(Event.READABLE)) {
+                if (channel instanceof ServerSocketFD) {
+                    // OP_ACCEPT
+                    try {
+                        handler.accept(ctx);
+                    } catch (Throwable t) {
+                        Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+                    }
+                } else {
+                    try {
+                        handler.readable(ctx);
+                    } catch (Throwable t) {
+                        Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
+                    }
+                }
+            }
+            // read and write may happen in the same loop round
+            if (readyOps.have(Event.WRITABLE)) {
+                if (channel instanceof SocketFD) {
+                    if (registerData.connected) {
                         try {
-                            handler.accept(ctx);
+                            handler.writable(ctx);
                         } catch (Throwable t) {
-                            Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+                            Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
                         }
                     } else {
+                        registerData.connected = true;
                         try {
-                            handler.readable(ctx);
+                            handler.connected(ctx);
                         } catch (Throwable t) {
-                            Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
-                        }
-                    }
-                }
-                // read and write may happen in the same loop round
-                if (readyOps.have(Event.WRITABLE)) {
-                    if (channel instanceof SocketFD) {
-                        if (registerData.connected) {
-                            try {
-                                handler.writable(ctx);
-                            } catch (Throwable t) {
-                                Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
-                            }
-                        } else {
-                            registerData.connected = true;
-                            try {
-                                handler.connected(ctx);
-                            } catch (Throwable t) {
-                                Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
-                            }
+                            Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
                         }
                     }
                 }
@@ -267,8 +286,7 @@ public class SelectorEventLoop {
                 return -1; // break if it's closed
 
             if (!selected.isEmpty()) {
-                Iterator<SelectedEntry> keys = selected.iterator();
-                doHandling(keys);
+                doHandling(selected);
             }
         }
         return 0;
@@ -307,6 +325,21 @@ public class SelectorEventLoop {
         loopThreadLocal.remove(); // remove from thread local
         // do the final release
         release();
+        closeResources();
+    }
+
+    private void closeResources() {
+        bufferPool.close();
+        latencyRecorder.close();
+        closeHooksDone = true;
+        runCloseHooks();
+    }
+
+    private void runCloseHooks() {
+        Runnable r;
+        while ((r = closeHooks.poll()) != null) {
+            tryRunnable(r);
+        }
     }
 
     private boolean needWake() {
@@ -461,6 +494,19 @@ public class SelectorEventLoop {
         }
     }
 
+    /**
+     * the hook runs once when the loop is closed,
+     * on the loop thread, or on the thread calling {@link #close()} if the loop is not running.<br>
+     * the hook runs immediately if the loop is already closed
+     */
+    @ThreadSafe
+    public void onClose(Runnable hook) {
+        closeHooks.add(hook);
+        if (closeHooksDone) {
+            runCloseHooks();
+        }
+    }
+
     @ThreadSafe
     public boolean isClosed() {
         return !selector.isOpen();
@@ -507,6 +553,9 @@ public class SelectorEventLoop {
             } catch (InterruptedException ignore) {
                 // ignore, we don't care
             }
+        } else if (runningThread == null) {
+            // the loop is not running, so the resources will not be closed by the loop thread
+            closeResources();
         }
     }
 }
@@ -50,6 +50,9 @@ public class WrappedSelector implements FDSelector {
     }
 
     private Set<SelectedEntry> calcVirtual() {
+        if (readableFired.isEmpty() && writableFired.isEmpty()) {
+            return Collections.emptySet(); // do not allocate when nothing fired
+        }
         Set<SelectedEntry> ret = new HashSet<>();
         //noinspection unused
         try (var unused = VIRTUAL_LOCK.lock()) {
@@ -90,16 +93,28 @@ public class WrappedSelector implements FDSelector {
     }
 
     private Collection<SelectedEntry> handleRealSelect(Collection<SelectedEntry> entries) {
-        for (SelectedEntry entry : entries) {
-            if (entry.fd instanceof WritableAware) {
-                if (entry.ready.have(Event.WRITABLE)) {
-                    ((WritableAware) entry.fd).writable();
-                }
+        if (entries instanceof RandomAccess) {
+            // iterate without creating an iterator
+            List<SelectedEntry> list = (List<SelectedEntry>) entries;
+            for (int i = 0, size = list.size(); i < size; ++i) {
+                handleRealSelect(list.get(i));
+            }
+        } else {
+            for (SelectedEntry entry : entries) {
+                handleRealSelect(entry);
             }
         }
         return entries;
     }
 
+    private void handleRealSelect(SelectedEntry entry) {
+        if (entry.fd instanceof WritableAware) {
+            if (entry.ready.have(Event.WRITABLE)) {
+                ((WritableAware) entry.fd).writable();
+            }
+        }
+    }
+
     @Override
     public Collection<SelectedEntry> select() throws IOException {
         var set = calcVirtual();
@@ -114,8 +129,12 @@ public class WrappedSelector implements FDSelector {
     @Override
     public Collection<SelectedEntry> selectNow() throws IOException {
         var set = calcVirtual();
-        set.addAll(handleRealSelect(selector.selectNow()));
-        return set;
+        if (set.isEmpty()) {
+            return handleRealSelect(selector.selectNow());
+        } else {
+            set.addAll(handleRealSelect(selector.selectNow()));
+            return set;
+        }
     }
 
     @Override
@@ -0,0 +1,45 @@
+package vproxy.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * search delimiters in byte arrays, 8 bytes at a time
+ */
+public class ByteSearch {
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private ByteSearch() {
+    }
+
+    // the lowest 0x80 bit is set on the first byte equal to b
+    // the bits above it might be wrong because of the borrow, but they are never used
+    private static long match(long word, byte b) {
+        long x = word ^ ((b & 0xffL) * ONES);
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    /**
+     * @return index of the first byte in [from, to) which equals to a, b or c, or `to` if not found
+     */
+    public static int indexOfAny(byte[] array, int from, int to, byte a, byte b, byte c) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = (long) LONG_LE.get(array, i);
+            long m = match(word, a) | match(word, b) | match(word, c);
+            if (m != 0) {
+                return i + (Long.numberOfTrailingZeros(m) >>> 3);
+            }
+        }
+        for (; i < to; ++i) {
+            byte x = array[i];
+            if (x == a || x == b || x == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,283 @@
+package vproxy.util;
+
+import vproxy.app.Config;
+import vproxy.selector.SelectorEventLoop;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a size-classed pool of direct buffers, each event loop owns one pool<br>
+ * the sizes are powers of 2, from 1k to 1m, larger buffers are not pooled<br>
+ * <br>
+ * buffers can only be taken on the owner loop thread,
+ * but can be released on any thread: buffers released on other threads
+ * are put into a concurrent queue and will be moved back when taking.<br>
+ * when total pooled bytes exceed the limit, released buffers are cleaned directly.
+ */
+public class DirectBufferPool {
+    private static final int MIN_SHIFT = 10; // 1k
+    private static final int MAX_SHIFT = 20; // 1m
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    private static final Set<DirectBufferPool> pools = new ConcurrentHashSet<>();
+    private static final Stats statsOfClosedPools = new Stats();
+
+    private final long maxBytes;
+    // only accessed on the owner thread
+    private final List<ArrayDeque<ByteBuffer>> localBuffers;
+    // released on other threads
+    private final ConcurrentLinkedQueue<ByteBuffer> remoteBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    // hit and miss are only modified on the owner thread
+    private final long[] hit = new long[CLASS_COUNT];
+    private final long[] miss = new long[CLASS_COUNT];
+    private final AtomicLongArray dropped = new AtomicLongArray(CLASS_COUNT);
+    private final AtomicIntegerArray pooledCount = new AtomicIntegerArray(CLASS_COUNT);
+
+    private volatile boolean closed = false;
+
+    public DirectBufferPool() {
+        this(Config.directBufferPoolMaxBytes);
+    }
+
+    public DirectBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.localBuffers = new ArrayList<>(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            localBuffers.add(new ArrayDeque<>());
+        }
+        pools.add(this);
+    }
+
+    // the pool of current event loop
+    // or null if not running on any event loop or the pool is disabled
+    public static DirectBufferPool current() {
+        if (Config.directBufferPoolMaxBytes <= 0) {
+            return null;
+        }
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        return loop.bufferPool;
+    }
+
+    private static int classIndex(int size) {
+        if (size > (1 << MAX_SHIFT)) {
+            return -1;
+        }
+        if (size <= (1 << MIN_SHIFT)) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private static int classSize(int index) {
+        return 1 << (index + MIN_SHIFT);
+    }
+
+    public static boolean isPoolable(int size) {
+        return size > 0 && classIndex(size) != -1;
+    }
+
+    /**
+     * take a buffer which can hold at least `size` bytes<br>
+     * MUST be called on the owner thread, and `size` MUST be poolable
+     *
+     * @return a direct buffer with capacity of the size class,
+     * it should be released with {@link #release(ByteBuffer)} when not used anymore
+     */
+    public ByteBuffer take(int size) {
+        int idx = classIndex(size);
+        if (idx == -1) {
+            throw new IllegalArgumentException("size " + size + " cannot be pooled");
+        }
+        ByteBuffer buf = localBuffers.get(idx).pollLast();
+        if (buf == null && !remoteBuffers.isEmpty()) {
+            moveRemoteBuffers();
+            buf = localBuffers.get(idx).pollLast();
+        }
+        if (buf == null) {
+            ++miss[idx];
+            return ByteBuffer.allocateDirect(classSize(idx));
+        }
+        ++hit[idx];
+        pooledCount.decrementAndGet(idx);
+        pooledBytes.addAndGet(-buf.capacity());
+        buf.clear();
+        return buf;
+    }
+
+    private void moveRemoteBuffers() {
+        ByteBuffer buf;
+        while ((buf = remoteBuffers.poll()) != null) {
+            localBuffers.get(classIndex(buf.capacity())).addLast(buf);
+        }
+    }
+
+    /**
+     * return the buffer to the pool, may be called on any thread
+     *
+     * @param buf the buffer retrieved from {@link #take(int)}
+     */
+    public void release(ByteBuffer buf) {
+        int idx = classIndex(buf.capacity());
+        if (closed) {
+            dropped.incrementAndGet(idx);
+            Utils.clean(buf);
+            return;
+        }
+        if (pooledBytes.addAndGet(buf.capacity()) > maxBytes) {
+            pooledBytes.addAndGet(-buf.capacity());
+            dropped.incrementAndGet(idx);
+            Utils.clean(buf);
+            return;
+        }
+        pooledCount.incrementAndGet(idx);
+        if (current() == this) {
+            localBuffers.get(idx).addLast(buf);
+        } else {
+            remoteBuffers.add(buf);
+        }
+        // buffers released concurrently with close() may not be cleaned here
+        // they are left to the gc
+    }
+
+    public Stats stats() {
+        Stats stats = new Stats();
+        stats.add(this);
+        return stats;
+    }
+
+    public static Stats globalStats() {
+        Stats stats = new Stats();
+        synchronized (statsOfClosedPools) {
+            stats.add(statsOfClosedPools);
+        }
+        for (DirectBufferPool pool : pools) {
+            stats.add(pool);
+        }
+        return stats;
+    }
+
+    /**
+     * clean all pooled buffers, MUST be called on the owner thread or after the owner thread exits
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        moveRemoteBuffers();
+        for (ArrayDeque<ByteBuffer> q : localBuffers) {
+            ByteBuffer buf;
+            while ((buf = q.poll()) != null) {
+                Utils.clean(buf);
+            }
+        }
+        pooledBytes.set(0);
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            pooledCount.set(i, 0);
+        }
+        pools.remove(this);
+        synchronized (statsOfClosedPools) {
+            statsOfClosedPools.add(this);
+        }
+    }
+
+    public static class Stats {
+        public final long[] hit = new long[CLASS_COUNT];
+        public final long[] miss = new long[CLASS_COUNT];
+        public final long[] dropped = new long[CLASS_COUNT];
+        public final long[] pooledCount = new long[CLASS_COUNT];
+
+        private Stats() {
+        }
+
+        private void add(DirectBufferPool pool) {
+            for (int i = 0; i < CLASS_COUNT; ++i) {
+                hit[i] += pool.hit[i];
+                miss[i] += pool.miss[i];
+                dropped[i] += pool.dropped.get(i);
+                pooledCount[i] += pool.pooledCount.get(i);
+            }
+        }
+
+        private void add(Stats stats) {
+            for (int i = 0; i < CLASS_COUNT; ++i) {
+                hit[i] += stats.hit[i];
+                miss[i] += stats.miss[i];
+                dropped[i] += stats.dropped[i];
+                pooledCount[i] += stats.pooledCount[i];
+            }
+        }
+
+        private static long sum(long[] arr) {
+            long n = 0;
+            for (long l : arr) {
+                n += l;
+            }
+            return n;
+        }
+
+        public long hit() {
+            return sum(hit);
+        }
+
+        public long miss() {
+            return sum(miss);
+        }
+
+        public long dropped() {
+            return sum(dropped);
+        }
+
+        public long pooledCount() {
+            return sum(pooledCount);
+        }
+
+        // the total bytes held by the pool
+        public long pooledBytes() {
+            long n = 0;
+            for (int i = 0; i < CLASS_COUNT; ++i) {
+                n += pooledCount[i] * classSize(i);
+            }
+            return n;
+        }
+
+        private static String format(String name, long hit, long miss, long dropped, long pooledCount, long pooledBytes) {
+            return name +
+                " -> hit " + hit +
+                " miss " + miss +
+                " dropped " + dropped +
+                " pooled-count " + pooledCount +
+                " pooled-bytes " + pooledBytes;
+        }
+
+        // one line for each size class which was ever used
+        public List<String> detail() {
+            List<String> ls = new ArrayList<>();
+            for (int i = 0; i < CLASS_COUNT; ++i) {
+                if (hit[i] == 0 && miss[i] == 0 && dropped[i] == 0 && pooledCount[i] == 0) {
+                    continue;
+                }
+                ls.add(format("size " + classSize(i), hit[i], miss[i], dropped[i], pooledCount[i], pooledCount[i] * classSize(i)));
+            }
+            return ls;
+        }
+
+        @Override
+        public String toString() {
+            return format("total", hit(), miss(), dropped(), pooledCount(), pooledBytes());
+        }
+    }
+}
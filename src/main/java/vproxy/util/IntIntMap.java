@@ -0,0 +1,166 @@
+package vproxy.util;
+
+/**
+ * an open addressing hash map with primitive int keys and values, which does not box anything<br>
+ * linear probing is used, and removal shifts the following entries back, so no tombstone is left.<br>
+ * the map is not thread safe
+ */
+public class IntIntMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    public IntIntMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntIntMap(int expectedSize) {
+        init(tableSizeFor(expectedSize));
+    }
+
+    // the table is kept at most 3/4 full
+    static int tableSizeFor(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("expectedSize = " + expectedSize);
+        int n = Math.max(4, expectedSize + expectedSize / 3 + 1);
+        if (n > (1 << 30)) {
+            return 1 << 30;
+        }
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9; // fibonacci hashing, spreads the sequential ids
+        return h ^ (h >>> 16);
+    }
+
+    private void init(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(int key) {
+        int idx = hash(key) & mask;
+        while (used[idx]) {
+            if (keys[idx] == key) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of the key, or defaultValue if not exists
+     */
+    public int get(int key, int defaultValue) {
+        int idx = indexOf(key);
+        return idx == -1 ? defaultValue : values[idx];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) != -1;
+    }
+
+    public void put(int key, int value) {
+        int idx = hash(key) & mask;
+        while (used[idx]) {
+            if (keys[idx] == key) {
+                values[idx] = value;
+                return;
+            }
+            idx = (idx + 1) & mask;
+        }
+        used[idx] = true;
+        keys[idx] = key;
+        values[idx] = value;
+        if (++size > (mask + 1) * 3 / 4) {
+            resize();
+        }
+    }
+
+    /**
+     * @return the removed value, or defaultValue if not exists
+     */
+    public int remove(int key, int defaultValue) {
+        int idx = indexOf(key);
+        if (idx == -1) {
+            return defaultValue;
+        }
+        int old = values[idx];
+        --size;
+        // shift the entries of the same probe sequence back to fill the hole
+        int hole = idx;
+        idx = (idx + 1) & mask;
+        while (used[idx]) {
+            int home = hash(keys[idx]) & mask;
+            // move the entry if its home slot is not in (hole, idx]
+            if (((idx - home) & mask) >= ((idx - hole) & mask)) {
+                keys[hole] = keys[idx];
+                values[hole] = values[idx];
+                hole = idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        used[hole] = false;
+        return old;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < used.length; ++i) {
+            used[i] = false;
+        }
+        size = 0;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        init(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            int idx = hash(oldKeys[i]) & mask;
+            while (used[idx]) {
+                idx = (idx + 1) & mask;
+            }
+            used[idx] = true;
+            keys[idx] = oldKeys[i];
+            values[idx] = oldValues[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < used.length; ++i) {
+            if (!used[i]) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(keys[i]).append("=").append(values[i]);
+        }
+        return sb.append("}").toString();
+    }
+}
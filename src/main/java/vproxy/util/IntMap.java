@@ -0,0 +1,165 @@
+package vproxy.util;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * an open addressing hash map with primitive int keys, which does not box the keys<br>
+ * linear probing is used, and removal shifts the following entries back, so no tombstone is left.<br>
+ * the map is not thread safe
+ *
+ * @param <V> value type, null is not allowed
+ */
+public class IntMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values; // null means the slot is empty
+    private int mask;
+    private int size = 0;
+
+    public IntMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntMap(int expectedSize) {
+        init(IntIntMap.tableSizeFor(expectedSize));
+    }
+
+    private void init(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(int key) {
+        int idx = IntIntMap.hash(key) & mask;
+        while (values[idx] != null) {
+            if (keys[idx] == key) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int idx = indexOf(key);
+        return idx == -1 ? null : (V) values[idx];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return the previous value of the key, or null if not exists
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        int idx = IntIntMap.hash(key) & mask;
+        while (values[idx] != null) {
+            if (keys[idx] == key) {
+                V old = (V) values[idx];
+                values[idx] = value;
+                return old;
+            }
+            idx = (idx + 1) & mask;
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        if (++size > (mask + 1) * 3 / 4) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if not exists
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int idx = indexOf(key);
+        if (idx == -1) {
+            return null;
+        }
+        V old = (V) values[idx];
+        --size;
+        // shift the entries of the same probe sequence back to fill the hole
+        int hole = idx;
+        idx = (idx + 1) & mask;
+        while (values[idx] != null) {
+            int home = IntIntMap.hash(keys[idx]) & mask;
+            // move the entry if its home slot is not in (hole, idx]
+            if (((idx - home) & mask) >= ((idx - hole) & mask)) {
+                keys[hole] = keys[idx];
+                values[hole] = values[idx];
+                hole = idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        values[hole] = null;
+        return old;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * the map must not be modified in the callback
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<V> f) {
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                f.accept((V) values[i], keys[i]);
+            }
+        }
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        init(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int idx = IntIntMap.hash(oldKeys[i]) & mask;
+            while (values[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            keys[idx] = oldKeys[i];
+            values[idx] = oldValues[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((v, k) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(k).append("=").append(v);
+        });
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,99 @@
+package vproxy.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * a log-bucketed latency histogram with a single writer<br>
+ * the upper bound of bucket i is 2^i microseconds, from 1us to about 33.5s,
+ * and the last bucket holds the values beyond (+Inf).<br>
+ * only one thread (usually the event loop owning it) may call {@link #record(long)}, no lock or cas is used.
+ * other threads may read the histogram at any time, they might see a sum which is a few records
+ * behind the buckets, which is fine for metrics.
+ */
+public class LatencyHistogram {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle SUM;
+
+    static {
+        try {
+            SUM = MethodHandles.lookup().findVarHandle(LatencyHistogram.class, "sumNanos", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static final int BOUNDED_BUCKETS = 26; // 2^0us ... 2^25us
+    public static final int BUCKETS = BOUNDED_BUCKETS + 1; // +Inf
+
+    // not cumulative, the total count is the sum of all buckets
+    private final long[] buckets = new long[BUCKETS];
+    @SuppressWarnings("unused") private long sumNanos;
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * @return upper bound of the bucket in microseconds
+     */
+    public static long upperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    static int bucketOf(long nanos) {
+        // round up, a value must never be counted in a bucket whose upper bound is smaller than it
+        long micros = (nanos + 999) / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        // ceil(log2(micros))
+        int idx = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(idx, BOUNDED_BUCKETS);
+    }
+
+    /**
+     * MUST be called on the owner thread
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // the clock might go backwards on some platforms
+        }
+        int idx = bucketOf(nanos);
+        // opaque access: no fence on the data path, and the readers never see a torn long
+        LONGS.setOpaque(buckets, idx, (long) LONGS.getOpaque(buckets, idx) + 1);
+        SUM.setOpaque(this, (long) SUM.getOpaque(this) + nanos);
+    }
+
+    /**
+     * add values of this histogram into the snapshot, may be called on any thread
+     */
+    public void addTo(Snapshot snapshot) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot.buckets[i] += (long) LONGS.getOpaque(buckets, i);
+        }
+        snapshot.sumNanos += (long) SUM.getOpaque(this);
+    }
+
+    public static class Snapshot {
+        public final long[] buckets = new long[BUCKETS]; // not cumulative
+        public long sumNanos;
+
+        public Snapshot() {
+        }
+
+        public long count() {
+            long n = 0;
+            for (long b : buckets) {
+                n += b;
+            }
+            return n;
+        }
+
+        public void add(Snapshot other) {
+            for (int i = 0; i < BUCKETS; ++i) {
+                buckets[i] += other.buckets[i];
+            }
+            sumNanos += other.sumNanos;
+        }
+    }
+}
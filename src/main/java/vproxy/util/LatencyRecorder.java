@@ -0,0 +1,113 @@
+package vproxy.util;
+
+import vproxy.selector.SelectorEventLoop;
+
+import java.util.Set;
+
+/**
+ * latency histograms of one event loop, each event loop owns one recorder<br>
+ * values are recorded into the recorder of the current loop without any lock,
+ * and are merged when retrieving {@link #globalStats()}.
+ * values recorded out of event loops (which should be rare) go to a shared recorder under a lock.
+ */
+public class LatencyRecorder {
+    public enum Kind {
+        backendConnect("backend_connect", "time cost for connecting to the backend"),
+        firstByte("first_byte", "time from the session being accepted to the first byte received from the backend"),
+        session("session_duration", "time from the session being accepted to the session being closed"),
+        healthCheck("health_check", "round trip time of successful health checks"),
+        dnsQuery("dns_query", "time from the dns query being sent to the response being received"),
+        ;
+        public final String metricName;
+        public final String help;
+
+        Kind(String metricName, String help) {
+            this.metricName = metricName;
+            this.help = help;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private static final Set<LatencyRecorder> recorders = new ConcurrentHashSet<>();
+    private static final Stats statsOfClosedRecorders = new Stats();
+    private static final LatencyRecorder offLoop = new LatencyRecorder();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[KINDS.length];
+
+    public LatencyRecorder() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+        recorders.add(this);
+    }
+
+    /**
+     * record the time elapsed since `startNanos` (retrieved from System.nanoTime())
+     */
+    public static void recordSince(Kind kind, long startNanos) {
+        record(kind, System.nanoTime() - startNanos);
+    }
+
+    public static void record(Kind kind, long nanos) {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop != null) {
+            loop.latencyRecorder.histograms[kind.ordinal()].record(nanos);
+            return;
+        }
+        synchronized (offLoop) {
+            offLoop.histograms[kind.ordinal()].record(nanos);
+        }
+    }
+
+    public static Stats globalStats() {
+        Stats stats = new Stats();
+        // the lock makes sure a closing recorder is counted exactly once
+        // it's never taken on the data path
+        synchronized (statsOfClosedRecorders) {
+            stats.add(statsOfClosedRecorders);
+            for (LatencyRecorder r : recorders) {
+                r.addTo(stats);
+            }
+        }
+        return stats;
+    }
+
+    private void addTo(Stats stats) {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i].addTo(stats.histograms[i]);
+        }
+    }
+
+    /**
+     * keep the recorded values in the global stats, MUST be called on the owner thread or after the owner thread exits
+     */
+    public void close() {
+        synchronized (statsOfClosedRecorders) {
+            if (!recorders.remove(this)) {
+                return;
+            }
+            addTo(statsOfClosedRecorders);
+        }
+    }
+
+    public static class Stats {
+        private final LatencyHistogram.Snapshot[] histograms = new LatencyHistogram.Snapshot[KINDS.length];
+
+        Stats() {
+            for (int i = 0; i < histograms.length; ++i) {
+                histograms[i] = new LatencyHistogram.Snapshot();
+            }
+        }
+
+        public LatencyHistogram.Snapshot get(Kind kind) {
+            return histograms[kind.ordinal()];
+        }
+
+        private void add(Stats other) {
+            for (int i = 0; i < histograms.length; ++i) {
+                histograms[i].add(other.histograms[i]);
+            }
+        }
+    }
+}
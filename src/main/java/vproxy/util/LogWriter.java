@@ -0,0 +1,325 @@
+package vproxy.util;
+
+import vfd.FDProvider;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * the output of {@link Logger}<br>
+ * <br>
+ * async mode (default):<br>
+ * each thread formats records into its own ring of reusable string builders,
+ * the ring has one producer (the thread) and one consumer (the writer thread), so no lock is required.<br>
+ * the writer thread collects records of all rings and writes them in batches.<br>
+ * when a ring is full, the records are dropped and counted, the event loops are never blocked by the output.<br>
+ * records of each LogType are rate limited, and the same message repeated in one second is written only once,
+ * the numbers of dropped records are written once per second.<br>
+ * <br>
+ * sync mode:<br>
+ * records are written in the calling thread without limits, the same as the original implementation.<br>
+ * <br>
+ * -Dvproxy.log.async=off: use sync mode<br>
+ * -Dvproxy.log.file=...: write to the file instead of stdout<br>
+ * -Dvproxy.log.ratelimit=...: max records of each LogType per second, 0 for unlimited, default 1000
+ */
+class LogWriter {
+    private static final int RING_SIZE = 1024; // power of 2
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+
+    static final boolean async;
+    private static final int rateLimit;
+    private static final Writer fileWriter;
+
+    private static final ThreadLocal<Local> local = ThreadLocal.withInitial(Local::new);
+    private static final ConcurrentLinkedQueue<Ring> rings = new ConcurrentLinkedQueue<>();
+    private static final Limit[] limits;
+
+    static {
+        async = !"off".equals(System.getProperty("vproxy.log.async"));
+        rateLimit = Integer.parseInt(System.getProperty("vproxy.log.ratelimit", "1000"));
+        String file = System.getProperty("vproxy.log.file");
+        Writer w = null;
+        if (file != null && !file.isBlank()) {
+            try {
+                w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.out.println("opening log file " + file + " failed, use stdout instead: " + e);
+            }
+        }
+        fileWriter = w;
+
+        LogType[] types = LogType.values();
+        limits = new Limit[types.length];
+        for (int i = 0; i < types.length; ++i) {
+            limits[i] = new Limit(types[i]);
+        }
+
+        if (async) {
+            Thread writerThread = new Thread(LogWriter::writerLoop, "log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(LogWriter::flush, "log-writer-flush"));
+        }
+    }
+
+    private LogWriter() {
+    }
+
+    // per thread state
+    private static class Local {
+        final Ring ring = async ? new Ring(Thread.currentThread()) : null;
+        final StringBuilder scratch = async ? null : new StringBuilder(); // used in sync mode
+        // the formatted timestamp is reused within one second
+        final StringBuilder timePrefix = new StringBuilder();
+        long timeSecond = -1;
+
+        Local() {
+            if (ring != null) {
+                rings.add(ring);
+            }
+        }
+    }
+
+    // single producer single consumer
+    private static class Ring {
+        final Thread thread;
+        final StringBuilder[] slots = new StringBuilder[RING_SIZE];
+        volatile long head = 0; // written by the consumer
+        volatile long tail = 0; // written by the producer
+        volatile long dropped = 0; // written by the producer
+        long droppedReported = 0; // used by the consumer
+
+        Ring(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private static class Limit {
+        final LogType type;
+        volatile long second = 0;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger suppressed = new AtomicInteger();
+        final AtomicInteger repeated = new AtomicInteger();
+        volatile String lastMsg = null;
+
+        Limit(LogType type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * check the rate limit and duplication
+     *
+     * @return true if the record can be written
+     */
+    static boolean allow(LogType type, String msg) {
+        if (!async || rateLimit <= 0 || type == null) {
+            return true;
+        }
+        Limit limit = limits[type.ordinal()];
+        long sec = FDProvider.get().currentTimeMillis() / 1000;
+        if (limit.second != sec) {
+            // racing between threads only makes the limit not precise
+            limit.second = sec;
+            limit.count.set(0);
+            limit.lastMsg = null;
+        }
+        if (msg != null && msg.equals(limit.lastMsg)) {
+            limit.repeated.incrementAndGet();
+            return false;
+        }
+        limit.lastMsg = msg;
+        if (limit.count.incrementAndGet() > rateLimit) {
+            limit.suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a string builder to fill the record into, or null if the record should be dropped.
+     * {@link #commit()} must be called after the record is filled
+     */
+    static StringBuilder begin() {
+        Local l = local.get();
+        if (!async) {
+            l.scratch.setLength(0);
+            return l.scratch;
+        }
+        Ring ring = l.ring;
+        long tail = ring.tail;
+        if (tail - ring.head >= RING_SIZE) {
+            //noinspection NonAtomicOperationOnVolatileField
+            ++ring.dropped; // only written by this thread
+            return null;
+        }
+        int idx = (int) (tail & RING_MASK);
+        StringBuilder sb = ring.slots[idx];
+        if (sb == null) {
+            sb = new StringBuilder(256);
+            ring.slots[idx] = sb;
+        } else {
+            sb.setLength(0);
+        }
+        return sb;
+    }
+
+    static void commit() {
+        Local l = local.get();
+        if (!async) {
+            output(l.scratch);
+            return;
+        }
+        Ring ring = l.ring;
+        //noinspection NonAtomicOperationOnVolatileField
+        ring.tail = ring.tail + 1; // publish the record, only written by this thread
+    }
+
+    // [yyyy-MM-dd HH:mm:ss.SSS]
+    @SuppressWarnings("deprecation")
+    static void appendTime(StringBuilder sb) {
+        Local l = local.get();
+        long cur = FDProvider.get().currentTimeMillis();
+        long sec = cur / 1000;
+        if (sec != l.timeSecond) {
+            l.timeSecond = sec;
+            Date d = new Date(cur);
+            StringBuilder p = l.timePrefix;
+            p.setLength(0);
+            p.append('[').append(d.getYear() + 1900).append('-');
+            fill(p, d.getMonth() + 1, 2).append('-');
+            fill(p, d.getDate(), 2).append(' ');
+            fill(p, d.getHours(), 2).append(':');
+            fill(p, d.getMinutes(), 2).append(':');
+            fill(p, d.getSeconds(), 2).append('.');
+        }
+        sb.append(l.timePrefix);
+        fill(sb, (int) (cur % 1000), 3).append("] ");
+    }
+
+    private static StringBuilder fill(StringBuilder sb, int n, int digits) {
+        if (digits == 3 && n < 100) {
+            sb.append('0');
+        }
+        if (n < 10) {
+            sb.append('0');
+        }
+        return sb.append(n);
+    }
+
+    private static void output(CharSequence cs) {
+        if (fileWriter != null) {
+            try {
+                fileWriter.append(cs);
+                fileWriter.flush();
+            } catch (IOException e) {
+                System.out.println("writing log file failed: " + e);
+                System.out.print(cs);
+            }
+        } else {
+            PrintStream out = System.out;
+            out.print(cs);
+            out.flush();
+        }
+    }
+
+    private static void writerLoop() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (Throwable t) {
+                System.out.println("log writer got exception: " + t);
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static final StringBuilder batch = new StringBuilder(64 * 1024);
+    private static long lastReportSecond = 0;
+
+    // the consumer side is serialized by the lock, it's called from the writer thread and flush()
+    private static synchronized int drain() {
+        int n = 0;
+        batch.setLength(0);
+        for (Ring ring : rings) {
+            long head = ring.head;
+            long tail = ring.tail;
+            for (long i = head; i < tail; ++i) {
+                batch.append(ring.slots[(int) (i & RING_MASK)]);
+                ++n;
+            }
+            ring.head = tail; // release the slots
+            if (head == tail && !ring.thread.isAlive()) {
+                rings.remove(ring);
+            }
+        }
+        long sec = FDProvider.get().currentTimeMillis() / 1000;
+        if (sec != lastReportSecond) {
+            lastReportSecond = sec;
+            n += report();
+        }
+        if (batch.length() > 0) {
+            output(batch);
+        }
+        if (batch.capacity() > 1024 * 1024) {
+            batch.setLength(0);
+            batch.trimToSize();
+        }
+        return n;
+    }
+
+    private static int report() {
+        int n = 0;
+        long dropped = 0;
+        for (Ring ring : rings) {
+            long d = ring.dropped;
+            dropped += d - ring.droppedReported;
+            ring.droppedReported = d;
+        }
+        if (dropped > 0) {
+            reportLine(null, dropped + " records dropped because the log buffer is full");
+            ++n;
+        }
+        for (Limit limit : limits) {
+            int suppressed = limit.suppressed.getAndSet(0);
+            int repeated = limit.repeated.getAndSet(0);
+            if (suppressed == 0 && repeated == 0) {
+                continue;
+            }
+            reportLine(limit.type, suppressed + " records exceeding the rate limit and " + repeated + " repeated records are dropped");
+            ++n;
+        }
+        return n;
+    }
+
+    private static void reportLine(LogType type, String msg) {
+        batch.append(Logger.WARN_COLOR);
+        appendTime(batch);
+        if (type != null) {
+            batch.append(type).append(" - ");
+        }
+        batch.append(Logger.RESET_COLOR).append(msg).append('\n');
+    }
+
+    /**
+     * write all records committed before calling this method
+     */
+    static void flush() {
+        if (!async) {
+            return;
+        }
+        drain();
+        if (fileWriter == null) {
+            System.out.flush();
+        }
+    }
+}
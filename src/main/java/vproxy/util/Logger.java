@@ -6,13 +6,19 @@ import vfd.IP;
 import vfd.IPPort;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.ByteBuffer;
-import java.util.Date;
 
+/**
+ * logs are written by {@link LogWriter}, asynchronously by default
+ */
 public class Logger {
     private static final boolean stackTraceOn;
     private static final boolean lowLevelDebugOn;
     private static final boolean lowLevelNetDebugOn;
+    private static final boolean callerOn;
+    private static final StackWalker stackWalker = StackWalker.getInstance();
 
     public static final String DEBUG_COLOR = "\033[0;36m";
     public static final String INFO_COLOR = "\033[0;32m";
@@ -41,50 +47,69 @@ public class Logger {
                 stackTraceOn = !"off".equals(stackTrace);
             }
         }
+
+        {
+            // whether to print the caller of the error logs
+            String caller = System.getProperty("vproxy.log.caller", "on");
+            callerOn = !"off".equals(caller);
+        }
     }
 
     private Logger() {
     }
 
-    private static String fillToTen(int n) {
-        return (n < 10 ? "0" : "") + n;
+    private static String current() {
+        StringBuilder sb = new StringBuilder();
+        LogWriter.appendTime(sb);
+        return sb.toString();
     }
 
-    private static String fillToHundred(int n) {
-        return (n < 10 ? "00" : (n < 100 ? "0" : "")) + n;
+    private static StackWalker.StackFrame getFirstFrameOutOfLoggerLib() {
+        final String loggerClass = Logger.class.getName();
+        return stackWalker.walk(s -> s.filter(f -> !f.getClassName().equals(loggerClass)).findFirst()).orElse(null);
     }
 
-    @SuppressWarnings("deprecation")
-    private static String current() {
-        long cur = FDProvider.get().currentTimeMillis();
-        Date d = new Date(cur);
-        return "[" +
-            (d.getYear() + 1900) + "-" +
-            fillToTen(d.getMonth() + 1) + "-" +
-            fillToTen(d.getDate()) + " " +
-            fillToTen(d.getHours()) + ":" +
-            fillToTen(d.getMinutes()) + ":" +
-            fillToTen(d.getSeconds()) + "." +
-            fillToHundred((int) (cur % 1000)) +
-            "] ";
-    }
-
-    private static StackTraceElement getFirstElementOutOfLoggerLib() {
-        final String loggerClass = Logger.class.getName();
-        var arr = Thread.currentThread().getStackTrace();
-        boolean intoLoggerLib = false;
-        for (StackTraceElement e : arr) {
-            if (e.getClassName().equals(loggerClass)) {
-                intoLoggerLib = true;
-            } else {
-                if (intoLoggerLib) {
-                    // out of logger lib now
-                    return e;
-                }
+    // thread - class#method(line) -
+    private static void appendThreadAndCaller(StringBuilder sb, boolean withCaller) {
+        sb.append(Thread.currentThread().getName()).append(" - ");
+        if (!withCaller) {
+            return;
+        }
+        StackWalker.StackFrame f = getFirstFrameOutOfLoggerLib();
+        if (f != null) {
+            sb.append(f.getClassName()).append('#').append(f.getMethodName()).append('(').append(f.getLineNumber()).append(") - ");
+        }
+    }
+
+    // color [time] thread - class#method(line) - reset logType - msg
+    // color [time] logType - reset msg
+    private static void log(String color, boolean withThread, boolean withCaller, LogType logType, String msg, Throwable t) {
+        if (logType != LogType.UNEXPECTED && !LogWriter.allow(logType, msg)) {
+            return;
+        }
+        StringBuilder sb = LogWriter.begin();
+        if (sb == null) { // dropped
+            return;
+        }
+        sb.append(color);
+        LogWriter.appendTime(sb);
+        if (withThread) {
+            appendThreadAndCaller(sb, withCaller);
+            sb.append(RESET_COLOR);
+            if (logType != null) {
+                sb.append(logType).append(" - ");
+            }
+        } else {
+            if (logType != null) {
+                sb.append(logType).append(" - ");
             }
+            sb.append(RESET_COLOR);
+        }
+        sb.append(msg).append('\n');
+        if (t != null) {
+            appendStackTrace(sb, t);
         }
-        // should not reach here, however return the last element if it really happens
-        return arr[arr.length - 1];
+        LogWriter.commit();
     }
 
     // some message for debugging this project
@@ -93,34 +118,29 @@ public class Logger {
     public static boolean lowLevelDebug(String msg) {
         if (!lowLevelDebugOn)
             return true;
-        String threadName = Thread.currentThread().getName();
-        StackTraceElement elem = getFirstElementOutOfLoggerLib();
-        System.out.println(DEBUG_COLOR + current() + threadName + " - " + elem.getClassName() + "#" + elem.getMethodName() + "(" + elem.getLineNumber() + ") - " + RESET_COLOR + msg);
+        log(DEBUG_COLOR, true, true, null, msg, null);
         return true;
     }
 
     public static boolean lowLevelNetDebug(String msg) {
         if (!lowLevelNetDebugOn || !lowLevelDebugOn)
             return true;
-        String threadName = Thread.currentThread().getName();
-        StackTraceElement elem = getFirstElementOutOfLoggerLib();
-        System.out.println(DEBUG_COLOR + current() + threadName + " - " + elem.getClassName() + "#" + elem.getMethodName() + "(" + elem.getLineNumber() + ") - " + RESET_COLOR + msg);
+        log(DEBUG_COLOR, true, true, null, msg, null);
         return true;
     }
 
-    private static void privateErr(String err) {
-        String threadName = Thread.currentThread().getName();
-        StackTraceElement elem = getFirstElementOutOfLoggerLib();
-        System.out.println(ERROR_COLOR + current() + threadName + " - " + elem.getClassName() + "#" + elem.getMethodName() + "(" + elem.getLineNumber() + ") - " + RESET_COLOR + err);
+    private static void privateErr(LogType logType, String err, Throwable t) {
+        log(ERROR_COLOR, true, callerOn, logType, err, t);
     }
 
-    private static void privatePrintStackTrace(Throwable t) {
+    private static void appendStackTrace(StringBuilder sb, Throwable t) {
         if (stackTraceOn || !(t instanceof Exception) || (t instanceof RuntimeException)) { // always print runtime exceptions and errors
-            t.printStackTrace(System.out);
+            StringWriter sw = new StringWriter();
+            t.printStackTrace(new PrintWriter(sw));
+            sb.append(sw.getBuffer());
         } else {
-            StringBuilder sb = new StringBuilder();
             formatExceptionStackTrace(t, sb);
-            System.out.println(sb.toString());
+            sb.append('\n');
         }
     }
 
@@ -139,41 +159,43 @@ public class Logger {
 
     // unexpected errors, or situation should happen
     public static void fatal(LogType logType, String err) {
-        privateErr(logType + " - " + err);
+        privateErr(logType, err, null);
     }
 
     public static void fatal(LogType logType, String err, Throwable ex) {
-        privateErr(logType + " - " + err);
-        privatePrintStackTrace(ex);
+        privateErr(logType, err, ex);
     }
 
     // expected errors, but not normal condition
     public static void error(LogType logType, String err) {
-        privateErr(logType + " - " + err);
+        privateErr(logType, err, null);
     }
 
     public static void error(LogType logType, String err, Throwable ex) {
-        privateErr(logType + " - " + err);
-        privatePrintStackTrace(ex);
+        privateErr(logType, err, ex);
     }
 
     // expected errors, maybe user misuse, and we can recover
     public static void warn(LogType logType, String err) {
-        System.out.println(WARN_COLOR + current() + logType + " - " + RESET_COLOR + err);
+        log(WARN_COLOR, false, false, logType, err, null);
     }
 
     public static void warn(LogType logType, String err, Throwable t) {
-        System.out.println(WARN_COLOR + current() + logType + " - " + RESET_COLOR + err);
-        privatePrintStackTrace(t);
+        log(WARN_COLOR, false, false, logType, err, t);
     }
 
     // expected condition
     public static void info(LogType logType, String msg) {
-        System.out.println(INFO_COLOR + current() + logType + " - " + RESET_COLOR + msg);
+        log(INFO_COLOR, false, false, logType, msg, null);
     }
 
     public static void trace(LogType logType, String msg) {
-        System.out.println(DEBUG_COLOR + current() + logType + " - " + RESET_COLOR + msg);
+        log(DEBUG_COLOR, false, false, logType, msg, null);
+    }
+
+    // write all logs recorded before calling this method
+    public static void flush() {
+        LogWriter.flush();
     }
 
     public static void shouldNotHappen(String msg) {
@@ -232,7 +254,15 @@ public class Logger {
     }
 
     public static boolean printStackTrace(Throwable t) {
-        t.printStackTrace(System.out); // do not use privatePrintStackTrace, always print here
+        StringBuilder sb = LogWriter.begin();
+        if (sb == null) { // dropped
+            return true;
+        }
+        // do not use appendStackTrace, always print here
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        sb.append(sw.getBuffer());
+        LogWriter.commit();
         return true;
     }
 
@@ -0,0 +1,270 @@
+package vproxy.util;
+
+import vfd.IP;
+import vfd.IPv4;
+import vfd.IPv6;
+
+import java.util.function.BiConsumer;
+
+/**
+ * a path compressed binary trie (patricia trie) of networks<br>
+ * the keys are stored as 32-bit words, one word for ipv4 and four words for ipv6,
+ * a node is only created for a network or for a branching point,
+ * so the lookup compares at most one node per branching bit instead of checking every network.<br>
+ * <br>
+ * the trie is not thread safe, users should build a new trie when the networks change
+ * and publish it by replacing the reference (copy-on-write)
+ *
+ * @param <T> value type, null is not allowed
+ */
+public class NetworkTrie<T> {
+    private static class Node<T> {
+        final int[] key; // bits after len are 0
+        final int len;
+        final int fullWords;
+        final int lastMask; // mask of the last partial word, 0 if there's no partial word
+        T value;
+        Node<T> zero;
+        Node<T> one;
+
+        Node(int[] key, int len, T value) {
+            this.key = new int[key.length];
+            this.len = len;
+            this.fullWords = len >>> 5;
+            this.lastMask = (len & 31) == 0 ? 0 : (-1 << (32 - (len & 31)));
+            for (int i = 0; i < fullWords; ++i) {
+                this.key[i] = key[i];
+            }
+            if (lastMask != 0) {
+                this.key[fullWords] = key[fullWords] & lastMask;
+            }
+            this.value = value;
+        }
+
+        // the full words are compared from the last one, each case falls through to the previous word,
+        // the words are passed as arguments so that no array is created for each lookup
+        @SuppressWarnings("fallthrough")
+        boolean matches(int w0, int w1, int w2, int w3) {
+            switch (fullWords) {
+                case 4:
+                    if (key[3] != w3) return false;
+                case 3:
+                    if (key[2] != w2) return false;
+                case 2:
+                    if (key[1] != w1) return false;
+                case 1:
+                    if (key[0] != w0) return false;
+            }
+            if (lastMask == 0) {
+                return true;
+            }
+            return key[fullWords] == (word(fullWords, w0, w1, w2, w3) & lastMask);
+        }
+    }
+
+    private final int bits;
+    private final Node<T> root;
+    private int size = 0;
+
+    /**
+     * @param addressLength 4 for ipv4 and 16 for ipv6
+     */
+    public NetworkTrie(int addressLength) {
+        if (addressLength != 4 && addressLength != 16)
+            throw new IllegalArgumentException("unknown address length " + addressLength);
+        this.bits = addressLength * 8;
+        this.root = new Node<>(new int[addressLength / 4], 0, null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int word(int idx, int w0, int w1, int w2, int w3) {
+        switch (idx) {
+            case 0:
+                return w0;
+            case 1:
+                return w1;
+            case 2:
+                return w2;
+            default:
+                return w3;
+        }
+    }
+
+    private static int bit(int[] key, int idx) {
+        return (key[idx >>> 5] >>> (31 - (idx & 31))) & 1;
+    }
+
+    // number of leading bits that are the same, at most `max`
+    private static int commonPrefix(int[] a, int[] b, int max) {
+        int n = 0;
+        for (int i = 0; i < a.length && n < max; ++i) {
+            int x = a[i] ^ b[i];
+            if (x == 0) {
+                n += 32;
+            } else {
+                n += Integer.numberOfLeadingZeros(x);
+                break;
+            }
+        }
+        return Math.min(n, max);
+    }
+
+    private int[] keyOf(Network net) {
+        byte[] ip = net.getRawIpBytes();
+        if (ip.length * 8 != bits)
+            throw new IllegalArgumentException("network " + net + " does not match the address length " + (bits / 8));
+        int[] key = new int[ip.length / 4];
+        for (int i = 0; i < key.length; ++i) {
+            int off = i * 4;
+            key[i] = ((ip[off] & 0xff) << 24) | ((ip[off + 1] & 0xff) << 16) | ((ip[off + 2] & 0xff) << 8) | (ip[off + 3] & 0xff);
+        }
+        return key;
+    }
+
+    /**
+     * @return the previous value of the network
+     */
+    public T put(Network net, T value) {
+        if (value == null)
+            throw new NullPointerException();
+        int[] key = keyOf(net);
+        int len = net.getMask();
+        if (len > bits)
+            throw new IllegalArgumentException("invalid mask of network " + net);
+
+        Node<T> n = root;
+        while (true) {
+            // the key of n is a prefix of the adding key
+            if (n.len == len) {
+                T old = n.value;
+                n.value = value;
+                if (old == null) {
+                    ++size;
+                }
+                return old;
+            }
+            int b = bit(key, n.len);
+            Node<T> c = b == 0 ? n.zero : n.one;
+            if (c == null) {
+                setChild(n, b, new Node<>(key, len, value));
+                ++size;
+                return null;
+            }
+            int common = commonPrefix(c.key, key, Math.min(c.len, len));
+            if (common == c.len) {
+                n = c;
+                continue;
+            }
+            Node<T> added = new Node<>(key, len, value);
+            ++size;
+            if (common == len) {
+                // the adding network contains the child
+                setChild(added, bit(c.key, len), c);
+                setChild(n, b, added);
+            } else {
+                // branch at the first different bit
+                Node<T> branch = new Node<>(key, common, null);
+                setChild(branch, bit(c.key, common), c);
+                setChild(branch, bit(key, common), added);
+                setChild(n, b, branch);
+            }
+            return null;
+        }
+    }
+
+    private static <T> void setChild(Node<T> n, int b, Node<T> c) {
+        if (b == 0) {
+            n.zero = c;
+        } else {
+            n.one = c;
+        }
+    }
+
+    /**
+     * @return the value of exactly the same network
+     */
+    public T get(Network net) {
+        int[] key = keyOf(net);
+        int len = net.getMask();
+        Node<T> n = root;
+        while (n.len < len) {
+            n = bit(key, n.len) == 0 ? n.zero : n.one;
+            if (n == null || n.len > len || commonPrefix(n.key, key, n.len) != n.len) {
+                return null;
+            }
+        }
+        return n.len == len ? n.value : null;
+    }
+
+    /**
+     * @return the value of the longest network containing the address,
+     * or null if not found or the address type does not match the trie
+     */
+    public T lookup(IP ip) {
+        if (bits == 32) {
+            if (!(ip instanceof IPv4)) {
+                return null;
+            }
+            return lookup(ip.getWord(0), 0, 0, 0);
+        } else {
+            if (!(ip instanceof IPv6)) {
+                return null;
+            }
+            return lookup(ip.getWord(0), ip.getWord(1), ip.getWord(2), ip.getWord(3));
+        }
+    }
+
+    /**
+     * @param ipv4 the ipv4 address as an integer, only used on the ipv4 trie
+     * @return the value of the longest network containing the address
+     */
+    public T lookup(int ipv4) {
+        if (bits != 32)
+            throw new IllegalStateException("not an ipv4 trie");
+        return lookup(ipv4, 0, 0, 0);
+    }
+
+    private T lookup(int w0, int w1, int w2, int w3) {
+        Node<T> n = root;
+        T best = root.value;
+        while (n.len < bits) {
+            int idx = n.len;
+            int w = word(idx >>> 5, w0, w1, w2, w3);
+            Node<T> c = ((w >>> (31 - (idx & 31))) & 1) == 0 ? n.zero : n.one;
+            if (c == null || !c.matches(w0, w1, w2, w3)) {
+                break;
+            }
+            if (c.value != null) {
+                best = c.value;
+            }
+            n = c;
+        }
+        return best;
+    }
+
+    /**
+     * visit all values
+     *
+     * @param f the first argument is the value,
+     *          the second argument is the value of the longest network containing this one, or null if no such network
+     */
+    public void forEach(BiConsumer<T, T> f) {
+        forEach(root, null, f);
+    }
+
+    private static <T> void forEach(Node<T> n, T outer, BiConsumer<T, T> f) {
+        if (n.value != null) {
+            f.accept(n.value, outer);
+            outer = n.value;
+        }
+        if (n.zero != null) {
+            forEach(n.zero, outer, f);
+        }
+        if (n.one != null) {
+            forEach(n.one, outer, f);
+        }
+    }
+}
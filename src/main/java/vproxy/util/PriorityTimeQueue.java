@@ -0,0 +1,49 @@
+package vproxy.util;
+
+import vproxy.app.Config;
+
+import java.util.PriorityQueue;
+
+// the original heap based implementation
+// push and pop are O(log n), but remove is O(n)
+// use -DtimerImpl=heap to enable
+public class PriorityTimeQueue<T> extends TimeQueue<T> {
+    private final PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+
+    public PriorityTimeQueue() {
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
+        queue.add(event);
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        TimeElem<T> elem = queue.poll();
+        if (elem == null)
+            return null;
+        return elem.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int nextTime() {
+        TimeElem<T> elem = queue.peek();
+        if (elem == null)
+            return Integer.MAX_VALUE;
+        long triggerTime = elem.triggerTime;
+        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
+    }
+
+    @Override
+    void remove(TimeElem<T> elem) {
+        queue.remove(elem);
+    }
+}
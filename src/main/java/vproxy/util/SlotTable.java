@@ -0,0 +1,176 @@
+package vproxy.util;
+
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * a table which maps positive int ids to objects<br>
+ * an id is made of a slot index (low bits) and the generation of the slot (high bits).
+ * the released slots are reused (the last released slot is reused first), but the generation
+ * is increased on each release, so a released id does not refer to the new value of the slot.<br>
+ * the table grows when all slots are taken.<br>
+ * the table is not thread safe
+ *
+ * @param <V> value type
+ */
+public class SlotTable<V> {
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int MAX_GENERATION = (1 << (31 - INDEX_BITS)) - 1; // keep the ids positive
+
+    private Object[] slots; // [0] is not used
+    private int[] generations;
+    private boolean[] allocated;
+    private int[] freeIndexes = new int[8];
+    private int freeCount = 0;
+    private int nextIndex = 1; // slots >= nextIndex have never been allocated
+    private int size = 0;
+
+    public SlotTable() {
+        this(16);
+    }
+
+    public SlotTable(int initialCapacity) {
+        if (initialCapacity < 1 || initialCapacity > INDEX_MASK)
+            throw new IllegalArgumentException("initialCapacity = " + initialCapacity);
+        slots = new Object[initialCapacity + 1];
+        generations = new int[initialCapacity + 1];
+        allocated = new boolean[initialCapacity + 1];
+    }
+
+    private int idOf(int index) {
+        return (generations[index] << INDEX_BITS) | index;
+    }
+
+    // returns the slot index of the id, or 0 if the id is not allocated
+    private int indexOf(int id) {
+        if (id <= 0) {
+            return 0;
+        }
+        int index = id & INDEX_MASK;
+        if (index >= allocated.length || !allocated[index] || generations[index] != (id >>> INDEX_BITS)) {
+            return 0;
+        }
+        return index;
+    }
+
+    /**
+     * allocate an id, the slot value is null until {@link #set(int, Object)} is called
+     *
+     * @return the allocated id, always greater than 0
+     */
+    public int allocate() {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndexes[--freeCount];
+        } else {
+            if (nextIndex > INDEX_MASK)
+                throw new IllegalStateException("too many ids allocated: " + size);
+            index = nextIndex++;
+            if (index == slots.length) {
+                int newLen = Math.min(slots.length * 2, INDEX_MASK + 1);
+                Object[] newSlots = new Object[newLen];
+                System.arraycopy(slots, 0, newSlots, 0, slots.length);
+                int[] newGenerations = new int[newLen];
+                System.arraycopy(generations, 0, newGenerations, 0, generations.length);
+                boolean[] newAllocated = new boolean[newLen];
+                System.arraycopy(allocated, 0, newAllocated, 0, allocated.length);
+                slots = newSlots;
+                generations = newGenerations;
+                allocated = newAllocated;
+            }
+        }
+        allocated[index] = true;
+        ++size;
+        return idOf(index);
+    }
+
+    /**
+     * allocate an id and store the value
+     *
+     * @return the allocated id
+     */
+    public int add(V value) {
+        int id = allocate();
+        slots[id & INDEX_MASK] = value;
+        return id;
+    }
+
+    public void set(int id, V value) {
+        int index = indexOf(id);
+        if (index == 0)
+            throw new IllegalArgumentException("id " + id + " is not allocated");
+        slots[index] = value;
+    }
+
+    /**
+     * @return the value of the id, or null if the id is not allocated
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int id) {
+        return (V) slots[indexOf(id)]; // [0] is always null
+    }
+
+    /**
+     * release the id, the slot may be reused by the following allocate() calls with another id
+     *
+     * @return the value of the id, or null if the id is not allocated
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int id) {
+        int index = indexOf(id);
+        if (index == 0) {
+            return null;
+        }
+        V old = (V) slots[index];
+        slots[index] = null;
+        allocated[index] = false;
+        generations[index] = generations[index] == MAX_GENERATION ? 0 : generations[index] + 1;
+        --size;
+        if (freeCount == freeIndexes.length) {
+            int[] newFreeIndexes = new int[freeIndexes.length * 2];
+            System.arraycopy(freeIndexes, 0, newFreeIndexes, 0, freeIndexes.length);
+            freeIndexes = newFreeIndexes;
+        }
+        freeIndexes[freeCount++] = index;
+        return old;
+    }
+
+    /**
+     * @return count of allocated ids
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the first non-null value (ordered by slot) which matches the predicate, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public V find(Predicate<V> predicate) {
+        int end = nextIndex;
+        for (int i = 1; i < end; ++i) {
+            if (slots[i] != null && predicate.test((V) slots[i])) {
+                return (V) slots[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * visit all non-null values, the table must not be modified in the callback
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<V> f) {
+        int end = nextIndex;
+        for (int i = 1; i < end; ++i) {
+            if (slots[i] != null) {
+                f.accept((V) slots[i], idOf(i));
+            }
+        }
+    }
+}
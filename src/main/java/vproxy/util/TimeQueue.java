@@ -2,36 +2,26 @@ package vproxy.util;
 
 import vproxy.app.Config;
 
-import java.util.PriorityQueue;
-
-public class TimeQueue<T> {
-    PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
-
-    public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
-        queue.add(event);
-        return event;
+public abstract class TimeQueue<T> {
+    public static <T> TimeQueue<T> create() {
+        if (Config.timerImpl.equals("heap")) {
+            return new PriorityTimeQueue<>();
+        } else {
+            return new TimingWheelTimeQueue<>();
+        }
     }
 
-    public T pop() {
-        TimeElem<T> elem = queue.poll();
-        if (elem == null)
-            return null;
-        return elem.elem;
-    }
+    public abstract TimeElem<T> push(int timeout, T elem);
 
-    public boolean isEmpty() {
-        return queue.isEmpty();
-    }
+    public abstract T pop();
+
+    public abstract boolean isEmpty();
 
     /**
      * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
      */
-    public int nextTime() {
-        TimeElem<T> elem = queue.peek();
-        if (elem == null)
-            return Integer.MAX_VALUE;
-        long triggerTime = elem.triggerTime;
-        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
-    }
+    public abstract int nextTime();
+
+    // this method should always be called on the event loop
+    abstract void remove(TimeElem<T> elem);
 }
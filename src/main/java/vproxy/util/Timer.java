@@ -9,18 +9,33 @@ public class Timer {
     private int timeout;
     private long lastStart = -1;
     private TimerEvent timer;
+    private final Runnable checkTimeoutFunc = this::checkTimeout;
 
     public Timer(SelectorEventLoop loop, int timeout) {
         this.loop = loop;
         this.timeout = timeout;
     }
 
+    // the timer may be reset for every packet,
+    // so only the start time is recorded, and the timer event is re-scheduled when it fires too early
     public void resetTimer() {
-        if (timer != null) {
-            timer.cancel();
-        }
         lastStart = FDProvider.get().currentTimeMillis();
-        timer = loop.delay(timeout, this::cancel);
+        if (timer == null) {
+            timer = loop.delay(timeout, checkTimeoutFunc);
+        }
+    }
+
+    private void checkTimeout() {
+        timer = null;
+        if (lastStart == -1) {
+            return;
+        }
+        long remaining = lastStart + timeout - FDProvider.get().currentTimeMillis();
+        if (remaining > 0) {
+            timer = loop.delay((int) remaining, checkTimeoutFunc);
+            return;
+        }
+        cancel();
     }
 
     public void cancel() {
@@ -51,9 +66,10 @@ public class Timer {
         if (timer != null) {
             timer.cancel();
         }
+        // lastStart is kept, the deadline is still (lastStart + timeout),
+        // checkTimeout() compares with it, and getTTL() reports the real remaining time
         long nextDelay = lastStart + timeout - current;
-        lastStart = current;
-        timer = loop.delay((int) nextDelay, this::cancel);
+        timer = loop.delay((int) nextDelay, checkTimeoutFunc);
     }
 
     public int getTimeout() {
@@ -0,0 +1,201 @@
+package vproxy.util;
+
+import vproxy.app.Config;
+
+// a hierarchical timing wheel
+// push, pop and remove are all O(1)
+//
+// the wheel has LEVELS levels, each level has 64 slots,
+// one slot on level 0 represents 1 millisecond,
+// one slot on level n represents 64^n milliseconds
+//
+// the slots are indexed by absolute time:
+// an element is put into the level where the highest different 6-bit digit between
+// the element's trigger time and `now` lies,
+// so all elements on level n (n > 0) have the same higher digits with `now`,
+// and their digit on level n is always greater than `now`'s digit on level n.
+// when `now` reaches the start time of a slot on level n, the slot is cascaded,
+// which means all elements in it are re-inserted into lower levels.
+//
+// a bitmap is kept for each level to find the next non-empty slot,
+// so advancing the wheel does not need to tick millisecond by millisecond
+//
+// LEVELS * 6 = 48 bits, which is enough for any timestamp before year 10000
+public class TimingWheelTimeQueue<T> extends TimeQueue<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 8;
+
+    private final TimeElem<T>[] heads;
+    private final TimeElem<T>[] tails;
+    private final long[] bitmaps = new long[LEVELS];
+    private int size = 0;
+    // all milliseconds before `now` are already handled
+    private long now;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheelTimeQueue() {
+        // the arrays only hold elements of this queue, so the casts are safe
+        heads = (TimeElem<T>[]) new TimeElem<?>[LEVELS * SLOTS];
+        tails = (TimeElem<T>[]) new TimeElem<?>[LEVELS * SLOTS];
+        now = Config.currentTimestamp;
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
+        insert(event);
+        ++size;
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        advance();
+        int slot = now <= Config.currentTimestamp ? (int) (now & SLOT_MASK) : -1;
+        if (slot == -1 || heads[slot] == null)
+            return null;
+        TimeElem<T> elem = heads[slot];
+        unlink(elem);
+        --size;
+        return elem.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int nextTime() {
+        if (size == 0)
+            return Integer.MAX_VALUE;
+        advance();
+        long next = nextTick();
+        long delta = next - Config.currentTimestamp;
+        if (delta <= 0)
+            return 0;
+        if (delta > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return (int) delta;
+    }
+
+    @Override
+    void remove(TimeElem<T> elem) {
+        if (elem.slot == -1)
+            return; // already fired or removed
+        unlink(elem);
+        --size;
+    }
+
+    private void insert(TimeElem<T> elem) {
+        long t = Math.max(elem.triggerTime, now); // expired elements are fired as soon as possible
+        long diff = t ^ now;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        if (level >= LEVELS) {
+            level = LEVELS - 1; // will not happen for any sane timestamp
+        }
+        int digit = (int) ((t >>> (level * BITS)) & SLOT_MASK);
+        int slot = level * SLOTS + digit;
+
+        elem.slot = slot;
+        elem.next = null;
+        elem.prev = tails[slot];
+        if (tails[slot] == null) {
+            heads[slot] = elem;
+            bitmaps[level] |= 1L << digit;
+        } else {
+            tails[slot].next = elem;
+        }
+        tails[slot] = elem;
+    }
+
+    private void unlink(TimeElem<T> elem) {
+        int slot = elem.slot;
+        if (elem.prev == null) {
+            heads[slot] = elem.next;
+        } else {
+            elem.prev.next = elem.next;
+        }
+        if (elem.next == null) {
+            tails[slot] = elem.prev;
+        } else {
+            elem.next.prev = elem.prev;
+        }
+        if (heads[slot] == null) {
+            bitmaps[slot / SLOTS] &= ~(1L << (slot & SLOT_MASK));
+        }
+        elem.prev = null;
+        elem.next = null;
+        elem.slot = -1;
+    }
+
+    // the nearest tick when something should be done (fire or cascade)
+    // Long.MAX_VALUE if the wheel is empty
+    private long nextTick() {
+        for (int level = 0; level < LEVELS; ++level) {
+            long bitmap = bitmaps[level];
+            if (bitmap == 0)
+                continue;
+            int shift = level * BITS;
+            int nowDigit = (int) ((now >>> shift) & SLOT_MASK);
+            // level 0 may contain the current slot, higher levels only contain slots after `now`
+            if (level == 0) {
+                bitmap &= -1L << nowDigit;
+            } else {
+                bitmap = nowDigit == SLOT_MASK ? 0 : bitmap & (-1L << (nowDigit + 1));
+            }
+            if (bitmap == 0)
+                continue; // will not happen, the elements are always after `now`
+            long digit = Long.numberOfTrailingZeros(bitmap);
+            // the lower levels are checked first, and their ticks are always smaller
+            // so the first found one is the nearest one
+            long high = now & ~((1L << (shift + BITS)) - 1);
+            return high | (digit << shift);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // move `now` forward as far as possible but not beyond current timestamp
+    // stops when the current level 0 slot has elements to fire
+    private void advance() {
+        final long target = Config.currentTimestamp;
+        while (true) {
+            long next = nextTick();
+            if (next > target) {
+                // no slot to fire or cascade before target
+                // so it's safe to jump directly
+                if (target > now) {
+                    now = target;
+                }
+                return;
+            }
+            now = next;
+            if (heads[(int) (now & SLOT_MASK)] != null) {
+                return; // level 0 slot is ready to fire
+            }
+            cascade();
+        }
+    }
+
+    private void cascade() {
+        for (int level = LEVELS - 1; level > 0; --level) {
+            int shift = level * BITS;
+            if ((now & ((1L << shift) - 1)) != 0)
+                continue; // `now` is not at the start of a slot on this level
+            int slot = level * SLOTS + (int) ((now >>> shift) & SLOT_MASK);
+            TimeElem<T> elem = heads[slot];
+            if (elem == null)
+                continue;
+            heads[slot] = null;
+            tails[slot] = null;
+            bitmaps[level] &= ~(1L << (slot & SLOT_MASK));
+            while (elem != null) {
+                TimeElem<T> next = elem.next;
+                insert(elem);
+                elem = next;
+            }
+        }
+    }
+}
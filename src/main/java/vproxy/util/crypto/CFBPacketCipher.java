@@ -0,0 +1,95 @@
+package vproxy.util.crypto;
+
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * encrypt or decrypt a whole packet in cfb mode, each packet carries its own iv<br>
+ * the result is the same as using a new {@link StreamingCFBCipher} for each packet.<br>
+ * the feedback is calculated here with a block cipher in ecb mode, which is initialized only once,
+ * so nothing is allocated when handling the packets.<br>
+ * the object is not thread safe
+ */
+public class CFBPacketCipher {
+    private final int blockSize;
+    private final Cipher blockCipher;
+    private final byte[] feedback;
+    private final byte[] keyStream;
+
+    public CFBPacketCipher(BlockCipherKey key) {
+        if (!key.cipherName().contains("/CFB/"))
+            throw new IllegalArgumentException("not cfb cipher: " + key.cipherName());
+        if (key.ivLen() != key.blockSize())
+            throw new IllegalArgumentException("iv length should be the same as the block size");
+        this.blockSize = key.blockSize();
+        String algorithm = key.cipherName().substring(0, key.cipherName().indexOf('/'));
+        SecretKeySpec keySpec = key.getSecretKeySpec();
+        try {
+            Cipher cipher = Cipher.getInstance(algorithm + "/ECB/NoPadding");
+            // cfb uses the encryption function for both directions
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec);
+            this.blockCipher = cipher;
+        } catch (GeneralSecurityException e) {
+            Logger.error(LogType.IMPROPER_USE, "building cipher thrown exception", e);
+            throw new RuntimeException("unrecoverable error, building cipher failed");
+        }
+        this.feedback = new byte[blockSize];
+        this.keyStream = new byte[blockSize];
+    }
+
+    public int ivLen() {
+        return blockSize;
+    }
+
+    public void encrypt(byte[] iv, int ivOff,
+                        byte[] input, int inputOff, int inputLen,
+                        byte[] output, int outputOff) {
+        run(true, iv, ivOff, input, inputOff, inputLen, output, outputOff);
+    }
+
+    public void decrypt(byte[] iv, int ivOff,
+                        byte[] input, int inputOff, int inputLen,
+                        byte[] output, int outputOff) {
+        run(false, iv, ivOff, input, inputOff, inputLen, output, outputOff);
+    }
+
+    private void run(boolean encrypting, byte[] iv, int ivOff,
+                     byte[] input, int inputOff, int inputLen,
+                     byte[] output, int outputOff) {
+        if (ivOff < 0 || ivOff + blockSize > iv.length)
+            throw new IllegalArgumentException("iv off is wrong");
+        if (inputOff < 0 || inputLen < 0 || inputOff + inputLen > input.length)
+            throw new IllegalArgumentException("off or len is wrong");
+        if (outputOff < 0 || outputOff + inputLen > output.length)
+            throw new IllegalArgumentException("output cannot hold the result");
+
+        System.arraycopy(iv, ivOff, feedback, 0, blockSize);
+        for (int done = 0; done < inputLen; done += blockSize) {
+            try {
+                blockCipher.update(feedback, 0, blockSize, keyStream, 0);
+            } catch (GeneralSecurityException e) {
+                Logger.error(LogType.IMPROPER_USE, "running cipher thrown exception", e);
+                throw new RuntimeException("unrecoverable error, running cipher failed");
+            }
+            int n = Math.min(blockSize, inputLen - done);
+            int in = inputOff + done;
+            int out = outputOff + done;
+            if (encrypting) {
+                for (int i = 0; i < n; ++i) {
+                    output[out + i] = (byte) (input[in + i] ^ keyStream[i]);
+                    feedback[i] = output[out + i];
+                }
+            } else {
+                for (int i = 0; i < n; ++i) {
+                    byte c = input[in + i];
+                    output[out + i] = (byte) (c ^ keyStream[i]);
+                    feedback[i] = c;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package vproxy.util.ringbuffer;
+
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * a ring buffer which holds no memory when it's empty<br>
+ * a direct buffer is taken (from the pool of the event loop) when data is about to be stored,
+ * and given back as soon as all data is retrieved<br>
+ * <br>
+ * it's used for connections which stay idle for most of the time,
+ * e.g. long polling or websocket connections
+ */
+public class OnDemandRingBuffer extends AbstractRingBuffer implements ByteBufferRingBuffer {
+    private final int cap;
+    private SimpleRingBuffer buffer; // null when nothing stored
+    private boolean cleaned = false;
+
+    private OnDemandRingBuffer(int cap) {
+        this.cap = cap;
+    }
+
+    public static OnDemandRingBuffer allocateDirect(int cap) {
+        return new OnDemandRingBuffer(cap);
+    }
+
+    private void ensureBufferAvailable() {
+        if (cleaned) {
+            throw new IllegalStateException("this buffer is already cleaned");
+        }
+    }
+
+    private SimpleRingBuffer attach() {
+        if (buffer == null) {
+            buffer = SimpleRingBuffer.allocateDirect(cap);
+            assert Logger.lowLevelNetDebug("attach buffer to " + this);
+        }
+        return buffer;
+    }
+
+    private void detachIfEmpty() {
+        if (buffer != null && buffer.used() == 0) {
+            assert Logger.lowLevelNetDebug("detach buffer from " + this);
+            buffer.clean();
+            buffer = null;
+        }
+    }
+
+    // the buffer is empty before storing
+    // so always trigger readable if got data
+    private int afterStore(int n) {
+        detachIfEmpty();
+        if (n > 0) {
+            triggerReadable();
+        }
+        return n;
+    }
+
+    private int afterRetrieve(boolean wasFull, int n) {
+        detachIfEmpty();
+        if (wasFull && n > 0) {
+            triggerWritable();
+        }
+        return n;
+    }
+
+    @Override
+    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        ensureBufferAvailable();
+        boolean wasEmpty = used() == 0;
+        int n;
+        setOperating(true);
+        try {
+            n = attach().storeBytesFrom(channel);
+        } finally {
+            setOperating(false);
+        }
+        if (wasEmpty) {
+            return afterStore(n);
+        }
+        return n;
+    }
+
+    @Override
+    public int operateOnByteBufferStoreIn(StoreInOp op) throws IOException {
+        ensureBufferAvailable();
+        boolean wasEmpty = used() == 0;
+        int n;
+        setOperating(true);
+        try {
+            n = attach().operateOnByteBufferStoreIn(op);
+        } finally {
+            setOperating(false);
+        }
+        if (wasEmpty) {
+            return afterStore(n);
+        }
+        return n;
+    }
+
+    @Override
+    public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        ensureBufferAvailable();
+        if (buffer == null) {
+            return 0;
+        }
+        boolean wasFull = buffer.free() == 0;
+        int n;
+        setOperating(true);
+        try {
+            n = buffer.writeTo(channel, maxBytesToWrite);
+        } finally {
+            setOperating(false);
+        }
+        return afterRetrieve(wasFull, n);
+    }
+
+    @Override
+    public int operateOnByteBufferWriteOut(int maxBytesToWrite, WriteOutOp op) throws IOException {
+        ensureBufferAvailable();
+        if (buffer == null) {
+            return 0;
+        }
+        boolean wasFull = buffer.free() == 0;
+        int n;
+        setOperating(true);
+        try {
+            n = buffer.operateOnByteBufferWriteOut(maxBytesToWrite, op);
+        } finally {
+            setOperating(false);
+        }
+        return afterRetrieve(wasFull, n);
+    }
+
+    @Override
+    public boolean canDefragment() {
+        return buffer != null && buffer.canDefragment();
+    }
+
+    @Override
+    public void defragment() {
+        if (buffer != null) {
+            buffer.defragment();
+        }
+    }
+
+    public boolean isAttached() {
+        return buffer != null;
+    }
+
+    @Override
+    public int free() {
+        return cap - used();
+    }
+
+    @Override
+    public int used() {
+        return buffer == null ? 0 : buffer.used();
+    }
+
+    @Override
+    public int capacity() {
+        return cap;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        ensureBufferAvailable();
+        if (buffer == null) {
+            return new byte[0];
+        }
+        return buffer.getBytes();
+    }
+
+    @Override
+    public void clean() {
+        if (cleaned)
+            return;
+        cleaned = true;
+        if (buffer != null) {
+            buffer.clean();
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        ensureBufferAvailable();
+        if (buffer == null) {
+            return;
+        }
+        boolean wasFull = buffer.free() == 0;
+        buffer.clean(); // drop all data
+        buffer = null;
+        if (wasFull) {
+            triggerWritable();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OnDemandRingBuffer{" +
+            "cap=" + cap +
+            ", attached=" + (buffer != null) +
+            ", used=" + used() +
+            '}';
+    }
+}
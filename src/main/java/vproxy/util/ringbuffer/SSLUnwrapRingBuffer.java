@@ -11,6 +11,7 @@ import vproxy.util.RingBuffer;
 import vproxy.util.Utils;
 import vproxy.util.nio.ByteArrayChannel;
 import vproxy.util.ringbuffer.ssl.SSL;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
 
 import javax.net.ssl.*;
 import java.io.IOException;
@@ -37,6 +38,14 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
 
     // only used when resume if resumer not specified
     private SelectorEventLoop lastLoop = null;
+    // the engine keeps returning NEED_TASK until the tasks are done
+    // so only submit the tasks once
+    private volatile boolean taskRunning = false;
+
+    // only used by server, for recording whether the session is resumed
+    private SSLContext sslContext;
+    private long engineCreationTime;
+    private boolean handshakeRecorded = false;
 
     private final MirrorDataFactory plainMirrorDataFactory;
     private final MirrorDataFactory encryptedMirrorDataFactory;
@@ -190,6 +199,9 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         }
         engine = ssl.sslEngineBuilder.build(ctx);
         pair.engine = engine;
+        sslContext = ctx;
+        engineCreationTime = System.currentTimeMillis();
+        pair.handshakeFinishedCallback = this::recordHandshake;
 
         ByteArrayChannel chnl = ByteArrayChannel.from(buf.array(), 0, n, 0);
         int n2 = super.storeBytesFrom(chnl);
@@ -201,6 +213,17 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         return engine;
     }
 
+    private void recordHandshake() {
+        if (handshakeRecorded) {
+            return;
+        }
+        handshakeRecorded = true;
+        // a resumed session keeps the creation time of the session it resumes from
+        boolean resumed = engine.getSession().getCreationTime() < engineCreationTime;
+        assert Logger.lowLevelDebug("handshake finished, resumed = " + resumed);
+        ssl.sslContextHolder.recordHandshake(sslContext, resumed);
+    }
+
     // -------------------
     // helper functions BEGIN
     // -------------------
@@ -265,6 +288,13 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
 
     @Override
     protected void handleEncryptedBuffer(ByteBuffer encryptedBuffer, boolean[] underflow, boolean[] errored, IOException[] ex) {
+        if (taskRunning) {
+            // the engine consumes nothing until the tasks are done,
+            // stop the unwrapping loop, it's resumed by the task callback
+            assert Logger.lowLevelDebug("the tasks are still running, stop unwrapping");
+            errored[0] = true;
+            return;
+        }
         final int positionBeforeHandling = encryptedBuffer.position();
 
         ByteBuffer plainBuffer = getTemporaryBuffer(engine.getSession().getApplicationBufferSize());
@@ -342,22 +372,26 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
         SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
         if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
             assert Logger.lowLevelDebug("handshake finished");
+            if (ssl != null) {
+                recordHandshake();
+            }
             // should call the wrapper to send data (if any present)
             resumeGeneralWrap();
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
             assert Logger.lowLevelDebug("ssl engine returns NEED_TASK");
+            if (taskRunning) {
+                assert Logger.lowLevelDebug("the tasks are already running");
+                return;
+            }
+            taskRunning = true;
             if (resumer == null) {
                 lastLoop = SelectorEventLoop.current();
                 assert Logger.lowLevelDebug("resumer not specified, so we use the current event loop: " + lastLoop);
             }
-            new Thread(() -> {
-                assert Logger.lowLevelDebug("TASK begins");
-                Runnable r;
-                while ((r = engine.getDelegatedTask()) != null) {
-                    r.run();
-                }
+            SSLHandshakeExecutor.get().runTasks(engine, () -> {
+                taskRunning = false;
                 assert Logger.lowLevelDebug("ssl engine returns " + engine.getHandshakeStatus() + " after task");
                 if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
                     resumeGeneralWrap();
@@ -368,7 +402,7 @@ public class SSLUnwrapRingBuffer extends AbstractUnwrapByteBufferRingBuffer impl
                 } else {
                     resumeGeneralUnwrap();
                 }
-            }).start();
+            });
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
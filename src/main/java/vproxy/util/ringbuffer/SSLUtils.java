@@ -2,6 +2,7 @@ package vproxy.util.ringbuffer;
 
 import vfd.IPPort;
 import vfd.NetworkFD;
+import vproxy.app.Config;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.util.Tuple;
 import vproxy.util.ringbuffer.ssl.SSL;
@@ -9,6 +10,7 @@ import vproxy.util.ringbuffer.ssl.SSL;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
@@ -112,6 +114,15 @@ public class SSLUtils {
         return genbufForServer(ssl, input, output, null, fd);
     }
 
+    // apply -DsslSessionCacheSize and -DsslSessionTimeout to the server and client session caches of the context
+    // sessions in the cache can be resumed without the asymmetric key exchange
+    public static void configureSessionCache(SSLContext ctx) {
+        for (SSLSessionContext sessionCtx : new SSLSessionContext[]{ctx.getServerSessionContext(), ctx.getClientSessionContext()}) {
+            sessionCtx.setSessionCacheSize(Config.sslSessionCacheSize);
+            sessionCtx.setSessionTimeout(Config.sslSessionTimeout);
+        }
+    }
+
     public static SSLContext getDefaultClientSSLContext() {
         if (defaultClientSSLContext != null) {
             return defaultClientSSLContext;
@@ -128,6 +139,7 @@ public class SSLUtils {
         } catch (KeyManagementException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
+        configureSessionCache(sslContext);
         defaultClientSSLContext = sslContext;
         return sslContext;
     }
@@ -25,6 +25,7 @@ import java.util.function.Supplier;
  */
 public class SSLWrapRingBuffer extends AbstractWrapByteBufferRingBuffer implements RingBuffer {
     SSLEngine engine; // will be set when first bytes reaches if it's null
+    Runnable handshakeFinishedCallback; // set together with the engine, only for server
 
     private final MirrorDataFactory plainMirrorDataFactory;
     private final MirrorDataFactory encryptedMirrorDataFactory;
@@ -252,6 +253,9 @@ public class SSLWrapRingBuffer extends AbstractWrapByteBufferRingBuffer implemen
         SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
         if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
             assert Logger.lowLevelDebug("handshake finished");
+            if (handshakeFinishedCallback != null) {
+                handshakeFinishedCallback.run();
+            }
             return;
         }
         if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
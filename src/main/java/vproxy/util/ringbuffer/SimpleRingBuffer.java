@@ -1,5 +1,6 @@
 package vproxy.util.ringbuffer;
 
+import vproxy.util.DirectBufferPool;
 import vproxy.util.Logger;
 import vproxy.util.RingBuffer;
 import vproxy.util.RingBufferETHandler;
@@ -8,7 +9,9 @@ import vproxy.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -46,8 +49,42 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
     private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
+    // views of the buffer for scatter/gather io
+    // when data or free space wraps around, both segments are handled in one call
+    private ByteBuffer[] vec;
+    private ByteBuffer vecOf;
+
+    // when the memory is taken from a pool, `buffer` is a slice of `pooled`
+    private DirectBufferPool pool;
+    private ByteBuffer pooled;
+
     public static SimpleRingBuffer allocateDirect(int cap) {
-        return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap), 0, 0);
+        DirectBufferPool pool = DirectBufferPool.current();
+        if (pool == null || !DirectBufferPool.isPoolable(cap)) {
+            return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap), 0, 0);
+        }
+        ByteBuffer pooled = pool.take(cap);
+        SimpleRingBuffer buf = new SimpleRingBuffer(true, slice(pooled, cap), 0, 0);
+        buf.pool = pool;
+        buf.pooled = pooled;
+        return buf;
+    }
+
+    private static ByteBuffer slice(ByteBuffer pooled, int cap) {
+        if (pooled.capacity() == cap) {
+            return pooled;
+        }
+        return pooled.limit(cap).position(0).slice();
+    }
+
+    private void releaseDirectBuffer() {
+        if (pool == null) {
+            Utils.clean(buffer);
+        } else {
+            pool.release(pooled);
+            pool = null;
+            pooled = null;
+        }
     }
 
     public static SimpleRingBuffer allocate(int cap) {
@@ -97,9 +134,21 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
      */
     @Override
     public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        if (channel instanceof ScatteringByteChannel && ePosIsAfterSPos && sPos != 0) {
+            // free space is [ePos, cap) and [0, sPos)
+            return storeBytesFromVectored((ScatteringByteChannel) channel);
+        }
         return operateOnByteBufferStoreIn(b -> channel.read(b) != -1);
     }
 
+    private ByteBuffer[] vec() {
+        if (vecOf != buffer) { // the buffer may change after defragment
+            vec = new ByteBuffer[]{buffer.duplicate(), buffer.duplicate()};
+            vecOf = buffer;
+        }
+        return vec;
+    }
+
     private void resetCursors() {
         assert Logger.lowLevelNetDebug("reset cursors");
         sPos = 0;
@@ -109,6 +158,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (channel instanceof GatheringByteChannel && !ePosIsAfterSPos && ePos != 0 && maxBytesToWrite > cap - sPos) {
+            // data is [sPos, cap) and [0, ePos)
+            return writeToVectored((GatheringByteChannel) channel, maxBytesToWrite);
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
     }
 
@@ -196,7 +249,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             return;
         cleaned = true;
         if (isDirect) {
-            Utils.clean(buffer);
+            releaseDirectBuffer();
         }
     }
 
@@ -421,6 +474,109 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
     }
 
+    private int storeBytesFromVectored(ScatteringByteChannel channel) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerReadable = false;
+
+        assert Logger.lowLevelNetDebug("before vectored store in, ePos=" + ePos + ", sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering readable event
+            boolean triggerReadablePre = used() == 0;
+
+            ByteBuffer[] vec = vec();
+            vec[0].limit(cap).position(ePos);
+            vec[1].limit(sPos).position(0);
+
+            long n = channel.read(vec, 0, 2);
+            int read1 = vec[0].position() - ePos;
+            int read2 = vec[1].position();
+            if (read1 == cap - ePos) {
+                ePos = read2;
+                ePosIsAfterSPos = false;
+            } else {
+                ePos += read1;
+            }
+            if (n < 0)
+                return -1; // EOF
+
+            int read = read1 + read2;
+            triggerReadable = triggerReadablePre && read > 0;
+            return read;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after vectored store in, ePos=" + ePos);
+
+            operatingBuffer = false;
+            if (triggerReadable) {
+                assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.readableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
+    private int writeToVectored(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+        ensureBufferAvailable();
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerWritable = false;
+
+        assert Logger.lowLevelNetDebug("before vectored write out, sPos=" + sPos + ", ePos=" + ePos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            ByteBuffer[] vec = vec();
+            vec[0].limit(cap).position(sPos);
+            vec[1].limit(Math.min(ePos, maxBytesToWrite - (cap - sPos))).position(0);
+
+            channel.write(vec, 0, 2);
+            int write1 = vec[0].position() - sPos;
+            int write2 = vec[1].position();
+            if (write1 == cap - sPos) {
+                sPos = write2;
+                ePosIsAfterSPos = true;
+            } else {
+                sPos += write1;
+            }
+            if (used() == 0) {
+                resetCursors();
+            }
+
+            int write = write1 + write2;
+            triggerWritable = triggerWritablePre && write > 0;
+            return write;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after vectored write out, sPos=" + sPos);
+
+            operatingBuffer = false;
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
     @Override
     public boolean canDefragment() {
         return sPos != 0;
@@ -440,8 +596,17 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         //
         // then we make a swap
         ByteBuffer newBuffer;
+        DirectBufferPool newPool = null;
+        ByteBuffer newPooled = null;
         if (isDirect) {
-            newBuffer = ByteBuffer.allocateDirect(cap);
+            newPool = DirectBufferPool.current();
+            if (newPool == null || !DirectBufferPool.isPoolable(cap)) {
+                newPool = null;
+                newBuffer = ByteBuffer.allocateDirect(cap);
+            } else {
+                newPooled = newPool.take(cap);
+                newBuffer = slice(newPooled, cap);
+            }
         } else {
             newBuffer = ByteBuffer.allocate(cap);
         }
@@ -459,7 +624,9 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
 
         if (isDirect) {
-            Utils.clean(buffer); // clean the old buffer
+            releaseDirectBuffer(); // clean the old buffer
+            pool = newPool;
+            pooled = newPooled;
         }
 
         sPos = 0;
@@ -0,0 +1,139 @@
+package vproxy.util.ringbuffer;
+
+import vfd.SocketFD;
+import vfd.posix.PosixSocketFD;
+import vfd.posix.SplicePipe;
+import vproxy.util.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * a ring buffer backed by a kernel pipe, data is moved with splice(2)<br>
+ * it can only be used to proxy data from one posix socket to another<br>
+ * <br>
+ * the number of bytes a pipe can hold depends on how the data is split into pages,
+ * so we cannot tell whether the pipe is full when splice returns less than expected.<br>
+ * to keep it simple, data is only stored when the pipe is empty,
+ * and the buffer is considered full until all data is written out.
+ */
+public class SplicePipeRingBuffer extends AbstractRingBuffer {
+    private final SplicePipe pipe;
+    private final int cap;
+    private int used = 0;
+
+    private SplicePipeRingBuffer(SplicePipe pipe, int cap) {
+        this.pipe = pipe;
+        this.cap = cap;
+    }
+
+    public static SplicePipeRingBuffer open(SocketFD fd, int cap) throws IOException {
+        return new SplicePipeRingBuffer(SplicePipe.open(fd, cap), cap);
+    }
+
+    private static PosixSocketFD check(Object channel) throws IOException {
+        if (!(channel instanceof PosixSocketFD)) {
+            throw new IOException("splice is not supported on " + channel);
+        }
+        return (PosixSocketFD) channel;
+    }
+
+    private void ensureBufferAvailable() {
+        if (pipe.isClosed()) {
+            throw new IllegalStateException("this buffer is already cleaned");
+        }
+    }
+
+    @Override
+    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        ensureBufferAvailable();
+        PosixSocketFD fd = check(channel);
+        if (used != 0) {
+            return 0; // considered full
+        }
+
+        int n;
+        setOperating(true);
+        try {
+            n = fd.spliceTo(pipe, cap);
+        } finally {
+            setOperating(false);
+        }
+        if (n <= 0) {
+            return n;
+        }
+        used = n;
+        assert Logger.lowLevelNetDebug("spliced " + n + " bytes from " + fd);
+        triggerReadable(); // the buffer was empty
+        return n;
+    }
+
+    @Override
+    public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        ensureBufferAvailable();
+        PosixSocketFD fd = check(channel);
+        int len = Math.min(used, maxBytesToWrite);
+        if (len == 0) {
+            return 0;
+        }
+
+        int n;
+        setOperating(true);
+        try {
+            n = fd.spliceFrom(pipe, len);
+        } finally {
+            setOperating(false);
+        }
+        used -= n;
+        assert Logger.lowLevelNetDebug("spliced " + n + " bytes to " + fd);
+        if (n > 0 && used == 0) {
+            triggerWritable(); // the buffer was full
+        }
+        return n;
+    }
+
+    @Override
+    public int free() {
+        return used == 0 ? cap : 0;
+    }
+
+    @Override
+    public int used() {
+        return used;
+    }
+
+    @Override
+    public int capacity() {
+        return cap;
+    }
+
+    @Override
+    public void clean() {
+        pipe.close();
+    }
+
+    @Override
+    public void clear() {
+        ensureBufferAvailable();
+        if (used == 0) {
+            return;
+        }
+        try {
+            pipe.discard();
+        } catch (IOException e) {
+            Logger.shouldNotHappen("discarding data in " + pipe + " failed", e);
+        }
+        used = 0;
+        triggerWritable();
+    }
+
+    @Override
+    public String toString() {
+        return "SplicePipeRingBuffer{" +
+            "pipe=" + pipe +
+            ", cap=" + cap +
+            ", used=" + used +
+            '}';
+    }
+}
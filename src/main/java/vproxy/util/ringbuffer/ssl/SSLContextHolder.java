@@ -1,15 +1,18 @@
 package vproxy.util.ringbuffer.ssl;
 
 import vproxy.util.Logger;
+import vproxy.util.ringbuffer.SSLUtils;
 
 import javax.net.ssl.SSLContext;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class SSLContextHolder {
     private static class Holder {
@@ -39,12 +42,75 @@ public class SSLContextHolder {
         }
     }
 
+    public static class SessionStats {
+        public final String name;
+        private final LongAdder fullHandshakes = new LongAdder();
+        private final LongAdder resumedHandshakes = new LongAdder();
+
+        private SessionStats(String name) {
+            this.name = name;
+        }
+
+        public long fullHandshakes() {
+            return fullHandshakes.sum();
+        }
+
+        public long resumedHandshakes() {
+            return resumedHandshakes.sum();
+        }
+
+        // percentage of handshakes resumed from the session cache
+        public double hitRate() {
+            long resumed = resumedHandshakes();
+            long total = fullHandshakes() + resumed;
+            return total == 0 ? 0 : resumed * 100d / total;
+        }
+
+        @Override
+        public String toString() {
+            return name + " -> full " + fullHandshakes() +
+                " resumed " + resumedHandshakes() +
+                " hit-rate " + String.format("%.2f", hitRate()) + "%";
+        }
+    }
+
     private final List<Holder> holders = new ArrayList<>();
     protected final Map<String, SSLContext> quickAccess = new ConcurrentHashMap<>();
     // quickAccess stores SNI to the corresponding SSLContext
+    private final Map<SSLContext, SessionStats> sessionStats = new ConcurrentHashMap<>();
 
     public void add(SSLContext sslContext, X509Certificate[] certs) {
+        add("default", sslContext, certs);
+    }
+
+    // the name (usually alias of the cert-key) is used when reporting the session stats
+    public void add(String name, SSLContext sslContext, X509Certificate[] certs) {
         holders.add(new Holder(sslContext, certs));
+        trackSessions(name, sslContext);
+    }
+
+    // configure the session cache of the context, and record its handshakes
+    protected void trackSessions(String name, SSLContext sslContext) {
+        SSLUtils.configureSessionCache(sslContext);
+        sessionStats.put(sslContext, new SessionStats(name));
+    }
+
+    public void recordHandshake(SSLContext sslContext, boolean resumed) {
+        SessionStats stats = sessionStats.get(sslContext);
+        if (stats == null) {
+            return;
+        }
+        if (resumed) {
+            stats.resumedHandshakes.increment();
+        } else {
+            stats.fullHandshakes.increment();
+        }
+    }
+
+    public List<SessionStats> sessionStats() {
+        List<SessionStats> ls = new ArrayList<>(sessionStats.values());
+        ls.sort(Comparator.comparing(stats -> stats.name));
+        return ls;
     }
 
     public SSLContext choose(String sni) {
@@ -0,0 +1,266 @@
+package vproxy.util.ringbuffer.ssl;
+
+import vproxy.app.Config;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import javax.net.ssl.SSLEngine;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * runs the delegated tasks of ssl engines (NEED_TASK) in a shared and bounded thread pool<br>
+ * the tasks are run on the event loop directly when the queue is full,
+ * or when -DsslHandshakeInline=true and the tasks are short.
+ * the run time of a task is not known before running it, so a task is considered short
+ * when the recent tasks took no longer than -DsslHandshakeInlineMaxMicros on average.<br>
+ * the queue is considered saturated when it's 3/4 full, and not saturated again when it drops to 1/4,
+ * the accepting of tls servers is paused in between, see {@link #isSaturated()}
+ */
+public class SSLHandshakeExecutor {
+    private static final SSLHandshakeExecutor instance = new SSLHandshakeExecutor(
+        Config.sslHandshakeThreads, Config.sslHandshakeQueueSize, Config.sslHandshakeInline, Config.sslHandshakeInlineMaxMicros);
+
+    public static SSLHandshakeExecutor get() {
+        return instance;
+    }
+
+    private final boolean inline;
+    private final long inlineMaxNanos;
+    // moving average of the run time of one task, updated by all threads without synchronization
+    // a few lost updates do not matter since it's only used to choose where to run the next task
+    private volatile long avgTaskNanos = 0;
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor pool;
+    private final int pauseDepth;
+    private final int resumeDepth;
+    private volatile boolean saturated = false;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder inlined = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder saturatedTimes = new LongAdder();
+
+    public SSLHandshakeExecutor(int threads, int queueSize, boolean inline, int inlineMaxMicros) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads should be greater than 0");
+        if (queueSize <= 0)
+            throw new IllegalArgumentException("queueSize should be greater than 0");
+        this.inline = inline;
+        this.inlineMaxNanos = inlineMaxMicros * 1000L;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, r -> {
+            Thread t = new Thread(r, "ssl-handshake-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.pauseDepth = Math.max(1, queueSize * 3 / 4);
+        this.resumeDepth = queueSize / 4;
+    }
+
+    /**
+     * run all delegated tasks of the engine, then run the callback<br>
+     * the callback is run on the worker thread, or on the current thread if the tasks are run inline
+     */
+    public void runTasks(SSLEngine engine, Runnable callback) {
+        runTasks(engine::getDelegatedTask, callback);
+    }
+
+    /**
+     * run the tasks retrieved from <code>tasks</code> until it returns null, then run the callback
+     */
+    public void runTasks(Supplier<Runnable> tasks, Runnable callback) {
+        submitted.increment();
+        if (!inline) {
+            execute(null, tasks, callback);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Runnable r;
+            while ((r = tasks.get()) != null) {
+                if (avgTaskNanos > inlineMaxNanos) {
+                    // the tasks are not short, let the pool run this one and the rest
+                    execute(r, tasks, callback);
+                    return;
+                }
+                inlined.increment();
+                runTask(r);
+            }
+        } catch (Throwable t) {
+            Logger.error(LogType.SSL_ERROR, "running ssl delegated task failed", t);
+        }
+        finish(start, start, callback);
+    }
+
+    private void execute(Runnable first, Supplier<Runnable> tasks, Runnable callback) {
+        long enqueueTime = System.nanoTime();
+        try {
+            pool.execute(() -> doRunTasks(first, tasks, callback, enqueueTime));
+        } catch (RejectedExecutionException e) {
+            // the queue is full, run on the current thread, which slows down the event loop as well
+            overflowed.increment();
+            Logger.warn(LogType.ALERT, "ssl handshake queue is full, run the task on the current thread");
+            doRunTasks(first, tasks, callback, enqueueTime);
+            return;
+        }
+        int depth = queue.size();
+        updateMax(maxQueueDepth, depth);
+        if (!saturated && depth >= pauseDepth) {
+            saturated = true;
+            saturatedTimes.increment();
+            Logger.warn(LogType.ALERT, "ssl handshake queue is saturated: " + depth);
+        }
+    }
+
+    private void doRunTasks(Runnable first, Supplier<Runnable> tasks, Runnable callback, long enqueueTime) {
+        long start = System.nanoTime();
+        assert Logger.lowLevelDebug("TASK begins");
+        try {
+            if (first != null) {
+                runTask(first);
+            }
+            Runnable r;
+            while ((r = tasks.get()) != null) {
+                runTask(r);
+            }
+        } catch (Throwable t) {
+            Logger.error(LogType.SSL_ERROR, "running ssl delegated task failed", t);
+        }
+        finish(enqueueTime, start, callback);
+    }
+
+    private void runTask(Runnable r) {
+        long start = System.nanoTime();
+        try {
+            r.run();
+        } finally {
+            long cost = System.nanoTime() - start;
+            avgTaskNanos += (cost - avgTaskNanos) / 8;
+        }
+    }
+
+    private void finish(long enqueueTime, long start, Runnable callback) {
+        long wait = start - enqueueTime;
+        totalWaitNanos.add(wait);
+        updateMax(maxWaitNanos, wait);
+        long run = System.nanoTime() - start;
+        totalRunNanos.add(run);
+        updateMax(maxRunNanos, run);
+        completed.increment();
+
+        checkSaturationEnded();
+        callback.run();
+    }
+
+    private void checkSaturationEnded() {
+        if (saturated && queue.size() <= resumeDepth) {
+            saturated = false;
+            Logger.alert("ssl handshake queue is no longer saturated");
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long old;
+        while ((old = max.get()) < value) {
+            if (max.compareAndSet(old, value)) {
+                break;
+            }
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int old;
+        while ((old = max.get()) < value) {
+            if (max.compareAndSet(old, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return true if new tls connections should not be accepted for now
+     */
+    public boolean isSaturated() {
+        // the flag might be set after the workers drained the queue
+        checkSaturationEnded();
+        return saturated;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public Stats stats() {
+        Stats s = new Stats();
+        s.submitted = submitted.sum();
+        s.inlined = inlined.sum();
+        s.overflowed = overflowed.sum();
+        s.completed = completed.sum();
+        s.queueDepth = queue.size();
+        s.maxQueueDepth = maxQueueDepth.get();
+        s.activeThreads = pool.getActiveCount();
+        s.totalWaitNanos = totalWaitNanos.sum();
+        s.maxWaitNanos = maxWaitNanos.get();
+        s.totalRunNanos = totalRunNanos.sum();
+        s.maxRunNanos = maxRunNanos.get();
+        s.avgTaskNanos = avgTaskNanos;
+        s.saturatedTimes = saturatedTimes.sum();
+        return s;
+    }
+
+    public static class Stats {
+        public long submitted;
+        public long inlined; // tasks run on the event loop because of -DsslHandshakeInline
+        public long overflowed; // run on the event loop because the queue is full
+        public long completed;
+        public int queueDepth;
+        public int maxQueueDepth;
+        public int activeThreads;
+        public long totalWaitNanos;
+        public long maxWaitNanos;
+        public long totalRunNanos;
+        public long maxRunNanos;
+        public long avgTaskNanos; // moving average of the run time of one task
+        public long saturatedTimes; // how many times the tls servers paused accepting
+
+        public long avgWaitMicros() {
+            return completed == 0 ? 0 : totalWaitNanos / completed / 1000;
+        }
+
+        public long avgRunMicros() {
+            return completed == 0 ? 0 : totalRunNanos / completed / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return "submitted " + submitted +
+                " inline " + inlined +
+                " overflow " + overflowed +
+                " completed " + completed +
+                " queue-depth " + queueDepth +
+                " max-queue-depth " + maxQueueDepth +
+                " active-threads " + activeThreads +
+                " avg-wait-us " + avgWaitMicros() +
+                " max-wait-us " + (maxWaitNanos / 1000) +
+                " avg-run-us " + avgRunMicros() +
+                " max-run-us " + (maxRunNanos / 1000) +
+                " avg-task-us " + (avgTaskNanos / 1000) +
+                " saturated " + saturatedTimes;
+        }
+    }
+}
@@ -214,7 +214,10 @@ public class Simple {
             4096,
             protocol,
             certpath == null ? null : new CertKey[]{Application.get().certKeyHolder.get("crt")},
-            SecurityGroup.allowAll());
+            SecurityGroup.allowAll(),
+            false,
+            false,
+            false);
 
         // might be able to run dns?
         Logger.alert("try to launch dns server on 53 (optional)");
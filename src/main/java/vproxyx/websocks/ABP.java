@@ -4,13 +4,30 @@ import vproxy.util.LogType;
 import vproxy.util.Logger;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * https://github.com/gfwlist/gfwlist/wiki/Syntax
+ * <br>
+ * the rules are checked in the order they are added, and the first matched rule decides the result.<br>
+ * instead of checking the rules one by one, the rules are compiled into a few structures,
+ * each of them returns the index of the first matched rule:
+ * <ul>
+ * <li>|| and @@||: a trie of reversed domain labels</li>
+ * <li>|: a hash map</li>
+ * <li>@@|: a trie of characters</li>
+ * <li>simple rules and @@: an aho-corasick automaton</li>
+ * <li>regexp: all regexps are combined into one pattern, rules are checked one by one only when the combined pattern matches</li>
+ * </ul>
+ * results are cached for recently checked domains, each thread has its own cache.<br>
+ * rules should be added before checking, the structures are compiled when the first check happens.
  */
 public class ABP {
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final int CACHE_SIZE = 4096;
+    private static final String[] PROTOCOLS = {"", "http://", "https://"};
+
     private final Set<Character> validSimpleRuleStart = new HashSet<>() {{
         for (int i = 'a'; i <= 'z'; ++i) {
             add((char) i);
@@ -24,31 +41,168 @@ public class ABP {
         add('.');
     }};
     private final boolean defaultBlock;
-    private final List<Function<String, Boolean>> checkers = new LinkedList<>();
+
+    // index of the following lists is the rule index
+    private final List<String> rules = new ArrayList<>();
+    private final List<String> ruleTypes = new ArrayList<>();
+    private final List<Boolean> ruleBlock = new ArrayList<>();
+
+    private final LabelNode domains = new LabelNode(); // || and @@||
+    private final Map<String, Integer> exactHosts = new HashMap<>(); // |
+    private final CharNode prefixes = new CharNode(); // @@|
+    private final CharNode keywords = new CharNode(); // simple rules and @@
+    private final TreeMap<Integer, Pattern> regexps = new TreeMap<>(); // rule index -> pattern
+
+    // compiled when the first check happens after adding rules
+    private volatile boolean compiled = true;
+    // increased when rules are added, to drop the cached results
+    private volatile int version = 0;
+    private List<Integer> combinedRegexpRules; // rules in the combined pattern
+    private Pattern combinedRegexp; // null if no regexp can be combined
+    private List<Integer> separateRegexpRules; // rules which cannot be combined
+
+    private final ThreadLocal<Cache> cache = ThreadLocal.withInitial(Cache::new);
+
+    private static class Cache {
+        int version;
+        final LinkedHashMap<String, Boolean> results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
 
     public ABP(boolean defaultBlock) {
         this.defaultBlock = defaultBlock;
     }
 
     public boolean block(String input) {
-        for (var func : checkers) {
-            Boolean result = func.apply(input);
-            if (result == null) { // null means don't know
+        Cache cache = this.cache.get();
+        int version = this.version;
+        if (cache.version != version) {
+            cache.results.clear();
+            cache.version = version;
+        }
+        Boolean result = cache.results.get(input);
+        if (result != null) {
+            return result;
+        }
+        if (!compiled) {
+            synchronized (this) {
+                if (!compiled) {
+                    compile();
+                }
+            }
+        }
+        result = check(input);
+        cache.results.put(input, result);
+        return result;
+    }
+
+    private boolean check(String input) {
+        int idx = domains.search(input);
+        idx = Math.min(idx, exactHosts.getOrDefault(input, NONE));
+        idx = Math.min(idx, prefixes.searchPrefix(input));
+        idx = Math.min(idx, keywords.searchContains(input));
+        idx = Math.min(idx, searchRegexp(input, idx));
+        if (idx == NONE) {
+            return defaultBlock;
+        }
+        boolean block = ruleBlock.get(idx);
+        if (block) {
+            Logger.alert(input + " matches ABP " + ruleTypes.get(idx) + " rule: " + rules.get(idx));
+        } else {
+            assert Logger.lowLevelDebug(input + " matches ABP WHITELIST " + ruleTypes.get(idx) + " rule: " + rules.get(idx));
+        }
+        return block;
+    }
+
+    // only rules before `found` need to be checked
+    private int searchRegexp(String input, int found) {
+        if (regexps.isEmpty() || regexps.firstKey() > found) {
+            return NONE;
+        }
+        String[] inputs = new String[PROTOCOLS.length];
+        for (int i = 0; i < PROTOCOLS.length; ++i) {
+            inputs[i] = PROTOCOLS[i] + input;
+        }
+        int result = NONE;
+        if (combinedRegexp != null && matches(combinedRegexp, inputs)) {
+            // find out which rule matches
+            for (int idx : combinedRegexpRules) {
+                if (idx > found)
+                    break;
+                if (matches(regexps.get(idx), inputs)) {
+                    result = idx;
+                    break;
+                }
+            }
+        }
+        for (int idx : separateRegexpRules) {
+            if (idx > found || idx > result)
+                break;
+            if (matches(regexps.get(idx), inputs)) {
+                result = idx;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(Pattern pattern, String[] inputs) {
+        for (String s : inputs) {
+            if (pattern.matcher(s).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compile() {
+        keywords.buildFailureLinks();
+
+        combinedRegexpRules = new ArrayList<>();
+        separateRegexpRules = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Integer, Pattern> entry : regexps.entrySet()) {
+            int idx = entry.getKey();
+            String regexp = entry.getValue().pattern();
+            // group numbers change when combined, so back references cannot be combined
+            if (regexp.matches(".*\\\\([1-9]|k<).*")) {
+                separateRegexpRules.add(idx);
                 continue;
             }
-            return result;
+            if (sb.length() != 0) {
+                sb.append("|");
+            }
+            sb.append("(?:").append(regexp).append(")");
+            combinedRegexpRules.add(idx);
         }
-        return defaultBlock;
+        combinedRegexp = null;
+        if (!combinedRegexpRules.isEmpty()) {
+            try {
+                combinedRegexp = Pattern.compile(sb.toString());
+            } catch (PatternSyntaxException e) {
+                // e.g. duplicated group names, check them one by one
+                separateRegexpRules.addAll(combinedRegexpRules);
+                separateRegexpRules.sort(Integer::compareTo);
+                combinedRegexpRules.clear();
+            }
+        }
+        compiled = true;
     }
 
     public void addBase64(String base64) {
         addRule(new String(Base64.getDecoder().decode(base64)));
     }
 
-    public void addRule(String rule) {
+    public synchronized void addRule(String rule) {
         for (String line : rule.split("\n")) {
             addRuleOneLine(line);
         }
+        compiled = false;
+        ++version;
     }
 
     private void addRuleOneLine(String line) {
@@ -58,155 +212,197 @@ public class ABP {
             return;
         }
         if (line.startsWith("||")) {
-            addMatchingSpecificURI(line.substring("||".length()));
+            addMatchingSpecificURI(line, line.substring("||".length()));
         } else if (line.startsWith("|")) {
-            addMatchingFromBeginning(line.substring("|".length()));
+            addMatchingFromBeginning(line, line.substring("|".length()));
         } else if (line.startsWith("/") && line.endsWith("/")) {
-            addMatchingRegexp(line.substring("/".length(), line.length() - "/".length()));
+            addMatchingRegexp(line, line.substring("/".length(), line.length() - "/".length()));
         } else if (line.startsWith("@@||")) {
-            addWhitelistRuleMatchingSpecificURI(line.substring("@@||".length()));
+            addWhitelistRuleMatchingSpecificURI(line, line.substring("@@||".length()));
         } else if (line.startsWith("@@|")) {
-            addWhitelistRuleMatchingFromBeginning(line.substring("@@|".length()));
-        } else if (line.startsWith("@@")) {
-            addWhitelistSimpleRule(line.substring("@@".length()));
+            addWhitelistRuleMatchingFromBeginning(line, line.substring("@@|".length()));
         } else if (line.startsWith("@@/") && line.endsWith("/")) {
-            addWhitelistRuleRegexp(line.substring("@@/".length(), line.length() - "/".length()));
+            addWhitelistRuleRegexp(line, line.substring("@@/".length(), line.length() - "/".length()));
+        } else if (line.startsWith("@@")) {
+            addWhitelistSimpleRule(line, line.substring("@@".length()));
         } else if (validSimpleRuleStart.contains(line.charAt(0))) {
-            addSimpleRule(line);
+            addSimpleRule(line, line);
         } else {
             Logger.warn(LogType.INVALID_EXTERNAL_DATA, "Unrecognized ABP rule: " + line);
         }
     }
 
-    private interface MatchingSpecificURI extends Function<String, Boolean> {
+    private int newRule(String line, String type, boolean block) {
+        rules.add(line);
+        ruleTypes.add(type);
+        ruleBlock.add(block);
+        return rules.size() - 1;
     }
 
-    private void addMatchingSpecificURI(String rule) {
-        var host = extractHost(rule);
-        var addDot = "." + host;
-        checkers.add((MatchingSpecificURI) input -> {
-            if (input.equals(host) || (input.endsWith(addDot) && input.length() > addDot.length())) {
-                Logger.alert(input + " matches ABP matching specific uri rule: " + rule);
-                return true;
-            }
-            return null;
-        });
+    private void addMatchingSpecificURI(String line, String rule) {
+        int idx = newRule(line, "matching specific uri", true);
+        domains.add(extractHost(rule), idx);
     }
 
-    private interface MatchingFromBeginning extends Function<String, Boolean> {
+    private void addMatchingFromBeginning(String line, String rule) {
+        int idx = newRule(line, "matching from beginning", true);
+        exactHosts.merge(extractHost(rule), idx, Math::min);
     }
 
-    private void addMatchingFromBeginning(String rule) {
-        var host = extractHost(rule);
-        checkers.add((MatchingFromBeginning) input -> {
-            if (input.equals(host)) {
-                Logger.alert(input + " matches ABP matching from beginning rule: " + rule);
-                return true;
-            }
-            return null;
-        });
+    private void addMatchingRegexp(String line, String rule) {
+        Pattern pattern = Pattern.compile(rule);
+        int idx = newRule(line, "matching regexp", true);
+        regexps.put(idx, pattern);
     }
 
-    private interface MatchingRegexp extends Function<String, Boolean> {
+    private void addWhitelistRuleMatchingSpecificURI(String line, String rule) {
+        int idx = newRule(line, "matching specific uri", false);
+        domains.add(extractHost(rule), idx);
     }
 
-    private void addMatchingRegexp(String rule) {
-        Pattern pattern = Pattern.compile(rule);
-        checkers.add((MatchingRegexp) input -> {
-            String[] protocols = new String[]{"", "http://", "https://"};
-            for (String protocol : protocols) {
-                if (pattern.matcher(protocol + input).matches()) {
-                    Logger.alert(input + " matches ABP matching regexp rule: " + rule);
-                    return true;
-                }
-            }
-            return null;
-        });
+    private void addWhitelistRuleMatchingFromBeginning(String line, String rule) {
+        int idx = newRule(line, "matching from beginning", false);
+        prefixes.add(extractHost(rule), idx);
     }
 
-    private interface WhitelistRuleMatchingSpecificURI extends Function<String, Boolean> {
+    private void addWhitelistSimpleRule(String line, String rule) {
+        int idx = newRule(line, "simple", false);
+        keywords.add(extractHost(rule), idx);
     }
 
-    private void addWhitelistRuleMatchingSpecificURI(String rule) {
-        var host = extractHost(rule);
-        var addDot = "." + host;
-        checkers.add((WhitelistRuleMatchingSpecificURI) input -> {
-            if (input.equals(host) || (input.endsWith(addDot) || input.length() > addDot.length())) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST matching specific uri rule: " + rule);
-                return false;
-            }
-            return null;
-        });
+    private void addWhitelistRuleRegexp(String line, String rule) {
+        Pattern pattern = Pattern.compile(rule);
+        int idx = newRule(line, "regexp", false);
+        regexps.put(idx, pattern);
     }
 
-    private interface WhitelistMatchingFromBeginningRule extends Function<String, Boolean> {
+    private void addSimpleRule(String line, String rule) {
+        int idx = newRule(line, "simple", true);
+        keywords.add(extractHost(rule), idx);
     }
 
-    private void addWhitelistRuleMatchingFromBeginning(String rule) {
-        var host = extractHost(rule);
-        checkers.add((WhitelistMatchingFromBeginningRule) input -> {
-            if (input.startsWith(host)) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST matching from beginning rule: " + rule);
-                return false;
-            }
-            return null;
-        });
+    private String extractHost(String uri) {
+        // remove protocol
+        if (uri.contains("://")) {
+            uri = uri.substring(uri.indexOf("://") + "://".length());
+        }
+        // remove url
+        if (uri.contains("/")) {
+            uri = uri.substring(0, uri.indexOf("/"));
+        }
+        return uri;
     }
 
-    private interface WhitelistSimpleRule extends Function<String, Boolean> {
-    }
+    // reversed domain labels, e.g. a.example.com is stored as com -> example -> a
+    // matches when the input equals the host or the input is a sub domain of the host
+    private static class LabelNode {
+        Map<String, LabelNode> children = null;
+        int rule = NONE;
 
-    private void addWhitelistSimpleRule(String rule) {
-        var host = extractHost(rule);
-        checkers.add((WhitelistSimpleRule) input -> {
-            if (input.contains(host)) {
-                assert Logger.lowLevelDebug(input + " matches ABP WHITELIST simple rule: " + rule);
-                return false;
+        void add(String host, int idx) {
+            LabelNode node = this;
+            String[] labels = host.split("\\.", -1);
+            for (int i = labels.length - 1; i >= 0; --i) {
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(labels[i], l -> new LabelNode());
             }
-            return null;
-        });
-    }
-
-    private interface WhitelistRegexpRule extends Function<String, Boolean> {
-    }
+            node.rule = Math.min(node.rule, idx);
+        }
 
-    private void addWhitelistRuleRegexp(String rule) {
-        Pattern pattern = Pattern.compile(rule);
-        checkers.add((WhitelistRegexpRule) input -> {
-            String[] protocols = new String[]{"", "http://", "https://"};
-            for (String protocol : protocols) {
-                if (pattern.matcher(protocol + input).matches()) {
-                    Logger.alert(input + " matches ABP WHITELIST regexp rule: " + rule);
-                    return false;
+        int search(String input) {
+            int result = NONE;
+            LabelNode node = this;
+            int end = input.length();
+            while (node.children != null) {
+                int dot = input.lastIndexOf('.', end - 1);
+                node = node.children.get(input.substring(dot + 1, end));
+                if (node == null) {
+                    break;
+                }
+                if (dot != 0) { // equals, or at least one char before the `.`
+                    result = Math.min(result, node.rule);
+                }
+                if (dot == -1) {
+                    break;
                 }
+                end = dot;
             }
-            return null;
-        });
+            return result;
+        }
     }
 
-    private interface SimpleRule extends Function<String, Boolean> {
-    }
+    // trie of characters, with failure links for aho-corasick
+    private static class CharNode {
+        final Map<Character, CharNode> children = new HashMap<>();
+        int rule = NONE; // rule which ends at this node
+        CharNode fail;
+        int out = NONE; // min rule of this node and all nodes on the failure chain
 
-    private void addSimpleRule(String rule) {
-        var host = extractHost(rule);
-        checkers.add((SimpleRule) input -> {
-            if (input.contains(host)) {
-                Logger.alert(input + " matches ABP simple rule: " + rule);
-                return true;
+        void add(String s, int idx) {
+            CharNode node = this;
+            for (int i = 0; i < s.length(); ++i) {
+                node = node.children.computeIfAbsent(s.charAt(i), c -> new CharNode());
             }
-            return null;
-        });
-    }
+            node.rule = Math.min(node.rule, idx);
+        }
 
-    private String extractHost(String uri) {
-        // remove protocol
-        if (uri.contains("://")) {
-            uri = uri.substring(uri.indexOf("://") + "://".length());
+        // rule of the nodes on the path of input
+        int searchPrefix(String input) {
+            int result = rule;
+            CharNode node = this;
+            for (int i = 0; i < input.length(); ++i) {
+                node = node.children.get(input.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                result = Math.min(result, node.rule);
+            }
+            return result;
         }
-        // remove url
-        if (uri.contains("/")) {
-            uri = uri.substring(0, uri.indexOf("/"));
+
+        void buildFailureLinks() {
+            fail = null;
+            out = rule;
+            Deque<CharNode> queue = new ArrayDeque<>();
+            for (CharNode child : children.values()) {
+                child.fail = this;
+                child.out = Math.min(child.rule, out);
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                CharNode node = queue.poll();
+                for (Map.Entry<Character, CharNode> entry : node.children.entrySet()) {
+                    char c = entry.getKey();
+                    CharNode child = entry.getValue();
+                    CharNode f = node.fail;
+                    while (f != null && !f.children.containsKey(c)) {
+                        f = f.fail;
+                    }
+                    child.fail = (f == null) ? this : f.children.get(c);
+                    child.out = Math.min(child.rule, child.fail.out);
+                    queue.add(child);
+                }
+            }
+        }
+
+        // min rule of all keywords which the input contains
+        int searchContains(String input) {
+            int result = out;
+            CharNode node = this;
+            for (int i = 0; i < input.length(); ++i) {
+                char c = input.charAt(i);
+                CharNode next;
+                while ((next = node.children.get(c)) == null && node.fail != null) {
+                    node = node.fail;
+                }
+                if (next != null) {
+                    node = next;
+                }
+                result = Math.min(result, node.out);
+            }
+            return result;
         }
-        return uri;
     }
 }
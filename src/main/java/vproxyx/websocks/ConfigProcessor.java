@@ -725,6 +725,42 @@ public class ConfigProcessor {
                 loadCertKeyInAutoSignWorkingDirectory(autoSignWorkingDirectory, domain);
             }
         }
+        // merge suffix and pattern checkers
+        // so that a domain is not checked against the rules one by one
+        domains.replaceAll((k, v) -> compactDomainCheckers(v));
+        proxyResolves.replaceAll((k, v) -> compactDomainCheckers(v));
+        noProxyDomains.replaceAll((k, v) -> compactDomainCheckers(v));
+        httpsSniErasureDomains = compactDomainCheckers(httpsSniErasureDomains);
+    }
+
+    // the checkers in a list are used as `any matches`, so the order does not matter
+    private static List<DomainChecker> compactDomainCheckers(List<DomainChecker> checkers) {
+        List<String> suffixes = new ArrayList<>();
+        List<Pattern> patterns = new ArrayList<>();
+        List<DomainChecker> result = new ArrayList<>();
+        for (DomainChecker chk : checkers) {
+            if (chk instanceof SuffixDomainChecker) {
+                suffixes.add(((SuffixDomainChecker) chk).suffix);
+            } else if (chk instanceof PatternDomainChecker) {
+                patterns.add(((PatternDomainChecker) chk).pattern);
+            } else {
+                result.add(chk);
+            }
+        }
+        if (suffixes.size() > 1) {
+            result.add(0, new SuffixSetDomainChecker(suffixes));
+        } else if (suffixes.size() == 1) {
+            result.add(0, new SuffixDomainChecker(suffixes.get(0)));
+        }
+        PatternSetDomainChecker combined = patterns.size() > 1 ? PatternSetDomainChecker.combine(patterns) : null;
+        if (combined != null) {
+            result.add(combined);
+        } else {
+            for (Pattern p : patterns) {
+                result.add(new PatternDomainChecker(p));
+            }
+        }
+        return result;
     }
 
     private void loadCertKeyInAutoSignWorkingDirectory(File autoSignWorkingDirectory, String domain) throws Exception {
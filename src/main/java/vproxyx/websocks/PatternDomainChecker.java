@@ -0,0 +1,16 @@
+package vproxyx.websocks;
+
+import java.util.regex.Pattern;
+
+class PatternDomainChecker implements DomainChecker {
+    final Pattern pattern;
+
+    PatternDomainChecker(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    @Override
+    public boolean needProxy(String domain, int port) {
+        return pattern.matcher(domain).matches();
+    }
+}
@@ -0,0 +1,40 @@
+package vproxyx.websocks;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// all patterns are combined into one pattern,
+// the same as checking PatternDomainChecker one by one
+class PatternSetDomainChecker implements DomainChecker {
+    private final Pattern pattern;
+
+    PatternSetDomainChecker(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    // return null if the patterns cannot be combined
+    static PatternSetDomainChecker combine(Collection<Pattern> patterns) {
+        StringBuilder sb = new StringBuilder();
+        for (Pattern p : patterns) {
+            // group numbers change when combined, so back references cannot be combined
+            if (p.flags() != 0 || p.pattern().matches(".*\\\\([1-9]|k<).*")) {
+                return null;
+            }
+            if (sb.length() != 0) {
+                sb.append("|");
+            }
+            sb.append("(?:").append(p.pattern()).append(")");
+        }
+        try {
+            return new PatternSetDomainChecker(Pattern.compile(sb.toString()));
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean needProxy(String domain, int port) {
+        return pattern.matcher(domain).matches();
+    }
+}
@@ -0,0 +1,14 @@
+package vproxyx.websocks;
+
+class SuffixDomainChecker implements DomainChecker {
+    final String suffix;
+
+    SuffixDomainChecker(String suffix) {
+        this.suffix = suffix;
+    }
+
+    @Override
+    public boolean needProxy(String domain, int port) {
+        return domain.endsWith(suffix);
+    }
+}
@@ -0,0 +1,44 @@
+package vproxyx.websocks;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// all suffixes are stored in a trie of reversed characters,
+// the same as checking SuffixDomainChecker one by one
+class SuffixSetDomainChecker implements DomainChecker {
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        boolean end = false;
+    }
+
+    private final Node root = new Node();
+
+    SuffixSetDomainChecker(Collection<String> suffixes) {
+        for (String suffix : suffixes) {
+            Node node = root;
+            for (int i = suffix.length() - 1; i >= 0; --i) {
+                node = node.children.computeIfAbsent(suffix.charAt(i), c -> new Node());
+            }
+            node.end = true;
+        }
+    }
+
+    @Override
+    public boolean needProxy(String domain, int port) {
+        Node node = root;
+        if (node.end) {
+            return true;
+        }
+        for (int i = domain.length() - 1; i >= 0; --i) {
+            node = node.children.get(domain.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (node.end) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -524,7 +524,8 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
             SSLEngine engine;
             String hostname = connector.getHostName();
             if (hostname == null) {
-                engine = WebSocksUtils.createEngine();
+                // pooled connections to the same server can resume the session
+                engine = WebSocksUtils.createEngine(connector.remote);
             } else {
                 engine = WebSocksUtils.createEngine(hostname, connector.remote.getPort());
             }
@@ -1,5 +1,6 @@
 package vproxyx.websocks;
 
+import vfd.IPPort;
 import vproxy.app.CertKeyHolder;
 import vproxy.component.ssl.CertKey;
 import vproxy.connection.ConnectionOpts;
@@ -8,6 +9,7 @@ import vproxy.util.LogType;
 import vproxy.util.Logger;
 import vproxy.util.RingBuffer;
 import vproxy.util.nio.ByteArrayChannel;
+import vproxy.util.ringbuffer.SSLUtils;
 import vproxy.util.ringbuffer.ssl.VSSLContext;
 import vproxyx.websocks.ssl.AutoSignSSLContextHolder;
 
@@ -216,6 +218,14 @@ public class WebSocksUtils {
         return engine;
     }
 
+    // the remote address is only used as the key of the client session cache, so that the session can be resumed
+    // the hostname is not verified
+    public static SSLEngine createEngine(IPPort remote) {
+        SSLEngine engine = getSslContext().createSSLEngine(remote.getAddress().formatToIPString(), remote.getPort());
+        engine.setEnabledProtocols(new String[]{"TLSv1.2"});
+        return engine;
+    }
+
     public static SSLEngine createEngine(String host, int port) {
         SSLEngine engine = getSslContext().createSSLEngine(host, port);
         engine.setEnabledProtocols(new String[]{"TLSv1.2"});
@@ -251,6 +261,7 @@ public class WebSocksUtils {
             sslContext = null;
             throw e;
         }
+        SSLUtils.configureSessionCache(sslContext);
     }
 
     public static void initSslContext(String path, String pass, String format, boolean isServer, boolean needVerify) throws Exception {
@@ -293,6 +304,7 @@ public class WebSocksUtils {
             sslContext = null;
             throw e;
         }
+        SSLUtils.configureSessionCache(sslContext);
     }
 
     public static void initHttpsSniErasureContext(ConfigProcessor config) throws Exception {
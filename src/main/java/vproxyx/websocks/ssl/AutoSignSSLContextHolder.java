@@ -80,6 +80,7 @@ public class AutoSignSSLContextHolder extends SSLContextHolder {
         ctx = sign(sni);
         if (ctx != null) {
             quickAccess.put(sni, ctx);
+            trackSessions("auto-sign." + sni, ctx);
         }
         return ctx;
     }
@@ -7,6 +7,7 @@ import vproxy.component.exception.AlreadyExistException;
 import vproxy.component.exception.NotFoundException;
 import vproxy.component.exception.XException;
 import vproxy.util.Network;
+import vproxy.util.NetworkTrie;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +22,11 @@ public class RouteTable {
 
     private final List<RouteRule> rulesV4 = new ArrayList<>();
     private final List<RouteRule> rulesV6 = new ArrayList<>();
+    // the rules are ordered so that the first matching rule is the longest matching rule
+    // so lookup uses the longest-prefix-match tries
+    // the tries are rebuilt on the first lookup after rules change, so adding many rules does not rebuild many times
+    private volatile int version = 0;
+    private volatile Tries tries = null;
 
     public RouteTable() {
         this.defaultV4Rule = null;
@@ -41,21 +47,40 @@ public class RouteTable {
         }
     }
 
-    public RouteRule lookup(IP ip) {
-        if (ip instanceof IPv4) {
+    private static class Tries {
+        final int version;
+        final NetworkTrie<RouteRule> v4 = new NetworkTrie<>(4);
+        final NetworkTrie<RouteRule> v6 = new NetworkTrie<>(16);
+
+        Tries(int version, List<RouteRule> rulesV4, List<RouteRule> rulesV6) {
+            this.version = version;
             for (RouteRule r : rulesV4) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
+                v4.put(r.rule, r);
             }
-        } else {
             for (RouteRule r : rulesV6) {
-                if (r.rule.contains(ip)) {
-                    return r;
-                }
+                v6.put(r.rule, r);
             }
         }
-        return null;
+    }
+
+    private void rulesChanged() {
+        //noinspection NonAtomicOperationOnVolatileField
+        ++version; // rules are only modified in one thread
+    }
+
+    public RouteRule lookup(IP ip) {
+        Tries t = tries;
+        int v = version;
+        if (t == null || t.version != v) {
+            // if rules change when building, the version will not match and the tries will be built again
+            t = new Tries(v, rulesV4, rulesV6);
+            tries = t;
+        }
+        if (ip instanceof IPv4) {
+            return t.v4.lookup(ip);
+        } else {
+            return t.v6.lookup(ip);
+        }
     }
 
     public List<RouteRule> getRules() {
@@ -105,6 +130,7 @@ public class RouteTable {
         } else {
             addRule(r, rulesV6);
         }
+        rulesChanged();
     }
 
     private void addRule(RouteRule r, List<RouteRule> rules) {
@@ -158,6 +184,7 @@ public class RouteTable {
             var ri = rulesV4.get(i);
             if (ri.alias.equals(alias)) {
                 rulesV4.remove(i);
+                rulesChanged();
                 return;
             }
         }
@@ -165,6 +192,7 @@ public class RouteTable {
             var ri = rulesV6.get(i);
             if (ri.alias.equals(alias)) {
                 rulesV6.remove(i);
+                rulesChanged();
                 return;
             }
         }
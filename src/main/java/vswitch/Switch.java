@@ -2,6 +2,7 @@ package vswitch;
 
 import vfd.*;
 import vmirror.Mirror;
+import vproxy.app.Config;
 import vproxy.component.elgroup.EventLoopGroup;
 import vproxy.component.elgroup.EventLoopGroupAttach;
 import vproxy.component.exception.AlreadyExistException;
@@ -45,7 +46,13 @@ public class Switch {
     private final Map<String, UserInfo> users = new HashMap<>();
     private final DatagramFD sock;
     private final Map<Integer, Table> tables = new ConcurrentHashMap<>();
+    // copy of the tables for the packet path, rebuilt when tables are added or removed
+    private volatile IntMap<Table> tablesByVni = new IntMap<>();
     private final Map<Iface, IfaceTimer> ifaces = new HashMap<>();
+    // the ifaces which receive packets from the switch sock, indexed by their remote address
+    private final Map<IPPort, IfaceTimer> ifacesByRemote = new HashMap<>();
+    // the users indexed by their binary form, rebuilt when users are added or removed
+    private volatile UserIndex userIndex = new UserIndex(Collections.emptyList());
 
     public Switch(String alias, IPPort vxlanBindingAddress, EventLoopGroup eventLoopGroup,
                   int macTableTimeout, int arpTableTimeout, SecurityGroup bareVXLanAccess) throws IOException, ClosedException {
@@ -240,6 +247,7 @@ public class Switch {
             throw new XException("the switch " + alias + " is not bond to any event loop, cannot add vni");
         }
         tables.computeIfAbsent(vni, n -> new Table(n, currentEventLoop.getSelectorEventLoop(), v4network, v6network, macTableTimeout, arpTableTimeout));
+        rebuildTablesByVni();
     }
 
     public void delTable(int vni) throws NotFoundException {
@@ -247,9 +255,16 @@ public class Switch {
         if (t == null) {
             throw new NotFoundException("vni", "" + vni);
         }
+        rebuildTablesByVni();
         t.clearCache();
     }
 
+    private synchronized void rebuildTablesByVni() {
+        IntMap<Table> map = new IntMap<>(tables.size());
+        tables.forEach(map::put);
+        tablesByVni = map;
+    }
+
     public List<Iface> getIfaces() {
         return new ArrayList<>(ifaces.keySet());
     }
@@ -273,6 +288,7 @@ public class Switch {
         if (old != null) {
             throw new AlreadyExistException("the user " + user + " already exists in switch " + alias);
         }
+        userIndex = new UserIndex(users.values());
     }
 
     public void delUser(String user) throws NotFoundException {
@@ -283,6 +299,7 @@ public class Switch {
         if (x == null) {
             throw new NotFoundException("user in switch " + alias, user);
         }
+        userIndex = new UserIndex(users.values());
     }
 
     // return created dev name
@@ -504,7 +521,11 @@ public class Switch {
             }
         }
         Iface iface = new RemoteSwitchIface(alias, vxlanSockAddr, addSwitchFlag);
-        loop.runOnLoop(() -> ifaces.put(iface, new IfaceTimer(loop, -1, iface)));
+        loop.runOnLoop(() -> {
+            var timer = new IfaceTimer(loop, -1, iface);
+            ifaces.put(iface, timer);
+            ifacesByRemote.put(vxlanSockAddr, timer);
+        });
     }
 
     public void delRemoteSwitch(String alias) throws NotFoundException {
@@ -556,25 +577,55 @@ public class Switch {
         }
     }
 
-    private Aes256Key getKey(String name) {
-        var x = users.get(name);
-        if (x == null) return null;
-        return x.key;
+    private static class UserIndex {
+        private final long[] binaryUsers; // sorted
+        private final UserInfo[] infos;
+
+        UserIndex(Collection<UserInfo> users) {
+            UserInfo[] arr = users.toArray(new UserInfo[0]);
+            Arrays.sort(arr, Comparator.comparingLong(u -> u.binaryUser));
+            binaryUsers = new long[arr.length];
+            for (int i = 0; i < arr.length; ++i) {
+                binaryUsers[i] = arr[i].binaryUser;
+            }
+            infos = arr;
+        }
+
+        UserInfo get(long binaryUser) {
+            int idx = Arrays.binarySearch(binaryUsers, binaryUser);
+            return idx < 0 ? null : infos[idx];
+        }
+    }
+
+    private UserInfo getUserInfo(long binaryUser) {
+        return userIndex.get(binaryUser);
+    }
+
+    private static IPPort getRemoteAddress(Iface iface) {
+        if (iface instanceof UserIface) {
+            return ((UserIface) iface).udpSockAddress;
+        } else if (iface instanceof BareVXLanIface) {
+            return ((BareVXLanIface) iface).udpSockAddress;
+        } else if (iface instanceof RemoteSwitchIface) {
+            return ((RemoteSwitchIface) iface).udpSockAddress;
+        }
+        return null;
     }
 
     private abstract class NetworkStack {
         private final ByteBuffer sndBuf = ByteBuffer.allocate(2048);
+        private final NetworkContext netCtx = new NetworkContext(Integer.toHexString(System.identityHashCode(this)));
 
         protected NetworkStack() {
         }
 
         protected NetworkContext newContext() {
-            return new NetworkContext();
+            return netCtx.next();
         }
 
         protected void sendIntoNetworkStack(NetworkContext netCtx, VXLanPacket vxlan, Iface iface) {
             int vni = vxlan.getVni();
-            Table table = tables.get(vni);
+            Table table = tablesByVni.get(vni);
             if (table == null) {
                 assert Logger.lowLevelDebug(netCtx + "vni not defined: " + vni);
                 return;
@@ -1481,6 +1532,17 @@ public class Switch {
     private class PacketHandler extends NetworkStack implements Handler<DatagramFD> {
         private static final int IFACE_TIMEOUT = 60 * 1000;
         private final ByteBuffer rcvBuf = ByteBuffer.allocate(2048);
+        private final ByteArray rcvArray = ByteArray.from(rcvBuf.array());
+        // packets are received in batches, then copied into rcvBuf one by one
+        private final DatagramBatch rcvBatch = new DatagramBatch(Config.udpBatchSize, rcvBuf.capacity());
+
+        // the packet objects are reused for all received packets
+        private final VProxyEncryptedPacket rcvPacket = new VProxyEncryptedPacket(Switch.this::getUserInfo);
+        private final VXLanPacket rcvVXLan = new VXLanPacket();
+        private final VProxyEncryptedPacket pingPacket = new VProxyEncryptedPacket();
+
+        // set by handleNetworkAndGetVXLanPacket()
+        private Iface rcvIface;
 
         @Override
         public void accept(HandlerContext<DatagramFD> ctx) {
@@ -1492,22 +1554,28 @@ public class Switch {
             // will not fire
         }
 
-        private Tuple<VXLanPacket, Iface> handleNetworkAndGetVXLanPacket(NetworkContext netCtx, SelectorEventLoop loop, IPPort remote, ByteArray data) {
-            VProxyEncryptedPacket packet = new VProxyEncryptedPacket(Switch.this::getKey);
+        // the iface is recorded in field rcvIface
+        // return null if the packet should be dropped or does not contain a vxlan packet
+        private VXLanPacket handleNetworkAndGetVXLanPacket(NetworkContext netCtx, SelectorEventLoop loop, IPPort remote, ByteArray data) {
+            VProxyEncryptedPacket packet = rcvPacket;
             VXLanPacket vxLanPacket;
             Iface iface;
 
+            // the iface which sent packets from the same address last time
+            IfaceTimer known = ifacesByRemote.get(remote);
+
             String err = packet.from(data);
             assert Logger.lowLevelDebug(netCtx + "packet.from(data) = " + err);
             if (err == null) {
-                String user = packet.getUser();
-                UserIface uiface = new UserIface(remote, user, users);
-                iface = uiface;
-                UserInfo info = users.get(user);
-                if (info == null) {
-                    Logger.warn(LogType.SYS_ERROR, "concurrency detected: user info is null while parsing the packet succeeded: " + user);
-                    return null;
+                UserInfo info = packet.getUserInfo();
+                UserIface uiface;
+                if (known != null && known.iface instanceof UserIface && ((UserIface) known.iface).user.equals(info.user)) {
+                    uiface = (UserIface) known.iface;
+                } else {
+                    uiface = new UserIface(remote, info.user, users);
+                    known = null;
                 }
+                iface = uiface;
                 uiface.setLocalSideVni(info.vni);
 
                 assert Logger.lowLevelDebug(netCtx + "got packet " + packet + " from " + iface);
@@ -1515,8 +1583,12 @@ public class Switch {
                 vxLanPacket = packet.getVxlan();
                 if (vxLanPacket != null) {
                     int packetVni = vxLanPacket.getVni();
-                    uiface.setRemoteSideVni(packetVni); // set vni to the iface
-                    assert Logger.lowLevelDebug(netCtx + "setting vni for " + user + " to " + info.vni);
+                    // the iface may be reused, 0 does not overwrite a known vni,
+                    // same as SwitchUtils.updateBothSideVni() when a new iface object is recorded
+                    if (packetVni != 0) {
+                        uiface.setRemoteSideVni(packetVni); // set vni to the iface
+                    }
+                    assert Logger.lowLevelDebug(netCtx + "setting vni for " + info.user + " to " + info.vni);
                     if (packetVni != info.vni) {
                         vxLanPacket.setVni(info.vni);
                     }
@@ -1531,28 +1603,28 @@ public class Switch {
                 if (bareVXLanAccess.allow(Protocol.UDP, remote.getAddress(), vxlanBindingAddress.getPort())) {
                     assert Logger.lowLevelDebug(netCtx + "is bare vxlan");
                     // try to parse into vxlan directly
-                    vxLanPacket = new VXLanPacket();
+                    vxLanPacket = rcvVXLan;
                     err = vxLanPacket.from(data);
                     if (err != null) {
                         assert Logger.lowLevelDebug(netCtx + "invalid packet for vxlan: " + err + ", drop it");
                         return null;
                     }
                     // check whether it's coming from remote switch
-                    Iface remoteSwitch = null;
-                    for (Iface i : ifaces.keySet()) {
-                        if (!(i instanceof RemoteSwitchIface)) {
-                            continue;
-                        }
-                        RemoteSwitchIface rsi = (RemoteSwitchIface) i;
-                        if (remote.equals(rsi.udpSockAddress)) {
-                            remoteSwitch = i;
-                            break;
+                    if (known != null && known.iface instanceof RemoteSwitchIface) { // is from a remote switch
+                        iface = known.iface;
+                    } else { // is from a vxlan endpoint
+                        BareVXLanIface biface;
+                        if (known != null && known.iface instanceof BareVXLanIface) {
+                            biface = (BareVXLanIface) known.iface;
+                        } else {
+                            biface = new BareVXLanIface(remote);
+                            known = null;
                         }
-                    }
-                    if (remoteSwitch == null) { // is from a vxlan endpoint
-                        BareVXLanIface biface = new BareVXLanIface(remote);
                         iface = biface;
-                        biface.setLocalSideVni(vxLanPacket.getVni());
+                        // same as above, 0 does not overwrite the vni of a reused iface
+                        if (vxLanPacket.getVni() != 0) {
+                            biface.setLocalSideVni(vxLanPacket.getVni());
+                        }
 
                         // distinguish bare vxlan sock and switch vxlan link
                         {
@@ -1564,8 +1636,6 @@ public class Switch {
                                 return null; // drop
                             }
                         }
-                    } else { // is from a remote switch
-                        iface = remoteSwitch;
                     }
                     assert Logger.lowLevelDebug(netCtx + "got vxlan packet " + vxLanPacket + " from " + iface);
                     // fall through
@@ -1583,53 +1653,63 @@ public class Switch {
                 }
             }
 
-            var timer = ifaces.get(iface);
-            if (timer == null) {
-                timer = new IfaceTimer(loop, IFACE_TIMEOUT, iface);
+            if (known != null) {
+                // the iface object is reused and the vni is already updated
+                known.resetTimer();
+            } else {
+                var timer = ifaces.get(iface);
+                if (timer == null) {
+                    timer = new IfaceTimer(loop, IFACE_TIMEOUT, iface);
+                }
+                timer.record(iface);
             }
-            timer.record(iface);
 
-            return new Tuple<>(vxLanPacket, iface);
+            rcvIface = iface;
+            return vxLanPacket;
         }
 
         @Override
         public void readable(HandlerContext<DatagramFD> ctx) {
             DatagramFD sock = ctx.getChannel();
+            DatagramBatch batch = rcvBatch;
             while (true) {
-                rcvBuf.limit(rcvBuf.capacity()).position(0);
-                IPPort remote;
+                int n;
                 try {
-                    remote = sock.receive(rcvBuf);
+                    n = sock.receiveBatch(batch);
                 } catch (IOException e) {
                     Logger.error(LogType.CONN_ERROR, "udp sock " + ctx.getChannel() + " got error when reading", e);
                     return;
                 }
-                if (rcvBuf.position() == 0) {
-                    break; // nothing read, quit loop
-                }
-                byte[] bytes = rcvBuf.array();
-                ByteArray data = ByteArray.from(bytes).sub(0, rcvBuf.position());
-
-                NetworkContext netCtx = newContext();
-
-                var tuple = handleNetworkAndGetVXLanPacket(netCtx, ctx.getEventLoop(), remote, data);
-                if (tuple == null) {
-                    continue;
+                for (int i = 0; i < n; ++i) {
+                    if (batch.length(i) == 0) {
+                        continue; // empty packet, ignore
+                    }
+                    rcvBuf.limit(rcvBuf.capacity()).position(0);
+                    rcvBuf.put(batch.get(i));
+                    handlePacket(ctx, batch.address(i), rcvArray.sub(0, rcvBuf.position()));
                 }
-                var vxlan = tuple.left;
-                var iface = tuple.right;
-                if (vxlan == null) {
-                    assert Logger.lowLevelDebug(netCtx + "no vxlan packet found, ignore");
-                    continue;
+                if (n < batch.slots) {
+                    break; // the socket is drained, quit loop
                 }
+            }
+        }
 
-                sendIntoNetworkStack(netCtx, vxlan, iface);
+        private void handlePacket(HandlerContext<DatagramFD> ctx, IPPort remote, ByteArray data) {
+            NetworkContext netCtx = newContext();
+
+            rcvIface = null;
+            var vxlan = handleNetworkAndGetVXLanPacket(netCtx, ctx.getEventLoop(), remote, data);
+            if (vxlan == null) {
+                assert Logger.lowLevelDebug(netCtx + "no vxlan packet found, ignore");
+                return;
             }
+
+            sendIntoNetworkStack(netCtx, vxlan, rcvIface);
         }
 
         private void sendPingTo(NetworkContext netCtx, UserIface iface) {
             assert Logger.lowLevelDebug(netCtx + "sendPingTo(" + iface + ")");
-            VProxyEncryptedPacket p = new VProxyEncryptedPacket(Switch.this::getKey);
+            VProxyEncryptedPacket p = pingPacket;
             p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
             p.setType(Consts.VPROXY_SWITCH_TYPE_PING);
             sendVProxyPacketTo(netCtx, iface, p);
@@ -1648,7 +1728,11 @@ public class Switch {
     }
 
     private void utilRemoveIface(Iface iface) {
-        ifaces.remove(iface);
+        var timer = ifaces.remove(iface);
+        IPPort remote = getRemoteAddress(iface);
+        if (timer != null && remote != null) {
+            ifacesByRemote.remove(remote, timer);
+        }
 
         for (var table : tables.values()) {
             table.macTable.disconnect(iface);
@@ -1679,6 +1763,14 @@ public class Switch {
             if (ifaces.putIfAbsent(iface, this) == null) {
                 Logger.alert(iface + " connected to Switch:" + alias);
             }
+            IPPort remote = getRemoteAddress(iface);
+            if (remote != null) {
+                var old = ifacesByRemote.get(remote);
+                // the remote switch takes precedence
+                if (old == null || !(old.iface instanceof RemoteSwitchIface)) {
+                    ifacesByRemote.put(remote, this);
+                }
+            }
             resetTimer();
         }
 
@@ -1694,6 +1786,7 @@ public class Switch {
         private final TapDatagramFD tapDatagramFD;
 
         private final ByteBuffer rcvBuf = ByteBuffer.allocate(2048);
+        private final ByteArray rcvArray = ByteArray.from(rcvBuf.array());
 
         private TapHandler(TapIface iface, TapDatagramFD tapDatagramFD) {
             this.iface = iface;
@@ -1723,8 +1816,7 @@ public class Switch {
                 if (rcvBuf.position() == 0) {
                     break; // nothing read, quit loop
                 }
-                byte[] bytes = rcvBuf.array();
-                ByteArray data = ByteArray.from(bytes).sub(0, rcvBuf.position());
+                ByteArray data = rcvArray.sub(0, rcvBuf.position());
 
                 NetworkContext netCtx = newContext();
 
@@ -1760,7 +1852,10 @@ public class Switch {
 
     private class UserClientHandler extends NetworkStack implements Handler<DatagramFD> {
         private final ByteBuffer rcvBuf = ByteBuffer.allocate(2048);
+        private final ByteArray rcvArray = ByteArray.from(rcvBuf.array());
         private final UserClientIface iface;
+        private final VProxyEncryptedPacket rcvPacket;
+        private final VProxyEncryptedPacket pingPacket = new VProxyEncryptedPacket();
 
         private ConnectedToSwitchTimer connectedToSwitchTimer = null;
         private static final int toSwitchTimeoutSeconds = 60;
@@ -1785,12 +1880,13 @@ public class Switch {
 
         public UserClientHandler(SelectorEventLoop loop, UserClientIface iface) {
             this.iface = iface;
+            this.rcvPacket = new VProxyEncryptedPacket(u -> u == iface.user.binaryUser ? iface.user : null);
             pingPeriodicEvent = loop.period(pingPeriod, this::sendPingPacket);
             sendPingPacket();
         }
 
         private void sendPingPacket() {
-            VProxyEncryptedPacket p = new VProxyEncryptedPacket(x -> iface.user.key);
+            VProxyEncryptedPacket p = pingPacket;
             p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
             p.setType(Consts.VPROXY_SWITCH_TYPE_PING);
             sendVProxyPacketTo(newContext(), iface, p);
@@ -1823,15 +1919,12 @@ public class Switch {
 
                 NetworkContext netCtx = newContext();
 
-                VProxyEncryptedPacket p = new VProxyEncryptedPacket(x -> iface.user.key);
-                ByteArray arr = ByteArray.from(rcvBuf.array()).sub(0, rcvBuf.position());
+                VProxyEncryptedPacket p = rcvPacket;
+                ByteArray arr = rcvArray.sub(0, rcvBuf.position());
+                // packets of other users are rejected by the user provider of the packet
                 String err = p.from(arr);
                 if (err != null) {
-                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, netCtx + "received invalid packet from " + iface + ": " + arr);
-                    continue;
-                }
-                if (!p.getUser().equals(iface.user.user)) {
-                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, netCtx + "user in received packet from " + iface + " mismatches, got " + p.getUser());
+                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, netCtx + "received invalid packet from " + iface + ": " + err + ": " + arr);
                     continue;
                 }
                 if (connectedToSwitchTimer == null) {
@@ -2,6 +2,7 @@ package vswitch.iface;
 
 import vfd.DatagramFD;
 import vfd.IPPort;
+import vproxy.util.ByteArray;
 import vswitch.packet.VXLanPacket;
 
 import java.io.IOException;
@@ -26,7 +27,7 @@ public class BareVXLanIface implements Iface, LocalSideVniGetterSetter {
 
     @Override
     public int hashCode() {
-        return Objects.hash(udpSockAddress);
+        return udpSockAddress.hashCode();
     }
 
     @Override
@@ -36,9 +37,8 @@ public class BareVXLanIface implements Iface, LocalSideVniGetterSetter {
 
     @Override
     public void sendPacket(DatagramFD serverUDPSock, VXLanPacket vxlan, ByteBuffer writeBuf) throws IOException {
-        byte[] bytes = vxlan.getRawPacket().toJavaArray();
-
-        writeBuf.put(bytes);
+        ByteArray bytes = vxlan.getRawPacket();
+        bytes.byteBufferPut(writeBuf, 0, bytes.length());
         writeBuf.flip();
 
         // keep reserved fields empty
@@ -2,6 +2,7 @@ package vswitch.iface;
 
 import vfd.DatagramFD;
 import vfd.IPPort;
+import vproxy.util.ByteArray;
 import vswitch.packet.VXLanPacket;
 import vswitch.util.Consts;
 
@@ -31,7 +32,7 @@ public class RemoteSwitchIface implements Iface {
 
     @Override
     public int hashCode() {
-        return Objects.hash(alias, udpSockAddress);
+        return 31 * alias.hashCode() + udpSockAddress.hashCode();
     }
 
     @Override
@@ -41,11 +42,11 @@ public class RemoteSwitchIface implements Iface {
 
     @Override
     public void sendPacket(DatagramFD serverUDPSock, VXLanPacket vxlan, ByteBuffer writeBuf) throws IOException {
-        byte[] bytes = vxlan.getRawPacket().toJavaArray();
-        writeBuf.put(bytes);
+        ByteArray bytes = vxlan.getRawPacket();
+        bytes.byteBufferPut(writeBuf, 0, bytes.length());
         writeBuf.flip();
         if (addSwitchFlag) {
-            writeBuf.put(1, (byte) (bytes[1] | ((Consts.I_AM_FROM_SWITCH >> 16) & 0xff)));
+            writeBuf.put(1, (byte) (bytes.get(1) | ((Consts.I_AM_FROM_SWITCH >> 16) & 0xff)));
         } else {
             // remove all possible flags or counters
             writeBuf.put(1, (byte) 0);
@@ -23,6 +23,8 @@ public class UserClientIface implements Iface, IfaceCanSendVProxyPacket {
 
     private boolean connected = false;
 
+    private final VProxyEncryptedPacket sndPacket = new VProxyEncryptedPacket();
+
     public UserClientIface(UserInfo user, DatagramFD sock, IPPort remoteAddress) {
         this.user = user;
         this.sock = sock;
@@ -87,12 +89,16 @@ public class UserClientIface implements Iface, IfaceCanSendVProxyPacket {
         }
 
         vxlan.setVni(user.vni);
-        VProxyEncryptedPacket p = new VProxyEncryptedPacket(u -> user.key);
+        VProxyEncryptedPacket p = sndPacket;
         p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
         p.setType(Consts.VPROXY_SWITCH_TYPE_VXLAN);
         p.setVxlan(vxlan);
 
-        sendVProxyPacket(null, p, writeBuf);
+        try {
+            sendVProxyPacket(null, p, writeBuf);
+        } finally {
+            p.setVxlan(null); // do not hold the packet
+        }
     }
 
     @Override
@@ -102,10 +108,9 @@ public class UserClientIface implements Iface, IfaceCanSendVProxyPacket {
             return;
         }
 
-        p.setUser(user.user);
+        p.setUser(user);
 
-        byte[] bytes = p.getRawPacket().toJavaArray();
-        writeBuf.put(bytes);
+        p.writeTo(writeBuf);
         writeBuf.flip();
         sock.write(writeBuf);
     }
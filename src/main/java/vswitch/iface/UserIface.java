@@ -21,6 +21,7 @@ public class UserIface implements Iface, RemoteSideVniGetterSetter, LocalSideVni
     private int localSideVni;
 
     private final Map<String, UserInfo> userMapRef;
+    private final VProxyEncryptedPacket sndPacket = new VProxyEncryptedPacket();
 
     public UserIface(IPPort udpSockAddress, String user, Map<String, UserInfo> userMapRef) {
         this.udpSockAddress = udpSockAddress;
@@ -39,7 +40,7 @@ public class UserIface implements Iface, RemoteSideVniGetterSetter, LocalSideVni
 
     @Override
     public int hashCode() {
-        return Objects.hash(user, udpSockAddress);
+        return 31 * user.hashCode() + udpSockAddress.hashCode();
     }
 
     @Override
@@ -57,24 +58,28 @@ public class UserIface implements Iface, RemoteSideVniGetterSetter, LocalSideVni
         if (vxlan.getVni() != remoteSideVni) {
             vxlan.setVni(remoteSideVni);
         }
-        VProxyEncryptedPacket p = new VProxyEncryptedPacket(u -> {
-            var info = userMapRef.get(user);
-            if (info == null) return null;
-            return info.key;
-        });
+        VProxyEncryptedPacket p = sndPacket;
         p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
         p.setType(Consts.VPROXY_SWITCH_TYPE_VXLAN);
         p.setVxlan(vxlan);
 
-        sendVProxyPacket(serverUDPSock, p, writeBuf);
+        try {
+            sendVProxyPacket(serverUDPSock, p, writeBuf);
+        } finally {
+            p.setVxlan(null); // do not hold the packet
+        }
     }
 
     @Override
     public void sendVProxyPacket(DatagramFD serverUDPSock, VProxyEncryptedPacket p, ByteBuffer writeBuf) throws IOException {
-        p.setUser(user);
+        var info = userMapRef.get(user);
+        if (info == null) {
+            assert Logger.lowLevelDebug("user " + user + " not found, drop the packet");
+            return;
+        }
+        p.setUser(info);
 
-        byte[] bytes = p.getRawPacket().toJavaArray();
-        writeBuf.put(bytes);
+        p.writeTo(writeBuf);
         writeBuf.flip();
         serverUDPSock.send(writeBuf, udpSockAddress);
     }
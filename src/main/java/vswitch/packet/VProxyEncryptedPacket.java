@@ -2,13 +2,13 @@ package vswitch.packet;
 
 import vproxy.util.ByteArray;
 import vproxy.util.Utils;
-import vproxy.util.crypto.Aes256Key;
-import vproxy.util.crypto.StreamingCFBCipher;
 import vswitch.util.Consts;
+import vswitch.util.UserInfo;
 
-import java.util.Base64;
-import java.util.Random;
-import java.util.function.Function;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongFunction;
 
 /*
  * +----------+---------+-----------+----------+---------------+
@@ -17,107 +17,197 @@ import java.util.function.Function;
  * encode user with base64 to get the string form user name
  * decode the user name string with base64 to get the binary form user name
  * the user string must be 8 chars, a-zA-Z0-9, however a default padding may be added
+ *
+ * the object keeps its buffers and the vxlan packet view, and can be reused for the next packet.
+ * the vxlan packet retrieved from a parsed packet is only valid until the next from() call
  */
 public class VProxyEncryptedPacket extends AbstractPacket {
-    private String user;
+    private static final int USER_LEN = 6;
+    private static final int IV_LEN = 16;
+    private static final int HEAD_LEN = USER_LEN + IV_LEN;
+    private static final int MIN_LEN = HEAD_LEN + 4 + 2;
+
+    private UserInfo user;
     private int magic;
     private int type;
     private VXLanPacket vxlan;
 
-    private final Function<String, Aes256Key> keyProvider;
+    private final LongFunction<UserInfo> userProvider;
+
+    // buffers for parsing
+    private byte[] rcvBytes = new byte[0];
+    private byte[] rcvPlain = new byte[0];
+    private ByteArray rcvPlainArray;
+    private final VXLanPacket rcvVXLan = new VXLanPacket();
+    // buffer for building
+    private byte[] sndPlain = new byte[0];
+
+    /**
+     * @param userProvider retrieve user info by the binary form user, returns null if the user does not exist
+     */
+    public VProxyEncryptedPacket(LongFunction<UserInfo> userProvider) {
+        this.userProvider = userProvider;
+    }
+
+    /**
+     * the packet can only be built, but cannot be parsed
+     */
+    public VProxyEncryptedPacket() {
+        this(u -> null);
+    }
 
-    public VProxyEncryptedPacket(Function<String, Aes256Key> keyProvider) {
-        this.keyProvider = keyProvider;
+    private static byte[] ensureCapacity(byte[] buf, int len) {
+        if (buf.length >= len) {
+            return buf;
+        }
+        return new byte[Math.max(len, 2048)];
     }
 
     @Override
     public String from(ByteArray bytes) {
-        if (bytes.length() < 28) {
+        clearRawPacket();
+        vxlan = null;
+
+        int len = bytes.length();
+        if (len < MIN_LEN) {
             return "input packet length too short for a vproxy switch packet";
         }
-        byte[] userBytes = bytes.sub(0, 6).toJavaArray();
-        user = Base64.getEncoder().encodeToString(userBytes).replace("=", "");
-        Aes256Key key = keyProvider.apply(user);
-        if (key == null) {
-            return "cannot get key for user " + user;
+        rcvBytes = ensureCapacity(rcvBytes, len);
+        bytes.toNewJavaArray(rcvBytes, 0);
+
+        long binaryUser = 0;
+        for (int i = 0; i < USER_LEN; ++i) {
+            binaryUser = (binaryUser << 8) | (rcvBytes[i] & 0xff);
+        }
+        UserInfo info = userProvider.apply(binaryUser);
+        if (info == null) {
+            return "cannot get key for the user";
+        }
+        user = info;
+
+        int plainLen = len - HEAD_LEN;
+        if (rcvPlain.length < plainLen) {
+            rcvPlain = ensureCapacity(rcvPlain, plainLen);
+            rcvPlainArray = null;
+        }
+        if (rcvPlainArray == null) {
+            rcvPlainArray = ByteArray.from(rcvPlain);
         }
+        info.cipher.decrypt(rcvBytes, USER_LEN, rcvBytes, HEAD_LEN, plainLen, rcvPlain, 0);
 
-        byte[] iv = bytes.sub(6, 16).toJavaArray();
-        byte[] rawBytes = bytes.toJavaArray();
-        StreamingCFBCipher cipher = new StreamingCFBCipher(key, false, iv);
-        magic = ByteArray.from(
-            cipher.update(rawBytes, 22, 4)
-        ).int32(0);
+        magic = rcvPlainArray.int32(0);
         if (magic != Consts.VPROXY_SWITCH_MAGIC) {
-            return "decryption failed: wrong magic: " + Utils.toHexString(magic);
+            return "decryption failed: wrong magic";
         }
-        ByteArray result = ByteArray.from(
-            cipher.update(rawBytes, 26, rawBytes.length - 26)
-        );
-        type = result.uint16(0);
+        type = rcvPlainArray.uint16(4);
         if (type == Consts.VPROXY_SWITCH_TYPE_VXLAN) {
-            ByteArray other = result.sub(2, result.length() - 2);
-            VXLanPacket packet = new VXLanPacket();
-            String err = packet.from(other);
+            String err = rcvVXLan.from(rcvPlainArray.sub(6, plainLen - 6));
             if (err != null) {
                 return err;
             }
-            vxlan = packet;
+            vxlan = rcvVXLan;
         } else if (type == Consts.VPROXY_SWITCH_TYPE_PING) {
-            if (result.length() != 2) {
-                return "extra bytes for a vproxy switch ping packet: " + (result.length() - 2);
+            if (plainLen != 6) {
+                return "extra bytes for a vproxy switch ping packet";
             }
         } else {
-            return "invalid type for vproxy switch packet: " + type;
+            return "invalid type for vproxy switch packet";
         }
         return null;
     }
 
-    @Override
-    protected ByteArray buildPacket() {
-        byte[] x = Base64.getDecoder().decode(user);
-        if (x.length != 6) {
-            throw new IllegalArgumentException("the user decoded binary length is not 6");
+    /**
+     * @return length of the packet when built
+     */
+    public int length() {
+        return MIN_LEN + (vxlan == null ? 0 : vxlan.getRawPacket().length());
+    }
+
+    /**
+     * build and write the packet into the buffer, the position of the buffer will be moved
+     */
+    public void writeTo(ByteBuffer dst) {
+        int len = length();
+        if (dst.remaining() < len) {
+            throw new BufferOverflowException();
         }
-        Aes256Key key = keyProvider.apply(user);
-        if (key == null) {
-            throw new IllegalArgumentException("cannot retrieve key for user " + user);
+        if (dst.hasArray()) {
+            writeTo(dst.array(), dst.arrayOffset() + dst.position());
+            dst.position(dst.position() + len);
+        } else {
+            dst.put(getRawPacket().toJavaArray());
         }
-        ByteArray userB = ByteArray.from(x);
-
-        byte[] ivBytes = new byte[16];
-        Random rand = new Random();
-        rand.nextBytes(ivBytes);
+    }
 
-        ByteArray iv = ByteArray.from(ivBytes).copy();
-        ByteArray other = ByteArray.allocate(6);
-        other.int32(0, magic);
-        other.int16(4, type);
+    /**
+     * build and write the packet into the array
+     *
+     * @return bytes written
+     */
+    public int writeTo(byte[] dst, int off) {
+        if (user == null) {
+            throw new IllegalArgumentException("user not set");
+        }
+        int len = length();
+        if (dst.length - off < len) {
+            throw new IllegalArgumentException("the array cannot hold the packet");
+        }
+        int plainLen = len - HEAD_LEN;
+        sndPlain = ensureCapacity(sndPlain, plainLen);
+        byte[] plain = sndPlain;
+        plain[0] = (byte) (magic >> 24);
+        plain[1] = (byte) (magic >> 16);
+        plain[2] = (byte) (magic >> 8);
+        plain[3] = (byte) magic;
+        plain[4] = (byte) (type >> 8);
+        plain[5] = (byte) type;
         if (vxlan != null) {
-            other = other.concat(vxlan.getRawPacket());
+            vxlan.getRawPacket().toNewJavaArray(plain, 6);
+        }
+
+        long binaryUser = user.binaryUser;
+        for (int i = USER_LEN - 1; i >= 0; --i) {
+            dst[off + i] = (byte) binaryUser;
+            binaryUser >>>= 8;
         }
-        byte[] otherBytes = other.toJavaArray();
-        StreamingCFBCipher cipher = new StreamingCFBCipher(key, true, ivBytes);
-        byte[] encrypted = cipher.update(otherBytes, 0, otherBytes.length);
-        return userB.concat(iv).concat(ByteArray.from(encrypted));
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < IV_LEN; i += 8) {
+            long n = rand.nextLong();
+            for (int j = 0; j < 8; ++j) {
+                dst[off + USER_LEN + i + j] = (byte) n;
+                n >>>= 8;
+            }
+        }
+        user.cipher.encrypt(dst, off + USER_LEN, plain, 0, plainLen, dst, off + HEAD_LEN);
+        return len;
+    }
+
+    @Override
+    protected ByteArray buildPacket() {
+        byte[] bytes = new byte[length()];
+        writeTo(bytes, 0);
+        return ByteArray.from(bytes);
     }
 
     @Override
     public String toString() {
         return "VProxyEncryptedPacket{" +
-            "user=" + user +
+            "user=" + (user == null ? null : user.user) +
             ", magic=" + Utils.toHexString(magic) +
             ", type=" + type +
             ", vxlan=" + vxlan +
-            // ", key=" + key +
             '}';
     }
 
     public String getUser() {
+        return user == null ? null : user.user;
+    }
+
+    public UserInfo getUserInfo() {
         return user;
     }
 
-    public void setUser(String user) {
+    public void setUser(UserInfo user) {
         clearRawPacket();
         this.user = user;
     }
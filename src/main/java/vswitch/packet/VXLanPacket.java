@@ -60,8 +60,8 @@ public class VXLanPacket extends AbstractPacket {
     }
 
     public void setFlags(int flags) {
-        clearRawPacket();
         this.flags = flags;
+        updateRawHeader();
     }
 
     public int getReserved1() {
@@ -69,8 +69,8 @@ public class VXLanPacket extends AbstractPacket {
     }
 
     public void setReserved1(int reserved1) {
-        clearRawPacket();
         this.reserved1 = reserved1;
+        updateRawHeader();
     }
 
     public int getVni() {
@@ -78,8 +78,8 @@ public class VXLanPacket extends AbstractPacket {
     }
 
     public void setVni(int vni) {
-        clearRawPacket();
         this.vni = vni;
+        updateRawHeader();
     }
 
     public int getReserved2() {
@@ -87,8 +87,19 @@ public class VXLanPacket extends AbstractPacket {
     }
 
     public void setReserved2(int reserved2) {
-        clearRawPacket();
         this.reserved2 = reserved2;
+        updateRawHeader();
+    }
+
+    // the header is fixed length, so modify the raw bytes in place instead of building a new one
+    private void updateRawHeader() {
+        if (raw == null) {
+            return;
+        }
+        raw.set(0, (byte) flags)
+            .int24(1, reserved1)
+            .int24(4, vni)
+            .set(7, (byte) reserved2);
     }
 
     public AbstractEthernetPacket getPacket() {
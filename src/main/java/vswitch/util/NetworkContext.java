@@ -1,20 +1,29 @@
 package vswitch.util;
 
-import java.util.UUID;
-
+// the context is only used in logs
+// one context object is kept by each network stack and reused for all packets handled by the stack
 public class NetworkContext {
-    public final String id;
+    public final String prefix;
+    private long seq = 0;
+
+    public NetworkContext(String prefix) {
+        this.prefix = prefix;
+    }
 
-    public NetworkContext() {
-        this(UUID.randomUUID().toString());
+    /**
+     * start handling a new packet
+     */
+    public NetworkContext next() {
+        ++seq;
+        return this;
     }
 
-    public NetworkContext(String id) {
-        this.id = id;
+    public String getId() {
+        return prefix + "-" + seq;
     }
 
     @Override
     public String toString() {
-        return id + " ::: ";
+        return getId() + " ::: ";
     }
 }
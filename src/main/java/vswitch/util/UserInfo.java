@@ -1,17 +1,36 @@
 package vswitch.util;
 
 import vproxy.util.crypto.Aes256Key;
+import vproxy.util.crypto.CFBPacketCipher;
+
+import java.util.Base64;
 
 public class UserInfo {
     public final String user;
+    public final long binaryUser; // the 6 bytes decoded from the user string, as it is in the packets
     public final Aes256Key key;
+    public final CFBPacketCipher cipher; // only used on the switch event loop
     public final String pass;
     public final int vni;
 
     public UserInfo(String user, Aes256Key key, String pass, int vni) {
         this.user = user;
+        this.binaryUser = toBinaryUser(user);
         this.key = key;
+        this.cipher = new CFBPacketCipher(key);
         this.pass = pass;
         this.vni = vni;
     }
+
+    private static long toBinaryUser(String user) {
+        byte[] x = Base64.getDecoder().decode(user);
+        if (x.length != 6) {
+            throw new IllegalArgumentException("the user decoded binary length is not 6");
+        }
+        long n = 0;
+        for (byte b : x) {
+            n = (n << 8) | (b & 0xff);
+        }
+        return n;
+    }
 }
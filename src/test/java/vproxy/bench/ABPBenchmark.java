@@ -0,0 +1,199 @@
+package vproxy.bench;
+
+import vproxy.util.Logger;
+import vproxyx.websocks.ABP;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// compare ABP.block() with checking the rules one by one
+// usage: ABPBenchmark [path-to-gfwlist]
+// the file can be base64 encoded or plain text,
+// a gfwlist-like rule set is generated when the path is not given
+public class ABPBenchmark {
+    public static void main(String[] args) throws Exception {
+        int warmup = 20_000;
+        int rounds = 100_000;
+
+        String rules;
+        if (args.length > 0) {
+            rules = Files.readString(Path.of(args[0])).trim();
+            if (!rules.contains("\n")) {
+                rules = new String(Base64.getMimeDecoder().decode(rules));
+            }
+        } else {
+            rules = generate();
+        }
+        List<Predicate<String>> linear = linear(rules);
+        List<String> hosts = hosts(rules);
+
+        // distinct inputs, most of them are not cached
+        String[] inputs = new String[rounds];
+        Random rand = new Random(1);
+        for (int i = 0; i < inputs.length; ++i) {
+            String host = hosts.get(rand.nextInt(hosts.size()));
+            switch (i % 3) {
+                case 0:
+                    inputs[i] = "h" + i + "." + host;
+                    break;
+                case 1:
+                    inputs[i] = host;
+                    break;
+                default:
+                    inputs[i] = "h" + i + ".not-in-list-" + i + ".com";
+                    break;
+            }
+        }
+
+        // ABP logs every matched input
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        out.println("rules:                  " + linear.size());
+        run(linear, inputs, warmup / 10);
+        long start = System.nanoTime();
+        int blocked = run(linear, inputs, rounds / 10);
+        long cost = System.nanoTime() - start;
+        out.println("linear ns per check:    " + (cost / (rounds / 10)) + " (blocked " + blocked + ")");
+
+        ABP abp = new ABP(false);
+        start = System.nanoTime();
+        abp.addRule(rules);
+        abp.block("");
+        cost = System.nanoTime() - start;
+        out.println("compile ms:             " + (cost / 1_000_000));
+
+        run(abp, inputs, warmup);
+        start = System.nanoTime();
+        blocked = run(abp, inputs, rounds);
+        cost = System.nanoTime() - start;
+        out.println("compiled ns per check:  " + (cost / rounds) + " (blocked " + blocked + ")");
+
+        // a small set of inputs, all cached
+        String[] hot = new String[1024];
+        System.arraycopy(inputs, 0, hot, 0, hot.length);
+        run(abp, hot, warmup);
+        start = System.nanoTime();
+        blocked = run(abp, hot, rounds);
+        cost = System.nanoTime() - start;
+        out.println("cached ns per check:    " + (cost / rounds) + " (blocked " + blocked + ")");
+
+        Logger.flush();
+        System.setOut(out);
+    }
+
+    private static int run(List<Predicate<String>> linear, String[] inputs, int rounds) {
+        int blocked = 0;
+        for (int i = 0; i < rounds; ++i) {
+            String input = inputs[i % inputs.length];
+            for (Predicate<String> p : linear) {
+                if (p.test(input)) {
+                    ++blocked;
+                    break;
+                }
+            }
+        }
+        return blocked;
+    }
+
+    private static int run(ABP abp, String[] inputs, int rounds) {
+        int blocked = 0;
+        for (int i = 0; i < rounds; ++i) {
+            if (abp.block(inputs[i % inputs.length])) {
+                ++blocked;
+            }
+        }
+        return blocked;
+    }
+
+    private static String generate() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[AutoProxy 0.2.9]\n");
+        Random rand = new Random(0);
+        String[] tlds = {"com", "net", "org", "io", "jp", "tw", "hk"};
+        for (int i = 0; i < 5000; ++i) {
+            sb.append("||site").append(i).append(".").append(tlds[rand.nextInt(tlds.length)]).append("\n");
+        }
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("|http://host").append(i).append(".example.com/path\n");
+        }
+        for (int i = 0; i < 500; ++i) {
+            sb.append(".keyword").append(i).append(".\n");
+        }
+        for (int i = 0; i < 50; ++i) {
+            sb.append("/^https?:\\/\\/[^\\/]+regexp").append(i).append("\\.(com|net)/\n");
+        }
+        for (int i = 0; i < 100; ++i) {
+            sb.append("@@||white").append(i).append(".com\n");
+        }
+        return sb.toString();
+    }
+
+    private static String extractHost(String uri) {
+        if (uri.contains("://")) {
+            uri = uri.substring(uri.indexOf("://") + "://".length());
+        }
+        if (uri.contains("/")) {
+            uri = uri.substring(0, uri.indexOf("/"));
+        }
+        return uri;
+    }
+
+    // hosts mentioned in the rules, used to generate inputs
+    private static List<String> hosts(String rules) {
+        List<String> hosts = new ArrayList<>();
+        for (String line : rules.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("||")) {
+                hosts.add(extractHost(line.substring(2)));
+            } else if (line.startsWith("|")) {
+                hosts.add(extractHost(line.substring(1)));
+            }
+        }
+        if (hosts.isEmpty()) {
+            hosts.add("example.com");
+        }
+        return hosts;
+    }
+
+    // block rules only, checked one by one, the way rules were checked before being compiled
+    private static List<Predicate<String>> linear(String rules) {
+        List<Predicate<String>> result = new ArrayList<>();
+        for (String line : rules.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("!") || line.startsWith("[") || line.startsWith("@@")) {
+                continue;
+            }
+            if (line.startsWith("||")) {
+                String host = extractHost(line.substring(2));
+                String addDot = "." + host;
+                result.add(input -> input.equals(host) || input.endsWith(addDot));
+            } else if (line.startsWith("|")) {
+                String host = extractHost(line.substring(1));
+                result.add(input -> input.equals(host));
+            } else if (line.startsWith("/") && line.endsWith("/")) {
+                Pattern pattern = Pattern.compile(line.substring(1, line.length() - 1));
+                result.add(input -> {
+                    for (String protocol : new String[]{"", "http://", "https://"}) {
+                        if (pattern.matcher(protocol + input).matches()) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+            } else {
+                String host = extractHost(line);
+                result.add(input -> input.contains(host));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package vproxy.bench;
+
+import vproxy.app.util.AnnotationKeys;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.processor.Hint;
+
+import java.util.Map;
+
+// compare Upstream.searchForGroup() with checking Hint.matchLevel() on every group
+// each group has a hint-host annotation: svc{i}.example.com
+public class HintSearchBenchmark {
+    public static void main(String[] args) throws Exception {
+        int groups = 10_000;
+        int warmup = 200_000;
+        int rounds = 1_000_000;
+
+        EventLoopGroup elg = new EventLoopGroup("elg");
+        Upstream ups = new Upstream("ups");
+        for (int i = 0; i < groups; ++i) {
+            ServerGroup g = new ServerGroup("sg" + i, elg,
+                new HealthCheckConfig(400, 24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+            // weight 0: the weight is not used when searching with hints,
+            // and recalculating wrr for 10k weighted groups on every add is too slow
+            ups.add(g, 0).setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "svc" + i + ".example.com"));
+        }
+
+        // exact match, sub domain match, and not found
+        Hint[] hints = new Hint[1024];
+        for (int i = 0; i < hints.length; ++i) {
+            int n = (i * 7919) % groups;
+            switch (i % 3) {
+                case 0:
+                    hints[i] = new Hint("svc" + n + ".example.com");
+                    break;
+                case 1:
+                    hints[i] = new Hint("www.svc" + n + ".example.com:443");
+                    break;
+                default:
+                    hints[i] = new Hint("svc" + n + ".example.org");
+                    break;
+            }
+        }
+
+        System.out.println("groups:              " + groups);
+        linear(ups, hints, warmup / 100);
+        long start = System.nanoTime();
+        int found = linear(ups, hints, rounds / 100);
+        long cost = System.nanoTime() - start;
+        System.out.println("linear ns per search: " + (cost / (rounds / 100)) + " (found " + found + ")");
+
+        index(ups, hints, warmup);
+        start = System.nanoTime();
+        found = index(ups, hints, rounds);
+        cost = System.nanoTime() - start;
+        System.out.println("index ns per search:  " + (cost / rounds) + " (found " + found + ")");
+
+        elg.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int linear(Upstream ups, Hint[] hints, int rounds) {
+        int found = 0;
+        var handles = ups.getServerGroupHandles();
+        for (int i = 0; i < rounds; ++i) {
+            Hint hint = hints[i & (hints.length - 1)];
+            Upstream.ServerGroupHandle lastMax = null;
+            int level = 0;
+            for (Upstream.ServerGroupHandle h : handles) {
+                int l = hint.matchLevel(h.getAnnotations(), h.group.getAnnotations());
+                if (l > level) {
+                    level = l;
+                    lastMax = h;
+                }
+                if (l == Hint.MAX_MATCH_LEVEL) {
+                    break;
+                }
+            }
+            if (lastMax != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    private static int index(Upstream ups, Hint[] hints, int rounds) {
+        int found = 0;
+        for (int i = 0; i < rounds; ++i) {
+            if (ups.searchForGroup(hints[i & (hints.length - 1)]) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,124 @@
+package vproxy.bench;
+
+import vfd.IP;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
+import vproxy.connection.Protocol;
+import vproxy.util.Network;
+import vswitch.RouteTable;
+
+import java.util.List;
+
+// compare RouteTable.lookup() and SecurityGroup.allow() with checking Network.contains() on every rule
+// rules: 10.{i/256}.{i%256}.0/24, and a /16 rule for every 256 of them
+public class NetworkLookupBenchmark {
+    public static void main(String[] args) throws Exception {
+        int ruleCount = 10_000;
+        int warmup = 200_000;
+        int rounds = 1_000_000;
+
+        RouteTable table = new RouteTable();
+        SecurityGroup secg = new SecurityGroup("secg", true);
+        long start = System.nanoTime();
+        for (int i = 0; i < ruleCount; ++i) {
+            Network net = network(i);
+            table.addRule(new RouteTable.RouteRule("r" + i, net, i));
+            secg.addRule(new SecurityGroupRule("r" + i, net, Protocol.TCP, 1000 + (i % 100), 2000, i % 2 == 0));
+        }
+        System.out.println("rules:                " + ruleCount + " (built in " + (System.nanoTime() - start) / 1_000_000 + "ms)");
+
+        // half of the addresses are not in any rule
+        IP[] ips = new IP[1024];
+        for (int i = 0; i < ips.length; ++i) {
+            int n = (i * 7919) % (ruleCount * 2);
+            ips[i] = IP.from(new byte[]{10, (byte) (n / 256), (byte) (n % 256), (byte) i});
+        }
+
+        List<RouteTable.RouteRule> routes = table.getRules();
+        List<SecurityGroupRule> secgRules = secg.getRules();
+
+        linearRoute(routes, ips, warmup / 100);
+        start = System.nanoTime();
+        int found = linearRoute(routes, ips, rounds / 100);
+        long cost = System.nanoTime() - start;
+        System.out.println("route linear ns:      " + (cost / (rounds / 100)) + " (found " + found + ")");
+
+        trieRoute(table, ips, warmup);
+        start = System.nanoTime();
+        found = trieRoute(table, ips, rounds);
+        cost = System.nanoTime() - start;
+        System.out.println("route trie ns:        " + (cost / rounds) + " (found " + found + ")");
+
+        linearSecg(secgRules, ips, warmup / 100);
+        start = System.nanoTime();
+        found = linearSecg(secgRules, ips, rounds / 100);
+        cost = System.nanoTime() - start;
+        System.out.println("secg linear ns:       " + (cost / (rounds / 100)) + " (allowed " + found + ")");
+
+        indexSecg(secg, ips, warmup);
+        start = System.nanoTime();
+        found = indexSecg(secg, ips, rounds);
+        cost = System.nanoTime() - start;
+        System.out.println("secg index ns:        " + (cost / rounds) + " (allowed " + found + ")");
+    }
+
+    private static Network network(int i) {
+        if (i % 257 == 256) {
+            return new Network(new byte[]{10, (byte) (i / 257), 0, 0}, Network.parseMask(16));
+        }
+        return new Network(new byte[]{10, (byte) (i / 256), (byte) (i % 256), 0}, Network.parseMask(24));
+    }
+
+    private static int linearRoute(List<RouteTable.RouteRule> rules, IP[] ips, int rounds) {
+        int found = 0;
+        for (int i = 0; i < rounds; ++i) {
+            IP ip = ips[i & (ips.length - 1)];
+            for (RouteTable.RouteRule r : rules) {
+                if (r.rule.contains(ip)) {
+                    ++found;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static int trieRoute(RouteTable table, IP[] ips, int rounds) {
+        int found = 0;
+        for (int i = 0; i < rounds; ++i) {
+            if (table.lookup(ips[i & (ips.length - 1)]) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    private static int linearSecg(List<SecurityGroupRule> rules, IP[] ips, int rounds) {
+        int allowed = 0;
+        for (int i = 0; i < rounds; ++i) {
+            IP ip = ips[i & (ips.length - 1)];
+            int port = 1000 + (i % 128);
+            boolean allow = true;
+            for (SecurityGroupRule r : rules) {
+                if (r.match(ip, port)) {
+                    allow = r.allow;
+                    break;
+                }
+            }
+            if (allow) {
+                ++allowed;
+            }
+        }
+        return allowed;
+    }
+
+    private static int indexSecg(SecurityGroup secg, IP[] ips, int rounds) {
+        int allowed = 0;
+        for (int i = 0; i < rounds; ++i) {
+            if (secg.allow(Protocol.TCP, ips[i & (ips.length - 1)], 1000 + (i % 128))) {
+                ++allowed;
+            }
+        }
+        return allowed;
+    }
+}
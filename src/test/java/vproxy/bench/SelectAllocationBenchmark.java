@@ -0,0 +1,72 @@
+package vproxy.bench;
+
+import vfd.*;
+import vproxy.selector.wrap.WrappedSelector;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// measure allocated bytes per select() call
+// run with -Dvfd=posix -Djava.library.path=./src/main/c to check the AESelector
+// the `clients` are always writable, so every select() returns `clients` entries
+public class SelectAllocationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = 64;
+        int warmup = 200_000;
+        int rounds = 1_000_000;
+
+        ServerSocketFD server = FDProvider.get().openServerSocketFD();
+        server.bind(new IPPort("127.0.0.1", 0));
+        IPPort serverAddr = server.getLocalAddress();
+
+        List<SocketFD> fds = new ArrayList<>();
+        FDSelector selector = new WrappedSelector(FDProvider.get().openSelector());
+        for (int i = 0; i < clients; ++i) {
+            SocketFD fd = FDProvider.get().openSocketFD();
+            fd.configureBlocking(false);
+            fd.connect(serverAddr);
+            selector.register(fd, EventSet.write(), null);
+            fds.add(fd);
+        }
+        // wait until all connected
+        int connected = 0;
+        while (connected < clients) {
+            connected = selector.select(1000).size();
+        }
+
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        long events = run(selector, warmup);
+        System.out.println("warmup done, events = " + events);
+
+        long allocBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        events = run(selector, rounds);
+        long cost = System.nanoTime() - start;
+        long allocated = mx.getThreadAllocatedBytes(tid) - allocBefore;
+
+        System.out.println("selector:            " + FDProvider.get().getProvided().getClass().getSimpleName());
+        System.out.println("select calls:        " + rounds);
+        System.out.println("events:              " + events);
+        System.out.println("ns per select:       " + (cost / rounds));
+        System.out.println("bytes per select:    " + ((double) allocated / rounds));
+
+        for (SocketFD fd : fds) {
+            fd.close();
+        }
+        selector.close();
+        server.close();
+    }
+
+    private static long run(FDSelector selector, int rounds) throws Exception {
+        long events = 0;
+        for (int i = 0; i < rounds; ++i) {
+            Collection<SelectedEntry> entries = selector.selectNow();
+            events += entries.size();
+        }
+        return events;
+    }
+}
@@ -0,0 +1,59 @@
+package vproxy.bench;
+
+import vfd.IP;
+import vfd.IPPort;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+
+// measure the cost of ServerGroup.next() for different methods and group sizes
+// health check is disabled, and all servers are manually set to healthy
+public class ServerSelectionBenchmark {
+    private static final Method[] METHODS = {Method.wrr, Method.wlc, Method.p2c, Method.source, Method.maglev};
+    private static final int[] SIZES = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 200_000;
+        int rounds = 2_000_000;
+
+        EventLoopGroup elg = new EventLoopGroup("elg");
+        elg.add("el0");
+
+        IPPort[] sources = new IPPort[1024];
+        for (int i = 0; i < sources.length; ++i) {
+            sources[i] = new IPPort(IP.from(new byte[]{10, 0, (byte) (i >> 8), (byte) i}), 12345);
+        }
+
+        System.out.printf("%-8s %8s %12s%n", "method", "servers", "ns per next");
+        for (int size : SIZES) {
+            ServerGroup sg = new ServerGroup("sg" + size, elg,
+                new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+            for (int i = 0; i < size; ++i) {
+                ServerGroup.ServerHandle h = sg.add("svr" + i,
+                    new IPPort(IP.from(new byte[]{10, 1, (byte) (i >> 8), (byte) i}), 80), 10 + i % 3);
+                h.healthy = true;
+            }
+            for (Method method : METHODS) {
+                sg.setMethod(method);
+                run(sg, sources, warmup);
+                long start = System.nanoTime();
+                run(sg, sources, rounds);
+                long cost = System.nanoTime() - start;
+                System.out.printf("%-8s %8d %12.1f%n", method, size, (double) cost / rounds);
+            }
+            sg.destroy();
+        }
+        elg.close();
+    }
+
+    private static int run(ServerGroup sg, IPPort[] sources, int rounds) {
+        int n = 0;
+        for (int i = 0; i < rounds; ++i) {
+            SvrHandleConnector c = sg.next(sources[i & (sources.length - 1)]);
+            n += c.remote.getPort();
+        }
+        return n;
+    }
+}
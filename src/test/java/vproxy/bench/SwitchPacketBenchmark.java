@@ -0,0 +1,176 @@
+package vproxy.bench;
+
+import vfd.IPPort;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.util.ByteArray;
+import vproxy.util.Network;
+import vproxy.util.crypto.Aes256Key;
+import vswitch.Switch;
+import vswitch.packet.EthernetPacket;
+import vswitch.packet.PacketBytes;
+import vswitch.packet.VProxyEncryptedPacket;
+import vswitch.packet.VXLanPacket;
+import vswitch.util.Consts;
+import vswitch.util.MacAddress;
+import vswitch.util.UserInfo;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// measure packets per second and allocated bytes per packet on the switch event loop
+// a bare vxlan endpoint and a user (encrypted) endpoint send unicast packets to each other through the switch,
+// the senders keep at most `window` packets in flight, so the packets are not dropped by the kernel
+public class SwitchPacketBenchmark {
+    private static final int VNI = 1314;
+    private static final int window = 256;
+    private static final MacAddress BROADCAST = new MacAddress("ff:ff:ff:ff:ff:ff");
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 200_000;
+        int rounds = 1_000_000;
+
+        EventLoopGroup elg = new EventLoopGroup("switch-bench");
+        elg.add("el0");
+        IPPort switchAddr = new IPPort("127.0.0.1", 18472);
+        Switch sw = new Switch("sw0", switchAddr, elg, 300_000, 4 * 3600_000, SecurityGroup.allowAll());
+        sw.start();
+        sw.addTable(VNI, new Network("172.16.0.0/16"), null);
+        sw.addUser("bench", "pass", VNI);
+
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] switchTid = {-1};
+        elg.next().getSelectorEventLoop().runOnLoop(() -> switchTid[0] = Thread.currentThread().getId());
+        while (switchTid[0] == -1) {
+            Thread.sleep(1);
+        }
+
+        UserInfo user = new UserInfo("bench+++", new Aes256Key("pass"), "pass", VNI);
+        MacAddress userMac = new MacAddress(ByteArray.from(0x02, 0, 0, 0, 0, 0x01));
+        MacAddress bareMac = new MacAddress(ByteArray.from(0x02, 0, 0, 0, 0, 0x02));
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", switchAddr.getPort());
+
+        Endpoint userEp = new Endpoint("user");
+        Endpoint bareEp = new Endpoint("bare");
+        byte[] userToBare = encrypt(user, vxlan(userMac, bareMac));
+        byte[] bareToUser = vxlan(bareMac, userMac).getRawPacket().toJavaArray();
+        // let the switch learn both macs
+        userEp.ch.send(ByteBuffer.wrap(encrypt(user, vxlan(userMac, BROADCAST))), target);
+        bareEp.ch.send(ByteBuffer.wrap(vxlan(bareMac, BROADCAST).getRawPacket().toJavaArray()), target);
+        Thread.sleep(200);
+
+        run("bare -> user", bareEp, bareToUser, userEp, target, warmup, rounds, mx, switchTid[0]);
+        run("user -> bare", userEp, userToBare, bareEp, target, warmup, rounds, mx, switchTid[0]);
+
+        userEp.close();
+        bareEp.close();
+        sw.destroy();
+        elg.close();
+    }
+
+    private static VXLanPacket vxlan(MacAddress src, MacAddress dst) {
+        PacketBytes payload = new PacketBytes();
+        payload.setBytes(ByteArray.allocate(64));
+        EthernetPacket ether = new EthernetPacket();
+        ether.setSrc(src);
+        ether.setDst(dst);
+        ether.setType(0x88b5); // local experimental ethertype
+        ether.setPacket(payload);
+        VXLanPacket vxlan = new VXLanPacket();
+        vxlan.setVni(VNI);
+        vxlan.setPacket(ether);
+        return vxlan;
+    }
+
+    private static byte[] encrypt(UserInfo user, VXLanPacket vxlan) {
+        VProxyEncryptedPacket p = new VProxyEncryptedPacket();
+        p.setUser(user);
+        p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
+        p.setType(Consts.VPROXY_SWITCH_TYPE_VXLAN);
+        p.setVxlan(vxlan);
+        return p.getRawPacket().toJavaArray();
+    }
+
+    private static void run(String name, Endpoint from, byte[] packet, Endpoint to, InetSocketAddress target,
+                            int warmup, int rounds,
+                            com.sun.management.ThreadMXBean mx, long switchTid) throws Exception {
+        send(from, packet, to, target, warmup);
+
+        long allocBefore = mx.getThreadAllocatedBytes(switchTid);
+        long received = to.received.get();
+        long start = System.nanoTime();
+        send(from, packet, to, target, rounds);
+        long cost = System.nanoTime() - start;
+        long allocated = mx.getThreadAllocatedBytes(switchTid) - allocBefore;
+        received = to.received.get() - received;
+
+        System.out.println(name + ":");
+        System.out.println("    packets:             " + received + " (sent " + rounds + ")");
+        System.out.println("    pps:                 " + (received * 1_000_000_000L / cost));
+        System.out.println("    bytes per packet:    " + ((double) allocated / received));
+    }
+
+    private static void send(Endpoint from, byte[] packet, Endpoint to, InetSocketAddress target, int count) throws Exception {
+        ByteBuffer buf = ByteBuffer.wrap(packet);
+        long base = to.received.get();
+        long lastProgress = System.currentTimeMillis();
+        long lastReceived = base;
+        int sent = 0;
+        while (sent < count) {
+            long inFlight = sent - (to.received.get() - base);
+            if (inFlight >= window) {
+                long r = to.received.get();
+                if (r != lastReceived) {
+                    lastReceived = r;
+                    lastProgress = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastProgress > 1000) {
+                    // some packets are lost, do not wait for them
+                    base -= inFlight;
+                    lastProgress = System.currentTimeMillis();
+                }
+                Thread.onSpinWait();
+                continue;
+            }
+            buf.clear();
+            from.ch.send(buf, target);
+            ++sent;
+        }
+        // wait for the last packets
+        long deadline = System.currentTimeMillis() + 1000;
+        while (to.received.get() - base < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static class Endpoint {
+        final DatagramChannel ch;
+        final AtomicLong received = new AtomicLong();
+        final Thread thread;
+
+        Endpoint(String name) throws Exception {
+            ch = DatagramChannel.open();
+            ch.bind(new InetSocketAddress("127.0.0.1", 0));
+            thread = new Thread(() -> {
+                ByteBuffer buf = ByteBuffer.allocate(2048);
+                while (ch.isOpen()) {
+                    buf.clear();
+                    try {
+                        ch.receive(buf);
+                    } catch (Exception e) {
+                        break;
+                    }
+                    received.incrementAndGet();
+                }
+            }, "receiver-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void close() throws Exception {
+            ch.close();
+        }
+    }
+}
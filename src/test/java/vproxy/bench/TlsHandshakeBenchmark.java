@@ -0,0 +1,173 @@
+package vproxy.bench;
+
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
+import vproxy.util.ringbuffer.ssl.VSSLContext;
+
+import javax.net.ssl.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+// measure full tls handshakes per second on a tls tcp-lb
+// `clients` threads connect, finish the handshake and close in a loop, sessions are never resumed
+// run with -DsslHandshakeInline=true to compare with running the handshake tasks on the event loop
+// note: the clients run in the same process, so they share the cpu with the lb
+public class TlsHandshakeBenchmark {
+    private static final int LB_PORT = 18473;
+    private static final int BACKEND_PORT = 18474;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int warmupMillis = 3_000;
+        int runMillis = 10_000;
+
+        char[] passphrase = "passphrase".toCharArray();
+        KeyStore ks = KeyStore.getInstance("JKS");
+        ks.load(TlsHandshakeBenchmark.class.getResourceAsStream("/testkeys"), passphrase);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, passphrase);
+        SSLContext serverCtx = SSLContext.getInstance("TLS");
+        serverCtx.init(kmf.getKeyManagers(), null, null);
+        VSSLContext sslContext = new VSSLContext();
+        sslContext.sslContextHolder.add(serverCtx, new X509Certificate[0]);
+
+        // the backend keeps the connections until they are closed by the lb
+        ServerSocketChannel backend = ServerSocketChannel.open();
+        backend.bind(new InetSocketAddress("127.0.0.1", BACKEND_PORT));
+        Thread backendThread = new Thread(() -> runBackend(backend), "backend");
+        backendThread.setDaemon(true);
+        backendThread.start();
+
+        EventLoopGroup elg = new EventLoopGroup("tls-bench");
+        elg.add("el0");
+        elg.add("el1");
+        ServerGroup sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("svr0", new IPPort("127.0.0.1", BACKEND_PORT), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        TcpLB lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", LB_PORT), ups,
+            10_000, 16384, 16384, "tcp", sslContext, null, SecurityGroup.allowAll());
+        lb.start();
+
+        SSLContext clientCtx = SSLContext.getInstance("TLS");
+        clientCtx.init(null, new TrustManager[]{new TrustAll()}, null);
+        SSLSocketFactory factory = clientCtx.getSocketFactory();
+
+        AtomicLong handshakes = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; ++i) {
+            threads[i] = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try (SSLSocket sock = (SSLSocket) factory.createSocket("127.0.0.1", LB_PORT)) {
+                        sock.startHandshake();
+                        sock.getSession().invalidate(); // always do a full handshake
+                        handshakes.incrementAndGet();
+                    } catch (Exception e) {
+                        if (failures.incrementAndGet() == 1) {
+                            System.out.println("first failure: " + e);
+                        }
+                    }
+                }
+            }, "client-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        Thread.sleep(warmupMillis);
+        mx.resetPeakThreadCount();
+        long before = handshakes.get();
+        long failuresBefore = failures.get();
+        long start = System.nanoTime();
+        Thread.sleep(runMillis);
+        long done = handshakes.get() - before;
+        long cost = System.nanoTime() - start;
+
+        System.out.println("inline:                " + Boolean.getBoolean("sslHandshakeInline"));
+        System.out.println("client threads:        " + clients);
+        System.out.println("handshakes:            " + done);
+        System.out.println("failures:              " + (failures.get() - failuresBefore));
+        System.out.println("handshakes per second: " + (done * 1_000_000_000L / cost));
+        System.out.println("peak jvm threads:      " + mx.getPeakThreadCount());
+        System.out.println("executor:              " + SSLHandshakeExecutor.get().stats());
+
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        for (Thread t : threads) {
+            t.join(1000);
+        }
+        lb.destroy();
+        sg.destroy();
+        elg.close();
+        backend.close();
+    }
+
+    private static void runBackend(ServerSocketChannel server) {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        try (Selector selector = Selector.open()) {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (server.isOpen()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isAcceptable()) {
+                        SocketChannel sock = server.accept();
+                        if (sock != null) {
+                            sock.configureBlocking(false);
+                            sock.register(selector, SelectionKey.OP_READ);
+                        }
+                    } else if (key.isReadable()) {
+                        SocketChannel sock = (SocketChannel) key.channel();
+                        buf.clear();
+                        int n;
+                        try {
+                            n = sock.read(buf);
+                        } catch (IOException e) {
+                            n = -1;
+                        }
+                        if (n < 0) {
+                            sock.close();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (Exception ignore) {
+        }
+    }
+
+    private static class TrustAll implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
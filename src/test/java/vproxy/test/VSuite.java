@@ -11,15 +11,30 @@ import vproxy.test.cases.*;
     TestTcpLB.class,
     TestNetMask.class,
     TestTimer.class,
+    TestTimeQueue.class,
+    TestRingBuffer.class,
+    TestDirectBufferPool.class,
     TestResolver.class,
     TestSocks5.class,
     TestConnectClient.class,
     TestSSL.class,
     TestProtocols.class,
     TestHttp1Parser.class,
+    TestHttp2HPack.class,
     TestHealthCheck.class,
+    TestServerGroup.class,
+    TestABP.class,
+    TestLogger.class,
     TestPacket.class,
     TestRouteTable.class,
+    TestIntMap.class,
+    TestDatagramBatch.class,
+    TestSSLSession.class,
+    TestBackendConnectionPool.class,
+    TestSharedBackendConnection.class,
+    TestLatencyRecorder.class,
+    TestEpollSelector.class,
+    TestSSLHandshakeExecutor.class,
 
     AfterAll.class
 })
@@ -0,0 +1,168 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxyx.websocks.ABP;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestABP {
+    @Test
+    public void matchingSpecificURI() {
+        ABP abp = new ABP(false);
+        abp.addRule("||example.com");
+        assertTrue(abp.block("example.com"));
+        assertTrue(abp.block("a.example.com"));
+        assertTrue(abp.block("b.a.example.com"));
+        assertFalse(abp.block("aexample.com"));
+        assertFalse(abp.block("example.com.cn"));
+        assertFalse(abp.block("com"));
+    }
+
+    @Test
+    public void matchingFromBeginning() {
+        ABP abp = new ABP(false);
+        abp.addRule("|http://example.com/path");
+        assertTrue(abp.block("example.com"));
+        assertFalse(abp.block("a.example.com"));
+        assertFalse(abp.block("example.com.cn"));
+    }
+
+    @Test
+    public void simple() {
+        ABP abp = new ABP(false);
+        abp.addRule("google\n" +
+            ".twitter.\n" +
+            "gle.co");
+        assertTrue(abp.block("www.google.com"));
+        assertTrue(abp.block("google"));
+        assertTrue(abp.block("api.twitter.com"));
+        assertFalse(abp.block("twitter.com"));
+        assertTrue(abp.block("eagle.co"));
+        assertFalse(abp.block("example.com"));
+    }
+
+    @Test
+    public void regexp() {
+        ABP abp = new ABP(false);
+        abp.addRule("/^https?:\\/\\/[^\\/]+blogspot\\.(.*)/\n" +
+            "/^(www)\\.\\1\\.com$/\n" +
+            "/[0-9]+\\.example\\.com/");
+        assertTrue(abp.block("a.blogspot.com"));
+        assertFalse(abp.block("blogspot.com"));
+        assertTrue(abp.block("www.www.com"));
+        assertFalse(abp.block("www.xxx.com"));
+        assertTrue(abp.block("123.example.com"));
+        assertFalse(abp.block("a.example.com"));
+    }
+
+    @Test
+    public void whitelist() {
+        ABP abp = new ABP(true);
+        abp.addRule("@@||example.com\n" +
+            "@@|a.example.net\n" +
+            "@@/.*\\.example\\.org/\n" +
+            "@@keyword");
+        assertFalse(abp.block("example.com"));
+        assertFalse(abp.block("x.example.com"));
+        assertTrue(abp.block("anexample.com"));
+        assertFalse(abp.block("a.example.net"));
+        assertFalse(abp.block("a.example.network"));
+        assertTrue(abp.block("b.a.example.net"));
+        assertFalse(abp.block("www.example.org"));
+        assertTrue(abp.block("example.org"));
+        assertFalse(abp.block("a-keyword-b.com"));
+        assertTrue(abp.block("google.com"));
+    }
+
+    @Test
+    public void firstMatchWins() {
+        ABP abp = new ABP(false);
+        abp.addRule("@@||a.example.com\n" +
+            "||example.com\n" +
+            "@@||b.example.com\n" +
+            "example\n" +
+            "@@exam");
+        assertFalse(abp.block("a.example.com"));
+        assertFalse(abp.block("x.a.example.com"));
+        assertTrue(abp.block("b.example.com"));
+        assertTrue(abp.block("example.com"));
+        assertTrue(abp.block("example.net"));
+        assertFalse(abp.block("exam.net"));
+
+        abp = new ABP(true);
+        abp.addRule("/.*\\.example\\.com/\n" +
+            "@@/a\\.example\\.com/\n" +
+            "@@b.example");
+        assertTrue(abp.block("a.example.com"));
+        assertTrue(abp.block("b.example.com"));
+        assertFalse(abp.block("b.example.net"));
+    }
+
+    @Test
+    public void commentsAndBase64() {
+        ABP abp = new ABP(false);
+        abp.addBase64(Base64.getEncoder().encodeToString(("[AutoProxy 0.2.9]\n" +
+            "! comment\n" +
+            "\n" +
+            "||example.com\n").getBytes()));
+        assertTrue(abp.block("example.com"));
+        assertFalse(abp.block("comment"));
+    }
+
+    @Test
+    public void addRuleAfterQuery() {
+        ABP abp = new ABP(false);
+        abp.addRule("||example.com");
+        assertFalse(abp.block("example.net"));
+        assertFalse(abp.block("example.net"));
+        // the cached result should be dropped
+        abp.addRule("||example.net");
+        assertTrue(abp.block("example.net"));
+        abp.addRule("net");
+        assertTrue(abp.block("a.net"));
+    }
+
+    @Test
+    public void checkFromThreads() throws Exception {
+        ABP abp = new ABP(false);
+        abp.addRule("@@||www.example.com\n||example.com\n/^ab+c\\.org$/");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 10_000; ++i) {
+                        assertTrue(abp.block("a" + (i % 100) + ".example.com"));
+                        assertFalse(abp.block("www.example.com"));
+                        assertTrue(abp.block("abbbc.org"));
+                        assertFalse(abp.block("example" + (i % 100) + ".net"));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+
+            // the caches of other threads are dropped as well
+            abp.addRule("net");
+            futures.clear();
+            for (int t = 0; t < 4; ++t) {
+                futures.add(pool.submit(() -> assertTrue(abp.block("example1.net"))));
+            }
+            for (Future<?> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
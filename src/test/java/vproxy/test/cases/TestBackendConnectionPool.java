@@ -0,0 +1,183 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestBackendConnectionPool {
+    private static final int lbPort = 18091;
+    private static final int backendPort = 20091;
+
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+    private TcpLB lb;
+    private ServerSocket backend;
+    private Thread backendAcceptor;
+    // connections which served requests, the health check connections are not counted
+    private final AtomicInteger backendConnections = new AtomicInteger();
+    private final AtomicInteger acceptSeq = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new ServerSocket();
+        backend.bind(new InetSocketAddress("127.0.0.1", backendPort));
+        backendAcceptor = new Thread(this::runBackend, "backend");
+        backendAcceptor.setDaemon(true);
+        backendAcceptor.start();
+
+        elg = new EventLoopGroup("elg0");
+        // one loop, so all frontend connections use the same pool
+        elg.add("el0");
+        sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("svr0", new IPPort("127.0.0.1", backendPort), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", lbPort), ups,
+            10_000, 16384, 16384, "http/1.x", null, null, SecurityGroup.allowAll());
+        lb.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        lb.destroy();
+        sg.destroy();
+        elg.close();
+        backend.close();
+        // the listening socket is released only after the blocking accept() returns
+        backendAcceptor.join();
+    }
+
+    // responds the sequence number of the backend connection
+    // closes the connection after responding to /close
+    private void runBackend() {
+        while (!backend.isClosed()) {
+            Socket sock;
+            try {
+                sock = backend.accept();
+            } catch (IOException e) {
+                return;
+            }
+            int id = acceptSeq.incrementAndGet();
+            Thread t = new Thread(() -> {
+                try (sock) {
+                    InputStream in = sock.getInputStream();
+                    OutputStream out = sock.getOutputStream();
+                    String head;
+                    boolean served = false;
+                    while ((head = readHead(in)) != null) {
+                        if (!served) {
+                            served = true;
+                            backendConnections.incrementAndGet();
+                        }
+                        String body = "" + id;
+                        out.write(("HTTP/1.1 200 OK\r\n" +
+                            "Content-Length: " + body.length() + "\r\n" +
+                            "\r\n" +
+                            body).getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        if (head.startsWith("GET /close ")) {
+                            return;
+                        }
+                    }
+                } catch (IOException ignore) {
+                }
+            }, "backend-" + id);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            head.write(b);
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.UTF_8);
+    }
+
+    // send one request in a new frontend connection
+    // returns the backend connection id which handled the request
+    private static String request(String requestLine, String... headers) throws Exception {
+        String body;
+        try (Socket sock = new Socket()) {
+            sock.setSoTimeout(2000);
+            sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+            StringBuilder req = new StringBuilder(requestLine).append("\r\n")
+                .append("Host: example.com\r\n");
+            for (String h : headers) {
+                req.append(h).append("\r\n");
+            }
+            req.append("\r\n");
+            sock.getOutputStream().write(req.toString().getBytes(StandardCharsets.UTF_8));
+            InputStream in = sock.getInputStream();
+            String head = readHead(in);
+            assertNotNull(head);
+            assertTrue(head, head.startsWith("HTTP/1.1 200 OK\r\n"));
+            int len = Integer.parseInt(head.substring(head.indexOf("Content-Length: ") + "Content-Length: ".length(), head.indexOf("\r\n\r\n")));
+            byte[] b = in.readNBytes(len);
+            body = new String(b, StandardCharsets.UTF_8);
+        }
+        // let the lb handle the closing of the frontend connection
+        Thread.sleep(200);
+        return body;
+    }
+
+    @Test
+    public void reuseBetweenFrontendConnections() throws Exception {
+        String id = request("GET / HTTP/1.1");
+        assertEquals(id, request("GET /a HTTP/1.1"));
+        assertEquals(id, request("GET /b HTTP/1.1"));
+        assertEquals(1, backendConnections.get());
+    }
+
+    @Test
+    public void connectionClose() throws Exception {
+        String id = request("GET / HTTP/1.1", "Connection: close");
+        assertNotEquals(id, request("GET / HTTP/1.1"));
+        assertEquals(2, backendConnections.get());
+    }
+
+    @Test
+    public void http10() throws Exception {
+        String id = request("GET / HTTP/1.0");
+        assertNotEquals(id, request("GET / HTTP/1.1"));
+        assertEquals(2, backendConnections.get());
+    }
+
+    @Test
+    public void closedByBackendWhenIdle() throws Exception {
+        String id = request("GET /close HTTP/1.1");
+        // the idle connection is closed by the backend, a new one is made
+        String id2 = request("GET / HTTP/1.1");
+        assertNotEquals(id, id2);
+        assertEquals(id2, request("GET / HTTP/1.1"));
+        assertEquals(2, backendConnections.get());
+    }
+}
@@ -0,0 +1,100 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.DatagramBatch;
+import vfd.DatagramFD;
+import vfd.FDProvider;
+import vfd.IPPort;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TestDatagramBatch {
+    private DatagramFD a;
+    private DatagramFD b;
+    private IPPort addrA;
+    private IPPort addrB;
+
+    @Before
+    public void setUp() throws Exception {
+        a = FDProvider.get().openDatagramFD();
+        b = FDProvider.get().openDatagramFD();
+        a.configureBlocking(false);
+        b.configureBlocking(false);
+        addrA = new IPPort("127.0.0.1", 19081);
+        addrB = new IPPort("127.0.0.1", 19082);
+        a.bind(addrA);
+        b.bind(addrB);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        a.close();
+        b.close();
+    }
+
+    private static int receiveAll(DatagramFD fd, DatagramBatch batch, int expected) throws Exception {
+        // the packets may not arrive immediately
+        long deadline = System.currentTimeMillis() + 2000;
+        int n = 0;
+        while (n < expected && System.currentTimeMillis() < deadline) {
+            n = fd.receiveBatch(batch);
+            if (n == 0) {
+                Thread.sleep(10);
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void sendAndReceive() throws Exception {
+        DatagramBatch snd = new DatagramBatch(8, 64);
+        for (int i = 0; i < 8; ++i) {
+            ByteBuffer slot = snd.slot(i);
+            byte[] content = ("packet-" + i).getBytes(StandardCharsets.UTF_8);
+            slot.put(content);
+            snd.set(i, content.length, addrB);
+        }
+        assertEquals(8, a.sendBatch(snd, 8));
+
+        DatagramBatch rcv = new DatagramBatch(8, 64);
+        int n = receiveAll(b, rcv, 8);
+        assertEquals(8, n);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(addrA, rcv.address(i));
+            ByteBuffer buf = rcv.get(i);
+            byte[] content = new byte[buf.remaining()];
+            buf.get(content);
+            assertEquals("packet-" + i, new String(content, StandardCharsets.UTF_8));
+        }
+        assertEquals(0, b.receiveBatch(rcv));
+    }
+
+    @Test
+    public void batchSizeLimitsReceive() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        for (int i = 0; i < 5; ++i) {
+            buf.clear();
+            buf.putInt(i).flip();
+            assertEquals(4, a.send(buf, addrB));
+        }
+
+        DatagramBatch rcv = new DatagramBatch(3, 16);
+        assertEquals(3, receiveAll(b, rcv, 3));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(4, rcv.length(i));
+            assertEquals(i, rcv.get(i).getInt());
+        }
+        // the address object is reused when the remote is the same
+        IPPort last = rcv.address(0);
+        assertEquals(2, receiveAll(b, rcv, 2));
+        assertEquals(3, rcv.get(0).getInt());
+        assertEquals(4, rcv.get(1).getInt());
+        assertEquals(addrA, rcv.address(0));
+        assertEquals(last, rcv.address(0));
+    }
+}
@@ -0,0 +1,115 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.DirectBufferPool;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TestDirectBufferPool {
+    private SelectorEventLoop loop;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(Thread::new);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+    }
+
+    private <T> T onLoop(Supplier<T> f) throws Exception {
+        CompletableFuture<T> fu = new CompletableFuture<>();
+        loop.runOnLoop(() -> fu.complete(f.get()));
+        return fu.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void sizeClasses() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        assertEquals(1024, pool.take(1).capacity());
+        assertEquals(1024, pool.take(1024).capacity());
+        assertEquals(2048, pool.take(1025).capacity());
+        assertEquals(16384, pool.take(16384).capacity());
+        assertEquals(1024 * 1024, pool.take(1024 * 1024).capacity());
+        assertTrue(DirectBufferPool.isPoolable(1024 * 1024));
+        assertFalse(DirectBufferPool.isPoolable(1024 * 1024 + 1));
+        assertFalse(DirectBufferPool.isPoolable(0));
+        assertEquals(5, pool.stats().miss());
+        pool.close();
+    }
+
+    @Test
+    public void reuseAndLimit() {
+        DirectBufferPool pool = new DirectBufferPool(32768);
+        ByteBuffer a = pool.take(16384);
+        ByteBuffer b = pool.take(16000);
+        ByteBuffer c = pool.take(10000);
+        assertEquals(3, pool.stats().miss());
+
+        // released from a non loop thread
+        pool.release(a);
+        pool.release(b);
+        pool.release(c); // exceeds the limit
+        DirectBufferPool.Stats stats = pool.stats();
+        assertEquals(2, stats.pooledCount());
+        assertEquals(32768, stats.pooledBytes());
+        assertEquals(1, stats.dropped());
+
+        ByteBuffer d = pool.take(12345);
+        assertTrue(d == a || d == b);
+        assertEquals(0, d.position());
+        assertEquals(16384, d.limit());
+        stats = pool.stats();
+        assertEquals(1, stats.hit());
+        assertEquals(1, stats.pooledCount());
+        assertEquals(16384, stats.pooledBytes());
+
+        pool.close();
+        assertEquals(0, pool.stats().pooledBytes());
+        pool.release(d); // cleaned directly
+        assertEquals(0, pool.stats().pooledCount());
+    }
+
+    @Test
+    public void ringBufferOnLoop() throws Exception {
+        SimpleRingBuffer buf = onLoop(() -> SimpleRingBuffer.allocateDirect(10000));
+        assertEquals(10000, buf.capacity());
+        assertEquals(10000, buf.free());
+        assertEquals(1, loop.bufferPool.stats().miss());
+
+        // cleaned on the loop
+        onLoop(() -> {
+            buf.clean();
+            return null;
+        });
+        assertEquals(1, loop.bufferPool.stats().pooledCount());
+
+        SimpleRingBuffer buf2 = onLoop(() -> SimpleRingBuffer.allocateDirect(16384));
+        assertEquals(16384, buf2.capacity());
+        assertEquals(1, loop.bufferPool.stats().hit());
+        assertEquals(0, loop.bufferPool.stats().pooledCount());
+
+        // cleaned on another thread
+        buf2.clean();
+        assertEquals(1, loop.bufferPool.stats().pooledCount());
+        onLoop(() -> SimpleRingBuffer.allocateDirect(9999));
+        assertEquals(2, loop.bufferPool.stats().hit());
+
+        // not on any loop
+        SimpleRingBuffer buf3 = SimpleRingBuffer.allocateDirect(16384);
+        buf3.clean();
+        assertEquals(2, loop.bufferPool.stats().hit());
+        assertEquals(1, loop.bufferPool.stats().miss());
+    }
+}
@@ -0,0 +1,278 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import vfd.*;
+import vfd.epoll.EpollFDs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// requires libvfdposix on java.library.path, e.g. -Djava.library.path=./src/main/c
+// the cases are skipped if the lib is not found
+public class TestEpollSelector {
+    private static final int serverPort = 19093;
+
+    private static EpollFDs fds;
+
+    private final List<FDSelector> selectors = new ArrayList<>();
+    private ServerSocketFD server;
+    private final List<Socket> clients = new ArrayList<>();
+
+    @BeforeClass
+    public static void beforeClass() {
+        if (VFDConfig.vfdlibname == null) {
+            VFDConfig.vfdlibname = "vfdposix";
+        }
+        try {
+            System.loadLibrary(VFDConfig.vfdlibname);
+        } catch (UnsatisfiedLinkError e) {
+            Assume.assumeNoException(e);
+        }
+        fds = new EpollFDs();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = fds.openServerSocketFD();
+        server.bind(new IPPort("127.0.0.1", serverPort));
+        server.configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket c : clients) {
+            c.close();
+        }
+        server.close();
+        for (FDSelector s : selectors) {
+            s.close();
+        }
+    }
+
+    private FDSelector openSelector() throws IOException {
+        FDSelector s = fds.openSelector();
+        selectors.add(s);
+        return s;
+    }
+
+    private Socket connect() throws IOException {
+        Socket sock = new Socket();
+        clients.add(sock);
+        sock.connect(new InetSocketAddress("127.0.0.1", serverPort));
+        return sock;
+    }
+
+    private static SelectedEntry find(Collection<SelectedEntry> entries, FD fd) {
+        for (SelectedEntry e : entries) {
+            if (e.fd == fd) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    // select until the fd is reported
+    private static SelectedEntry waitFor(FDSelector selector, FD fd) throws IOException {
+        for (int i = 0; i < 100; ++i) {
+            SelectedEntry e = find(selector.select(20), fd);
+            if (e != null) {
+                return e;
+            }
+        }
+        fail("the fd is not reported: " + fd);
+        return null;
+    }
+
+    private SocketFD acceptOne() throws IOException {
+        SocketFD sock = null;
+        for (int i = 0; i < 100 && sock == null; ++i) {
+            sock = server.accept();
+        }
+        assertNotNull(sock);
+        sock.configureBlocking(false);
+        return sock;
+    }
+
+    @Test
+    public void register() throws Exception {
+        FDSelector selector = openSelector();
+        Object att = new Object();
+        selector.register(server, EventSet.read(), att);
+        assertTrue(selector.isRegistered(server));
+        assertSame(att, selector.attachment(server));
+        assertEquals(EventSet.read(), selector.events(server));
+
+        assertNull(find(selector.selectNow(), server));
+        connect();
+        SelectedEntry e = waitFor(selector, server);
+        assertEquals(EventSet.read(), e.ready);
+        assertSame(att, e.attachment);
+
+        // still reported before EAGAIN is seen
+        assertNotNull(find(selector.selectNow(), server));
+        assertNotNull(server.accept());
+        assertNull(server.accept()); // EAGAIN
+        assertNull(find(selector.selectNow(), server));
+
+        selector.remove(server);
+        assertFalse(selector.isRegistered(server));
+        connect();
+        assertNull(find(selector.select(100), server));
+    }
+
+    @Test
+    public void modify() throws Exception {
+        FDSelector selector = openSelector();
+        connect();
+        selector.register(server, EventSet.none(), null);
+        // ready but not watched
+        assertNull(find(selector.select(100), server));
+
+        // reported without a new edge
+        selector.modify(server, EventSet.read());
+        assertEquals(EventSet.read(), selector.events(server));
+        assertEquals(EventSet.read(), waitFor(selector, server).ready);
+
+        selector.modify(server, EventSet.none());
+        assertNull(find(selector.selectNow(), server));
+        selector.modify(server, EventSet.read());
+        assertNotNull(find(selector.selectNow(), server));
+    }
+
+    @Test
+    public void modifyFromAnotherThread() throws Exception {
+        FDSelector selector = openSelector();
+        connect();
+        selector.register(server, EventSet.none(), null);
+        assertNull(find(selector.select(100), server));
+
+        Thread t = new Thread(() -> selector.modify(server, EventSet.read()));
+        t.start();
+        t.join();
+        assertEquals(EventSet.read(), waitFor(selector, server).ready);
+    }
+
+    @Test
+    public void rearmEdge() throws Exception {
+        FDSelector selector = openSelector();
+        selector.register(server, EventSet.read(), null);
+        Socket client = connect();
+        waitFor(selector, server);
+        SocketFD sock = acceptOne();
+        selector.register(sock, EventSet.read(), null);
+        assertNull(find(selector.selectNow(), sock));
+
+        OutputStream out = client.getOutputStream();
+        out.write(new byte[]{1, 2, 3, 4});
+        out.flush();
+        assertEquals(EventSet.read(), waitFor(selector, sock).ready);
+
+        // buffer filled, not a short read, the fd is still reported
+        ByteBuffer buf = ByteBuffer.allocate(2);
+        assertEquals(2, sock.read(buf));
+        assertNotNull(find(selector.selectNow(), sock));
+        // short read, the receive queue is drained
+        buf = ByteBuffer.allocate(16);
+        assertEquals(2, sock.read(buf));
+        assertNull(find(selector.selectNow(), sock));
+
+        // re-armed by the next edge
+        out.write(5);
+        out.flush();
+        waitFor(selector, sock);
+        buf = ByteBuffer.allocate(16);
+        assertEquals(1, sock.read(buf));
+        assertNull(find(selector.selectNow(), sock));
+
+        // writable is reported when watched, the send buffer is empty
+        selector.modify(sock, EventSet.readwrite());
+        assertEquals(EventSet.write(), waitFor(selector, sock).ready);
+
+        // closed by the remote
+        client.close();
+        selector.modify(sock, EventSet.read());
+        waitFor(selector, sock);
+        assertEquals(-1, sock.read(ByteBuffer.allocate(16)));
+        sock.close();
+    }
+
+    @Test
+    public void dataWithFIN() throws Exception {
+        FDSelector selector = openSelector();
+        selector.register(server, EventSet.read(), null);
+        Socket client = connect();
+        waitFor(selector, server);
+        SocketFD sock = acceptOne();
+
+        // the data and the FIN are reported in one edge
+        OutputStream out = client.getOutputStream();
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        client.shutdownOutput();
+        Thread.sleep(100);
+        selector.register(sock, EventSet.read(), null);
+        waitFor(selector, sock);
+
+        // a short read does not mean the EOF is consumed
+        assertEquals(3, sock.read(ByteBuffer.allocate(16)));
+        waitFor(selector, sock);
+        assertEquals(-1, sock.read(ByteBuffer.allocate(16)));
+        sock.close();
+    }
+
+    @Test
+    public void sharedFD() throws Exception {
+        FDSelector selector1 = openSelector();
+        FDSelector selector2 = openSelector();
+        selector1.register(server, EventSet.read(), "1");
+        selector2.register(server, EventSet.read(), "2");
+
+        ExecutorService loop2 = Executors.newSingleThreadExecutor();
+        try {
+            connect();
+            assertEquals("1", waitFor(selector1, server).attachment);
+            // drained in loop 1, only the readiness of selector 1 is cleared
+            assertNotNull(server.accept());
+            assertNull(server.accept());
+            assertNull(find(selector1.selectNow(), server));
+
+            // loop 2 sees EAGAIN by itself if it was woken up as well
+            loop2.submit(() -> {
+                for (SelectedEntry e : selector2.selectNow()) {
+                    assertSame(server, e.fd);
+                    assertNull(server.accept());
+                }
+                assertNull(find(selector2.selectNow(), server));
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+
+            // removing from one selector does not affect the other one
+            loop2.submit(() -> {
+                selector2.remove(server);
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+            connect();
+            assertEquals("1", waitFor(selector1, server).attachment);
+            assertNotNull(server.accept());
+            assertNull(server.accept());
+            assertNull(find(selector1.selectNow(), server));
+        } finally {
+            loop2.shutdownNow();
+        }
+    }
+}
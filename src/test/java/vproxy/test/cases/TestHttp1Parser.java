@@ -13,6 +13,7 @@ import vproxy.util.ByteArray;
 
 import java.util.LinkedHashMap;
 import java.util.Objects;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -569,4 +570,143 @@ public class TestHttp1Parser {
         assertEquals("B-Trail", resp.trailers.get(1).key);
         assertEquals("value2", resp.trailers.get(1).value);
     }
+
+    private static final String additionalHeaders = "" +
+        "x-forwarded-for: " + forwardedFor + "\r\n" +
+        "x-client-port: " + clientPort + "\r\n";
+
+    private static final String chunkedRequest = "" +
+        "POST /upload HTTP/1.1\r\n" +
+        "Host: www.example.com\r\n" +
+        "Transfer-Encoding: chunked\r\n" +
+        "\r\n" +
+        "1a  \r\n" +
+        "01234567890123456789012345\r\n" +
+        "3 ; some-extension\r\n" +
+        "012\r\n" +
+        "0\r\n" +
+        "A-Trail: value1\r\n" +
+        "\r\n";
+
+    private static String withAdditionalHeaders(String req) {
+        int idx = req.indexOf("\r\n\r\n") + 2;
+        return req.substring(0, idx) + additionalHeaders + req.substring(idx);
+    }
+
+    @Test
+    public void wholeRequestInOneFeed() throws Exception {
+        Processor<HttpContext, HttpSubContext> p = new HttpProcessor();
+        HttpContext ctx = p.init(address);
+        HttpSubContext front = p.initSub(ctx, 0, null);
+        front.setParserMode();
+
+        ByteArray r = front.feed(ByteArray.from(chunkedRequest.getBytes()));
+        assertEquals(withAdditionalHeaders(chunkedRequest), new String(r.toJavaArray()));
+        assertTrue(front.isIdle());
+
+        Request req = front.getReq();
+        assertEquals("POST", req.method);
+        assertEquals("/upload", req.uri);
+        assertEquals(2, req.headers.size());
+        assertEquals(3, req.chunks.size());
+        assertEquals(26, req.chunks.get(0).size);
+        assertEquals(ByteArray.from("01234567890123456789012345".getBytes()), req.chunks.get(0).content);
+        assertEquals("some-extension", req.chunks.get(1).extension);
+        assertEquals(ByteArray.from("012".getBytes()), req.chunks.get(1).content);
+        assertEquals(0, req.chunks.get(2).size);
+        assertEquals(1, req.trailers.size());
+        assertEquals("A-Trail", req.trailers.get(0).key);
+        assertEquals("value1", req.trailers.get(0).value);
+    }
+
+    @Test
+    public void keepAliveRequestsInOneFeed() throws Exception {
+        Processor<HttpContext, HttpSubContext> p = new HttpProcessor();
+        HttpContext ctx = p.init(address);
+        HttpSubContext front = p.initSub(ctx, 0, null);
+
+        String req1 = "" +
+            "POST /a HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "X-Forwarded-For: 5.6.7.8\r\n" +
+            "Content-Length: 10\r\n" +
+            "\r\n" +
+            "0123456789";
+        // the headers of the previous request must not be used
+        String req2 = "" +
+            "GET /b HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "\r\n";
+        String req3 = "" +
+            "GET /c HTTP/1.1\r\n" +
+            "\r\n";
+
+        ByteArray r = front.feed(ByteArray.from((req1 + req2 + req3).getBytes()));
+        assertEquals("" +
+                "POST /a HTTP/1.1\r\n" +
+                "Host: www.example.com\r\n" +
+                "X-Forwarded-For: 5.6.7.8\r\n" +
+                "Content-Length: 10\r\n" +
+                "x-client-port: " + clientPort + "\r\n" +
+                "\r\n" +
+                "0123456789" +
+                withAdditionalHeaders(req2) +
+                req3,
+            new String(r.toJavaArray()));
+        assertTrue(front.isIdle());
+        assertEquals(-1, front.len());
+    }
+
+    @Test
+    public void splitAnywhere() throws Exception {
+        String expected = withAdditionalHeaders(chunkedRequest);
+        byte[] bytes = chunkedRequest.getBytes();
+        Random rand = new Random(1);
+        for (int round = 0; round < 200; ++round) {
+            Processor<HttpContext, HttpSubContext> p = new HttpProcessor();
+            HttpContext ctx = p.init(address);
+            HttpSubContext front = p.initSub(ctx, 0, null);
+            front.setParserMode();
+
+            StringBuilder result = new StringBuilder();
+            int off = 0;
+            while (off < bytes.length) {
+                int n = 1 + rand.nextInt(Math.min(bytes.length - off, round < 100 ? 4 : 64));
+                if (front.len() > 0) { // the processor lib would not feed more than len() bytes
+                    n = Math.min(n, front.len());
+                }
+                ByteArray r = front.feed(ByteArray.from(bytes).sub(off, n));
+                result.append(new String(r.toJavaArray()));
+                off += n;
+            }
+            assertEquals(expected, result.toString());
+            assertTrue(front.isIdle());
+
+            Request req = front.getReq();
+            assertEquals("/upload", req.uri);
+            assertEquals("www.example.com", req.headers.get(0).value);
+            assertEquals(3, req.chunks.size());
+            assertEquals(ByteArray.from("01234567890123456789012345".getBytes()), req.chunks.get(0).content);
+            assertEquals(ByteArray.from("012".getBytes()), req.chunks.get(1).content);
+            assertEquals("value1", req.trailers.get(0).value);
+        }
+    }
+
+    @Test
+    public void invalidChunkSize() throws Exception {
+        Processor<HttpContext, HttpSubContext> p = new HttpProcessor();
+        HttpContext ctx = p.init(address);
+        HttpSubContext front = p.initSub(ctx, 0, null);
+
+        try {
+            front.feed(ByteArray.from(("" +
+                "POST /upload HTTP/1.1\r\n" +
+                "Host: www.example.com\r\n" +
+                "Transfer-Encoding: chunked\r\n" +
+                "\r\n" +
+                "1x\r\n").getBytes()));
+            fail();
+        } catch (NumberFormatException ignore) {
+        }
+    }
 }
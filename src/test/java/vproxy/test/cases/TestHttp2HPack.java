@@ -0,0 +1,315 @@
+package vproxy.test.cases;
+
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.processor.Processor;
+import vproxy.processor.http2.Http2Context;
+import vproxy.processor.http2.Http2Processor;
+import vproxy.processor.http2.Http2SubContext;
+import vproxy.util.ByteArray;
+import vproxy.util.io.ArrayInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+// drive the http2 processor the same way as the ProcessorConnectionHandler
+public class TestHttp2HPack {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+    private Http2Processor processor;
+    private Http2Context ctx;
+    private Http2SubContext front;
+    private ByteArrayOutputStream frontIn;
+    private final List<Backend> backends = new ArrayList<>();
+    private boolean roundRobin;
+    private int nextBackend = 0;
+
+    private final Encoder clientEncoder = new Encoder(4096);
+    // the header blocks sent by the client
+    private final List<byte[]> clientBlocks = new ArrayList<>();
+
+    private class Backend {
+        final Http2SubContext sub;
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        Backend(int id) {
+            sub = processor.initSub(ctx, id, null);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        processor = new Http2Processor();
+        ctx = processor.init(new IPPort("1.2.3.4", 5678));
+        front = processor.initSub(ctx, 0, null);
+        frontIn = new ByteArrayOutputStream();
+    }
+
+    private static byte[] frame(int type, int flags, int streamId, byte[] payload) {
+        ByteArray head = ByteArray.from(new byte[9]);
+        head.int24(0, payload.length);
+        head.set(3, (byte) type);
+        head.set(4, (byte) flags);
+        head.int32(5, streamId);
+        return head.concat(ByteArray.from(payload)).toJavaArray();
+    }
+
+    private Backend getConnection(int connId) {
+        if (connId > 0) {
+            return backends.get(connId - 1);
+        }
+        assertEquals(-1, connId);
+        Backend b;
+        if (roundRobin || backends.isEmpty()) {
+            int idx = nextBackend++ % 2;
+            if (idx < backends.size()) {
+                b = backends.get(idx);
+            } else {
+                b = new Backend(backends.size() + 1);
+                backends.add(b);
+                ByteArray bytes = processor.connected(ctx, b.sub);
+                if (bytes != null) {
+                    b.received.writeBytes(bytes.toJavaArray());
+                }
+            }
+        } else {
+            b = backends.get(0);
+        }
+        processor.chosen(ctx, front, b.sub);
+        return b;
+    }
+
+    private void clientSend(byte[] bytes) throws Exception {
+        frontIn.writeBytes(bytes);
+        byte[] buf = frontIn.toByteArray();
+        int off = 0;
+        while (true) {
+            Processor.Mode mode = processor.mode(ctx, front);
+            int len = processor.len(ctx, front);
+            if (buf.length - off < len) {
+                break;
+            }
+            ByteArray data = ByteArray.from(Arrays.copyOfRange(buf, off, off + len));
+            off += len;
+            if (mode == Processor.Mode.proxy) {
+                Backend b = getConnection(processor.connection(ctx, front));
+                b.received.writeBytes(data.toJavaArray());
+                processor.proxyDone(ctx, front);
+                continue;
+            }
+            ByteArray out = processor.feed(ctx, front, data);
+            processor.produce(ctx, front);
+            int connId = processor.connection(ctx, front);
+            if (connId == 0) {
+                assertTrue(out == null || out.length() == 0);
+                continue;
+            }
+            Backend b = getConnection(connId);
+            if (out != null && out.length() != 0) {
+                out = processor.beforeWritingToBackend(ctx, front, b.sub, out);
+                b.received.writeBytes(out.toJavaArray());
+            }
+        }
+        frontIn = new ByteArrayOutputStream();
+        frontIn.write(buf, off, buf.length - off);
+    }
+
+    private void backendSend(Backend b, byte[] bytes) throws Exception {
+        int off = 0;
+        while (off < bytes.length) {
+            Processor.Mode mode = processor.mode(ctx, b.sub);
+            int len = processor.len(ctx, b.sub);
+            off += len;
+            if (mode == Processor.Mode.proxy) {
+                processor.proxyDone(ctx, b.sub);
+            } else {
+                processor.feed(ctx, b.sub, ByteArray.from(Arrays.copyOfRange(bytes, off - len, off)));
+            }
+        }
+    }
+
+    private void handshake() throws Exception {
+        clientSend(PREFACE);
+        clientSend(frame(4, 0, 0, new byte[0]));
+        assertEquals(1, backends.size());
+        nextBackend = 0;
+        backendSend(backends.get(0), frame(4, 0, 0, new byte[0]));
+        backendSend(backends.get(0), frame(4, 1, 0, new byte[0]));
+        clientSend(frame(4, 1, 0, new byte[0]));
+    }
+
+    private static List<String> headers(int i) {
+        return Arrays.asList(
+            ":method: GET",
+            ":scheme: http",
+            ":path: /" + i,
+            ":authority: example.com",
+            "host: example.com",
+            "user-agent: vproxy-test",
+            "x-req: " + i
+        );
+    }
+
+    private byte[] encode(List<String> headers) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String h : headers) {
+            int idx = h.indexOf(": ", 1);
+            clientEncoder.encodeHeader(out, h.substring(0, idx).getBytes(), h.substring(idx + 2).getBytes(), false);
+        }
+        byte[] block = out.toByteArray();
+        clientBlocks.add(block);
+        return block;
+    }
+
+    private void request(int streamId, int i, boolean endStream) throws Exception {
+        byte[] block = encode(headers(i));
+        clientSend(frame(1, 0x4 | (endStream ? 0x1 : 0), streamId, block));
+    }
+
+    private void requestWithContinuation(int streamId, int i) throws Exception {
+        byte[] block = encode(headers(i));
+        int split = block.length / 2;
+        clientSend(frame(1, 0x1, streamId, Arrays.copyOfRange(block, 0, split)));
+        clientSend(frame(9, 0x4, streamId, Arrays.copyOfRange(block, split, block.length)));
+    }
+
+    private static class Received {
+        final int streamId;
+        final int flags;
+        final byte[] firstPayload;
+        final List<String> headers;
+
+        Received(int streamId, int flags, byte[] firstPayload, List<String> headers) {
+            this.streamId = streamId;
+            this.flags = flags;
+            this.firstPayload = firstPayload;
+            this.headers = headers;
+        }
+    }
+
+    // decode header blocks received by the backend with its own decoder
+    private static List<Received> decode(Backend b) throws Exception {
+        byte[] bytes = b.received.toByteArray();
+        int off = 0;
+        if (bytes.length >= PREFACE.length && Arrays.equals(PREFACE, Arrays.copyOf(bytes, PREFACE.length))) {
+            off = PREFACE.length;
+        }
+        Decoder decoder = new Decoder(65536, 4096);
+        List<Received> result = new ArrayList<>();
+        List<String> headers = new ArrayList<>();
+        int streamId = 0;
+        int flags = 0;
+        byte[] firstPayload = null;
+        while (off < bytes.length) {
+            ByteArray head = ByteArray.from(Arrays.copyOfRange(bytes, off, off + 9));
+            int len = head.uint24(0);
+            int type = head.get(3);
+            byte[] payload = Arrays.copyOfRange(bytes, off + 9, off + 9 + len);
+            off += 9 + len;
+            if (type != 1 && type != 9) {
+                continue;
+            }
+            if (type == 1) {
+                streamId = head.int32(5);
+                flags = head.get(4);
+                firstPayload = payload;
+            }
+            decoder.decode(ArrayInputStream.from(ByteArray.from(payload)),
+                (name, value, sensitive) -> headers.add(new String(name) + ": " + new String(value)));
+            if ((head.get(4) & 0x4) != 0) {
+                decoder.endHeaderBlock();
+                result.add(new Received(streamId, flags, firstPayload, new ArrayList<>(headers)));
+                headers.clear();
+            }
+        }
+        return result;
+    }
+
+    private static List<String> expected(int i) {
+        List<String> ls = new ArrayList<>(headers(i));
+        ls.add("x-forwarded-for: 1.2.3.4");
+        ls.add("x-client-port: 5678");
+        return ls;
+    }
+
+    private static boolean startsWith(byte[] a, byte[] prefix) {
+        return a.length >= prefix.length && Arrays.equals(prefix, Arrays.copyOf(a, prefix.length));
+    }
+
+    @Test
+    public void passthroughWhenAllBlocksGoToOneBackend() throws Exception {
+        handshake();
+        for (int i = 0; i < 5; ++i) {
+            request(1 + i * 2, i, i % 2 == 0);
+        }
+        requestWithContinuation(11, 5);
+
+        assertEquals(1, backends.size());
+        List<Received> received = decode(backends.get(0));
+        assertEquals(6, received.size());
+        for (int i = 0; i < 6; ++i) {
+            Received r = received.get(i);
+            assertEquals(1 + i * 2, r.streamId);
+            assertEquals(expected(i), r.headers);
+            if (i < 5) {
+                // the client block is sent untouched, and the additional headers are appended
+                assertTrue(startsWith(r.firstPayload, clientBlocks.get(i)));
+                assertEquals(i % 2 == 0 ? 0x5 : 0x4, r.flags);
+            }
+        }
+        // the dynamic table works: the later blocks are smaller than the first one
+        assertTrue(received.get(4).firstPayload.length < received.get(0).firstPayload.length);
+    }
+
+    @Test
+    public void reencodeWhenBlocksGoToDifferentBackends() throws Exception {
+        handshake();
+        roundRobin = true;
+        for (int i = 0; i < 6; ++i) {
+            request(1 + i * 2, i, true);
+        }
+        requestWithContinuation(13, 6);
+        requestWithContinuation(15, 7);
+
+        assertEquals(2, backends.size());
+        Map<Integer, List<String>> all = new HashMap<>();
+        for (Backend b : backends) {
+            List<Received> received = decode(b);
+            assertEquals(4, received.size());
+            for (Received r : received) {
+                assertEquals(0x1, r.flags & 0x1);
+                all.put(r.streamId, r.headers);
+            }
+            // the backends use the dynamic table of their own
+            assertTrue(received.get(2).firstPayload.length * 2 < received.get(0).firstPayload.length);
+        }
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(expected(i), all.get(1 + i * 2));
+        }
+    }
+
+    @Test
+    public void reencodeWhenBackendTableIsSmaller() throws Exception {
+        clientSend(PREFACE);
+        clientSend(frame(4, 0, 0, new byte[0]));
+        // SETTINGS_HEADER_TABLE_SIZE = 0
+        backendSend(backends.get(0), frame(4, 0, 0, new byte[]{0, 1, 0, 0, 0, 0}));
+        backendSend(backends.get(0), frame(4, 1, 0, new byte[0]));
+        clientSend(frame(4, 1, 0, new byte[0]));
+
+        for (int i = 0; i < 3; ++i) {
+            request(1 + i * 2, i, true);
+        }
+        List<Received> received = decode(backends.get(0));
+        assertEquals(3, received.size());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(expected(i), received.get(i).headers);
+            assertFalse(startsWith(received.get(i).firstPayload, clientBlocks.get(i)));
+        }
+    }
+}
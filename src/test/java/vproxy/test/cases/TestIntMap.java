@@ -0,0 +1,139 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.util.IntIntMap;
+import vproxy.util.IntMap;
+import vproxy.util.SlotTable;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestIntMap {
+    @Test
+    public void intMap() {
+        Random rand = new Random(1);
+        IntMap<String> map = new IntMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; ++i) {
+            // small key range to produce many collisions and removals
+            int key = i % 3 == 0 ? rand.nextInt() : rand.nextInt(2048) * 2 - 1024;
+            int op = rand.nextInt(10);
+            if (op < 5) {
+                String v = "v" + i;
+                assertEquals(expected.put(key, v), map.put(key, v));
+            } else if (op < 8) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.get(key), map.get(key));
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Integer, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        Map<Integer, String> visited = new HashMap<>();
+        map.forEach((v, k) -> assertNull(visited.put(k, v)));
+        assertEquals(expected, visited);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(expected.keySet().iterator().next()));
+    }
+
+    @Test
+    public void intIntMap() {
+        Random rand = new Random(2);
+        IntIntMap map = new IntIntMap(0);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; ++i) {
+            int key = i % 3 == 0 ? rand.nextInt() : rand.nextInt(2048) * 2 - 1024;
+            int op = rand.nextInt(10);
+            if (op < 5) {
+                int v = rand.nextInt();
+                expected.put(key, v);
+                map.put(key, v);
+            } else if (op < 8) {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? Integer.MIN_VALUE : old, map.remove(key, Integer.MIN_VALUE));
+            } else {
+                Integer v = expected.get(key);
+                assertEquals(v == null ? Integer.MIN_VALUE : v, map.get(key, Integer.MIN_VALUE));
+                assertEquals(v != null, map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals((int) e.getValue(), map.get(e.getKey(), -1));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(expected.keySet().iterator().next(), -1));
+    }
+
+    @Test
+    public void slotTable() {
+        SlotTable<String> table = new SlotTable<>(4);
+        // more than the old 1024 limit
+        for (int i = 1; i <= 3000; ++i) {
+            assertEquals(i, table.add("v" + i));
+        }
+        assertEquals(3000, table.size());
+        assertEquals("v2048", table.get(2048));
+        assertNull(table.get(0));
+        assertNull(table.get(3001));
+        assertNull(table.get(-1));
+
+        assertEquals("v10", table.remove(10));
+        assertEquals("v20", table.remove(20));
+        assertNull(table.remove(20));
+        assertNull(table.get(10));
+        assertEquals(2998, table.size());
+
+        // released slots are reused with new ids
+        int id20 = table.allocate();
+        assertNotEquals(20, id20);
+        assertNull(table.get(20));
+        assertNull(table.get(id20));
+        table.set(id20, "x20");
+        assertEquals("x20", table.get(id20));
+        assertNull(table.get(20));
+        int id10 = table.add("x10");
+        assertNotEquals(10, id10);
+        assertEquals("x10", table.get(id10));
+        assertNull(table.get(10));
+        assertNull(table.remove(10));
+        assertEquals(3001, table.add("v3001"));
+
+        assertEquals("v1500", table.find(s -> s.equals("v1500")));
+        assertNull(table.find(s -> s.equals("v10")));
+
+        List<Integer> ids = new ArrayList<>();
+        table.forEach((v, id) -> {
+            ids.add(id);
+            assertSame(table.get(id), v);
+        });
+        assertEquals(3001, ids.size());
+        for (int i = 0; i < ids.size(); ++i) {
+            int expected = i + 1;
+            if (expected == 10) expected = id10;
+            else if (expected == 20) expected = id20;
+            assertEquals(expected, (int) ids.get(i));
+        }
+
+        // the old id is not valid after the slot is released and reused again
+        assertEquals("x20", table.remove(id20));
+        int id20b = table.add("y20");
+        assertNotEquals(id20, id20b);
+        assertNull(table.get(id20));
+        assertNull(table.remove(id20));
+        assertEquals("y20", table.get(id20b));
+
+        try {
+            table.set(5000, "x");
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.LatencyHistogram;
+import vproxy.util.LatencyRecorder;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestLatencyRecorder {
+    private static final int lbPort = 18092;
+    private static final int backendPort = 20092;
+
+    private SelectorEventLoop loop1;
+    private SelectorEventLoop loop2;
+
+    @Before
+    public void setUp() throws Exception {
+        loop1 = SelectorEventLoop.open();
+        loop1.loop(Thread::new);
+        loop2 = SelectorEventLoop.open();
+        loop2.loop(Thread::new);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!loop1.isClosed()) {
+            loop1.close();
+        }
+        loop2.close();
+    }
+
+    private static long count(LatencyRecorder.Kind kind) {
+        return LatencyRecorder.globalStats().get(kind).count();
+    }
+
+    private static void recordOnLoop(SelectorEventLoop loop, LatencyRecorder.Kind kind, long nanos) throws Exception {
+        CompletableFuture<Void> fu = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            LatencyRecorder.record(kind, nanos);
+            fu.complete(null);
+        });
+        fu.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void buckets() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(1_000); // 1us
+        h.record(2_000); // 2us
+        h.record(3_000); // 4us
+        h.record(1_000_000); // 1ms, 1024us
+        h.record(100_000_000_000L); // 100s, +Inf
+        LatencyHistogram.Snapshot s = new LatencyHistogram.Snapshot();
+        h.addTo(s);
+        assertEquals(2, s.buckets[0]);
+        assertEquals(1, s.buckets[1]);
+        assertEquals(1, s.buckets[2]);
+        assertEquals(1, s.buckets[10]);
+        assertEquals(1, s.buckets[LatencyHistogram.BOUNDED_BUCKETS]);
+        assertEquals(6, s.count());
+        assertEquals(100_001_006_000L, s.sumNanos);
+        assertEquals(1024, LatencyHistogram.upperBoundMicros(10));
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1_000); // le=1us
+        h.record(1_001); // le=2us
+        h.record(1_999); // le=2us
+        h.record(2_001); // le=4us
+        LatencyHistogram.Snapshot s = new LatencyHistogram.Snapshot();
+        h.addTo(s);
+        assertEquals(1, s.buckets[0]);
+        assertEquals(2, s.buckets[1]);
+        assertEquals(1, s.buckets[2]);
+    }
+
+    @Test
+    public void mergeLoops() throws Exception {
+        long before = count(LatencyRecorder.Kind.dnsQuery);
+        recordOnLoop(loop1, LatencyRecorder.Kind.dnsQuery, 5_000);
+        recordOnLoop(loop2, LatencyRecorder.Kind.dnsQuery, 5_000);
+        recordOnLoop(loop2, LatencyRecorder.Kind.dnsQuery, 5_000);
+        LatencyRecorder.record(LatencyRecorder.Kind.dnsQuery, 5_000); // out of event loops
+        assertEquals(before + 4, count(LatencyRecorder.Kind.dnsQuery));
+
+        // values of closed loops are kept
+        loop1.close();
+        assertEquals(before + 4, count(LatencyRecorder.Kind.dnsQuery));
+    }
+
+    @Test
+    public void proxySession() throws Exception {
+        ServerSocket backend = new ServerSocket();
+        backend.bind(new InetSocketAddress("127.0.0.1", backendPort));
+        // the health check connections are accepted as well
+        Thread t = new Thread(() -> {
+            while (true) {
+                try (Socket sock = backend.accept()) {
+                    sock.getOutputStream().write("hello".getBytes());
+                    sock.getOutputStream().flush();
+                    //noinspection StatementWithEmptyBody
+                    while (sock.getInputStream().read() != -1) {
+                    }
+                } catch (Exception e) {
+                    if (backend.isClosed()) {
+                        return;
+                    }
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        EventLoopGroup elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        ServerGroup sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("svr0", new IPPort("127.0.0.1", backendPort), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        TcpLB lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", lbPort), ups,
+            10_000, 16384, 16384, SecurityGroup.allowAll());
+        lb.start();
+
+        long connect = count(LatencyRecorder.Kind.backendConnect);
+        long firstByte = count(LatencyRecorder.Kind.firstByte);
+        long session = count(LatencyRecorder.Kind.session);
+        try {
+            try (Socket sock = new Socket()) {
+                sock.setSoTimeout(2000);
+                sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+                InputStream in = sock.getInputStream();
+                assertEquals("hello", new String(in.readNBytes(5)));
+            }
+            Thread.sleep(200);
+
+            assertTrue(count(LatencyRecorder.Kind.backendConnect) > connect);
+            assertEquals(firstByte + 1, count(LatencyRecorder.Kind.firstByte));
+            assertEquals(session + 1, count(LatencyRecorder.Kind.session));
+        } finally {
+            lb.destroy();
+            sg.destroy();
+            elg.close();
+            backend.close();
+        }
+    }
+
+    @Test
+    public void failedConnectIsNotASession() throws Exception {
+        EventLoopGroup elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        ServerGroup sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        // nothing is listening on the port
+        sg.add("svr0", new IPPort("127.0.0.1", backendPort), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        TcpLB lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", lbPort), ups,
+            10_000, 16384, 16384, SecurityGroup.allowAll());
+        lb.start();
+
+        long connect = count(LatencyRecorder.Kind.backendConnect);
+        long session = count(LatencyRecorder.Kind.session);
+        try {
+            try (Socket sock = new Socket()) {
+                sock.setSoTimeout(2000);
+                sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+                // closed by the lb when connecting to the backend fails
+                assertEquals(-1, sock.getInputStream().read());
+            }
+            Thread.sleep(200);
+
+            assertEquals(connect, count(LatencyRecorder.Kind.backendConnect));
+            assertEquals(session, count(LatencyRecorder.Kind.session));
+        } finally {
+            lb.destroy();
+            sg.destroy();
+            elg.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.util.LogType;
+import vproxy.util.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TestLogger {
+    private PrintStream stdout;
+    private ByteArrayOutputStream captured;
+
+    @Before
+    public void setUp() {
+        Logger.flush();
+        stdout = System.out;
+        captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+    }
+
+    @After
+    public void tearDown() {
+        Logger.flush();
+        System.setOut(stdout);
+    }
+
+    private List<String> lines(String token) {
+        Logger.flush();
+        return Arrays.stream(captured.toString().split("\n"))
+            .filter(l -> l.contains(token))
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    public void format() {
+        Logger.error(LogType.CONN_ERROR, "format-test-error");
+        Logger.warn(LogType.IMPROPER_USE, "format-test-warn", new Exception("format-test-exception"));
+        Logger.alert("format-test-alert");
+
+        List<String> lines = lines("format-test-");
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches(".*\\[\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3}] .* - " +
+            TestLogger.class.getName() + "#format\\(\\d+\\) - .*CONN_ERROR - format-test-error$"));
+        assertTrue(lines.get(1), lines.get(1).endsWith("IMPROPER_USE - " + Logger.RESET_COLOR + "format-test-warn"));
+        assertEquals("java.lang.Exception: format-test-exception", lines.get(2));
+        assertTrue(lines.get(3), lines.get(3).endsWith("ALERT - " + Logger.RESET_COLOR + "format-test-alert"));
+    }
+
+    @Test
+    public void orderPerThread() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            int tt = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; ++i) {
+                    Logger.info(LogType.ALERT, "order-test-" + tt + "-" + i);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int t = 0; t < 4; ++t) {
+            List<String> lines = lines("order-test-" + t + "-");
+            assertEquals(200, lines.size());
+            for (int i = 0; i < 200; ++i) {
+                assertTrue(lines.get(i).endsWith("order-test-" + t + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void dedupAndRateLimit() throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            Logger.error(LogType.SOCKET_ERROR, "dedup-test");
+        }
+        for (int i = 0; i < 3000; ++i) {
+            Logger.warn(LogType.BUFFER_INSUFFICIENT, "rate-limit-test-" + i);
+        }
+        List<String> dedup = lines("dedup-test");
+        assertTrue("repeated logs: " + dedup.size(), dedup.size() <= 2); // may cross the second
+        List<String> limited = lines("rate-limit-test-");
+        assertTrue("limited logs: " + limited.size(), limited.size() < 3000);
+
+        // the numbers are reported in the next second
+        Thread.sleep(1100);
+        List<String> reports = lines("are dropped");
+        assertTrue(reports.stream().anyMatch(l -> l.contains("SOCKET_ERROR")));
+        assertTrue(reports.stream().anyMatch(l -> l.contains("BUFFER_INSUFFICIENT")));
+    }
+}
@@ -2,14 +2,19 @@ package vproxy.test.cases;
 
 import org.junit.Test;
 import vfd.IP;
+import vproxy.component.exception.AlreadyExistException;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
+import vproxy.connection.Protocol;
 import vproxy.util.Network;
+import vproxy.util.NetworkTrie;
 import vproxy.util.Tuple;
 import vproxy.util.Utils;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class TestNetMask {
     @Test
@@ -111,4 +116,111 @@ public class TestNetMask {
             assertEquals("match for " + tup, b, Network.maskMatch(binput, baddr, bmask));
         }
     }
+
+    // addresses in a few small ranges, so that the networks contain each other
+    private static byte[] randomAddress(Random rand, boolean v6) {
+        byte[] b = new byte[v6 ? 16 : 4];
+        int off = 0;
+        if (v6) {
+            int kind = rand.nextInt(3);
+            if (kind == 0) {
+                b[0] = (byte) 0xfd;
+                b[1] = (byte) rand.nextInt(2);
+                off = 2;
+            } else {
+                // ipv4-compatible or ipv4-mapped
+                if (kind == 2) {
+                    b[10] = (byte) 0xff;
+                    b[11] = (byte) 0xff;
+                }
+                off = 12;
+            }
+        }
+        b[off] = (byte) (10 + rand.nextInt(2));
+        b[off + 1] = (byte) rand.nextInt(4);
+        for (int i = off + 2; i < b.length; ++i) {
+            b[i] = (byte) rand.nextInt(256);
+        }
+        return b;
+    }
+
+    private static Network randomNetwork(Random rand, boolean v6) {
+        byte[] addr = randomAddress(rand, v6);
+        int mask = v6 ? rand.nextInt(129) : rand.nextInt(33);
+        byte[] maskBytes = Network.parseMask(mask);
+        Network.eraseToNetwork(addr, maskBytes);
+        return new Network(addr, maskBytes);
+    }
+
+    @Test
+    public void networkTrie() {
+        Random rand = new Random(1);
+        for (boolean v6 : new boolean[]{false, true}) {
+            NetworkTrie<Network> trie = new NetworkTrie<>(v6 ? 16 : 4);
+            List<Network> networks = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                Network net = randomNetwork(rand, v6);
+                if (trie.get(net) != null) {
+                    continue;
+                }
+                trie.put(net, net);
+                networks.add(net);
+            }
+            assertEquals(networks.size(), trie.size());
+            for (Network net : networks) {
+                assertSame(net, trie.get(net));
+            }
+            for (int i = 0; i < 20000; ++i) {
+                IP ip = IP.from(randomAddress(rand, v6));
+                Network expected = null;
+                for (Network net : networks) {
+                    if (net.contains(ip) && (expected == null || net.getMask() > expected.getMask())) {
+                        expected = net;
+                    }
+                }
+                assertSame("lookup " + ip, expected, trie.lookup(ip));
+            }
+        }
+    }
+
+    private static boolean linearAllow(List<SecurityGroupRule> rules, Protocol protocol, IP ip, int port) {
+        for (SecurityGroupRule r : rules) {
+            if (r.protocol == protocol && r.match(ip, port)) {
+                return r.allow;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void securityGroup() throws Exception {
+        Random rand = new Random(2);
+        SecurityGroup secg = new SecurityGroup("secg", false);
+        for (int i = 0; i < 1000; ++i) {
+            int min = rand.nextInt(100);
+            int max = min + rand.nextInt(100);
+            try {
+                secg.addRule(new SecurityGroupRule("r" + i, randomNetwork(rand, rand.nextBoolean()),
+                    rand.nextInt(4) == 0 ? Protocol.UDP : Protocol.TCP, min, max, rand.nextBoolean()));
+            } catch (AlreadyExistException ignore) {
+            }
+        }
+        Runnable check = () -> {
+            List<SecurityGroupRule> rules = secg.getRules();
+            for (int i = 0; i < 20000; ++i) {
+                IP ip = IP.from(randomAddress(rand, rand.nextBoolean()));
+                int port = rand.nextInt(200);
+                for (Protocol p : new Protocol[]{Protocol.TCP, Protocol.UDP}) {
+                    assertEquals(p + " " + ip + ":" + port, linearAllow(rules, p, ip, port), secg.allow(p, ip, port));
+                }
+            }
+        };
+        check.run();
+
+        List<SecurityGroupRule> rules = secg.getRules();
+        for (int i = 0; i < rules.size(); i += 3) {
+            secg.removeRule(rules.get(i).alias);
+        }
+        check.run();
+    }
 }
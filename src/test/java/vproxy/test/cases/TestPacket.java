@@ -5,10 +5,16 @@ import vfd.IP;
 import vfd.IPv4;
 import vfd.IPv6;
 import vproxy.util.ByteArray;
+import vproxy.util.crypto.Aes256Key;
+import vproxy.util.crypto.CFBPacketCipher;
+import vproxy.util.crypto.StreamingCFBCipher;
 import vswitch.packet.*;
 import vswitch.util.Consts;
 import vswitch.util.MacAddress;
+import vswitch.util.UserInfo;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
 import java.util.function.Supplier;
@@ -247,4 +253,88 @@ public class TestPacket {
 
         check(vxlan, VXLanPacket::new);
     }
+
+    @Test
+    public void vxlanHeaderModifiedInPlace() {
+        VXLanPacket vxlan = new VXLanPacket();
+        vxlan.setVni(1314);
+        vxlan.setPacket(genEther());
+        ByteArray bytes = vxlan.getRawPacket().copy();
+
+        VXLanPacket p = new VXLanPacket();
+        assertNull(p.from(bytes));
+        p.setVni(520);
+        p.setReserved2(3);
+        assertSame(bytes, p.getRawPacket());
+        assertEquals(520, bytes.uint24(4));
+        assertEquals(3, bytes.uint8(7));
+
+        VXLanPacket p2 = new VXLanPacket();
+        assertNull(p2.from(bytes.copy()));
+        assertEquals(p, p2);
+    }
+
+    @Test
+    public void cfbPacketCipher() {
+        Aes256Key key = new Aes256Key("my-password");
+        CFBPacketCipher cipher = new CFBPacketCipher(key);
+        Random rand = new Random();
+        for (int len : new int[]{1, 15, 16, 17, 100, 1500}) {
+            byte[] iv = new byte[16];
+            rand.nextBytes(iv);
+            byte[] plain = new byte[len];
+            rand.nextBytes(plain);
+
+            byte[] expected = new StreamingCFBCipher(key, true, Arrays.copyOf(iv, 16)).update(plain, 0, len);
+            byte[] encrypted = new byte[len + 3];
+            cipher.encrypt(iv, 0, plain, 0, len, encrypted, 3);
+            assertArrayEquals(expected, Arrays.copyOfRange(encrypted, 3, len + 3));
+
+            byte[] decrypted = new byte[len];
+            cipher.decrypt(iv, 0, encrypted, 3, len, decrypted, 0);
+            assertArrayEquals(plain, decrypted);
+        }
+    }
+
+    @Test
+    public void vproxyEncrypted() {
+        UserInfo user = new UserInfo("abc+++++", new Aes256Key("pass"), "pass", 1314);
+        VXLanPacket vxlan = new VXLanPacket();
+        vxlan.setVni(1314);
+        vxlan.setPacket(genEther());
+
+        VProxyEncryptedPacket p = new VProxyEncryptedPacket();
+        p.setUser(user);
+        p.setMagic(Consts.VPROXY_SWITCH_MAGIC);
+        p.setType(Consts.VPROXY_SWITCH_TYPE_VXLAN);
+        p.setVxlan(vxlan);
+
+        ByteBuffer buf = ByteBuffer.allocate(2048);
+        buf.position(5);
+        p.writeTo(buf);
+        assertEquals(5 + p.length(), buf.position());
+        ByteArray bytes = ByteArray.from(Arrays.copyOfRange(buf.array(), 5, buf.position()));
+
+        VProxyEncryptedPacket p2 = new VProxyEncryptedPacket(u -> u == user.binaryUser ? user : null);
+        assertNull(p2.from(bytes));
+        assertEquals("abc+++++", p2.getUser());
+        assertEquals(Consts.VPROXY_SWITCH_TYPE_VXLAN, p2.getType());
+        assertEquals(vxlan, p2.getVxlan());
+
+        // the object can be reused for other packets
+        VProxyEncryptedPacket ping = new VProxyEncryptedPacket();
+        ping.setUser(user);
+        ping.setMagic(Consts.VPROXY_SWITCH_MAGIC);
+        ping.setType(Consts.VPROXY_SWITCH_TYPE_PING);
+        assertNull(p2.from(ping.getRawPacket()));
+        assertEquals(Consts.VPROXY_SWITCH_TYPE_PING, p2.getType());
+        assertNull(p2.getVxlan());
+        // the iv is random
+        ByteArray first = ping.getRawPacket();
+        ping.clearRawPacket();
+        assertNotEquals(first, ping.getRawPacket());
+
+        VProxyEncryptedPacket p3 = new VProxyEncryptedPacket(u -> null);
+        assertNotNull(p3.from(bytes));
+    }
 }
@@ -3,10 +3,14 @@ package vproxy.test.cases;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import vfd.FDProvider;
-import vfd.IP;
-import vfd.IPv4;
-import vfd.IPv6;
+import vfd.*;
+import vproxy.app.util.AnnotationKeys;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
 import vproxy.dns.*;
 import vproxy.dns.rdata.*;
 import vproxy.selector.SelectorEventLoop;
@@ -14,12 +18,16 @@ import vproxy.util.BlockCallback;
 import vproxy.util.ByteArray;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class TestResolver {
     private SelectorEventLoop loop;
@@ -108,6 +116,271 @@ public class TestResolver {
         return getResource("some.text.com.", txt);
     }
 
+    private DNSPacket getRequest(int id, String name) {
+        DNSPacket req = new DNSPacket();
+        req.id = id;
+        req.opcode = DNSPacket.Opcode.QUERY;
+        req.rd = true;
+        req.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = name;
+        q.qtype = DNSType.A;
+        q.qclass = DNSClass.IN;
+        req.questions.add(q);
+        return req;
+    }
+
+    private DNSPacket getResponse(DNSPacket req, DNSPacket.RCode rcode) {
+        DNSPacket resp = new DNSPacket();
+        resp.id = req.id;
+        resp.isResponse = true;
+        resp.opcode = DNSPacket.Opcode.QUERY;
+        resp.rd = true;
+        resp.ra = true;
+        resp.rcode = rcode;
+        resp.questions.addAll(req.questions);
+        return resp;
+    }
+
+    private DNSResource getSOAResource(int ttl, int minimum) {
+        DNSResource r = new DNSResource();
+        r.name = "example.com.";
+        r.type = DNSType.SOA;
+        r.clazz = DNSClass.IN;
+        r.ttl = ttl;
+        // root mname and rname, then serial, refresh, retry, expire and minimum
+        r.rdataBytes = ByteArray.allocate(22).int32(18, minimum);
+        return r;
+    }
+
+    private byte[] put(DNSResponseCache cache, DNSPacket req, DNSPacket resp) {
+        byte[] bytes = resp.toByteArray().toJavaArray();
+        cache.put(req, resp, bytes);
+        return bytes;
+    }
+
+    @Test
+    public void responseCache() throws Exception {
+        DNSResponseCache cache = new DNSResponseCache(2);
+
+        DNSPacket req = getRequest(1, "www.example.com.");
+        assertNull(cache.get(req));
+        DNSPacket resp = getResponse(req, DNSPacket.RCode.NoError);
+        resp.answers.add(getAResource());
+        put(cache, req, resp);
+        assertEquals(1, cache.size());
+
+        // served with the id rewritten
+        byte[] cached = cache.get(getRequest(0xabcd, "www.example.com."));
+        assertNotNull(cached);
+        DNSPacket parsed = Formatter.parsePackets(ByteArray.from(cached)).get(0);
+        assertEquals(0xabcd, parsed.id);
+        assertEquals(resp.answers, parsed.answers);
+        // the key contains qtype
+        DNSPacket reqAAAA = getRequest(2, "www.example.com.");
+        reqAAAA.questions.get(0).qtype = DNSType.AAAA;
+        assertNull(cache.get(reqAAAA));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // NXDOMAIN with SOA
+        DNSPacket nxReq = getRequest(3, "nx.example.com.");
+        DNSPacket nx = getResponse(nxReq, DNSPacket.RCode.NameError);
+        nx.nameServers.add(getSOAResource(600, 30));
+        put(cache, nxReq, nx);
+        cached = cache.get(getRequest(4, "nx.example.com."));
+        assertNotNull(cached);
+        assertEquals(DNSPacket.RCode.NameError, Formatter.parsePackets(ByteArray.from(cached)).get(0).rcode);
+        assertTrue(cache.entries().stream().anyMatch(e -> e.negative && e.qname.equals("nx.example.com.")));
+
+        // not cached: negative without SOA, server failure, ttl 0, multiple questions
+        DNSPacket noSoaReq = getRequest(5, "nosoa.example.com.");
+        put(cache, noSoaReq, getResponse(noSoaReq, DNSPacket.RCode.NoError));
+        assertNull(cache.get(noSoaReq));
+        DNSPacket failReq = getRequest(6, "fail.example.com.");
+        put(cache, failReq, getResponse(failReq, DNSPacket.RCode.ServerFailure));
+        assertNull(cache.get(failReq));
+        DNSPacket ttl0Req = getRequest(7, "ttl0.example.com.");
+        DNSPacket ttl0 = getResponse(ttl0Req, DNSPacket.RCode.NoError);
+        ttl0.answers.add(getAResource());
+        ttl0.answers.get(0).ttl = 0;
+        put(cache, ttl0Req, ttl0);
+        assertNull(cache.get(ttl0Req));
+        DNSPacket multiReq = getRequest(8, "multi.example.com.");
+        multiReq.questions.add(getRequest(8, "multi2.example.com.").questions.get(0));
+        DNSPacket multi = getResponse(multiReq, DNSPacket.RCode.NoError);
+        multi.answers.add(getAResource());
+        put(cache, multiReq, multi);
+        assertNull(cache.get(multiReq));
+        assertEquals(2, cache.size());
+
+        // size bounded, the least recently used is evicted
+        cache.get(req);
+        DNSPacket req2 = getRequest(9, "www2.example.com.");
+        DNSPacket resp2 = getResponse(req2, DNSPacket.RCode.NoError);
+        resp2.answers.add(getAResource());
+        put(cache, req2, resp2);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(req));
+        assertNull(cache.get(nxReq));
+
+        // expires
+        DNSPacket shortReq = getRequest(10, "short.example.com.");
+        DNSPacket shortResp = getResponse(shortReq, DNSPacket.RCode.NameError);
+        shortResp.nameServers.add(getSOAResource(1, 3600));
+        put(cache, shortReq, shortResp);
+        assertNotNull(cache.get(shortReq));
+        Thread.sleep(1100);
+        assertNull(cache.get(shortReq));
+
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        assertEquals(hits / (double) (hits + misses), cache.hitRatio(), 0.0001);
+    }
+
+    @Test
+    public void queryReaderAndResponseWriter() throws Exception {
+        DNSPacket req = getRequest(0x1234, "example.com.");
+        req.questions.get(0).qtype = DNSType.SRV;
+        DNSResource opt = new DNSResource();
+        opt.name = "";
+        opt.type = DNSType.OPT;
+        opt.clazz = DNSClass.NOT_CLASS;
+        opt.rdataBytes = ByteArray.allocate(0);
+        req.additionalResources.add(opt);
+        ByteBuffer buf = ByteBuffer.wrap(req.toByteArray().toJavaArray());
+
+        DNSQueryReader reader = new DNSQueryReader();
+        assertTrue(reader.read(buf));
+        assertEquals(0x1234, reader.id);
+        assertEquals("example.com.", reader.qname);
+        assertEquals(DNSType.SRV, reader.qtype);
+        assertTrue(reader.rd);
+        assertFalse(reader.aa);
+        assertEquals(0, buf.position());
+
+        List<Record> records = List.of(
+            new Record(IP.from("10.0.0.1"), 80, 10, "a.example.com"),
+            new Record(IP.from("10.0.0.2"), 80, 10, null),
+            new Record(IP.from("::1"), 443, 20, "b.example.com"),
+            new Record(IP.from("10.0.0.3"), 443, 30, "a.example.com"));
+        ByteBuffer out = new DNSResponseWriter(ByteBuffer.allocate(1024)).write(reader, records, 60);
+        byte[] bytes = new byte[out.remaining()];
+        out.get(bytes);
+        DNSPacket resp = Formatter.parsePackets(ByteArray.from(bytes)).get(0);
+        assertEquals(0x1234, resp.id);
+        assertTrue(resp.isResponse);
+        assertTrue(resp.rd);
+        assertTrue(resp.ra);
+        assertEquals(DNSPacket.RCode.NoError, resp.rcode);
+        assertEquals(req.questions, resp.questions);
+        assertEquals(4, resp.answers.size());
+        for (DNSResource r : resp.answers) {
+            assertEquals("example.com.", r.name);
+            assertEquals(DNSType.SRV, r.type);
+            assertEquals(60, r.ttl);
+        }
+        assertEquals(List.of("a.example.com.", "10.0.0.2.", "b.example.com.", "a.example.com."),
+            resp.answers.stream().map(r -> ((SRV) r.rdata).target).collect(Collectors.toList()));
+        assertEquals(443, ((SRV) resp.answers.get(2).rdata).port);
+        assertEquals(20, ((SRV) resp.answers.get(2).rdata).weight);
+        // grouped by name
+        assertEquals(List.of("a.example.com.", "a.example.com.", "b.example.com."),
+            resp.additionalResources.stream().map(r -> r.name).collect(Collectors.toList()));
+        assertEquals(IP.from("10.0.0.3"), ((A) resp.additionalResources.get(1).rdata).address);
+        assertEquals(IP.from("::1"), ((AAAA) resp.additionalResources.get(2).rdata).address);
+
+        // not simple queries
+        req.questions.get(0).qtype = DNSType.TXT;
+        assertFalse(reader.read(ByteBuffer.wrap(req.toByteArray().toJavaArray())));
+        req.questions.get(0).qtype = DNSType.A;
+        req.questions.add(getRequest(0, "example.net.").questions.get(0));
+        assertFalse(reader.read(ByteBuffer.wrap(req.toByteArray().toJavaArray())));
+        assertFalse(reader.read(ByteBuffer.wrap(new byte[5])));
+
+        // bytes >= 0x80 in the name are decoded the same way as the object model
+        byte[] raw = getRequest(0x1234, "abcz.com.").toByteArray().toJavaArray();
+        for (int i = DNSQueryReader.HEADER_LEN; i < raw.length; ++i) {
+            if (raw[i] == 'z') {
+                raw[i] = (byte) 0xe9;
+                break;
+            }
+        }
+        assertTrue(reader.read(ByteBuffer.wrap(raw)));
+        assertEquals("abc\u00e9.com.", reader.qname);
+        assertEquals(reader.qname, Formatter.parsePackets(ByteArray.from(raw)).get(0).questions.get(0).qname);
+    }
+
+    private static DNSPacket query(DatagramChannel chnl, DNSPacket req) throws Exception {
+        chnl.write(ByteBuffer.wrap(req.toByteArray().toJavaArray()));
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        chnl.read(buf);
+        buf.flip();
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return Formatter.parsePackets(ByteArray.from(bytes)).get(0);
+    }
+
+    @Test
+    public void dnsServer() throws Exception {
+        EventLoopGroup elg = new EventLoopGroup("TestResolver-dns-server");
+        ServerGroup sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "example.com"));
+        sg.add("svr0", "svr0.example.com", new IPPort("10.0.0.1", 80), 10).healthy = true;
+        sg.add("svr1", new IPPort("::2", 80), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        DNSServer server = new DNSServer("dns0", new IPPort("127.0.0.1", 20053), elg, ups, 60, SecurityGroup.allowAll());
+        server.start();
+        elg.add("el0");
+
+        try (DatagramChannel chnl = DatagramChannel.open()) {
+            chnl.connect(new InetSocketAddress("127.0.0.1", 20053));
+            // simple queries
+            DNSPacket resp = query(chnl, getRequest(1, "example.com."));
+            assertEquals(1, resp.id);
+            assertEquals(1, resp.answers.size());
+            assertEquals(IP.from("10.0.0.1"), ((A) resp.answers.get(0).rdata).address);
+            DNSPacket aaaaReq = getRequest(2, "www.example.com.");
+            aaaaReq.questions.get(0).qtype = DNSType.AAAA;
+            resp = query(chnl, aaaaReq);
+            assertEquals(2, resp.id);
+            assertEquals(IP.from("::2"), ((AAAA) resp.answers.get(0).rdata).address);
+            assertEquals(60, resp.answers.get(0).ttl);
+            resp = query(chnl, getRequest(3, "who.am.i.vproxy.local."));
+            assertEquals(IP.from("127.0.0.1"), ((A) resp.answers.get(0).rdata).address);
+            resp = query(chnl, getRequest(4, "127.0.0.2."));
+            assertEquals(IP.from("127.0.0.2"), ((A) resp.answers.get(0).rdata).address);
+
+            // the same result with the packet objects
+            DNSPacket srvReq = getRequest(5, "example.com.");
+            srvReq.questions.get(0).qtype = DNSType.SRV;
+            DNSPacket srv = query(chnl, srvReq);
+            srvReq.questions.add(getRequest(5, "127.0.0.2.").questions.get(0));
+            DNSPacket srv2 = query(chnl, srvReq);
+            assertEquals(2, srv.answers.size());
+            assertEquals(srv.answers, srv2.answers.subList(0, 2));
+            assertEquals(1, srv.additionalResources.size());
+            assertEquals("svr0.example.com.", srv.additionalResources.get(0).name);
+            assertEquals(srv.additionalResources.get(0).rdata.toString(), srv2.additionalResources.get(0).rdata.toString());
+
+            // queries larger than the receiving slot are dropped
+            DNSPacket bigReq = getRequest(6, "example.com.");
+            for (int i = 0; i < 300; ++i) {
+                bigReq.questions.add(getRequest(6, "a" + i + ".example.com.").questions.get(0));
+            }
+            assertTrue(bigReq.toByteArray().length() > 4096);
+            chnl.write(ByteBuffer.wrap(bigReq.toByteArray().toJavaArray()));
+            resp = query(chnl, getRequest(7, "example.com."));
+            assertEquals(7, resp.id);
+        } finally {
+            server.stop();
+            sg.destroy();
+            elg.close();
+        }
+    }
+
     @Test
     public void resolveCustomized() throws Exception {
         BlockCallback<IP, UnknownHostException> cb = new BlockCallback<>();
@@ -0,0 +1,204 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.util.RingBufferETHandler;
+import vproxy.util.ringbuffer.OnDemandRingBuffer;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestRingBuffer {
+    // a channel transferring at most `quota` bytes in one call
+    // and counting how many calls are made
+    static class LimitedChannel implements ScatteringByteChannel, GatheringByteChannel {
+        final byte[] source;
+        int sourcePos = 0;
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        int quota;
+        int calls = 0;
+
+        LimitedChannel(byte[] source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return (int) read(new ByteBuffer[]{dst}, 0, 1);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            ++calls;
+            if (sourcePos == source.length) {
+                return -1;
+            }
+            int total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                int n = Math.min(Math.min(dsts[i].remaining(), quota - total), source.length - sourcePos);
+                dsts[i].put(source, sourcePos, n);
+                sourcePos += n;
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src}, 0, 1);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            ++calls;
+            int total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                int n = Math.min(srcs[i].remaining(), quota - total);
+                byte[] b = new byte[n];
+                srcs[i].get(b);
+                sink.write(b, 0, n);
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void wrappedSegmentsInOneCall() throws IOException {
+        byte[] data = new byte[20];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        LimitedChannel chnl = new LimitedChannel(data);
+        SimpleRingBuffer buf = SimpleRingBuffer.allocateDirect(16);
+
+        chnl.quota = 12;
+        assertEquals(12, buf.storeBytesFrom(chnl));
+        chnl.quota = 8;
+        assertEquals(8, buf.writeTo(chnl));
+        // free space is [12, 16) and [0, 8)
+        chnl.calls = 0;
+        chnl.quota = Integer.MAX_VALUE;
+        assertEquals(8, buf.storeBytesFrom(chnl));
+        assertEquals(1, chnl.calls);
+        assertEquals(12, buf.used());
+
+        // data is [8, 16) and [0, 4)
+        chnl.calls = 0;
+        assertEquals(12, buf.writeTo(chnl));
+        assertEquals(1, chnl.calls);
+        assertEquals(0, buf.used());
+        assertArrayEquals(data, chnl.sink.toByteArray());
+    }
+
+    @Test
+    public void randomTransfer() throws IOException {
+        Random rand = new Random(4321);
+        byte[] data = new byte[1024 * 1024];
+        rand.nextBytes(data);
+        LimitedChannel chnl = new LimitedChannel(data);
+        SimpleRingBuffer buf = SimpleRingBuffer.allocateDirect(1000);
+
+        while (true) {
+            chnl.quota = 1 + rand.nextInt(1500);
+            int used = buf.used();
+            int n = buf.storeBytesFrom(chnl);
+            if (n < 0) {
+                assertEquals(used, buf.used());
+                break;
+            }
+            assertEquals(used + n, buf.used());
+
+            chnl.quota = 1 + rand.nextInt(1500);
+            int max = 1 + rand.nextInt(1500);
+            used = buf.used();
+            n = buf.writeTo(chnl, max);
+            assertTrue(n <= max);
+            assertEquals(used - n, buf.used());
+        }
+        while (buf.used() != 0) {
+            chnl.quota = 1 + rand.nextInt(1500);
+            buf.writeTo(chnl);
+        }
+        assertArrayEquals(data, chnl.sink.toByteArray());
+    }
+
+    @Test
+    public void onDemandAttachAndDetach() throws IOException {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        LimitedChannel chnl = new LimitedChannel(data);
+        OnDemandRingBuffer buf = OnDemandRingBuffer.allocateDirect(64);
+        int[] readable = {0};
+        int[] writable = {0};
+        buf.addHandler(new RingBufferETHandler() {
+            @Override
+            public void readableET() {
+                ++readable[0];
+            }
+
+            @Override
+            public void writableET() {
+                ++writable[0];
+            }
+        });
+        assertFalse(buf.isAttached());
+        assertEquals(64, buf.free());
+        assertEquals(0, buf.writeTo(chnl));
+
+        chnl.quota = 64;
+        assertEquals(64, buf.storeBytesFrom(chnl));
+        assertTrue(buf.isAttached());
+        assertEquals(1, readable[0]);
+        assertEquals(0, buf.free());
+
+        chnl.quota = 30;
+        assertEquals(30, buf.writeTo(chnl));
+        assertEquals(1, writable[0]);
+        assertTrue(buf.isAttached());
+        chnl.quota = 100;
+        assertEquals(34, buf.writeTo(chnl));
+        assertFalse(buf.isAttached());
+
+        // read nothing
+        LimitedChannel empty = new LimitedChannel(new byte[0]);
+        assertEquals(-1, buf.storeBytesFrom(empty));
+        assertFalse(buf.isAttached());
+        assertEquals(1, readable[0]);
+
+        assertEquals(36, buf.storeBytesFrom(chnl));
+        assertEquals(2, readable[0]);
+        assertEquals(36, buf.writeTo(chnl));
+        assertFalse(buf.isAttached());
+        assertArrayEquals(data, chnl.sink.toByteArray());
+
+        buf.clean();
+    }
+}
@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestRouteTable {
     private Network getNetwork(String s) {
@@ -44,4 +45,40 @@ public class TestRouteTable {
         var actual = table.getRules().stream().map(x -> x.rule.toString()).collect(Collectors.toList());
         assertEquals(expect, actual);
     }
+
+    @Test
+    public void lookup() throws Exception {
+        var table = new RouteTable();
+        table.addRule(new RouteTable.RouteRule("a", getNetwork("192.168.0.0/16"), 1));
+        table.addRule(new RouteTable.RouteRule("b", getNetwork("192.168.3.0/24"), 2));
+        table.addRule(new RouteTable.RouteRule("c", getNetwork("10.0.0.0/8"), 3));
+        table.addRule(new RouteTable.RouteRule("d", getNetwork("[fd00::]/64"), 4));
+        table.addRule(new RouteTable.RouteRule("e", getNetwork("[fd00::]/120"), 5));
+
+        assertEquals("b", table.lookup(IP.from("192.168.3.1")).alias);
+        assertEquals("a", table.lookup(IP.from("192.168.4.1")).alias);
+        assertEquals("c", table.lookup(IP.from("10.1.2.3")).alias);
+        assertNull(table.lookup(IP.from("172.16.0.1")));
+        assertEquals("e", table.lookup(IP.from("fd00::1")).alias);
+        assertEquals("d", table.lookup(IP.from("fd00::1:1")).alias);
+        assertNull(table.lookup(IP.from("fd01::1")));
+
+        table.addRule(new RouteTable.RouteRule("f", getNetwork("0.0.0.0/0"), 6));
+        assertEquals("f", table.lookup(IP.from("172.16.0.1")).alias);
+        table.delRule("b");
+        assertEquals("a", table.lookup(IP.from("192.168.3.1")).alias);
+
+        // the first matching rule in the list is the same as the lookup result
+        for (int i = 0; i < 256; ++i) {
+            IP ip = IP.from(new byte[]{(byte) 192, (byte) 168, (byte) i, 1});
+            RouteTable.RouteRule expected = null;
+            for (var r : table.getRules()) {
+                if (r.rule.getRawIpBytes().length == 4 && r.rule.contains(ip)) {
+                    expected = r;
+                    break;
+                }
+            }
+            assertEquals(expected, table.lookup(ip));
+        }
+    }
 }
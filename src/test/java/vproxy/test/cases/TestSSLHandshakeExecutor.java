@@ -0,0 +1,330 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.app.Config;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.connection.ServerSock;
+import vproxy.util.RingBuffer;
+import vproxy.util.nio.ByteArrayChannel;
+import vproxy.util.ringbuffer.SSLUnwrapRingBuffer;
+import vproxy.util.ringbuffer.SSLUtils;
+import vproxy.util.ringbuffer.ssl.SSLHandshakeExecutor;
+import vproxy.util.ringbuffer.ssl.VSSLContext;
+
+import javax.net.ssl.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class TestSSLHandshakeExecutor {
+    private static final int tlsLBPort = 18093;
+    private static final int plainLBPort = 18094;
+
+    private static Supplier<Runnable> tasks(Runnable... tasks) {
+        Iterator<Runnable> ite = Arrays.asList(tasks).iterator();
+        return () -> ite.hasNext() ? ite.next() : null;
+    }
+
+    private static void waitFor(BooleanSupplier cond) throws Exception {
+        for (int i = 0; i < 300; ++i) {
+            if (cond.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("condition not satisfied in 3 seconds");
+    }
+
+    private static void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void saturationHysteresis() throws Exception {
+        // pause when 6 tasks are queued, resume when it drops to 2
+        SSLHandshakeExecutor executor = new SSLHandshakeExecutor(1, 8, false, 0);
+        Semaphore semaphore = new Semaphore(0);
+
+        // one task is running and the others are queued
+        executor.runTasks(tasks(() -> acquire(semaphore)), () -> {
+        });
+        waitFor(() -> executor.stats().activeThreads == 1);
+        for (int i = 0; i < 5; ++i) {
+            executor.runTasks(tasks(() -> acquire(semaphore)), () -> {
+            });
+        }
+        assertEquals(5, executor.queueDepth());
+        assertFalse(executor.isSaturated());
+        executor.runTasks(tasks(() -> acquire(semaphore)), () -> {
+        });
+        assertEquals(6, executor.queueDepth());
+        assertTrue(executor.isSaturated());
+
+        for (int c = 1; c <= 3; ++c) {
+            semaphore.release();
+            int completed = c;
+            waitFor(() -> executor.stats().completed == completed && executor.queueDepth() == 6 - completed);
+            // below the pause depth, but still saturated until it drops to 1/4
+            assertTrue("depth " + executor.queueDepth(), executor.isSaturated());
+        }
+        semaphore.release();
+        waitFor(() -> executor.stats().completed == 4 && executor.queueDepth() == 2);
+        assertFalse(executor.isSaturated());
+        assertEquals(1, executor.stats().saturatedTimes);
+
+        semaphore.release(3);
+        waitFor(() -> executor.stats().completed == 7);
+        assertFalse(executor.isSaturated());
+    }
+
+    @Test
+    public void runOnCallerWhenQueueIsFull() throws Exception {
+        SSLHandshakeExecutor executor = new SSLHandshakeExecutor(1, 1, false, 0);
+        CountDownLatch blocking = new CountDownLatch(1);
+        executor.runTasks(tasks(() -> await(blocking)), () -> {
+        });
+        waitFor(() -> executor.stats().activeThreads == 1);
+        executor.runTasks(tasks(() -> await(blocking)), () -> {
+        });
+        assertEquals(1, executor.queueDepth());
+
+        List<String> threads = new ArrayList<>();
+        executor.runTasks(tasks(() -> threads.add(Thread.currentThread().getName())),
+            () -> threads.add(Thread.currentThread().getName()));
+        String current = Thread.currentThread().getName();
+        assertEquals(Arrays.asList(current, current), threads);
+        assertEquals(1, executor.stats().overflowed);
+        assertEquals(1, executor.stats().completed);
+
+        blocking.countDown();
+        waitFor(() -> executor.stats().completed == 3);
+        assertEquals(3, executor.stats().submitted);
+    }
+
+    @Test
+    public void inlineShortTasksOnly() throws Exception {
+        SSLHandshakeExecutor executor = new SSLHandshakeExecutor(1, 8, true, 1000);
+        String current = Thread.currentThread().getName();
+        // written by the pool thread and read by the test thread
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        // short tasks are run on the caller
+        executor.runTasks(tasks(() -> threads.add(Thread.currentThread().getName())), () -> {
+        });
+        assertEquals(Arrays.asList(current), threads);
+        assertEquals(1, executor.stats().inlined);
+
+        // the cost is unknown before running, so the long task is run on the caller as well
+        // and then the average goes beyond the limit
+        executor.runTasks(tasks(() -> sleep(20)), () -> {
+        });
+        assertEquals(2, executor.stats().inlined);
+        assertTrue("avg " + executor.stats().avgTaskNanos, executor.stats().avgTaskNanos > 1_000_000);
+
+        // the next task is sent to the pool
+        CountDownLatch done = new CountDownLatch(1);
+        executor.runTasks(tasks(() -> threads.add(Thread.currentThread().getName())), done::countDown);
+        assertTrue(done.await(3, TimeUnit.SECONDS));
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(1), threads.get(1).startsWith("ssl-handshake-"));
+        assertEquals(2, executor.stats().inlined);
+        assertEquals(3, executor.stats().completed);
+    }
+
+    @Test
+    public void handOverToPoolInTheMiddleOfTasks() throws Exception {
+        SSLHandshakeExecutor executor = new SSLHandshakeExecutor(1, 8, true, 1000);
+        String current = Thread.currentThread().getName();
+        ConcurrentLinkedQueue<String> threads = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.runTasks(tasks(
+            () -> {
+                threads.add(Thread.currentThread().getName());
+                sleep(20);
+            },
+            () -> threads.add(Thread.currentThread().getName())
+        ), done::countDown);
+        assertTrue(done.await(3, TimeUnit.SECONDS));
+
+        List<String> ls = new ArrayList<>(threads);
+        assertEquals(2, ls.size());
+        assertEquals(current, ls.get(0));
+        assertTrue(ls.get(1), ls.get(1).startsWith("ssl-handshake-"));
+        assertEquals(1, executor.stats().submitted);
+        assertEquals(1, executor.stats().inlined);
+        assertEquals(1, executor.stats().completed);
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(TestSSLHandshakeExecutor.class.getResourceAsStream("/testkeys"), "passphrase".toCharArray());
+        return keyStore;
+    }
+
+    private static SSLContext serverContext(KeyStore keyStore) throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(keyStore, "passphrase".toCharArray());
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        return ctx;
+    }
+
+    // occupy all threads of the shared executor
+    private static void blockSharedExecutor(CountDownLatch blocking) throws Exception {
+        SSLHandshakeExecutor executor = SSLHandshakeExecutor.get();
+        for (int i = 0; i < Config.sslHandshakeThreads; ++i) {
+            executor.runTasks(tasks(() -> await(blocking)), () -> {
+            });
+        }
+        waitFor(() -> executor.stats().activeThreads == Config.sslHandshakeThreads);
+    }
+
+    @Test
+    public void submitDelegatedTasksOnce() throws Exception {
+        KeyStore keyStore = loadKeyStore();
+        SSLEngine serverEngine = serverContext(keyStore).createSSLEngine();
+        serverEngine.setUseClientMode(false);
+
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(keyStore);
+        SSLContext clientCtx = SSLContext.getInstance("TLS");
+        clientCtx.init(null, tmf.getTrustManagers(), null);
+        SSLEngine clientEngine = clientCtx.createSSLEngine();
+        clientEngine.setUseClientMode(true);
+        clientEngine.setEnabledProtocols(new String[]{"TLSv1.2"});
+
+        ByteBuffer clientHello = ByteBuffer.allocate(clientEngine.getSession().getPacketBufferSize());
+        clientEngine.wrap(ByteBuffer.allocate(0), clientHello);
+        clientHello.flip();
+        byte[] clientHelloBytes = new byte[clientHello.remaining()];
+        clientHello.get(clientHelloBytes);
+
+        ConcurrentLinkedQueue<Runnable> resumed = new ConcurrentLinkedQueue<>();
+        SSLUnwrapRingBuffer serverUnwrap = SSLUtils.genbuf(serverEngine,
+            RingBuffer.allocate(16384), RingBuffer.allocate(16384), resumed::add).left;
+
+        SSLHandshakeExecutor executor = SSLHandshakeExecutor.get();
+        CountDownLatch blocking = new CountDownLatch(1);
+        try {
+            blockSharedExecutor(blocking);
+            long submitted = executor.stats().submitted;
+            long completed = executor.stats().completed;
+
+            serverUnwrap.storeBytesFrom(ByteArrayChannel.fromFull(clientHelloBytes));
+            assertEquals(SSLEngineResult.HandshakeStatus.NEED_TASK, serverEngine.getHandshakeStatus());
+            assertEquals(submitted + 1, executor.stats().submitted);
+
+            // more bytes arrive before the tasks are done, they are kept until the tasks finish
+            serverUnwrap.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{0x16, 0x03, 0x03}));
+            assertEquals(submitted + 1, executor.stats().submitted);
+
+            blocking.countDown();
+            waitFor(() -> executor.stats().completed == completed + Config.sslHandshakeThreads + 1);
+            waitFor(() -> resumed.size() == 1);
+            assertNotEquals(SSLEngineResult.HandshakeStatus.NEED_TASK, serverEngine.getHandshakeStatus());
+        } finally {
+            blocking.countDown();
+        }
+    }
+
+    private static ServerSock serverOf(TcpLB lb) {
+        assertEquals(1, lb.servers.size());
+        return lb.servers.keySet().iterator().next();
+    }
+
+    @Test
+    public void pauseAcceptingTlsWhenSaturated() throws Exception {
+        VSSLContext sslContext = new VSSLContext();
+        sslContext.sslContextHolder.add("ck0", serverContext(loadKeyStore()), new X509Certificate[0]);
+
+        EventLoopGroup elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        ServerGroup sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        TcpLB tlsLB = new TcpLB("tls", elg, elg, new IPPort("127.0.0.1", tlsLBPort), ups,
+            10_000, 16384, 16384, "tcp", sslContext, null, SecurityGroup.allowAll());
+        TcpLB plainLB = new TcpLB("plain", elg, elg, new IPPort("127.0.0.1", plainLBPort), ups,
+            10_000, 16384, 16384, "tcp", null, null, SecurityGroup.allowAll());
+        tlsLB.start();
+        plainLB.start();
+
+        SSLHandshakeExecutor executor = SSLHandshakeExecutor.get();
+        CountDownLatch blocking = new CountDownLatch(1);
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            blockSharedExecutor(blocking);
+            while (!executor.isSaturated()) {
+                executor.runTasks(tasks(() -> await(blocking)), () -> {
+                });
+            }
+
+            for (int port : new int[]{tlsLBPort, plainLBPort}) {
+                Socket sock = new Socket();
+                sockets.add(sock);
+                // the connection is established in the backlog even if accepting is paused
+                sock.connect(new InetSocketAddress("127.0.0.1", port));
+            }
+            waitFor(() -> serverOf(plainLB).getHistoryAcceptedConnectionCount() == 1);
+            Thread.sleep(200);
+            assertEquals(0, serverOf(tlsLB).getHistoryAcceptedConnectionCount());
+
+            blocking.countDown();
+            waitFor(() -> !executor.isSaturated());
+            waitFor(() -> serverOf(tlsLB).getHistoryAcceptedConnectionCount() == 1);
+        } finally {
+            blocking.countDown();
+            for (Socket sock : sockets) {
+                sock.close();
+            }
+            tlsLB.destroy();
+            plainLB.destroy();
+            sg.destroy();
+            elg.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.test.tool.EchoServer;
+import vproxy.util.ringbuffer.ssl.SSLContextHolder;
+import vproxy.util.ringbuffer.ssl.VSSLContext;
+
+import javax.net.ssl.*;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestSSLSession {
+    private static final int lbPort = 18090;
+    private static final int backendPort = 20090;
+
+    private static SelectorEventLoop serverLoop;
+
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+    private TcpLB lb;
+    private VSSLContext sslContext;
+    private KeyStore keyStore;
+
+    @BeforeClass
+    public static void classSetUp() throws Exception {
+        serverLoop = SelectorEventLoop.open();
+        serverLoop.loop(r -> new Thread(r, "serverLoop"));
+        new EchoServer(serverLoop, backendPort);
+    }
+
+    @AfterClass
+    public static void classTearDown() throws Exception {
+        serverLoop.close();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        char[] passphrase = "passphrase".toCharArray();
+        keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(TestSSLSession.class.getResourceAsStream("/testkeys"), passphrase);
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(keyStore, passphrase);
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        sslContext = new VSSLContext();
+        sslContext.sslContextHolder.add("ck0", ctx, new X509Certificate[0]);
+
+        elg = new EventLoopGroup("elg0");
+        // handshakes on different event loops use the same session cache
+        elg.add("el0");
+        elg.add("el1");
+        sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("svr0", new IPPort("127.0.0.1", backendPort), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", lbPort), ups,
+            10_000, 16384, 16384, "tcp", sslContext, null, SecurityGroup.allowAll());
+        lb.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        lb.destroy();
+        sg.destroy();
+        elg.close();
+    }
+
+    private SSLContext clientContext() throws Exception {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance("SunX509");
+        tmf.init(keyStore);
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    private static void handshake(SSLContext clientCtx) throws Exception {
+        handshake(clientCtx, "TLSv1.2");
+    }
+
+    private static void handshake(SSLContext clientCtx, String protocol) throws Exception {
+        try (SSLSocket sock = (SSLSocket) clientCtx.getSocketFactory().createSocket("127.0.0.1", lbPort)) {
+            sock.setEnabledProtocols(new String[]{protocol});
+            sock.startHandshake();
+            assertEquals(protocol, sock.getSession().getProtocol());
+            // the tls 1.3 session ticket is sent after the handshake
+            // read some data so that the ticket is received before closing
+            sock.setSoTimeout(2000);
+            sock.getOutputStream().write('a');
+            sock.getOutputStream().flush();
+            assertEquals('a', sock.getInputStream().read());
+        }
+    }
+
+    private SSLContextHolder.SessionStats waitForHandshakes(long expected) throws Exception {
+        // the server may record the handshake after the client finishes it
+        SSLContextHolder.SessionStats stats = null;
+        for (int i = 0; i < 100; ++i) {
+            List<SSLContextHolder.SessionStats> ls = sslContext.sslContextHolder.sessionStats();
+            assertEquals(1, ls.size());
+            stats = ls.get(0);
+            if (stats.fullHandshakes() + stats.resumedHandshakes() >= expected) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        return stats;
+    }
+
+    @Test
+    public void resume() throws Exception {
+        SSLContext clientCtx = clientContext();
+        for (int i = 0; i < 4; ++i) {
+            handshake(clientCtx);
+        }
+        SSLContextHolder.SessionStats stats = waitForHandshakes(4);
+        assertEquals("ck0", stats.name);
+        assertEquals(1, stats.fullHandshakes());
+        assertEquals(3, stats.resumedHandshakes());
+        assertEquals(75d, stats.hitRate(), 0.001);
+    }
+
+    @Test
+    public void resumeTLSv13() throws Exception {
+        SSLContext clientCtx = clientContext();
+        for (int i = 0; i < 4; ++i) {
+            handshake(clientCtx, "TLSv1.3");
+        }
+        SSLContextHolder.SessionStats stats = waitForHandshakes(4);
+        assertEquals(1, stats.fullHandshakes());
+        assertEquals(3, stats.resumedHandshakes());
+        assertEquals(75d, stats.hitRate(), 0.001);
+    }
+
+    @Test
+    public void noSessionToResume() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            handshake(clientContext());
+        }
+        SSLContextHolder.SessionStats stats = waitForHandshakes(3);
+        assertEquals(3, stats.fullHandshakes());
+        assertEquals(0, stats.resumedHandshakes());
+        assertEquals(0d, stats.hitRate(), 0.001);
+    }
+}
@@ -0,0 +1,363 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IP;
+import vfd.IPPort;
+import vproxy.app.util.AnnotationKeys;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.connection.Connection;
+import vproxy.connection.ConnectionOpts;
+import vproxy.processor.Hint;
+import vproxy.util.RingBuffer;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroup {
+    private static final int CLIENTS = 20000;
+
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+
+    @Before
+    public void setUp() throws Exception {
+        elg = new EventLoopGroup("elg");
+        elg.add("el0");
+        sg = new ServerGroup("sg",
+            elg, new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.maglev);
+    }
+
+    @After
+    public void tearDown() {
+        sg.destroy();
+        elg.close();
+    }
+
+    private void addServer(int n, int weight) throws Exception {
+        ServerGroup.ServerHandle h = sg.add("svr" + n, new IPPort("127.0.0.1", 20000 + n), weight);
+        h.healthy = true;
+    }
+
+    private ServerGroup.ServerHandle handle(int n) {
+        return sg.getServerHandles().stream().filter(h -> h.alias.equals("svr" + n)).findFirst().orElseThrow();
+    }
+
+    private static IPPort client(int i) {
+        return new IPPort(IP.from(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}), 12345);
+    }
+
+    // client index -> server port
+    private int[] mapping() {
+        int[] result = new int[CLIENTS];
+        for (int i = 0; i < CLIENTS; ++i) {
+            SvrHandleConnector c = sg.next(client(i));
+            result[i] = c == null ? -1 : c.remote.getPort();
+        }
+        return result;
+    }
+
+    private static double remapFraction(int[] before, int[] after) {
+        int changed = 0;
+        for (int i = 0; i < before.length; ++i) {
+            if (before[i] != after[i]) {
+                ++changed;
+            }
+        }
+        return changed / (double) before.length;
+    }
+
+    @Test
+    public void maglevEmpty() {
+        assertNull(sg.next(client(1)));
+        assertNull(sg.nextIPv4(client(1)));
+        assertNull(sg.nextIPv6(client(1)));
+    }
+
+    @Test
+    public void maglevStable() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            addServer(i, 10);
+        }
+        int[] m1 = mapping();
+        int[] m2 = mapping();
+        assertEquals(0, remapFraction(m1, m2), 0);
+
+        // every server gets roughly 1/10 of the clients
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int port : m1) {
+            counts.merge(port, 1, Integer::sum);
+        }
+        assertEquals(10, counts.size());
+        for (int cnt : counts.values()) {
+            assertTrue("count " + cnt + " should be close to " + (CLIENTS / 10),
+                cnt > CLIENTS / 10 * 0.8 && cnt < CLIENTS / 10 * 1.2);
+        }
+    }
+
+    @Test
+    public void maglevRemapOnMembershipChange() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            addServer(i, 10);
+        }
+        int[] before = mapping();
+
+        addServer(10, 10);
+        int[] added = mapping();
+        double fraction = remapFraction(before, added);
+        // ideally 1/11
+        assertTrue("remap fraction when adding is " + fraction, fraction < 0.15);
+        // maglev is not perfectly minimal, a few clients may move between old servers
+        int toNew = 0;
+        for (int i = 0; i < CLIENTS; ++i) {
+            if (added[i] == 20010) {
+                ++toNew;
+            }
+        }
+        assertTrue("most clients should move to the new server: " + toNew + "/" + (int) (fraction * CLIENTS),
+            toNew > fraction * CLIENTS * 0.9);
+
+        sg.remove("svr3");
+        int[] removed = mapping();
+        fraction = remapFraction(added, removed);
+        // ideally 1/11
+        assertTrue("remap fraction when removing is " + fraction, fraction < 0.15);
+        for (int i = 0; i < CLIENTS; ++i) {
+            assertNotEquals(20003, removed[i]);
+        }
+
+        // compare with the `source` method
+        sg.setMethod(Method.source);
+        int[] sourceBefore = mapping();
+        addServer(3, 10);
+        double sourceFraction = remapFraction(sourceBefore, mapping());
+        assertTrue("source remaps " + sourceFraction + ", more than maglev " + fraction, sourceFraction > fraction);
+    }
+
+    @Test
+    public void maglevRemapOnHealthChange() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            addServer(i, 10);
+        }
+        int[] before = mapping();
+
+        handle(5).healthy = false;
+        int[] down = mapping();
+        Map<Integer, Integer> movedTo = new HashMap<>();
+        for (int i = 0; i < CLIENTS; ++i) {
+            if (before[i] == 20005) {
+                assertNotEquals(20005, down[i]);
+                movedTo.merge(down[i], 1, Integer::sum);
+            } else {
+                assertEquals("clients of healthy servers should not move", before[i], down[i]);
+            }
+        }
+        // spread to all other servers
+        assertEquals(9, movedTo.size());
+
+        handle(5).healthy = true;
+        assertEquals(0, remapFraction(before, mapping()), 0);
+
+        // all down
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = false;
+        }
+        assertNull(sg.next(client(1)));
+        // only one is up
+        handle(7).healthy = true;
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(20007, sg.next(client(i)).remote.getPort());
+        }
+    }
+
+    @Test
+    public void maglevWeight() throws Exception {
+        addServer(0, 10);
+        addServer(1, 10);
+        addServer(2, 20);
+        addServer(3, 0);
+        int[] m = mapping();
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int port : m) {
+            counts.merge(port, 1, Integer::sum);
+        }
+        assertNull("weight 0 should not be used", counts.get(20003));
+        double ratio = counts.get(20002) / (double) counts.get(20000);
+        assertTrue("ratio " + ratio + " should be close to 2", ratio > 1.7 && ratio < 2.3);
+
+        int[] before = m;
+        handle(2).setWeight(10);
+        double fraction = remapFraction(before, mapping());
+        // ideally 1/2 - 1/3
+        assertTrue("remap fraction when changing weight is " + fraction, fraction < 0.25);
+    }
+
+    @Test
+    public void p2c() throws Exception {
+        sg.setMethod(Method.p2c);
+        assertNull(sg.next(client(1)));
+
+        addServer(0, 10);
+        assertEquals(20000, sg.next(client(1)).remote.getPort());
+        handle(0).healthy = false;
+        assertNull(sg.next(client(1)));
+        handle(0).healthy = true;
+
+        for (int i = 1; i < 10; ++i) {
+            addServer(i, 10);
+        }
+        handle(3).healthy = false;
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 10000; ++i) {
+            counts.merge(sg.next(client(i)).remote.getPort(), 1, Integer::sum);
+        }
+        assertNull("unhealthy server should not be used", counts.get(20003));
+        assertEquals(9, counts.size());
+
+        // only one is up
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = false;
+        }
+        handle(7).healthy = true;
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(20007, sg.next(client(i)).remote.getPort());
+        }
+    }
+
+    @Test
+    public void p2cWeight() throws Exception {
+        sg.setMethod(Method.p2c);
+        addServer(0, 10);
+        addServer(1, 20);
+        addServer(2, 0);
+        // no connections, the greater weight always wins
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(20001, sg.next(client(i)).remote.getPort());
+        }
+    }
+
+    @Test
+    public void p2cConnections() throws Exception {
+        sg.setMethod(Method.p2c);
+        addServer(0, 10);
+        addServer(1, 10);
+
+        List<Connection> conns = new ArrayList<>();
+        try (ServerSocket backend = new ServerSocket()) {
+            backend.setReuseAddress(true);
+            backend.bind(new InetSocketAddress("127.0.0.1", 20000));
+            for (int i = 0; i < 10; ++i) {
+                conns.add(handle(0).makeConnector().connect(new ConnectionOpts(), RingBuffer.allocate(16), RingBuffer.allocate(16)));
+            }
+            assertEquals(10, handle(0).connectionCount());
+            assertEquals(0, handle(1).connectionCount());
+            // only two servers, so both are sampled and the one without connections always wins
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(20001, sg.next(client(i)).remote.getPort());
+            }
+
+            // one server with twice the weight of the other, 10 vs 4 connections:
+            // (10 + 1) * 10 > (4 + 1) * 20 so the less loaded server wins
+            handle(0).setWeight(20);
+            for (int i = 0; i < 4; ++i) {
+                conns.add(handle(1).makeConnector().connect(new ConnectionOpts(), RingBuffer.allocate(16), RingBuffer.allocate(16)));
+            }
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(20001, sg.next(client(i)).remote.getPort());
+            }
+            // (10 + 1) * 10 <= (5 + 1) * 20
+            conns.add(handle(1).makeConnector().connect(new ConnectionOpts(), RingBuffer.allocate(16), RingBuffer.allocate(16)));
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(20000, sg.next(client(i)).remote.getPort());
+            }
+        } finally {
+            for (Connection c : conns) {
+                c.close();
+            }
+        }
+        // counters are decreased when connections are closed
+        assertEquals(0, handle(0).connectionCount());
+        assertEquals(0, handle(1).connectionCount());
+    }
+
+    private static Upstream.ServerGroupHandle linearSearch(Upstream ups, Hint hint) {
+        int level = 0;
+        Upstream.ServerGroupHandle lastMax = null;
+        for (Upstream.ServerGroupHandle h : ups.getServerGroupHandles()) {
+            int l = hint.matchLevel(h.getAnnotations(), h.group.getAnnotations());
+            if (l > level) {
+                level = l;
+                lastMax = h;
+            }
+            if (l == Hint.MAX_MATCH_LEVEL) {
+                break;
+            }
+        }
+        return lastMax;
+    }
+
+    @Test
+    public void hintIndex() throws Exception {
+        Upstream ups = new Upstream("ups");
+        List<ServerGroup> groups = new ArrayList<>();
+        String[] hosts = {"example.com", "a.example.com", "b.a.example.com", "com", "example.net", "x.y.z", "a.example.com", "127.0.0.1"};
+        String[] ports = {null, "80", "443"};
+        Random rand = new Random(1);
+        for (int i = 0; i < 40; ++i) {
+            ServerGroup g = new ServerGroup("g" + i, elg,
+                new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+            groups.add(g);
+            Map<String, String> anno = new HashMap<>();
+            anno.put(AnnotationKeys.ServerGroup_HintHost, hosts[rand.nextInt(hosts.length)]);
+            String port = ports[rand.nextInt(ports.length)];
+            if (port != null) {
+                anno.put(AnnotationKeys.ServerGroup_HintPort, port);
+            }
+            Upstream.ServerGroupHandle h = ups.add(g, 10);
+            // put the annotations on the group or on the handle
+            if (i % 3 == 0) {
+                g.setAnnotations(anno);
+            } else if (i % 3 == 1) {
+                h.setAnnotations(anno);
+            } // else no annotations
+        }
+
+        String[] inputs = {"example.com", "a.example.com", "b.a.example.com", "c.b.a.example.com", "com", "net",
+            "example.net", "y.z", "z", "w.x.y.z", "example.org", "127.0.0.1", "0.1", "", "a.example.com.", "::1"};
+        Runnable check = () -> {
+            for (String input : inputs) {
+                for (String port : ports) {
+                    Hint hint = new Hint(port == null ? input : input + ":" + port);
+                    assertSame(hint.toString(), linearSearch(ups, hint), ups.searchForGroup(hint));
+                }
+            }
+        };
+        check.run();
+
+        // change annotations
+        groups.get(0).setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "y.z"));
+        assertSame(groups.get(0), ups.searchForGroup(new Hint("y.z")).group);
+        check.run();
+        ups.getServerGroupHandles().get(1).setAnnotations(null);
+        check.run();
+
+        // remove groups
+        for (int i = 0; i < groups.size(); i += 2) {
+            ups.remove(groups.get(i));
+        }
+        check.run();
+
+        for (ServerGroup g : groups) {
+            g.destroy();
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package vproxy.test.cases;
+
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.IPPort;
+import vproxy.component.app.TcpLB;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.util.ByteArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// frontend connections one after another share the same backend connection,
+// the request ids and stream ids are translated for each backend connection
+public class TestSharedBackendConnection {
+    private static final int lbPort = 18095;
+    private static final int backendPort = 20095;
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+    private TcpLB lb;
+    private ServerSocket backend;
+    private Thread backendAcceptor;
+    // connections which served requests, the health check connections are not counted
+    private final AtomicInteger backendConnections = new AtomicInteger();
+    // the request ids or stream ids received by the backend, in the form of connSeq:id
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+    private interface BackendServer {
+        void serve(DataInputStream in, OutputStream out) throws IOException;
+    }
+
+    private void start(String protocol, BackendServer server) throws Exception {
+        backend = new ServerSocket();
+        backend.bind(new InetSocketAddress("127.0.0.1", backendPort));
+        backendAcceptor = new Thread(() -> runBackend(server), "backend");
+        backendAcceptor.setDaemon(true);
+        backendAcceptor.start();
+
+        elg = new EventLoopGroup("elg0");
+        // one loop, so all frontend connections use the same pool
+        elg.add("el0");
+        sg = new ServerGroup("sg0", elg,
+            new HealthCheckConfig(400, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        sg.add("svr0", new IPPort("127.0.0.1", backendPort), 10).healthy = true;
+        Upstream ups = new Upstream("ups0");
+        ups.add(sg, 10);
+        lb = new TcpLB("lb0", elg, elg, new IPPort("127.0.0.1", lbPort), ups,
+            10_000, 16384, 16384, protocol, null, null, SecurityGroup.allowAll());
+        lb.start();
+    }
+
+    @Before
+    public void setUp() {
+        received.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (lb != null) {
+            lb.destroy();
+        }
+        if (sg != null) {
+            sg.destroy();
+        }
+        if (elg != null) {
+            elg.close();
+        }
+        if (backend != null) {
+            backend.close();
+            // the listening socket is released only after the blocking accept() returns
+            backendAcceptor.join();
+        }
+    }
+
+    private void runBackend(BackendServer server) {
+        while (!backend.isClosed()) {
+            Socket sock;
+            try {
+                sock = backend.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread t = new Thread(() -> {
+                try (sock) {
+                    server.serve(new DataInputStream(sock.getInputStream()), sock.getOutputStream());
+                } catch (IOException ignore) {
+                }
+            }, "backend");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private static Socket connect() throws IOException {
+        Socket sock = new Socket();
+        sock.setSoTimeout(2000);
+        sock.connect(new InetSocketAddress("127.0.0.1", lbPort));
+        return sock;
+    }
+
+    private static void closed(Socket sock) throws Exception {
+        sock.close();
+        // let the lb handle the closing of the frontend connection
+        Thread.sleep(200);
+    }
+
+    // ---------- dubbo ----------
+
+    private static byte[] dubbo(int flag, long id, String payload) {
+        byte[] p = payload.getBytes(StandardCharsets.UTF_8);
+        ByteArray head = ByteArray.from(new byte[16]);
+        head.set(0, (byte) 0xda);
+        head.set(1, (byte) 0xbb);
+        head.set(2, (byte) flag);
+        head.int64(4, id);
+        head.int32(12, p.length);
+        return head.concat(ByteArray.from(p)).toJavaArray();
+    }
+
+    // responds the sequence number of the backend connection
+    // requests with payload "noreply" are not responded
+    private void serveDubbo(DataInputStream in, OutputStream out) throws IOException {
+        int connSeq = 0;
+        while (true) {
+            byte[] head = new byte[16];
+            in.readFully(head);
+            if (connSeq == 0) {
+                connSeq = backendConnections.incrementAndGet();
+            }
+            ByteArray h = ByteArray.from(head);
+            byte[] payload = new byte[h.int32(12)];
+            in.readFully(payload);
+            long id = h.int64(4);
+            received.add(connSeq + ":" + id);
+            if (new String(payload, StandardCharsets.UTF_8).equals("noreply") || (head[2] & 0x40) == 0) {
+                continue;
+            }
+            out.write(dubbo(0x02, id, "" + connSeq));
+            out.flush();
+        }
+    }
+
+    // returns the payload of the response
+    private static String dubboRequest(Socket sock, long id, String payload) throws IOException {
+        sock.getOutputStream().write(dubbo(0xc2, id, payload));
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        byte[] head = new byte[16];
+        in.readFully(head);
+        ByteArray h = ByteArray.from(head);
+        assertEquals(0, head[2] & 0x80); // response
+        assertEquals(id, h.int64(4));
+        byte[] p = new byte[h.int32(12)];
+        in.readFully(p);
+        return new String(p, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void dubbo() throws Exception {
+        start("dubbo", this::serveDubbo);
+
+        Socket sock = connect();
+        assertEquals("1", dubboRequest(sock, 100, "a"));
+        assertEquals("1", dubboRequest(sock, 101, "b"));
+        closed(sock);
+
+        // the same request id as the previous frontend connection
+        sock = connect();
+        assertEquals("1", dubboRequest(sock, 100, "c"));
+        closed(sock);
+
+        assertEquals(1, backendConnections.get());
+        // the ids are allocated by the backend connection
+        assertEquals(List.of("1:1", "1:2", "1:3"), received);
+    }
+
+    @Test
+    public void dubboNotSharedWhenWaitingForResponse() throws Exception {
+        start("dubbo", this::serveDubbo);
+
+        Socket sock = connect();
+        assertEquals("1", dubboRequest(sock, 100, "a"));
+        sock.getOutputStream().write(dubbo(0xc2, 101, "noreply"));
+        Thread.sleep(200);
+        closed(sock);
+
+        sock = connect();
+        assertEquals("2", dubboRequest(sock, 100, "b"));
+        closed(sock);
+
+        assertEquals(2, backendConnections.get());
+    }
+
+    // ---------- framed-int32 ----------
+
+    private static byte[] framed(String payload) {
+        byte[] p = payload.getBytes(StandardCharsets.UTF_8);
+        ByteArray head = ByteArray.from(new byte[4]);
+        head.int32(0, p.length);
+        return head.concat(ByteArray.from(p)).toJavaArray();
+    }
+
+    private void serveFramed(DataInputStream in, OutputStream out) throws IOException {
+        int connSeq = 0;
+        while (true) {
+            int len = in.readInt();
+            if (connSeq == 0) {
+                connSeq = backendConnections.incrementAndGet();
+            }
+            byte[] payload = new byte[len];
+            in.readFully(payload);
+            received.add(connSeq + ":" + new String(payload, StandardCharsets.UTF_8));
+            out.write(framed("" + connSeq));
+            out.flush();
+        }
+    }
+
+    private static String framedRequest(Socket sock, String payload) throws IOException {
+        sock.getOutputStream().write(framed(payload));
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        byte[] p = new byte[in.readInt()];
+        in.readFully(p);
+        return new String(p, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void framedInt32() throws Exception {
+        start("framed-int32", this::serveFramed);
+
+        Socket sock = connect();
+        assertEquals("1", framedRequest(sock, "a"));
+        closed(sock);
+
+        sock = connect();
+        assertEquals("1", framedRequest(sock, "b"));
+        assertEquals("1", framedRequest(sock, "c"));
+        closed(sock);
+
+        assertEquals(1, backendConnections.get());
+        assertEquals(List.of("1:a", "1:b", "1:c"), received);
+    }
+
+    // ---------- h2 ----------
+
+    private static byte[] h2frame(int type, int flags, int streamId, byte[] payload) {
+        ByteArray head = ByteArray.from(new byte[9]);
+        head.int24(0, payload.length);
+        head.set(3, (byte) type);
+        head.set(4, (byte) flags);
+        head.int32(5, streamId);
+        return head.concat(ByteArray.from(payload)).toJavaArray();
+    }
+
+    // the SETTINGS frame must not be empty, the lib does not forward the result of feeding 0 bytes
+    private static byte[] h2settings(int id, int value) {
+        ByteArray payload = ByteArray.from(new byte[6]);
+        payload.int16(0, id);
+        payload.int32(2, value);
+        return h2frame(4, 0, 0, payload.toJavaArray());
+    }
+
+    private static class H2Frame {
+        int type;
+        int flags;
+        int streamId;
+        byte[] payload;
+    }
+
+    private static H2Frame readH2Frame(DataInputStream in) throws IOException {
+        byte[] head = new byte[9];
+        in.readFully(head);
+        ByteArray h = ByteArray.from(head);
+        H2Frame f = new H2Frame();
+        f.type = head[3];
+        f.flags = head[4];
+        f.streamId = h.int32(5);
+        f.payload = new byte[h.uint24(0)];
+        in.readFully(f.payload);
+        return f;
+    }
+
+    // responds the sequence number of the backend connection and the request path
+    private void serveH2(DataInputStream in, OutputStream out) throws IOException {
+        byte[] preface = new byte[PREFACE.length];
+        in.readFully(preface);
+        assertArrayEquals(PREFACE, preface);
+        int connSeq = backendConnections.incrementAndGet();
+        Decoder decoder = new Decoder(8192, 4096);
+        Encoder encoder = new Encoder(0); // vproxy asks the backend not to use the dynamic table
+        boolean settingsSent = false;
+        while (true) {
+            H2Frame f = readH2Frame(in);
+            if (f.type == 4 && (f.flags & 1) == 0) { // SETTINGS
+                if (!settingsSent) {
+                    settingsSent = true;
+                    out.write(h2settings(0x3, 100)); // MAX_CONCURRENT_STREAMS
+                }
+                out.write(h2frame(4, 1, 0, new byte[0]));
+                out.flush();
+            } else if (f.type == 1) { // HEADERS
+                assertNotEquals(0, f.flags & 0x4); // END_HEADERS
+                Map<String, String> headers = new HashMap<>();
+                decoder.decode(new ByteArrayInputStream(f.payload), (name, value, sensitive) ->
+                    headers.put(new String(name, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8)));
+                assertFalse(decoder.endHeaderBlock());
+                received.add(connSeq + ":" + f.streamId);
+
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                encoder.encodeHeader(block, ":status".getBytes(), "200".getBytes(), false);
+                out.write(h2frame(1, 0x4, f.streamId, block.toByteArray()));
+                out.write(h2frame(0, 0x1, f.streamId, (connSeq + headers.get(":path")).getBytes(StandardCharsets.UTF_8)));
+                out.flush();
+            }
+            // others are ignored
+        }
+    }
+
+    // returns the response body of a GET request on stream 1
+    private static String h2Request(Socket sock, String path) throws Exception {
+        OutputStream out = sock.getOutputStream();
+        Encoder encoder = new Encoder(4096);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encodeHeader(block, ":method".getBytes(), "GET".getBytes(), false);
+        encoder.encodeHeader(block, ":scheme".getBytes(), "http".getBytes(), false);
+        encoder.encodeHeader(block, ":authority".getBytes(), "example.com".getBytes(), false);
+        encoder.encodeHeader(block, ":path".getBytes(), path.getBytes(), false);
+        encoder.encodeHeader(block, "user-agent".getBytes(), "test".getBytes(), false);
+        out.write(PREFACE);
+        out.write(h2settings(0x2, 0)); // ENABLE_PUSH
+        out.write(h2frame(1, 0x4 | 0x1, 1, block.toByteArray()));
+        out.flush();
+
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        H2Frame f = readH2Frame(in);
+        // the server preface
+        assertEquals(4, f.type);
+        assertEquals(0, f.flags & 1);
+        out.write(h2frame(4, 1, 0, new byte[0]));
+        out.flush();
+
+        boolean headersReceived = false;
+        while (true) {
+            f = readH2Frame(in);
+            if (f.type == 1) {
+                assertEquals(1, f.streamId);
+                headersReceived = true;
+            } else if (f.type == 0) {
+                assertEquals(1, f.streamId);
+                assertTrue(headersReceived);
+                assertNotEquals(0, f.flags & 1); // END_STREAM
+                // the SETTINGS ack may still be pending to the backend,
+                // and a backend connection with pending data is not released into the pool
+                Thread.sleep(100);
+                return new String(f.payload, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    @Test
+    public void h2() throws Exception {
+        h2("h2");
+    }
+
+    @Test
+    public void h2WithHttpProtocol() throws Exception {
+        h2("http");
+    }
+
+    private void h2(String protocol) throws Exception {
+        start(protocol, this::serveH2);
+
+        Socket sock = connect();
+        assertEquals("1/a", h2Request(sock, "/a"));
+        closed(sock);
+
+        // the handshake is made by vproxy, and the stream id is shifted on the backend connection
+        sock = connect();
+        assertEquals("1/b", h2Request(sock, "/b"));
+        closed(sock);
+
+        sock = connect();
+        assertEquals("1/c", h2Request(sock, "/c"));
+        closed(sock);
+
+        assertEquals(1, backendConnections.get());
+        assertEquals(List.of("1:1", "1:3", "1:5"), received);
+    }
+}
@@ -143,6 +143,99 @@ public class TestTcpLB {
         // now we know that the lb can proxy data
     }
 
+    @Test
+    public void spliceProxy() throws Exception {
+        // splice only works on posix fds
+        // with other fds the lb falls back to normal buffers
+        // and the behavior should be the same
+        lb0.setSplice(true);
+        upstream0.add(sgEcho, 10);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append("hello there ").append(i).append("\n");
+        }
+        String large = sb.toString();
+
+        for (int i = 0; i < 3; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+
+            for (int j = 0; j < 3; ++j) {
+                String recv = client.sendAndRecv("hello there", 11);
+                assertEquals("the response should be the same as request", "hello there", recv);
+            }
+            // larger than the buffer
+            String recv = client.sendAndRecv(large, large.length());
+            assertEquals("the response should be the same as request", large, recv);
+
+            client.close();
+        }
+    }
+
+    @Test
+    public void bufferOnDemandProxy() throws Exception {
+        lb0.setBufferOnDemand(true);
+        upstream0.add(sgEcho, 10);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append("hello there ").append(i).append("\n");
+        }
+        String large = sb.toString();
+
+        for (int i = 0; i < 3; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+
+            for (int j = 0; j < 3; ++j) {
+                String recv = client.sendAndRecv("hello there", 11);
+                assertEquals("the response should be the same as request", "hello there", recv);
+            }
+            String recv = client.sendAndRecv(large, large.length());
+            assertEquals("the response should be the same as request", large, recv);
+
+            client.close();
+        }
+    }
+
+    @Test
+    public void shardedAccept() throws Exception {
+        if (!ServerSock.supportReusePort()) {
+            return; // cannot test on this platform
+        }
+        upstream0.add(sgEcho, 10);
+
+        EventLoopGroup elg1 = new EventLoopGroup("elg1");
+        elg1.add("el1");
+        elg1.add("el2");
+        TcpLB lb1 = new TcpLB("lb1", elg0, elg1,
+            new IPPort("127.0.0.1", lbPort + 1), upstream0,
+            Config.tcpTimeout, 16384, 16384, "tcp", null, null, secg0, true);
+        try {
+            lb1.start();
+            assertEquals("one listening socket on each worker loop", 2, lb1.servers.size());
+
+            int total = 20;
+            for (int i = 0; i < total; ++i) {
+                Client client = new Client(lbPort + 1);
+                client.connect();
+                String recv = client.sendAndRecv("hello", 5);
+                assertEquals("the response should be the same as request", "hello", recv);
+                client.close();
+            }
+
+            long accepted = 0;
+            for (ServerSock svr : lb1.servers.keySet()) {
+                accepted += svr.getHistoryAcceptedConnectionCount();
+            }
+            assertEquals("all connections should be accepted by the shards", total, accepted);
+        } finally {
+            lb1.destroy();
+            elg1.close();
+        }
+    }
+
     @Test
     public void proxyWRR() throws Exception {
         // add sg0 to ups0
@@ -0,0 +1,125 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.app.Config;
+import vproxy.util.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestTimeQueue {
+    private long originalTimestamp;
+
+    @Before
+    public void setUp() {
+        originalTimestamp = Config.currentTimestamp;
+    }
+
+    @After
+    public void tearDown() {
+        Config.currentTimestamp = originalTimestamp;
+    }
+
+    private static List<Integer> fire(TimeQueue<Integer> q) {
+        List<Integer> ls = new ArrayList<>();
+        while (q.nextTime() == 0) {
+            Integer n = q.pop();
+            assertNotNull(n);
+            ls.add(n);
+        }
+        ls.sort(Integer::compareTo);
+        return ls;
+    }
+
+    @Test
+    public void wheelFireAndCancel() {
+        Config.currentTimestamp = 1_000_000;
+        TimeQueue<Integer> q = new TimingWheelTimeQueue<>();
+        assertTrue(q.isEmpty());
+        assertEquals(Integer.MAX_VALUE, q.nextTime());
+
+        q.push(10, 1);
+        TimeElem<Integer> e2 = q.push(100, 2);
+        q.push(100_000, 3);
+        q.push(0, 4);
+        assertEquals(0, q.nextTime());
+        assertEquals(Collections.singletonList(4), fire(q));
+        assertEquals(10, q.nextTime());
+
+        Config.currentTimestamp += 10;
+        assertEquals(Collections.singletonList(1), fire(q));
+
+        e2.removeSelf();
+        e2.removeSelf(); // removing twice should be fine
+        Config.currentTimestamp += 1000;
+        assertEquals(Collections.emptyList(), fire(q));
+        assertFalse(q.isEmpty());
+
+        Config.currentTimestamp += 100_000;
+        assertEquals(Collections.singletonList(3), fire(q));
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void wheelSameAsHeap() {
+        Random rand = new Random(12345);
+        Config.currentTimestamp = 1_600_000_000_000L;
+        TimeQueue<Integer> wheel = new TimingWheelTimeQueue<>();
+        TimeQueue<Integer> heap = new PriorityTimeQueue<>();
+        Map<Integer, TimeElem<Integer>> wheelElems = new HashMap<>();
+        Map<Integer, TimeElem<Integer>> heapElems = new HashMap<>();
+
+        int id = 0;
+        for (int round = 0; round < 20_000; ++round) {
+            int ops = rand.nextInt(5);
+            for (int i = 0; i < ops; ++i) {
+                int timeout;
+                int r = rand.nextInt(10);
+                if (r < 5) {
+                    timeout = rand.nextInt(100);
+                } else if (r < 8) {
+                    timeout = rand.nextInt(10_000);
+                } else {
+                    timeout = rand.nextInt(20_000_000);
+                }
+                ++id;
+                wheelElems.put(id, wheel.push(timeout, id));
+                heapElems.put(id, heap.push(timeout, id));
+            }
+            if (!wheelElems.isEmpty() && rand.nextInt(3) == 0) {
+                int toRemove = 1 + rand.nextInt(id);
+                TimeElem<Integer> w = wheelElems.remove(toRemove);
+                TimeElem<Integer> h = heapElems.remove(toRemove);
+                if (w != null) {
+                    w.removeSelf();
+                    h.removeSelf();
+                }
+            }
+
+            int r = rand.nextInt(100);
+            if (r < 90) {
+                Config.currentTimestamp += rand.nextInt(50);
+            } else if (r < 99) {
+                Config.currentTimestamp += rand.nextInt(10_000);
+            } else {
+                Config.currentTimestamp += rand.nextInt(5_000_000);
+            }
+
+            List<Integer> firedByWheel = fire(wheel);
+            List<Integer> firedByHeap = fire(heap);
+            assertEquals("round " + round, firedByHeap, firedByWheel);
+            for (Integer n : firedByWheel) {
+                wheelElems.remove(n);
+                heapElems.remove(n);
+            }
+            assertEquals(heap.isEmpty(), wheel.isEmpty());
+            if (!heap.isEmpty()) {
+                // the wheel may wake up earlier for cascading, but never later
+                assertTrue(wheel.nextTime() <= heap.nextTime());
+            }
+        }
+    }
+}
@@ -75,4 +75,24 @@ public class TestTimer {
         Thread.sleep(500);
         assertEquals("still 3 alerts", 3, i[0]);
     }
+
+    @Test
+    public void closeHooks() throws Exception {
+        SelectorEventLoop loop2 = SelectorEventLoop.open();
+        loop2.loop(r -> new Thread(r, "EventLoop2"));
+        Thread[] ranOn = {null, null};
+        loop2.onClose(() -> ranOn[0] = Thread.currentThread());
+        loop2.close();
+        assertEquals("run on the loop thread", "EventLoop2", ranOn[0].getName());
+        // run immediately when the loop is already closed
+        loop2.onClose(() -> ranOn[1] = Thread.currentThread());
+        assertSame(Thread.currentThread(), ranOn[1]);
+
+        // the loop is not running
+        SelectorEventLoop loop3 = SelectorEventLoop.open();
+        int[] n = {0};
+        loop3.onClose(() -> ++n[0]);
+        loop3.close();
+        assertEquals(1, n[0]);
+    }
 }
@@ -19,6 +19,10 @@ public class EchoServerHandler implements Handler<ServerSocketFD> {
             ctx.remove();
             return;
         }
+        if (client == null) {
+            // no connection to accept, e.g. the readiness is emulated in edge-triggered mode
+            return;
+        }
         try {
             ctx.getEventLoop().add(client, EventSet.read(), null, new EchoClientHandler());
         } catch (IOException e) {